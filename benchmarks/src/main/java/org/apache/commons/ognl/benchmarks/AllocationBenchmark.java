@@ -0,0 +1,79 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.benchmarks;
+
+import org.apache.commons.ognl.Node;
+import org.apache.commons.ognl.Ognl;
+import org.apache.commons.ognl.OgnlContext;
+import org.apache.commons.ognl.OgnlException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady state interpretation of simple property chains and method calls, meant to be run with <code>-prof gc</code>:
+ * <code>gc.alloc.rate.norm</code> should stay at (about) zero bytes per operation.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class AllocationBenchmark
+{
+    @Param( { "name", "address.city", "address.city.length()", "isAdult()", "salute(#greeting)" } )
+    public String expression;
+
+    private Customer root;
+
+    private OgnlContext context;
+
+    private Node node;
+
+    @Setup
+    public void setUp( )
+        throws Exception
+    {
+        root = Customer.create( 10 );
+        context = (OgnlContext) Ognl.createDefaultContext( root );
+        context.put( "greeting", "hello" );
+        node = (Node) Ognl.parseExpression( expression );
+    }
+
+    @Benchmark
+    public Object getValue( )
+        throws OgnlException
+    {
+        return node.getValue( context, root );
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.benchmarks;
+
+import org.apache.commons.ognl.internal.CacheException;
+import org.apache.commons.ognl.internal.ClassCache;
+import org.apache.commons.ognl.internal.ClassCacheImpl;
+import org.apache.commons.ognl.internal.ConcurrentHashMapClassCache;
+import org.apache.commons.ognl.internal.LockFreeClassCache;
+import org.apache.commons.ognl.internal.ReentrantReadWriteLockClassCache;
+import org.apache.commons.ognl.internal.WeakClassCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Array;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link ClassCache} implementations under contention, holding as many classes as a mid-sized application
+ * would. Every thread walks the classes from its own offset; one access in sixteen is a write.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@Threads( 8 )
+public class ClassCacheBenchmark
+{
+    @Param( { "ClassCacheImpl", "ConcurrentHashMapClassCache", "ReentrantReadWriteLockClassCache",
+        "LockFreeClassCache", "WeakClassCache" } )
+    public String implementation;
+
+    @Param( { "2000" } )
+    public int classCount;
+
+    private ClassCache<String> cache;
+
+    private Class<?>[] classes;
+
+    @State( Scope.Thread )
+    public static class Cursor
+    {
+        int index = (int) ( Math.random( ) * Integer.MAX_VALUE );
+    }
+
+    @Setup
+    public void setUp( )
+    {
+        if ( "ClassCacheImpl".equals( implementation ) )
+        {
+            cache = new ClassCacheImpl<String>( );
+        }
+        else if ( "ConcurrentHashMapClassCache".equals( implementation ) )
+        {
+            cache = new ConcurrentHashMapClassCache<String>( null );
+        }
+        else if ( "ReentrantReadWriteLockClassCache".equals( implementation ) )
+        {
+            cache = new ReentrantReadWriteLockClassCache<String>( null );
+        }
+        else if ( "LockFreeClassCache".equals( implementation ) )
+        {
+            cache = new LockFreeClassCache<String>( );
+        }
+        else
+        {
+            cache = new WeakClassCache<String>( null );
+        }
+
+        Class<?>[] components = { Object.class, String.class, Integer.class, Long.class, Double.class, Byte.class,
+            Short.class, Character.class, Boolean.class, Float.class };
+        classes = new Class<?>[classCount];
+        for ( int i = 0; i < classCount; i++ )
+        {
+            Class<?> component = components[i % components.length];
+            classes[i] = Array.newInstance( component, new int[1 + i / components.length] ).getClass( );
+            cache.put( classes[i], classes[i].getName( ) );
+        }
+    }
+
+    @Benchmark
+    public String get( Cursor cursor )
+        throws CacheException
+    {
+        return cache.get( classes[( cursor.index++ & Integer.MAX_VALUE ) % classCount] );
+    }
+
+    @Benchmark
+    public String readMostly( Cursor cursor )
+        throws CacheException
+    {
+        int i = cursor.index++ & Integer.MAX_VALUE;
+        Class<?> c = classes[i % classCount];
+        if ( ( i & 15 ) == 0 )
+        {
+            return cache.put( c, c.getName( ) );
+        }
+        return cache.get( c );
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Root object shared by the benchmarks.
+ */
+public class Customer
+{
+    private String name;
+
+    private int age;
+
+    private Address address;
+
+    private List<Integer> orders = new ArrayList<Integer>( );
+
+    public Customer( String name, int age, Address address )
+    {
+        this.name = name;
+        this.age = age;
+        this.address = address;
+    }
+
+    /**
+     * @return a customer with <code>orderCount</code> orders of increasing amounts
+     */
+    public static Customer create( int orderCount )
+    {
+        Customer customer = new Customer( "Jane", 42, new Address( "Rome", "00100" ) );
+        for ( int i = 0; i < orderCount; i++ )
+        {
+            customer.getOrders( ).add( i );
+        }
+        return customer;
+    }
+
+    public String getName( )
+    {
+        return name;
+    }
+
+    public void setName( String name )
+    {
+        this.name = name;
+    }
+
+    public int getAge( )
+    {
+        return age;
+    }
+
+    public void setAge( int age )
+    {
+        this.age = age;
+    }
+
+    public Address getAddress( )
+    {
+        return address;
+    }
+
+    public List<Integer> getOrders( )
+    {
+        return orders;
+    }
+
+    public String greet( String greeting, int times )
+    {
+        StringBuilder sb = new StringBuilder( );
+        for ( int i = 0; i < times; i++ )
+        {
+            sb.append( greeting );
+        }
+        return sb.append( name ).toString( );
+    }
+
+    public String salute( String greeting )
+    {
+        return greeting;
+    }
+
+    public boolean isAdult( )
+    {
+        return age >= 18;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.benchmarks;
+
+import org.apache.commons.ognl.Node;
+import org.apache.commons.ognl.Ognl;
+import org.apache.commons.ognl.OgnlContext;
+import org.apache.commons.ognl.OgnlException;
+import org.apache.commons.ognl.ReflectiveExpressionCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpreted and compiled evaluation of pre-parsed expressions against the same root. The compiled variant goes
+ * through {@link Ognl#compileExpression(OgnlContext, Object, String)} and calls the generated accessor directly, the
+ * linked variant calls the accessor built by {@link ReflectiveExpressionCompiler}.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class EvaluationBenchmark
+{
+    @Param( { "name", "address.city", "greet(\"hi \", 2)", "age > 18 && name != null ? orders.size() : -1",
+        "age * 2 + 1" } )
+    public String expression;
+
+    private Customer root;
+
+    private OgnlContext context;
+
+    private Node interpreted;
+
+    private Node compiled;
+
+    private Node linked;
+
+    private Node name;
+
+    @Setup
+    public void setUp( )
+        throws Exception
+    {
+        root = Customer.create( 100 );
+        context = (OgnlContext) Ognl.createDefaultContext( root );
+        interpreted = (Node) Ognl.parseExpression( expression );
+        compiled = Ognl.compileExpression( context, root, expression );
+        linked = (Node) Ognl.parseExpression( expression );
+        new ReflectiveExpressionCompiler( ).compileExpression( context, linked, root );
+        name = (Node) Ognl.parseExpression( "name" );
+    }
+
+    @Benchmark
+    public Object interpretedGet( )
+        throws OgnlException
+    {
+        return interpreted.getValue( context, root );
+    }
+
+    @Benchmark
+    public Object compiledGet( )
+    {
+        return compiled.getAccessor( ).get( context, root );
+    }
+
+    @Benchmark
+    public Object linkedGet( )
+    {
+        return linked.getAccessor( ).get( context, root );
+    }
+
+    @Benchmark
+    public void interpretedSet( )
+        throws OgnlException
+    {
+        name.setValue( context, root, "John" );
+    }
+
+    @Benchmark
+    public Object stringGetValue( )
+        throws OgnlException
+    {
+        return Ognl.getValue( expression, context, root );
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.benchmarks;
+
+import org.apache.commons.ognl.OgnlOps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Arithmetic and comparisons of {@link OgnlOps} over the numeric types OGNL promotes between.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class OgnlOpsBenchmark
+{
+    @Param( { "int", "long", "double", "bigint", "bigdec", "int-double", "string" } )
+    public String types;
+
+    private Object left;
+
+    private Object right;
+
+    @Setup
+    public void setUp( )
+    {
+        if ( "int".equals( types ) )
+        {
+            left = 42;
+            right = 7;
+        }
+        else if ( "long".equals( types ) )
+        {
+            left = 42L;
+            right = 7L;
+        }
+        else if ( "double".equals( types ) )
+        {
+            left = 42.5d;
+            right = 7.25d;
+        }
+        else if ( "bigint".equals( types ) )
+        {
+            left = BigInteger.valueOf( 42 );
+            right = BigInteger.valueOf( 7 );
+        }
+        else if ( "bigdec".equals( types ) )
+        {
+            left = new BigDecimal( "42.5" );
+            right = new BigDecimal( "7.25" );
+        }
+        else if ( "int-double".equals( types ) )
+        {
+            left = 42;
+            right = 7.25d;
+        }
+        else
+        {
+            left = "42";
+            right = "7";
+        }
+    }
+
+    @Benchmark
+    public Object add( )
+    {
+        return OgnlOps.add( left, right );
+    }
+
+    @Benchmark
+    public Object multiply( )
+    {
+        return OgnlOps.multiply( left, right );
+    }
+
+    @Benchmark
+    public boolean equal( )
+    {
+        return OgnlOps.equal( left, right );
+    }
+
+    @Benchmark
+    public boolean less( )
+    {
+        return OgnlOps.less( left, right );
+    }
+}
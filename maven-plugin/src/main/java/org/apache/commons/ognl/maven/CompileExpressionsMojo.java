@@ -0,0 +1,293 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.maven;
+
+import org.apache.commons.ognl.ClassResolver;
+import org.apache.commons.ognl.Ognl;
+import org.apache.commons.ognl.OgnlContext;
+import org.apache.commons.ognl.enhance.AccessorBundleCompiler;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the expressions listed in a manifest into a jar of accessors, loaded at run time by
+ * {@link org.apache.commons.ognl.enhance.PrecompiledExpressionCompiler}.
+ * <p>
+ * Each line of the manifest holds a root and an expression, separated by white space. Blank lines and lines starting
+ * with <code>#</code> are ignored. The root is either the fully qualified name of a class with a public no argument
+ * constructor, or <code>class#method</code> naming a public static no argument factory method of a class. A new
+ * sample root is created that way for every expression, and the accessor is indexed under the class of the created
+ * object:
+ * </p>
+ * <pre>
+ * com.example.Order                         customer.name
+ * com.example.SampleRoots#completeOrder     customer.address.city
+ * </pre>
+ * <p>
+ * The accessors are generated as at run time, by evaluating each expression against its sample root: every property
+ * of a chain must be non null on the sample root, otherwise the expression fails with "evaluation resulted in null
+ * expression". Roots whose constructor leaves such properties null need a factory method building a fully populated
+ * root. Getters and methods of the expression are called while compiling, on the sample root only.
+ * </p>
+ *
+ * @goal compile-expressions
+ * @phase process-classes
+ * @requiresDependencyResolution compile
+ * @threadSafe
+ */
+public class CompileExpressionsMojo
+    extends AbstractMojo
+{
+    /**
+     * The manifest of the expressions to compile.
+     *
+     * @parameter expression="${ognl.manifest}" default-value="${basedir}/src/main/ognl/expressions.txt"
+     */
+    private File manifest;
+
+    /**
+     * The jar to write.
+     *
+     * @parameter expression="${ognl.outputFile}"
+     *            default-value="${project.build.directory}/${project.build.finalName}-ognl-accessors.jar"
+     */
+    private File outputFile;
+
+    /**
+     * The fully qualified name of the accessor classes, before their number; defaults to a name derived from the
+     * project coordinates so that the bundles of several projects can share a class path.
+     *
+     * @parameter expression="${ognl.classNamePrefix}"
+     */
+    private String classNamePrefix;
+
+    /**
+     * Whether an expression failing to compile fails the build, or is only logged and left to be compiled at run time.
+     *
+     * @parameter expression="${ognl.failOnError}" default-value="true"
+     */
+    private boolean failOnError;
+
+    /**
+     * Whether to attach the jar to the project, with the <code>ognl-accessors</code> classifier.
+     *
+     * @parameter default-value="true"
+     */
+    private boolean attach;
+
+    /**
+     * @parameter default-value="${project}"
+     * @required
+     * @readonly
+     */
+    private MavenProject project;
+
+    /**
+     * @component
+     */
+    private MavenProjectHelper projectHelper;
+
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( !manifest.isFile() )
+        {
+            getLog().info( "No OGNL expression manifest at " + manifest + ", skipping." );
+            return;
+        }
+
+        final ClassLoader loader = createProjectClassLoader();
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null, new ClassResolver()
+        {
+            public Class<?> classForName( String className, Map<String, Object> context )
+                throws ClassNotFoundException
+            {
+                return Class.forName( className, true, loader );
+            }
+        } );
+
+        AccessorBundleCompiler bundle = new AccessorBundleCompiler( getClassNamePrefix() );
+        int failures = 0;
+
+        Thread thread = Thread.currentThread();
+        ClassLoader previousLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader( loader );
+        try
+        {
+            BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( manifest ), "UTF-8" ) );
+            try
+            {
+                int lineNumber = 0;
+                for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+                {
+                    lineNumber++;
+                    line = line.trim();
+                    if ( ( line.length() == 0 ) || line.startsWith( "#" ) )
+                    {
+                        continue;
+                    }
+
+                    String[] entry = line.split( "\\s+", 2 );
+                    if ( entry.length < 2 )
+                    {
+                        throw new MojoFailureException( manifest + ":" + lineNumber + ": expected a root class and "
+                            + "an expression" );
+                    }
+
+                    try
+                    {
+                        bundle.compile( context, entry[1], createRoot( loader, entry[0] ) );
+                    }
+                    catch ( Exception e )
+                    {
+                        String message = manifest + ":" + lineNumber + ": unable to compile " + entry[1] + " for "
+                            + entry[0] + ": " + e;
+                        if ( failOnError )
+                        {
+                            throw new MojoFailureException( message );
+                        }
+                        getLog().warn( message );
+                        failures++;
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+
+            File directory = outputFile.getParentFile();
+            if ( ( directory != null ) && !directory.isDirectory() && !directory.mkdirs() )
+            {
+                throw new MojoExecutionException( "Unable to create " + directory );
+            }
+            bundle.writeJar( new FileOutputStream( outputFile ) );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to compile the expressions of " + manifest, e );
+        }
+        finally
+        {
+            thread.setContextClassLoader( previousLoader );
+        }
+
+        getLog().info( "Compiled " + bundle.getAccessorCount() + " OGNL expression accessors into " + outputFile
+            + ( ( failures > 0 ) ? ", " + failures + " expressions left to run time compilation" : "" ) );
+
+        if ( attach )
+        {
+            projectHelper.attachArtifact( project, "jar", "ognl-accessors", outputFile );
+        }
+    }
+
+    /**
+     * Creates a new sample root, a root changed by the compilation of an expression is never used for the next one.
+     */
+    private Object createRoot( ClassLoader loader, String root )
+        throws Exception
+    {
+        int separator = root.indexOf( '#' );
+        if ( separator < 0 )
+        {
+            return Class.forName( root, true, loader ).newInstance();
+        }
+
+        Method factory = Class.forName( root.substring( 0, separator ), true, loader ).getMethod(
+            root.substring( separator + 1 ) );
+        if ( !Modifier.isStatic( factory.getModifiers() ) )
+        {
+            throw new IllegalArgumentException( root + " is not a static factory method" );
+        }
+        Object result = factory.invoke( null );
+        if ( result == null )
+        {
+            throw new IllegalArgumentException( root + " returned null" );
+        }
+        return result;
+    }
+
+    private ClassLoader createProjectClassLoader()
+        throws MojoExecutionException
+    {
+        try
+        {
+            @SuppressWarnings( "unchecked" ) // maven 2 API
+            List<String> elements = project.getCompileClasspathElements();
+            URL[] urls = new URL[elements.size()];
+            for ( int i = 0; i < urls.length; i++ )
+            {
+                urls[i] = new File( elements.get( i ) ).toURI().toURL();
+            }
+            return new URLClassLoader( urls, getClass().getClassLoader() );
+        }
+        catch ( DependencyResolutionRequiredException e )
+        {
+            throw new MojoExecutionException( "Unable to resolve the compile class path", e );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Invalid compile class path", e );
+        }
+    }
+
+    private String getClassNamePrefix()
+    {
+        if ( classNamePrefix != null )
+        {
+            return classNamePrefix;
+        }
+
+        StringBuilder result = new StringBuilder();
+        for ( String part : ( project.getGroupId() + "." + project.getArtifactId() ).split( "[.]" ) )
+        {
+            if ( part.length() == 0 )
+            {
+                continue;
+            }
+            result.append( Character.isJavaIdentifierStart( part.charAt( 0 ) ) ? "" : "_" );
+            for ( char c : part.toCharArray() )
+            {
+                result.append( Character.isJavaIdentifierPart( c ) ? c : '_' );
+            }
+            result.append( '.' );
+        }
+        return result.append( "ognl.Accessor" ).toString();
+    }
+}
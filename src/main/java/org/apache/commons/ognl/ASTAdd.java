@@ -52,7 +52,7 @@ class ASTAdd
         Object result = _children[0].getValue( context, source );
 
         for ( int i = 1; i < _children.length; ++i )
-            result = OgnlOps.add( result, _children[i].getValue( context, source ) );
+            result = getTypeFeedback().add( result, _children[i].getValue( context, source ) );
 
         return result;
     }
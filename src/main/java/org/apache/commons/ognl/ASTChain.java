@@ -108,13 +108,13 @@ public class ASTChain
                                             i++;
                                             break;
                                         case DynamicSubscript.FIRST:
-                                            index = new Integer( ( len > 0 ) ? 0 : -1 );
+                                            index = Integer.valueOf( ( len > 0 ) ? 0 : -1 );
                                             break;
                                         case DynamicSubscript.MID:
-                                            index = new Integer( ( len > 0 ) ? ( len / 2 ) : -1 );
+                                            index = Integer.valueOf( ( len > 0 ) ? ( len / 2 ) : -1 );
                                             break;
                                         case DynamicSubscript.LAST:
-                                            index = new Integer( ( len > 0 ) ? ( len - 1 ) : -1 );
+                                            index = Integer.valueOf( ( len > 0 ) ? ( len - 1 ) : -1 );
                                             break;
                                     }
                                 }
@@ -187,13 +187,13 @@ public class ASTChain
                                             i++;
                                             break;
                                         case DynamicSubscript.FIRST:
-                                            index = new Integer( ( len > 0 ) ? 0 : -1 );
+                                            index = Integer.valueOf( ( len > 0 ) ? 0 : -1 );
                                             break;
                                         case DynamicSubscript.MID:
-                                            index = new Integer( ( len > 0 ) ? ( len / 2 ) : -1 );
+                                            index = Integer.valueOf( ( len > 0 ) ? ( len / 2 ) : -1 );
                                             break;
                                         case DynamicSubscript.LAST:
-                                            index = new Integer( ( len > 0 ) ? ( len - 1 ) : -1 );
+                                            index = Integer.valueOf( ( len > 0 ) ? ( len - 1 ) : -1 );
                                             break;
                                     }
                                 }
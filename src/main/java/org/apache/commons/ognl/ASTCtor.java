@@ -53,6 +53,11 @@ public class ASTCtor
         this.className = className;
     }
 
+    String getClassName()
+    {
+        return className;
+    }
+
     void setArray( boolean value )
     {
         isArray = value;
@@ -41,7 +41,7 @@ class ASTDivide
     {
         Object v1 = _children[0].getValue( context, source );
         Object v2 = _children[1].getValue( context, source );
-        return OgnlOps.divide( v1, v2 );
+        return getTypeFeedback().divide( v1, v2 );
     }
 
     public String getExpressionOperator( int index )
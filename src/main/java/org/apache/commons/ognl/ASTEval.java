@@ -19,6 +19,7 @@
  */
 package org.apache.commons.ognl;
 
+import org.apache.commons.ognl.enhance.ExpressionCompiler;
 import org.apache.commons.ognl.enhance.UnsupportedCompilationException;
 
 /**
@@ -85,7 +86,25 @@ class ASTEval
 
     public String toGetSourceString( OgnlContext context, Object target )
     {
-        throw new UnsupportedCompilationException( "Eval expressions not supported as native java yet." );
+        // the expression to evaluate is only known at runtime, the compiled source hands it to the interpreter
+        if ( ASTChain.class.isInstance( _parent ) && _parent.jjtGetChild( _parent.jjtGetNumChildren() - 1 ) != this )
+        {
+            throw new UnsupportedCompilationException( "Eval expressions can only end a compiled chain." );
+        }
+
+        String result = ExpressionCompiler.getNodeValueSource( context, this, Object.class );
+        try
+        {
+            context.setCurrentObject( getValue( context, target ) );
+        }
+        catch ( OgnlException e )
+        {
+            throw OgnlOps.castToRuntime( e );
+        }
+        context.setCurrentType( Object.class );
+        context.setCurrentAccessor( Object.class );
+
+        return result;
     }
 
     public String toSetSourceString( OgnlContext context, Object target )
@@ -42,7 +42,7 @@ class ASTGreater
         Object v1 = _children[0].getValue( context, source );
         Object v2 = _children[1].getValue( context, source );
 
-        return OgnlOps.greater( v1, v2 ) ? Boolean.TRUE : Boolean.FALSE;
+        return getTypeFeedback().compare( v1, v2 ) > 0 ? Boolean.TRUE : Boolean.FALSE;
     }
 
     public String getExpressionOperator( int index )
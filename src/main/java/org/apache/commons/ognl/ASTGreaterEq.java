@@ -41,7 +41,7 @@ class ASTGreaterEq
     {
         Object v1 = _children[0].getValue( context, source );
         Object v2 = _children[1].getValue( context, source );
-        return OgnlOps.less( v1, v2 ) ? Boolean.FALSE : Boolean.TRUE;
+        return getTypeFeedback().compare( v1, v2 ) < 0 ? Boolean.FALSE : Boolean.TRUE;
     }
 
     public String getExpressionOperator( int index )
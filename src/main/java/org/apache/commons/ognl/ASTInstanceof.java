@@ -44,6 +44,11 @@ public class ASTInstanceof
         this.targetType = targetType;
     }
 
+    String getTargetType()
+    {
+        return targetType;
+    }
+
     protected Object getValueBody( OgnlContext context, Object source )
         throws OgnlException
     {
@@ -21,6 +21,7 @@ package org.apache.commons.ognl;
 
 import org.apache.commons.ognl.enhance.UnsupportedCompilationException;
 
+import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -28,7 +29,7 @@ import java.util.Map;
  * @author Luke Blanshard (blanshlu@netscape.net)
  * @author Drew Davidson (drew@ognl.org)
  */
-class ASTMap
+public class ASTMap
     extends SimpleNode
 {
 
@@ -130,7 +131,59 @@ class ASTMap
 
     public String toGetSourceString( OgnlContext context, Object target )
     {
-        throw new UnsupportedCompilationException( "Map expressions not supported as native java yet." );
+        Class mapClass;
+        try
+        {
+            mapClass = ( className == null ) ? DEFAULT_MAP_CLASS : OgnlRuntime.classForName( context, className );
+            if ( !Modifier.isPublic( mapClass.getModifiers() )
+                || !Modifier.isPublic( mapClass.getConstructor().getModifiers() ) )
+            {
+                throw new UnsupportedCompilationException( "Map class " + mapClass + " can't be instantiated." );
+            }
+        }
+        catch ( Exception ex )
+        {
+            throw OgnlOps.castToRuntime( ex );
+        }
+
+        StringBuilder result = new StringBuilder( "((" ).append( mapClass.getName() )
+            .append( ")org.apache.commons.ognl.OgnlOps.putAll(new " ).append( mapClass.getName() )
+            .append( "(), new Object[] { " );
+        try
+        {
+            for ( int i = 0; i < jjtGetNumChildren(); ++i )
+            {
+                ASTKeyValue kv = (ASTKeyValue) _children[i];
+                Node k = kv.getKey(), v = kv.getValue();
+
+                if ( i > 0 )
+                {
+                    result.append( ", " );
+                }
+                result.append( " ($w) (" ).append( OgnlRuntime.getChildSource( context, target, k ) ).append( "), " );
+                result.append( ( v == null ) ? "null"
+                                : " ($w) (" + OgnlRuntime.getChildSource( context, target, v ) + ")" );
+            }
+        }
+        catch ( Throwable t )
+        {
+            throw OgnlOps.castToRuntime( t );
+        }
+        result.append( "}))" );
+
+        try
+        {
+            context.setCurrentObject( getValue( context, target ) );
+        }
+        catch ( OgnlException ex )
+        {
+            throw OgnlOps.castToRuntime( ex );
+        }
+        context.setCurrentType( mapClass );
+        // the literal is not a member of the previous value, nothing to cast
+        context.setCurrentAccessor( null );
+
+        return result.toString();
     }
 
     public String toSetSourceString( OgnlContext context, Object target )
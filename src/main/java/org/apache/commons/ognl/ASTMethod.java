@@ -72,6 +72,8 @@ public class ASTMethod
 
     private Class _getterClass;
 
+    private transient volatile InlineCache _inlineCache;
+
     public ASTMethod( int id )
     {
         super( id );
@@ -99,7 +101,7 @@ public class ASTMethod
     protected Object getValueBody( OgnlContext context, Object source )
         throws OgnlException
     {
-        Object[] args = OgnlRuntime.getObjectArrayPool().create( jjtGetNumChildren() );
+        Object[] args = context.acquireArguments( jjtGetNumChildren() );
 
         try
         {
@@ -110,12 +112,24 @@ public class ASTMethod
                 args[i] = _children[i].getValue( context, root );
             }
 
-            result = OgnlRuntime.callMethod( context, source, _methodName, args );
+            InlineCache cache = _inlineCache;
+            if ( cache == null )
+            {
+                _inlineCache = cache = new InlineCache();
+            }
+
+            result = OgnlRuntime.callCachedMethod( cache, context, source, _methodName, args );
+
+            if ( result == OgnlRuntime.NotFound )
+            {
+                result = OgnlRuntime.callMethod( context, source, _methodName, args, true );
+            }
 
             if ( result == null )
             {
                 NullHandler nh = OgnlRuntime.getNullHandler( OgnlRuntime.getTargetClass( source ) );
-                result = nh.nullMethodResult( context, source, _methodName, args );
+                result = nh.nullMethodResult( context, source, _methodName,
+                                              OgnlRuntime.argumentsFor( nh, ObjectNullHandler.class, args ) );
             }
 
             return result;
@@ -123,7 +137,7 @@ public class ASTMethod
         }
         finally
         {
-            OgnlRuntime.getObjectArrayPool().recycle( args );
+            context.releaseArguments( args );
         }
     }
 
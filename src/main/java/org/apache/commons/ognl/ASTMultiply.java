@@ -47,7 +47,7 @@ class ASTMultiply
     {
         Object result = _children[0].getValue( context, source );
         for ( int i = 1; i < _children.length; ++i )
-            result = OgnlOps.multiply( result, _children[i].getValue( context, source ) );
+            result = getTypeFeedback().multiply( result, _children[i].getValue( context, source ) );
         return result;
     }
 
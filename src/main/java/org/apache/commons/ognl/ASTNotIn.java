@@ -29,6 +29,9 @@ class ASTNotIn
     extends SimpleNode
     implements NodeType
 {
+    /** Set on first evaluation, see {@link InIndex}. */
+    private transient volatile InIndex _index;
+
     public ASTNotIn( int id )
     {
         super( id );
@@ -43,8 +46,19 @@ class ASTNotIn
         throws OgnlException
     {
         Object v1 = _children[0].getValue( context, source );
-        Object v2 = _children[1].getValue( context, source );
-        return OgnlOps.in( v1, v2 ) ? Boolean.FALSE : Boolean.TRUE;
+
+        InIndex index = _index;
+        if ( index == null )
+        {
+            _index = index = InIndex.create( context, _children[1], source );
+        }
+
+        Boolean result = index.contains( v1 );
+        if ( result == null )
+        {
+            result = OgnlOps.in( v1, _children[1].getValue( context, source ) ) ? Boolean.TRUE : Boolean.FALSE;
+        }
+        return result.booleanValue() ? Boolean.FALSE : Boolean.TRUE;
     }
 
     public String toString()
@@ -21,10 +21,6 @@ package org.apache.commons.ognl;
 
 import org.apache.commons.ognl.enhance.UnsupportedCompilationException;
 
-import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.List;
-
 /**
  * @author Luke Blanshard (blanshlu@netscape.net)
  * @author Drew Davidson (drew@ognl.org)
@@ -46,18 +42,8 @@ class ASTProject
     protected Object getValueBody( OgnlContext context, Object source )
         throws OgnlException
     {
-        Node expr = _children[0];
-        List answer = new ArrayList();
-
-        ElementsAccessor elementsAccessor = OgnlRuntime.getElementsAccessor( OgnlRuntime.getTargetClass( source ) );
-
-        for ( Enumeration e = elementsAccessor.getElements( source ); e.hasMoreElements(); )
-        {
-
-            answer.add( expr.getValue( context, e.nextElement() ) );
-        }
-
-        return answer;
+        return ElementsEvaluator.evaluate( context, this, ElementsEvaluator.PROJECT, _children[0].getAccessor(),
+                                           source );
     }
 
     public String toString()
@@ -67,7 +53,7 @@ class ASTProject
 
     public String toGetSourceString( OgnlContext context, Object target )
     {
-        throw new UnsupportedCompilationException( "Projection expressions not supported as native java yet." );
+        return ElementsEvaluator.toGetSourceString( context, this, target );
     }
 
     public String toSetSourceString( OgnlContext context, Object target )
@@ -41,6 +41,10 @@ public class ASTProperty
 
     private Class _setterClass;
 
+    private transient volatile InlineCache _inlineCache;
+
+    private transient volatile InlineCache _indexedTypeCache;
+
     public ASTProperty( int id )
     {
         super( id );
@@ -76,10 +80,31 @@ public class ASTProperty
 
                 if ( property instanceof String )
                 {
-                    return OgnlRuntime.getIndexedPropertyType( context,
-                                                               ( source == null ) ? null
-                                                                               : OgnlRuntime.getCompiler().getInterfaceClass( source.getClass() ),
-                                                               (String) property );
+                    if ( source == null || !( _children[0] instanceof ASTConst ) )
+                    {
+                        return OgnlRuntime.getIndexedPropertyType( context,
+                                                                   ( source == null ) ? null
+                                                                                   : OgnlRuntime.getCompiler().getInterfaceClass( source.getClass() ),
+                                                                   (String) property );
+                    }
+
+                    // the property name is constant, so the answer only depends on the class of the source
+                    InlineCache cache = _indexedTypeCache;
+                    if ( cache == null )
+                    {
+                        _indexedTypeCache = cache = new InlineCache();
+                    }
+
+                    Class<?> sourceClass = source.getClass();
+                    Integer indexType = (Integer) cache.get( sourceClass, null );
+                    if ( indexType == null )
+                    {
+                        indexType = OgnlRuntime.getIndexedPropertyType( context,
+                                                                        OgnlRuntime.getCompiler().getInterfaceClass( sourceClass ),
+                                                                        (String) property );
+                        cache.put( sourceClass, null, indexType );
+                    }
+                    return indexType;
                 }
             }
 
@@ -88,7 +113,11 @@ public class ASTProperty
         finally
         {
             context.setCurrentObject( source );
-            context.setCurrentType( type );
+            // setCurrentType() pushes on the type stack, only do it when the type really has to be restored
+            if ( context.getCurrentType() != type )
+            {
+                context.setCurrentType( type );
+            }
             context.setPreviousType( prevType );
         }
     }
@@ -104,7 +133,22 @@ public class ASTProperty
     {
         Object property = getProperty( context, source );
 
-        Object result = OgnlRuntime.getProperty( context, source, property );
+        Object result = OgnlRuntime.NotFound;
+
+        if ( !_indexedAccess && ( property instanceof String ) && ( _children[0] instanceof ASTConst ) )
+        {
+            InlineCache cache = _inlineCache;
+            if ( cache == null )
+            {
+                _inlineCache = cache = new InlineCache();
+            }
+            result = OgnlRuntime.getCachedProperty( cache, context, source, (String) property );
+        }
+
+        if ( result == OgnlRuntime.NotFound )
+        {
+            result = OgnlRuntime.getProperty( context, source, property );
+        }
 
         if ( result == null )
         {
@@ -21,10 +21,6 @@ package org.apache.commons.ognl;
 
 import org.apache.commons.ognl.enhance.UnsupportedCompilationException;
 
-import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.List;
-
 /**
  * @author Luke Blanshard (blanshlu@netscape.net)
  * @author Drew Davidson (drew@ognl.org)
@@ -45,21 +41,8 @@ class ASTSelectFirst
     protected Object getValueBody( OgnlContext context, Object source )
         throws OgnlException
     {
-        Node expr = _children[0];
-        List answer = new ArrayList();
-        ElementsAccessor elementsAccessor = OgnlRuntime.getElementsAccessor( OgnlRuntime.getTargetClass( source ) );
-
-        for ( Enumeration e = elementsAccessor.getElements( source ); e.hasMoreElements(); )
-        {
-            Object next = e.nextElement();
-
-            if ( OgnlOps.booleanValue( expr.getValue( context, next ) ) )
-            {
-                answer.add( next );
-                break;
-            }
-        }
-        return answer;
+        return ElementsEvaluator.evaluate( context, this, ElementsEvaluator.SELECT_FIRST, _children[0].getAccessor(),
+                                           source );
     }
 
     public String toString()
@@ -69,7 +52,7 @@ class ASTSelectFirst
 
     public String toGetSourceString( OgnlContext context, Object target )
     {
-        throw new UnsupportedCompilationException( "Eval expressions not supported as native java yet." );
+        return ElementsEvaluator.toGetSourceString( context, this, target );
     }
 
     public String toSetSourceString( OgnlContext context, Object target )
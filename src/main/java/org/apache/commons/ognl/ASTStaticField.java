@@ -54,12 +54,27 @@ public class ASTStaticField
         this.fieldName = fieldName;
     }
 
+    String getClassName()
+    {
+        return className;
+    }
+
+    String getFieldName()
+    {
+        return fieldName;
+    }
+
     protected Object getValueBody( OgnlContext context, Object source )
         throws OgnlException
     {
         return OgnlRuntime.getStaticField( context, className, fieldName );
     }
 
+    boolean namesClass()
+    {
+        return true;
+    }
+
     public boolean isNodeConstant( OgnlContext context )
         throws OgnlException
     {
@@ -56,10 +56,20 @@ public class ASTStaticMethod
         _methodName = methodName;
     }
 
+    String getClassName()
+    {
+        return _className;
+    }
+
+    String getMethodName()
+    {
+        return _methodName;
+    }
+
     protected Object getValueBody( OgnlContext context, Object source )
         throws OgnlException
     {
-        Object[] args = OgnlRuntime.getObjectArrayPool().create( jjtGetNumChildren() );
+        Object[] args = context.acquireArguments( jjtGetNumChildren() );
         Object root = context.getRoot();
 
         try
@@ -67,14 +77,19 @@ public class ASTStaticMethod
             for ( int i = 0, icount = args.length; i < icount; ++i )
                 args[i] = _children[i].getValue( context, root );
 
-            return OgnlRuntime.callStaticMethod( context, _className, _methodName, args );
+            return OgnlRuntime.callStaticMethod( context, _className, _methodName, args, true );
         }
         finally
         {
-            OgnlRuntime.getObjectArrayPool().recycle( args );
+            context.releaseArguments( args );
         }
     }
 
+    boolean namesClass()
+    {
+        return true;
+    }
+
     public Class getGetterClass()
     {
         return _getterClass;
@@ -19,6 +19,7 @@
  */
 package org.apache.commons.ognl;
 
+import org.apache.commons.ognl.enhance.ExpressionCompiler;
 import org.apache.commons.ognl.enhance.UnsupportedCompilationException;
 
 /**
@@ -58,7 +59,19 @@ public class ASTThisVarRef
 
     public String toGetSourceString( OgnlContext context, Object target )
     {
-        throw new UnsupportedCompilationException( "Unable to compile this references." );
+        // #this is the source of the node, known when it is the root of the accessor
+        Object root = context.getRoot();
+        if ( ( root == null ) || !ExpressionCompiler.isEvaluatedOnRoot( context, this ) )
+        {
+            throw new UnsupportedCompilationException( "Unable to compile this references." );
+        }
+
+        _getterClass = OgnlRuntime.getCompiler().getInterfaceClass( root.getClass() );
+        context.setCurrentObject( root );
+        context.setCurrentType( _getterClass );
+        context.setCurrentAccessor( _getterClass );
+
+        return "((" + ExpressionCompiler.getCastString( _getterClass ) + ")$2)";
     }
 
     public String toSetSourceString( OgnlContext context, Object target )
@@ -33,6 +33,9 @@ public class ASTVarRef
 
     private String _name;
 
+    /** Slot of the name in the context variables, 0 until resolved, see {@link ContextValues}. */
+    private transient int _slot;
+
     protected Class _getterClass;
 
     protected String _core;
@@ -52,12 +55,28 @@ public class ASTVarRef
     void setName( String name )
     {
         this._name = name;
+        this._slot = ContextValues.slotOf( name );
+    }
+
+    String getName()
+    {
+        return _name;
     }
 
     protected Object getValueBody( OgnlContext context, Object source )
         throws OgnlException
     {
-        return context.get( _name );
+        return getVariable( context );
+    }
+
+    Object getVariable( OgnlContext context )
+    {
+        if ( _slot == 0 )
+        {
+            // deserialized node, slots are only valid in the runtime that gave them out
+            _slot = ContextValues.slotOf( _name );
+        }
+        return context.getVariable( _slot, _name );
     }
 
     protected void setValueBody( OgnlContext context, Object target, Object value )
@@ -43,7 +43,7 @@ public class ArrayPropertyAccessor
         {
             if ( name.equals( "length" ) )
             {
-                result = new Integer( Array.getLength( target ) );
+                result = Integer.valueOf( Array.getLength( target ) );
             }
             else
             {
@@ -65,13 +65,13 @@ public class ArrayPropertyAccessor
                         System.arraycopy( target, 0, result, 0, len );
                         break;
                     case DynamicSubscript.FIRST:
-                        index = new Integer( ( len > 0 ) ? 0 : -1 );
+                        index = Integer.valueOf( ( len > 0 ) ? 0 : -1 );
                         break;
                     case DynamicSubscript.MID:
-                        index = new Integer( ( len > 0 ) ? ( len / 2 ) : -1 );
+                        index = Integer.valueOf( ( len > 0 ) ? ( len / 2 ) : -1 );
                         break;
                     case DynamicSubscript.LAST:
-                        index = new Integer( ( len > 0 ) ? ( len - 1 ) : -1 );
+                        index = Integer.valueOf( ( len > 0 ) ? ( len - 1 ) : -1 );
                         break;
                 }
             }
@@ -126,13 +126,13 @@ public class ArrayPropertyAccessor
                         System.arraycopy( target, 0, convertedValue, 0, len );
                         return;
                     case DynamicSubscript.FIRST:
-                        index = new Integer( ( len > 0 ) ? 0 : -1 );
+                        index = Integer.valueOf( ( len > 0 ) ? 0 : -1 );
                         break;
                     case DynamicSubscript.MID:
-                        index = new Integer( ( len > 0 ) ? ( len / 2 ) : -1 );
+                        index = Integer.valueOf( ( len > 0 ) ? ( len / 2 ) : -1 );
                         break;
                     case DynamicSubscript.LAST:
-                        index = new Integer( ( len > 0 ) ? ( len - 1 ) : -1 );
+                        index = Integer.valueOf( ( len > 0 ) ? ( len - 1 ) : -1 );
                         break;
                 }
             }
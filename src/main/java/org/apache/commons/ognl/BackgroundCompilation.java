@@ -0,0 +1,88 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.enhance.ExpressionAccessor;
+
+/**
+ * Compiles, off the evaluating thread, an expression which the interpreter has evaluated {@link
+ * OgnlRuntime#getCompileThreshold()} times, then swaps the resulting accessor in. A private copy of the tree is
+ * compiled, see {@link SimpleNode#parseCopy(Node)}, so threads interpreting the shared tree meanwhile never see it half
+ * compiled. If the compiler fails, for instance with an {@link
+ * org.apache.commons.ognl.enhance.UnsupportedCompilationException}, the expression stays interpreted and is never
+ * handed to the compiler again.
+ * <p>
+ * Accessors generated by {@link org.apache.commons.ognl.enhance.ExpressionCompiler} are only valid for the class of
+ * the root they were compiled against, so they are wrapped in a {@link GuardedAccessor}. The accessors of
+ * {@link ReflectiveExpressionCompiler} do not depend on the root and are used as is.
+ * </p>
+ * <p>
+ * The javassist compiler generates the accessor by evaluating the getters and methods of the expression against the
+ * root of the evaluation which reached the threshold. That happens on the compilation executor thread, after that
+ * evaluation has returned, while its caller may already be using or changing the root again.
+ * </p>
+ */
+final class BackgroundCompilation
+    implements Runnable
+{
+    private final SimpleNode _node;
+
+    private final OgnlContext _context;
+
+    private final Object _root;
+
+    BackgroundCompilation( OgnlContext context, SimpleNode node, Object root )
+    {
+        _node = node;
+        _root = root;
+        // the evaluating thread goes on using its context, the compiler gets a private copy of it
+        _context = context.copy();
+        _context.setRoot( root );
+    }
+
+    public void run()
+    {
+        ExpressionAccessor accessor;
+        try
+        {
+            // other threads go on interpreting the shared tree, a private copy of it is compiled
+            Node copy = SimpleNode.parseCopy( _node );
+            OgnlRuntime.getCompiler().compileExpression( _context, copy, _root );
+            accessor = copy.getAccessor();
+        }
+        catch ( Throwable t )
+        {
+            _node.setTier( SimpleNode.TIER_UNSUPPORTED );
+            return;
+        }
+
+        if ( accessor == null )
+        {
+            // part of the expression evaluated to null, the compiler may succeed once it has been interpreted again
+            _node.setTier( SimpleNode.TIER_INTERPRETED );
+            return;
+        }
+        // published once complete, with the tier last so that a thread seeing it compiled sees the accessor
+        _node.setAccessor( GuardedAccessor.guard( accessor, _node, _root ) );
+        _node.setTier( SimpleNode.TIER_COMPILED );
+    }
+}
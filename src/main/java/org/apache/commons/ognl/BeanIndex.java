@@ -0,0 +1,652 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import java.beans.BeanInfo;
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bean metadata of a single class, built once from {@link Class#getMethods()} and shared by every thread.
+ * <p>
+ * The index replaces the use of {@link java.beans.Introspector}: the callable public methods are kept with their
+ * lower cased names, and the properties (plain, indexed and object indexed) are derived from the get/is/set naming
+ * patterns with their read and write methods. Unlike the Introspector, property types declared through a type variable
+ * are reported erased. Classes customised with a {@link BeanInfo} class of their own still get their properties from
+ * the Introspector, see {@link #hasExplicitBeanInfo(Class)}. The lookups of {@link OgnlRuntime#getReadMethod(Class, String, int)},
+ * {@link OgnlRuntime#getWriteMethod(Class, String, int)} and {@link OgnlRuntime#getProperty(Class, String)} are
+ * remembered per requested name, so that repeating them costs a single map lookup.
+ * </p>
+ * <p>
+ * The {@link PropertyDescriptor} instances handed out by {@link OgnlRuntime#getPropertyDescriptors(Class)} are only
+ * created on first request; the map and array returned are shared and must not be modified.
+ * </p>
+ */
+final class BeanIndex
+{
+    /**
+     * Number of names for which the outcome of the name based lookups is remembered, beyond it the lookups are
+     * computed on each call.
+     */
+    static final int MAX_NAMES = 256;
+
+    /**
+     * Lookups are remembered for parameter counts from -1 (any) to this value.
+     */
+    private static final int MAX_PARAMETERS = 4;
+
+    private static final Object NONE = new Object();
+
+    private final Class<?> _type;
+
+    private final Method[] _methods;
+
+    private final String[] _lowerNames;
+
+    private final List<Property> _properties;
+
+    private final Map<String, AtomicReferenceArray<Object>> _readMethods =
+        new ConcurrentHashMap<String, AtomicReferenceArray<Object>>();
+
+    private final Map<String, AtomicReferenceArray<Object>> _writeMethods =
+        new ConcurrentHashMap<String, AtomicReferenceArray<Object>>();
+
+    private final Map<String, Object> _propertyLookups = new ConcurrentHashMap<String, Object>();
+
+    private volatile Descriptors _descriptors;
+
+    BeanIndex( Class<?> type )
+    {
+        _type = type;
+
+        List<Method> callable = new ArrayList<Method>();
+        for ( Method method : type.getMethods() )
+        {
+            if ( OgnlRuntime.isMethodCallable( method ) )
+            {
+                callable.add( method );
+            }
+        }
+        _methods = callable.toArray( new Method[callable.size()] );
+        _lowerNames = new String[_methods.length];
+        for ( int i = 0; i < _methods.length; i++ )
+        {
+            _lowerNames[i] = _methods[i].getName().toLowerCase();
+        }
+        _properties = findProperties( _methods );
+    }
+
+    Class<?> getType()
+    {
+        return _type;
+    }
+
+    /**
+     * @see OgnlRuntime#getReadMethod(Class, String, int)
+     */
+    Method getReadMethod( String name, int numParms )
+    {
+        AtomicReferenceArray<Object> slots = slots( _readMethods, name, numParms );
+        if ( slots == null )
+        {
+            return findReadMethod( name.replaceAll( "\"", "" ).toLowerCase(), numParms );
+        }
+
+        Object result = slots.get( numParms + 1 );
+        if ( result == null )
+        {
+            Method m = findReadMethod( name.replaceAll( "\"", "" ).toLowerCase(), numParms );
+            slots.set( numParms + 1, ( m == null ) ? NONE : m );
+            return m;
+        }
+        return ( result == NONE ) ? null : (Method) result;
+    }
+
+    /**
+     * @see OgnlRuntime#getWriteMethod(Class, String, int)
+     */
+    Method getWriteMethod( String name, int numParms )
+    {
+        AtomicReferenceArray<Object> slots = slots( _writeMethods, name, numParms );
+        if ( slots == null )
+        {
+            return findWriteMethod( name.replaceAll( "\"", "" ), numParms );
+        }
+
+        Object result = slots.get( numParms + 1 );
+        if ( result == null )
+        {
+            Method m = findWriteMethod( name.replaceAll( "\"", "" ), numParms );
+            slots.set( numParms + 1, ( m == null ) ? NONE : m );
+            return m;
+        }
+        return ( result == NONE ) ? null : (Method) result;
+    }
+
+    /**
+     * @see OgnlRuntime#getProperty(Class, String)
+     */
+    PropertyDescriptor getProperty( String name )
+        throws OgnlException
+    {
+        Object result = _propertyLookups.get( name );
+        if ( result == null )
+        {
+            result = findProperty( name.toLowerCase() );
+            if ( _propertyLookups.size() < MAX_NAMES )
+            {
+                _propertyLookups.put( name, ( result == null ) ? NONE : result );
+            }
+        }
+        return ( result == NONE ) ? null : (PropertyDescriptor) result;
+    }
+
+    /**
+     * @return the property descriptors by name, including object indexed properties
+     */
+    Map<String, PropertyDescriptor> getPropertyDescriptors()
+        throws OgnlException
+    {
+        return descriptors()._byName;
+    }
+
+    /**
+     * @return the property descriptors sorted by name, including object indexed properties
+     */
+    PropertyDescriptor[] getPropertyDescriptorsArray()
+        throws OgnlException
+    {
+        return descriptors()._sorted;
+    }
+
+    private static AtomicReferenceArray<Object> slots( Map<String, AtomicReferenceArray<Object>> lookups, String name,
+                                                       int numParms )
+    {
+        if ( numParms < -1 || numParms > MAX_PARAMETERS )
+        {
+            return null;
+        }
+
+        AtomicReferenceArray<Object> slots = lookups.get( name );
+        if ( slots == null )
+        {
+            if ( lookups.size() >= MAX_NAMES )
+            {
+                return null;
+            }
+            slots = new AtomicReferenceArray<Object>( MAX_PARAMETERS + 2 );
+            lookups.put( name, slots );
+        }
+        return slots;
+    }
+
+    private Method findReadMethod( String name, int numParms )
+    {
+        // exact matches first
+
+        Method m = null;
+
+        for ( int i = 0; i < _methods.length; i++ )
+        {
+            String methodName = _methods[i].getName();
+            String lowerMethodName = _lowerNames[i];
+            int methodParamLen = _methods[i].getParameterTypes().length;
+
+            if ( ( lowerMethodName.equals( name ) || lowerMethodName.equals( "get" + name )
+                || lowerMethodName.equals( "has" + name ) || lowerMethodName.equals( "is" + name ) )
+                && !methodName.startsWith( "set" ) )
+            {
+                if ( numParms > 0 && methodParamLen == numParms )
+                {
+                    return _methods[i];
+                }
+                else if ( numParms < 0 )
+                {
+                    if ( methodName.equals( name ) )
+                    {
+                        return _methods[i];
+                    }
+                    else if ( m == null || ( m.getParameterTypes().length > methodParamLen ) )
+                    {
+                        m = _methods[i];
+                    }
+                }
+            }
+        }
+
+        if ( m != null )
+        {
+            return m;
+        }
+
+        for ( int i = 0; i < _methods.length; i++ )
+        {
+            if ( _lowerNames[i].endsWith( name ) && !_methods[i].getName().startsWith( "set" )
+                && _methods[i].getReturnType() != Void.TYPE )
+            {
+                int methodParamLen = _methods[i].getParameterTypes().length;
+
+                if ( numParms > 0 && methodParamLen == numParms )
+                {
+                    return _methods[i];
+                }
+                else if ( numParms < 0 )
+                {
+                    if ( m == null || m.getParameterTypes().length > methodParamLen )
+                    {
+                        m = _methods[i];
+                    }
+                }
+            }
+        }
+
+        if ( m != null )
+        {
+            return m;
+        }
+
+        // try one last time adding a get to beginning
+
+        if ( !name.startsWith( "get" ) )
+        {
+            return getReadMethod( "get" + name, numParms );
+        }
+
+        return null;
+    }
+
+    private Method findWriteMethod( String name, int numParms )
+    {
+        String lowerName = name.toLowerCase();
+
+        for ( int i = 0; i < _methods.length; i++ )
+        {
+            if ( ( _lowerNames[i].equals( lowerName ) || _lowerNames[i].equals( "set" + lowerName ) )
+                && !_methods[i].getName().startsWith( "get" ) )
+            {
+                if ( numParms > 0 && _methods[i].getParameterTypes().length == numParms )
+                {
+                    return _methods[i];
+                }
+                else if ( numParms < 0 )
+                {
+                    return _methods[i];
+                }
+            }
+        }
+
+        // try one last time adding a set to beginning
+
+        if ( !name.startsWith( "set" ) )
+        {
+            return getReadMethod( "set" + name, numParms );
+        }
+
+        return null;
+    }
+
+    private PropertyDescriptor findProperty( String lowerName )
+        throws OgnlException
+    {
+        Descriptors descriptors = descriptors();
+
+        PropertyDescriptor result = descriptors._byLowerName.get( lowerName );
+        if ( result != null )
+        {
+            return result;
+        }
+        for ( PropertyDescriptor pd : descriptors._sorted )
+        {
+            if ( pd.getName().toLowerCase().endsWith( lowerName ) )
+            {
+                return pd;
+            }
+        }
+        return null;
+    }
+
+    private Descriptors descriptors()
+        throws OgnlException
+    {
+        Descriptors descriptors = _descriptors;
+        if ( descriptors == null )
+        {
+            // racing threads build equivalent descriptors, the last one published wins
+            _descriptors = descriptors = new Descriptors( this );
+        }
+        return descriptors;
+    }
+
+    /**
+     * @return the callable method of this class with the name and parameter count of the given one, which is returned
+     *         if there is none
+     */
+    private Method callable( Method method )
+    {
+        for ( Method m : _methods )
+        {
+            if ( m.getName().equals( method.getName() )
+                && m.getParameterTypes().length == method.getParameterTypes().length )
+            {
+                return m;
+            }
+        }
+        return method;
+    }
+
+    /**
+     * Whether the class or one of its super classes has a {@link BeanInfo} class of its own, looked up the way the
+     * {@link Introspector} does: next to the class, then in the packages of the BeanInfo search path. The properties
+     * of such classes are the ones of their BeanInfo, as returned by the Introspector.
+     */
+    static boolean hasExplicitBeanInfo( Class<?> type )
+    {
+        String[] searchPath = Introspector.getBeanInfoSearchPath();
+        for ( Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass() )
+        {
+            String name = c.getName() + "BeanInfo";
+            if ( isBeanInfo( name, c.getClassLoader() ) )
+            {
+                return true;
+            }
+            String simpleName = name.substring( name.lastIndexOf( '.' ) + 1 );
+            for ( String path : searchPath )
+            {
+                if ( isBeanInfo( path + "." + simpleName, c.getClassLoader() ) )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBeanInfo( String className, ClassLoader loader )
+    {
+        try
+        {
+            return BeanInfo.class.isAssignableFrom( Class.forName( className, false, loader ) );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return false;
+        }
+        catch ( LinkageError e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Mirrors {@link java.beans.Introspector#decapitalize(String)}: the first character is lower cased unless the
+     * first two characters are both upper case, as in "URL".
+     */
+    static String decapitalize( String name )
+    {
+        if ( name == null || name.length() == 0 )
+        {
+            return name;
+        }
+        if ( name.length() > 1 && Character.isUpperCase( name.charAt( 1 ) )
+            && Character.isUpperCase( name.charAt( 0 ) ) )
+        {
+            return name;
+        }
+        char[] chars = name.toCharArray();
+        chars[0] = Character.toLowerCase( chars[0] );
+        return new String( chars );
+    }
+
+    /**
+     * Groups the instance methods following the bean naming patterns by property name and pairs them the way the
+     * {@link java.beans.Introspector} does: an "is" getter wins over a "get" getter, a setter must take the type
+     * returned by the getter, and indexed accessors are only kept along plain ones of the matching array type.
+     */
+    private static List<Property> findProperties( Method[] methods )
+    {
+        Map<String, Property> properties = new LinkedHashMap<String, Property>();
+
+        for ( Method method : methods )
+        {
+            if ( Modifier.isStatic( method.getModifiers() ) )
+            {
+                continue;
+            }
+
+            String methodName = method.getName();
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            Class<?> returnType = method.getReturnType();
+
+            if ( methodName.startsWith( "get" ) && methodName.length() > 3 && returnType != Void.TYPE )
+            {
+                if ( parameterTypes.length == 0 )
+                {
+                    Property property = property( properties, methodName.substring( 3 ) );
+                    if ( property._read == null || !property._read.getName().startsWith( "is" ) )
+                    {
+                        property._read = method;
+                    }
+                }
+                else if ( parameterTypes.length == 1 && parameterTypes[0] == Integer.TYPE )
+                {
+                    property( properties, methodName.substring( 3 ) )._indexedRead = method;
+                }
+            }
+            else if ( methodName.startsWith( "is" ) && methodName.length() > 2 && parameterTypes.length == 0
+                && returnType == Boolean.TYPE )
+            {
+                property( properties, methodName.substring( 2 ) )._read = method;
+            }
+            else if ( methodName.startsWith( "set" ) && methodName.length() > 3 && returnType == Void.TYPE )
+            {
+                if ( parameterTypes.length == 1 )
+                {
+                    property( properties, methodName.substring( 3 ) )._writes.add( method );
+                }
+                else if ( parameterTypes.length == 2 && parameterTypes[0] == Integer.TYPE )
+                {
+                    property( properties, methodName.substring( 3 ) )._indexedWrites.add( method );
+                }
+            }
+        }
+
+        List<Property> result = new ArrayList<Property>( properties.size() );
+        for ( Property property : properties.values() )
+        {
+            if ( property.resolve() )
+            {
+                result.add( property );
+            }
+        }
+        return result;
+    }
+
+    private static Property property( Map<String, Property> properties, String suffix )
+    {
+        String name = decapitalize( suffix );
+        Property property = properties.get( name );
+        if ( property == null )
+        {
+            property = new Property( name );
+            properties.put( name, property );
+        }
+        return property;
+    }
+
+    /**
+     * Read and write handles of a property, before they are turned into a {@link PropertyDescriptor}.
+     */
+    private static final class Property
+    {
+        final String _name;
+
+        Method _read;
+
+        Method _write;
+
+        Method _indexedRead;
+
+        Method _indexedWrite;
+
+        final List<Method> _writes = new ArrayList<Method>( 1 );
+
+        final List<Method> _indexedWrites = new ArrayList<Method>( 1 );
+
+        Property( String name )
+        {
+            _name = name;
+        }
+
+        /**
+         * @return false if the methods found do not make up a property
+         */
+        boolean resolve()
+        {
+            _write = writeMethod( _writes, ( _read == null ) ? null : _read.getReturnType(), 0 );
+            _indexedWrite =
+                writeMethod( _indexedWrites, ( _indexedRead == null ) ? null : _indexedRead.getReturnType(), 1 );
+
+            Class<?> type = ( _read != null ) ? _read.getReturnType()
+                            : ( _write != null ) ? _write.getParameterTypes()[0] : null;
+            if ( _indexedRead != null || _indexedWrite != null )
+            {
+                Class<?> indexedType = ( _indexedRead != null ) ? _indexedRead.getReturnType()
+                                       : _indexedWrite.getParameterTypes()[1];
+                if ( type != null && !( type.isArray() && type.getComponentType() == indexedType ) )
+                {
+                    _indexedRead = null;
+                    _indexedWrite = null;
+                }
+            }
+            return _read != null || _write != null || _indexedRead != null || _indexedWrite != null;
+        }
+
+        private static Method writeMethod( List<Method> writes, Class<?> type, int valueIndex )
+        {
+            if ( type == null )
+            {
+                return writes.isEmpty() ? null : writes.get( 0 );
+            }
+            for ( Method write : writes )
+            {
+                if ( write.getParameterTypes()[valueIndex] == type )
+                {
+                    return write;
+                }
+            }
+            return null;
+        }
+
+        PropertyDescriptor toDescriptor()
+            throws IntrospectionException
+        {
+            if ( _indexedRead != null || _indexedWrite != null )
+            {
+                return new IndexedPropertyDescriptor( _name, _read, _write, _indexedRead, _indexedWrite );
+            }
+            return new PropertyDescriptor( _name, _read, _write );
+        }
+    }
+
+    /**
+     * The descriptors of all properties, by exact name, by lower cased name and sorted by name.
+     */
+    private static final class Descriptors
+    {
+        final Map<String, PropertyDescriptor> _byName;
+
+        final Map<String, PropertyDescriptor> _byLowerName;
+
+        final PropertyDescriptor[] _sorted;
+
+        Descriptors( BeanIndex index )
+            throws OgnlException
+        {
+            Map<String, PropertyDescriptor> byName = new HashMap<String, PropertyDescriptor>( 101 );
+            if ( hasExplicitBeanInfo( index._type ) )
+            {
+                try
+                {
+                    for ( PropertyDescriptor pd : Introspector.getBeanInfo( index._type ).getPropertyDescriptors() )
+                    {
+                        // workaround for Introspector bug 6528714 (bugs.sun.com)
+                        if ( pd.getReadMethod() != null && !OgnlRuntime.isMethodCallable( pd.getReadMethod() ) )
+                        {
+                            pd.setReadMethod( index.callable( pd.getReadMethod() ) );
+                        }
+                        if ( pd.getWriteMethod() != null && !OgnlRuntime.isMethodCallable( pd.getWriteMethod() ) )
+                        {
+                            pd.setWriteMethod( index.callable( pd.getWriteMethod() ) );
+                        }
+                        byName.put( pd.getName(), pd );
+                    }
+                }
+                catch ( IntrospectionException e )
+                {
+                    throw new OgnlException( "introspecting " + index._type, e );
+                }
+            }
+            else
+            {
+                for ( Property property : index._properties )
+                {
+                    try
+                    {
+                        byName.put( property._name, property.toDescriptor() );
+                    }
+                    catch ( IntrospectionException e )
+                    {
+                        throw new OgnlException( "creating property descriptor for '" + property._name + "' in "
+                            + index._type, e );
+                    }
+                }
+            }
+            OgnlRuntime.findObjectIndexedPropertyDescriptors( index._type, byName );
+
+            Map<String, PropertyDescriptor> sorted = new TreeMap<String, PropertyDescriptor>( byName );
+            _sorted = sorted.values().toArray( new PropertyDescriptor[sorted.size()] );
+            _byLowerName = new HashMap<String, PropertyDescriptor>( byName.size() * 2 );
+            for ( PropertyDescriptor pd : _sorted )
+            {
+                String lowerName = pd.getName().toLowerCase();
+                if ( !_byLowerName.containsKey( lowerName ) )
+                {
+                    _byLowerName.put( lowerName, pd );
+                }
+            }
+            _byName = Collections.unmodifiableMap( byName );
+        }
+    }
+}
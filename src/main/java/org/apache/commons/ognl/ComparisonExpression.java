@@ -30,6 +30,8 @@ public abstract class ComparisonExpression
 
     private static final long serialVersionUID = -5945855000509930682L;
 
+    private transient volatile TypeFeedback _typeFeedback;
+
     public ComparisonExpression( int id )
     {
         super( id );
@@ -42,6 +44,19 @@ public abstract class ComparisonExpression
 
     public abstract String getComparisonFunction();
 
+    /**
+     * @return the operand types observed by this node, see {@link TypeFeedback}
+     */
+    TypeFeedback getTypeFeedback()
+    {
+        TypeFeedback feedback = _typeFeedback;
+        if ( feedback == null )
+        {
+            _typeFeedback = feedback = new TypeFeedback();
+        }
+        return feedback;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,212 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optimisation pass run once over a parsed tree, see {@link OptimizationLevel#FOLD_CONSTANTS}.
+ * <p>
+ * Only values the parser could have produced as a literal are folded into an {@link ASTConst}, and only when the
+ * printed constant parses back to the same value, so the folded tree prints, compiles and behaves like the literal
+ * expression. Only literals and operators are folded: static fields and methods are resolved through the
+ * {@link ClassResolver} and {@link MemberAccess} of the context, so they are left to the first evaluation, which caches
+ * them in their node if constant. Lists and maps are never folded: every evaluation must return a new collection, their
+ * elements are folded though. A subtree failing to evaluate is left as is, to fail at evaluation
+ * time as it would without the pass.
+ * </p>
+ */
+final class ConstantFolder
+{
+    private final OgnlContext _context = (OgnlContext) Ognl.createDefaultContext( null );
+
+    /**
+     * Folds the tree in place.
+     *
+     * @return the root of the folded tree, which is not the given node if the whole tree folded to another node
+     */
+    Node fold( Node node )
+    {
+        if ( !( node instanceof SimpleNode ) )
+        {
+            return node;
+        }
+
+        SimpleNode simple = (SimpleNode) node;
+        for ( int i = 0, icount = simple.jjtGetNumChildren(); i < icount; i++ )
+        {
+            Node child = simple._children[i];
+            Node folded = fold( child );
+            if ( folded != child )
+            {
+                simple._children[i] = folded;
+                folded.jjtSetParent( simple );
+            }
+        }
+
+        Node reduced = reduce( simple );
+        if ( ( reduced != simple ) || simple.namesClass() )
+        {
+            return reduced;
+        }
+
+        try
+        {
+            simple.calculateConstantValue( _context, null );
+        }
+        catch ( OgnlException e )
+        {
+            return simple;
+        }
+        catch ( RuntimeException e )
+        {
+            return simple;
+        }
+
+        if ( simple.hasConstantValue() && !( simple instanceof ASTConst ) && isLiteral( simple.getConstantValue() ) )
+        {
+            ASTConst result = constant( simple.getConstantValue() );
+            if ( printsBack( result ) )
+            {
+                return result;
+            }
+        }
+        return simple;
+    }
+
+    /**
+     * Drops the operands of <code>and</code> / <code>or</code> and the branch of <code>?:</code> which constant
+     * conditions make unreachable or irrelevant.
+     *
+     * @return the node to use instead, or the given node, possibly with fewer children
+     */
+    private Node reduce( SimpleNode node )
+    {
+        if ( node instanceof ASTTest )
+        {
+            Object test = constantValue( node._children[0] );
+            if ( test != OgnlRuntime.NotFound )
+            {
+                return node._children[OgnlOps.booleanValue( test ) ? 1 : 2];
+            }
+        }
+        else if ( ( node instanceof ASTAnd ) || ( node instanceof ASTOr ) )
+        {
+            // and stops on the first false operand, or on the first true one; either way its value is the result
+            boolean stopOn = node instanceof ASTOr;
+            List<Node> operands = new ArrayList<Node>( node._children.length );
+            int last = node._children.length - 1;
+
+            for ( int i = 0; i <= last; i++ )
+            {
+                Node child = node._children[i];
+                Object value = constantValue( child );
+                if ( ( i == last ) || ( value == OgnlRuntime.NotFound ) )
+                {
+                    operands.add( child );
+                }
+                else if ( OgnlOps.booleanValue( value ) == stopOn )
+                {
+                    operands.add( child );
+                    break;
+                }
+            }
+
+            if ( operands.size() == 1 )
+            {
+                return operands.get( 0 );
+            }
+            if ( operands.size() < node._children.length )
+            {
+                node._children = operands.toArray( new Node[operands.size()] );
+            }
+        }
+        return node;
+    }
+
+    private static Object constantValue( Node node )
+    {
+        if ( node instanceof ASTConst )
+        {
+            return ( (ASTConst) node ).getValue();
+        }
+        if ( ( node instanceof SimpleNode ) && ( (SimpleNode) node ).hasConstantValue() )
+        {
+            return ( (SimpleNode) node ).getConstantValue();
+        }
+        return OgnlRuntime.NotFound;
+    }
+
+    private ASTConst constant( Object value )
+    {
+        ASTConst result = new ASTConst( OgnlParserTreeConstants.JJTCONST );
+        result.setValue( value );
+        try
+        {
+            result.calculateConstantValue( _context, null );
+        }
+        catch ( OgnlException e )
+        {
+            // a constant is never evaluated
+        }
+        return result;
+    }
+
+    /**
+     * Whether the text of the constant parses back to the same value. Some values of a literal type have no literal
+     * form: <code>NaN</code> and the infinities print as property names, <code>Integer.MIN_VALUE</code> and
+     * <code>Long.MIN_VALUE</code> as a negated literal which overflows. Folding those would break every consumer
+     * parsing or keying on {@link Node#toString()} of the folded tree.
+     */
+    private boolean printsBack( ASTConst constant )
+    {
+        Object value = constant.getValue();
+        try
+        {
+            Object parsed = ( (Node) Ognl.parseExpression( constant.toString() ) ).getValue( _context, null );
+            return ( value == null ) ? parsed == null
+                            : ( parsed != null ) && ( parsed.getClass() == value.getClass() ) && parsed.equals( value );
+        }
+        catch ( OgnlException e )
+        {
+            return false;
+        }
+        catch ( RuntimeException e )
+        {
+            return false;
+        }
+    }
+
+    private static boolean isLiteral( Object value )
+    {
+        if ( value == null )
+        {
+            return true;
+        }
+        Class<?> c = value.getClass();
+        return c == String.class || c == Integer.class || c == Long.class || c == Double.class || c == Float.class
+            || c == Boolean.class || c == Character.class || c == BigDecimal.class || c == BigInteger.class;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Variables of an {@link OgnlContext}. Besides the map itself, the values of the variables referenced by parsed
+ * expressions are mirrored in an array, indexed by a slot number the name receives once for the whole runtime, so
+ * that <code>#name</code> is an array load rather than a hash lookup.
+ * <p>
+ * Every way of changing the map, including its views and their iterators, keeps the array up to date. Names that
+ * become known after a context was filled are mirrored lazily, the first time their slot is read. Like the context,
+ * an instance must not be used by several threads at once; the slot registry itself is thread-safe.
+ * </p>
+ */
+final class ContextValues
+    extends AbstractMap<String, Object>
+{
+    /**
+     * Slot of names that have none: reserved context keys, and any name past {@link #MAX_SLOTS}.
+     */
+    static final int NO_SLOT = -1;
+
+    static final int MAX_SLOTS = 1024;
+
+    private static final Map<String, Integer> SLOTS = new ConcurrentHashMap<String, Integer>();
+
+    /** Names by slot; slot 0 is never given out, so that 0 can stand for "not resolved yet". */
+    private static volatile String[] _names = new String[1];
+
+    private final Map<String, Object> _map = new HashMap<String, Object>( 23 );
+
+    private Object[] _slots = new Object[0];
+
+    /** Number of slots mirrored in {@link #_slots}, the others are filled from the map on first read. */
+    private int _mirrored;
+
+    private Set<Entry<String, Object>> _entrySet;
+
+    /**
+     * @return the slot of the variable name, a positive number, or {@link #NO_SLOT}
+     */
+    static int slotOf( String name )
+    {
+        Integer slot = SLOTS.get( name );
+        if ( slot != null )
+        {
+            return slot.intValue();
+        }
+        if ( OgnlContext.reservedKey( name ) != OgnlContext.NOT_RESERVED )
+        {
+            return NO_SLOT;
+        }
+        synchronized ( SLOTS )
+        {
+            slot = SLOTS.get( name );
+            if ( slot == null )
+            {
+                String[] names = _names;
+                if ( names.length > MAX_SLOTS )
+                {
+                    return NO_SLOT;
+                }
+                String[] grown = new String[names.length + 1];
+                System.arraycopy( names, 0, grown, 0, names.length );
+                grown[names.length] = name;
+                slot = names.length;
+                // register before publishing the names, so that mirror() sees every name read() may have mirrored
+                SLOTS.put( name, slot );
+                _names = grown;
+            }
+            return slot.intValue();
+        }
+    }
+
+    /**
+     * @return the value of the variable in the given slot, as {@link Map#get(Object)} would return it for its name
+     */
+    Object read( int slot, String name )
+    {
+        if ( slot < _mirrored )
+        {
+            return _slots[slot];
+        }
+        String[] names = _names;
+        if ( slot < 0 || slot >= names.length )
+        {
+            return _map.get( name );
+        }
+
+        if ( _slots.length < names.length )
+        {
+            Object[] grown = new Object[Math.max( names.length, _slots.length * 2 )];
+            System.arraycopy( _slots, 0, grown, 0, _mirrored );
+            _slots = grown;
+        }
+        for ( int i = Math.max( _mirrored, 1 ); i < names.length; i++ )
+        {
+            _slots[i] = _map.get( names[i] );
+        }
+        _mirrored = names.length;
+        return _slots[slot];
+    }
+
+    private void mirror( Object name, Object value )
+    {
+        if ( _mirrored > 0 )
+        {
+            Integer slot = SLOTS.get( name );
+            if ( slot != null && slot.intValue() < _mirrored )
+            {
+                _slots[slot.intValue()] = value;
+            }
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return _map.size();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return _map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey( Object key )
+    {
+        return _map.containsKey( key );
+    }
+
+    @Override
+    public boolean containsValue( Object value )
+    {
+        return _map.containsValue( value );
+    }
+
+    @Override
+    public Object get( Object key )
+    {
+        return _map.get( key );
+    }
+
+    @Override
+    public Object put( String key, Object value )
+    {
+        mirror( key, value );
+        return _map.put( key, value );
+    }
+
+    @Override
+    public Object remove( Object key )
+    {
+        mirror( key, null );
+        return _map.remove( key );
+    }
+
+    @Override
+    public void clear()
+    {
+        _map.clear();
+        Arrays.fill( _slots, null );
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet()
+    {
+        if ( _entrySet == null )
+        {
+            _entrySet = new EntrySet();
+        }
+        return _entrySet;
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        return o == this || _map.equals( o );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return _map.hashCode();
+    }
+
+    private final class EntrySet
+        extends AbstractSet<Entry<String, Object>>
+    {
+        @Override
+        public int size()
+        {
+            return _map.size();
+        }
+
+        @Override
+        public void clear()
+        {
+            ContextValues.this.clear();
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator()
+        {
+            final Iterator<Entry<String, Object>> entries = _map.entrySet().iterator();
+            return new Iterator<Entry<String, Object>>()
+            {
+                private Entry<String, Object> _last;
+
+                public boolean hasNext()
+                {
+                    return entries.hasNext();
+                }
+
+                public Entry<String, Object> next()
+                {
+                    _last = entries.next();
+                    return new MirroredEntry( _last );
+                }
+
+                public void remove()
+                {
+                    entries.remove();
+                    mirror( _last.getKey(), null );
+                }
+            };
+        }
+    }
+
+    private final class MirroredEntry
+        implements Entry<String, Object>
+    {
+        private final Entry<String, Object> _entry;
+
+        MirroredEntry( Entry<String, Object> entry )
+        {
+            _entry = entry;
+        }
+
+        public String getKey()
+        {
+            return _entry.getKey();
+        }
+
+        public Object getValue()
+        {
+            return _entry.getValue();
+        }
+
+        public Object setValue( Object value )
+        {
+            mirror( _entry.getKey(), value );
+            return _entry.setValue( value );
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            return _entry.equals( o );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _entry.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return _entry.toString();
+        }
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.internal.ClassCache;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the {@link ConversionPlan}s used to convert values of a source class to a target type.
+ * <p>
+ * The built-in plans implement {@link OgnlOps#convertValue(Object, Class, boolean)}: the steps taken for a pair of
+ * types (assignability, array or scalar, target type) are decided once, and arrays of primitives are converted by
+ * plain loops without reflection nor boxing. They are shared by the whole runtime and dropped along with the other
+ * reflection caches by {@link OgnlRuntime#clearCache()}.
+ * </p>
+ * <p>
+ * An instance holds plans registered by a {@link TypeConverter}, see
+ * {@link DefaultTypeConverter#registerConversionPlan(Class, Class, ConversionPlan)}, and falls back to the built-in
+ * ones for the pairs it has none for. Registered plans are used for the values converted by the converter, not for the
+ * elements of the arrays converted by a built-in plan.
+ * </p>
+ */
+public final class ConversionPlans
+{
+    private final Map<Class<?>, Map<Class<?>, ConversionPlan>> _registered =
+        new ConcurrentHashMap<Class<?>, Map<Class<?>, ConversionPlan>>();
+
+    /**
+     * Registers the plan converting values of exactly <code>fromType</code> to <code>toType</code>.
+     */
+    public void register( Class<?> fromType, Class<?> toType, ConversionPlan plan )
+    {
+        Map<Class<?>, ConversionPlan> plans = _registered.get( toType );
+        if ( plans == null )
+        {
+            synchronized ( _registered )
+            {
+                plans = _registered.get( toType );
+                if ( plans == null )
+                {
+                    plans = new ConcurrentHashMap<Class<?>, ConversionPlan>();
+                    _registered.put( toType, plans );
+                }
+            }
+        }
+        plans.put( fromType, plan );
+    }
+
+    /**
+     * @return the plan registered for the pair of types, or else the built-in one
+     */
+    public ConversionPlan get( Class<?> fromType, Class<?> toType )
+    {
+        Map<Class<?>, ConversionPlan> plans = _registered.get( toType );
+        if ( plans != null )
+        {
+            ConversionPlan plan = plans.get( fromType );
+            if ( plan != null )
+            {
+                return plan;
+            }
+        }
+        return getBuiltIn( fromType, toType );
+    }
+
+    /**
+     * @return the plan implementing {@link OgnlOps#convertValue(Object, Class, boolean)} for values of
+     *         <code>fromType</code>
+     */
+    public static ConversionPlan getBuiltIn( Class<?> fromType, Class<?> toType )
+    {
+        try
+        {
+            ClassCache<ConversionPlan> plans = OgnlRuntime._conversionPlanCache.get( toType );
+            ConversionPlan plan = plans.get( fromType );
+            if ( plan == null )
+            {
+                plan = plans.put( fromType, plan( fromType, toType ) );
+            }
+            return plan;
+        }
+        catch ( OgnlException e )
+        {
+            // the caches above never create entries on their own
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static ConversionPlan plan( Class<?> fromType, Class<?> toType )
+    {
+        if ( toType.isAssignableFrom( fromType ) )
+        {
+            return IDENTITY;
+        }
+        if ( fromType.isArray() && toType.isArray() )
+        {
+            Class<?> fromComponent = fromType.getComponentType();
+            Class<?> toComponent = toType.getComponentType();
+            if ( fromComponent.isPrimitive() && toComponent.isPrimitive() )
+            {
+                return new PrimitiveArrayPlan( kind( fromComponent ), kind( toComponent ), toComponent );
+            }
+            return new ArrayPlan( fromComponent.isPrimitive() ? kind( fromComponent ) : NONE, toComponent );
+        }
+        if ( fromType.isArray() )
+        {
+            return new FirstElementPlan( toType );
+        }
+        if ( toType.isArray() )
+        {
+            if ( toType.getComponentType() == Character.TYPE )
+            {
+                return TO_CHARS;
+            }
+            if ( toType.getComponentType() == Object.class )
+            {
+                return TO_OBJECTS;
+            }
+            return NOT_CONVERTIBLE;
+        }
+        return new ScalarPlan( kind( toType ) );
+    }
+
+    /*
+     * Kinds of types, with the primitive types and their wrappers sharing one.
+     */
+
+    private static final int NONE = 0;
+
+    private static final int INT = 1;
+
+    private static final int LONG = 2;
+
+    private static final int SHORT = 3;
+
+    private static final int BYTE = 4;
+
+    private static final int CHAR = 5;
+
+    private static final int DOUBLE = 6;
+
+    private static final int FLOAT = 7;
+
+    private static final int BOOLEAN = 8;
+
+    private static final int BIG_INTEGER = 9;
+
+    private static final int BIG_DECIMAL = 10;
+
+    private static final int STRING = 11;
+
+    private static int kind( Class<?> type )
+    {
+        if ( type == Integer.TYPE || type == Integer.class )
+        {
+            return INT;
+        }
+        if ( type == Long.TYPE || type == Long.class )
+        {
+            return LONG;
+        }
+        if ( type == Short.TYPE || type == Short.class )
+        {
+            return SHORT;
+        }
+        if ( type == Byte.TYPE || type == Byte.class )
+        {
+            return BYTE;
+        }
+        if ( type == Character.TYPE || type == Character.class )
+        {
+            return CHAR;
+        }
+        if ( type == Double.TYPE || type == Double.class )
+        {
+            return DOUBLE;
+        }
+        if ( type == Float.TYPE || type == Float.class )
+        {
+            return FLOAT;
+        }
+        if ( type == Boolean.TYPE || type == Boolean.class )
+        {
+            return BOOLEAN;
+        }
+        if ( type == BigInteger.class )
+        {
+            return BIG_INTEGER;
+        }
+        if ( type == BigDecimal.class )
+        {
+            return BIG_DECIMAL;
+        }
+        if ( type == String.class )
+        {
+            return STRING;
+        }
+        return NONE;
+    }
+
+    private static final ConversionPlan IDENTITY = new ConversionPlan()
+    {
+        public Object convert( Object value )
+        {
+            return value;
+        }
+    };
+
+    private static final ConversionPlan NOT_CONVERTIBLE = new ConversionPlan()
+    {
+        public Object convert( Object value )
+        {
+            return null;
+        }
+    };
+
+    private static final ConversionPlan TO_CHARS = new ConversionPlan()
+    {
+        public Object convert( Object value )
+        {
+            return OgnlOps.stringValue( value ).toCharArray();
+        }
+    };
+
+    private static final ConversionPlan TO_OBJECTS = new ConversionPlan()
+    {
+        public Object convert( Object value )
+        {
+            return new Object[] { value };
+        }
+    };
+
+    /**
+     * A value converted to a number, boolean or string type.
+     */
+    private static final class ScalarPlan
+        implements ConversionPlan
+    {
+        private final int _kind;
+
+        ScalarPlan( int kind )
+        {
+            _kind = kind;
+        }
+
+        public Object convert( Object value )
+        {
+            switch ( _kind )
+            {
+                case INT:
+                    return (int) OgnlOps.longValue( value );
+                case LONG:
+                    return OgnlOps.longValue( value );
+                case SHORT:
+                    return (short) OgnlOps.longValue( value );
+                case BYTE:
+                    return (byte) OgnlOps.longValue( value );
+                case CHAR:
+                    return (char) OgnlOps.longValue( value );
+                case DOUBLE:
+                    return OgnlOps.doubleValue( value );
+                case FLOAT:
+                    return new Float( OgnlOps.doubleValue( value ) );
+                case BOOLEAN:
+                    return OgnlOps.booleanValue( value ) ? Boolean.TRUE : Boolean.FALSE;
+                case BIG_INTEGER:
+                    return OgnlOps.bigIntValue( value );
+                case BIG_DECIMAL:
+                    return OgnlOps.bigDecValue( value );
+                case STRING:
+                    return OgnlOps.stringValue( value );
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * The first element of an array converted to a type that is not an array.
+     */
+    private static final class FirstElementPlan
+        implements ConversionPlan
+    {
+        private final Class<?> _toType;
+
+        FirstElementPlan( Class<?> toType )
+        {
+            _toType = toType;
+        }
+
+        public Object convert( Object value )
+            throws OgnlException
+        {
+            return OgnlOps.convertValue( Array.get( value, 0 ), _toType );
+        }
+    }
+
+    /**
+     * An array of primitives converted to an array of other primitives, element by element without boxing.
+     */
+    private static final class PrimitiveArrayPlan
+        implements ConversionPlan
+    {
+        private final int _fromKind;
+
+        private final int _toKind;
+
+        private final Class<?> _toComponent;
+
+        PrimitiveArrayPlan( int fromKind, int toKind, Class<?> toComponent )
+        {
+            _fromKind = fromKind;
+            _toKind = toKind;
+            _toComponent = toComponent;
+        }
+
+        public Object convert( Object value )
+        {
+            int length = Array.getLength( value );
+            Object result = Array.newInstance( _toComponent, length );
+
+            switch ( _toKind )
+            {
+                case INT:
+                {
+                    int[] a = (int[]) result;
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        a[i] = (int) longAt( value, _fromKind, i );
+                    }
+                    break;
+                }
+                case LONG:
+                {
+                    long[] a = (long[]) result;
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        a[i] = longAt( value, _fromKind, i );
+                    }
+                    break;
+                }
+                case SHORT:
+                {
+                    short[] a = (short[]) result;
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        a[i] = (short) longAt( value, _fromKind, i );
+                    }
+                    break;
+                }
+                case BYTE:
+                {
+                    byte[] a = (byte[]) result;
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        a[i] = (byte) longAt( value, _fromKind, i );
+                    }
+                    break;
+                }
+                case CHAR:
+                {
+                    char[] a = (char[]) result;
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        a[i] = (char) longAt( value, _fromKind, i );
+                    }
+                    break;
+                }
+                case DOUBLE:
+                {
+                    double[] a = (double[]) result;
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        a[i] = doubleAt( value, _fromKind, i );
+                    }
+                    break;
+                }
+                case FLOAT:
+                {
+                    float[] a = (float[]) result;
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        a[i] = (float) doubleAt( value, _fromKind, i );
+                    }
+                    break;
+                }
+                case BOOLEAN:
+                {
+                    boolean[] a = (boolean[]) result;
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        a[i] = doubleAt( value, _fromKind, i ) != 0;
+                    }
+                    break;
+                }
+                default:
+                    return null;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Any other array converted to another array, element by element.
+     */
+    private static final class ArrayPlan
+        implements ConversionPlan
+    {
+        /*
+         * kind of the source elements if they are primitives, read without reflection
+         */
+        private final int _fromKind;
+
+        private final Class<?> _toComponent;
+
+        ArrayPlan( int fromKind, Class<?> toComponent )
+        {
+            _fromKind = fromKind;
+            _toComponent = toComponent;
+        }
+
+        public Object convert( Object value )
+            throws OgnlException
+        {
+            int length = Array.getLength( value );
+            Object result = Array.newInstance( _toComponent, length );
+
+            if ( _toComponent.isPrimitive() )
+            {
+                Object[] elements = (Object[]) value;
+                int toKind = kind( _toComponent );
+                for ( int i = 0; i < length; i++ )
+                {
+                    set( result, toKind, i, OgnlOps.convertValue( elements[i], _toComponent ) );
+                }
+            }
+            else
+            {
+                Object[] a = (Object[]) result;
+                for ( int i = 0; i < length; i++ )
+                {
+                    Object element = ( _fromKind == NONE ) ? ( (Object[]) value )[i] : Array.get( value, i );
+                    a[i] = OgnlOps.convertValue( element, _toComponent );
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Stores a value, as converted to the primitive type of the array, without reflection.
+     */
+    private static void set( Object array, int kind, int i, Object value )
+    {
+        switch ( kind )
+        {
+            case INT:
+                ( (int[]) array )[i] = (Integer) value;
+                break;
+            case LONG:
+                ( (long[]) array )[i] = (Long) value;
+                break;
+            case SHORT:
+                ( (short[]) array )[i] = (Short) value;
+                break;
+            case BYTE:
+                ( (byte[]) array )[i] = (Byte) value;
+                break;
+            case CHAR:
+                ( (char[]) array )[i] = (Character) value;
+                break;
+            case DOUBLE:
+                ( (double[]) array )[i] = (Double) value;
+                break;
+            case FLOAT:
+                ( (float[]) array )[i] = (Float) value;
+                break;
+            default:
+                ( (boolean[]) array )[i] = (Boolean) value;
+        }
+    }
+
+    private static long longAt( Object array, int kind, int i )
+    {
+        switch ( kind )
+        {
+            case INT:
+                return ( (int[]) array )[i];
+            case LONG:
+                return ( (long[]) array )[i];
+            case SHORT:
+                return ( (short[]) array )[i];
+            case BYTE:
+                return ( (byte[]) array )[i];
+            case CHAR:
+                return ( (char[]) array )[i];
+            case DOUBLE:
+                return (long) ( (double[]) array )[i];
+            case FLOAT:
+                return (long) ( (float[]) array )[i];
+            default:
+                return ( (boolean[]) array )[i] ? 1 : 0;
+        }
+    }
+
+    private static double doubleAt( Object array, int kind, int i )
+    {
+        switch ( kind )
+        {
+            case INT:
+                return ( (int[]) array )[i];
+            case LONG:
+                return ( (long[]) array )[i];
+            case SHORT:
+                return ( (short[]) array )[i];
+            case BYTE:
+                return ( (byte[]) array )[i];
+            case CHAR:
+                return ( (char[]) array )[i];
+            case DOUBLE:
+                return ( (double[]) array )[i];
+            case FLOAT:
+                return ( (float[]) array )[i];
+            default:
+                return ( (boolean[]) array )[i] ? 1 : 0;
+        }
+    }
+}
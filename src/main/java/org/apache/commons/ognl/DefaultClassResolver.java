@@ -19,12 +19,22 @@ package org.apache.commons.ognl;
  * under the License.
  */
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Default class resolution. Uses Class.forName() to look up classes by name. It also looks in the "java.lang" package
  * if the class named does not give a package specifier, allowing easier usage of these classes.
+ * <p>
+ * The packages and classes searched for names without a package can be configured, and classes are looked up through
+ * a given class loader. Every answer, including up to {@link #MAX_NOT_FOUND} names of classes which cannot be found,
+ * is cached by the resolver, so a name only goes through the class loader once: use one resolver per class loader,
+ * and a new one if classes may appear in it later on.
+ * </p>
  * 
  * @author Luke Blanshard (blanshlu@netscape.net)
  * @author Drew Davidson (drew@ognl.org)
@@ -32,7 +42,80 @@ import java.util.Map;
 public class DefaultClassResolver
     implements ClassResolver
 {
-    private final Map<String, Class<?>> classes = new HashMap<String, Class<?>>( 101 );
+    /**
+     * Searched for class names without a package when no other imports are given.
+     */
+    public static final List<String> DEFAULT_IMPORTS = Collections.singletonList( "java.lang.*" );
+
+    /**
+     * Number of names which cannot be resolved remembered by a resolver, beyond it such names go through the class
+     * loader on each lookup. Expressions may come from user input, which must not grow the cache without bounds.
+     */
+    public static final int MAX_NOT_FOUND = 256;
+
+    /**
+     * Cached for the names which cannot be resolved.
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    private final ConcurrentMap<String, Object> classes = new ConcurrentHashMap<String, Object>( 101 );
+
+    private final AtomicInteger notFoundCount = new AtomicInteger();
+
+    private final ClassLoader classLoader;
+
+    private final String[] classImports;
+
+    private final String[] packageImports;
+
+    public DefaultClassResolver()
+    {
+        this( null, DEFAULT_IMPORTS );
+    }
+
+    /**
+     * @param classLoader the class loader to look classes up with, null for the class loader of OGNL
+     */
+    public DefaultClassResolver( ClassLoader classLoader )
+    {
+        this( classLoader, DEFAULT_IMPORTS );
+    }
+
+    /**
+     * @param classLoader the class loader to look classes up with, null for the class loader of OGNL
+     * @param imports searched in order for class names without a package, each being either a class name, as in
+     *            <code>java.util.List</code>, or a package name followed by <code>.*</code>, as in
+     *            <code>java.lang.*</code>
+     */
+    public DefaultClassResolver( ClassLoader classLoader, List<String> imports )
+    {
+        this.classLoader = ( classLoader != null ) ? classLoader : DefaultClassResolver.class.getClassLoader();
+
+        int packageCount = 0;
+        for ( String imported : imports )
+        {
+            if ( imported.endsWith( ".*" ) )
+            {
+                packageCount++;
+            }
+        }
+        classImports = new String[imports.size() - packageCount];
+        packageImports = new String[packageCount];
+
+        int c = 0, p = 0;
+        for ( String imported : imports )
+        {
+            if ( imported.endsWith( ".*" ) )
+            {
+                // keep the dot
+                packageImports[p++] = imported.substring( 0, imported.length() - 1 );
+            }
+            else
+            {
+                classImports[c++] = imported;
+            }
+        }
+    }
 
     /**
      * {@inheritDoc}
@@ -40,24 +123,58 @@ public class DefaultClassResolver
     public Class<?> classForName( String className, Map<String, Object> context )
         throws ClassNotFoundException
     {
-        Class<?> result = null;
+        Object result = classes.get( className );
 
-        if ( ( result = classes.get( className ) ) == null )
+        if ( result == null )
         {
-            try
+            result = resolve( className );
+            if ( result != NOT_FOUND )
+            {
+                classes.put( className, result );
+            }
+            else if ( notFoundCount.get() < MAX_NOT_FOUND && classes.putIfAbsent( className, result ) == null )
             {
-                result = Class.forName( className );
+                notFoundCount.incrementAndGet();
             }
-            catch ( ClassNotFoundException ex )
+        }
+        if ( result == NOT_FOUND )
+        {
+            throw new ClassNotFoundException( className );
+        }
+        return (Class<?>) result;
+    }
+
+    private Object resolve( String className )
+    {
+        Class<?> result = load( className );
+
+        if ( ( result == null ) && ( className.indexOf( '.' ) == -1 ) )
+        {
+            String suffix = "." + className;
+            for ( int i = 0; ( result == null ) && ( i < classImports.length ); i++ )
             {
-                if ( className.indexOf( '.' ) == -1 )
+                if ( classImports[i].endsWith( suffix ) )
                 {
-                    result = Class.forName( "java.lang." + className );
-                    classes.put( "java.lang." + className, result );
+                    result = load( classImports[i] );
                 }
             }
-            classes.put( className, result );
+            for ( int i = 0; ( result == null ) && ( i < packageImports.length ); i++ )
+            {
+                result = load( packageImports[i] + className );
+            }
+        }
+        return ( result != null ) ? result : NOT_FOUND;
+    }
+
+    private Class<?> load( String className )
+    {
+        try
+        {
+            return Class.forName( className, true, classLoader );
+        }
+        catch ( ClassNotFoundException ex )
+        {
+            return null;
         }
-        return result;
     }
 }
@@ -0,0 +1,107 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Default {@link MethodInvokerFactory}, invoking methods through reflection.
+ * <p>
+ * Methods that need access are made accessible once, on a private copy of the {@link Method} so that the instance
+ * handed in by the caller is left untouched. Invocations therefore never toggle the accessible flag nor synchronize.
+ * If the copy cannot be made accessible (i.e. a security manager forbids it) the historical behaviour of enabling
+ * access around each call is kept.
+ * </p>
+ */
+public class DefaultMethodInvokerFactory
+    implements MethodInvokerFactory
+{
+    public MethodInvoker createInvoker( Method method, boolean needsAccess )
+    {
+        if ( !needsAccess )
+        {
+            return new ReflectionMethodInvoker( method );
+        }
+
+        try
+        {
+            Method copy =
+                method.getDeclaringClass( ).getDeclaredMethod( method.getName( ), method.getParameterTypes( ) );
+            copy.setAccessible( true );
+            return new ReflectionMethodInvoker( copy );
+        }
+        catch ( NoSuchMethodException e )
+        {
+            return new AccessTogglingMethodInvoker( method );
+        }
+        catch ( SecurityException e )
+        {
+            return new AccessTogglingMethodInvoker( method );
+        }
+    }
+
+    static class ReflectionMethodInvoker
+        implements MethodInvoker
+    {
+        private final Method method;
+
+        ReflectionMethodInvoker( Method method )
+        {
+            this.method = method;
+        }
+
+        public Object invoke( Object target, Object[] args )
+            throws InvocationTargetException, IllegalAccessException
+        {
+            return method.invoke( target, args );
+        }
+    }
+
+    static class AccessTogglingMethodInvoker
+        implements MethodInvoker
+    {
+        private final Method method;
+
+        AccessTogglingMethodInvoker( Method method )
+        {
+            this.method = method;
+        }
+
+        public Object invoke( Object target, Object[] args )
+            throws InvocationTargetException, IllegalAccessException
+        {
+            synchronized ( method )
+            {
+                method.setAccessible( true );
+                try
+                {
+                    return method.invoke( target, args );
+                }
+                finally
+                {
+                    method.setAccessible( false );
+                }
+            }
+        }
+    }
+}
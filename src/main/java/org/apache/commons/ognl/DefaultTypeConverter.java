@@ -31,13 +31,40 @@ import java.util.Map;
 public class DefaultTypeConverter
     implements TypeConverter
 {
+    private volatile ConversionPlans _conversionPlans;
+
+    /**
+     * Registers a plan converting the values of exactly <code>fromType</code> to <code>toType</code>, used by this
+     * converter in place of the built-in conversion. See {@link ConversionPlans}.
+     */
+    public void registerConversionPlan( Class<?> fromType, Class<?> toType, ConversionPlan plan )
+    {
+        synchronized ( this )
+        {
+            if ( _conversionPlans == null )
+            {
+                _conversionPlans = new ConversionPlans();
+            }
+        }
+        _conversionPlans.register( fromType, toType, plan );
+    }
 
     public <T> T convertValue( Map<String, Object> context, Object value, Class<T> toType )
         throws OgnlException
     {
+        ConversionPlans plans = _conversionPlans;
+        Object ret;
+        if ( plans == null || value == null )
+        {
+            ret = OgnlOps.convertValue( value, toType );
+        }
+        else
+        {
+            ret = OgnlOps.convertValue( value, toType, false, plans.get( value.getClass(), toType ) );
+        }
         @SuppressWarnings( "unchecked" ) // type checking performed in OgnlOps.convertValue( value, toType )
-        T ret = (T) OgnlOps.convertValue( value, toType );
-        return ret;
+        T result = (T) ret;
+        return result;
     }
 
     /**
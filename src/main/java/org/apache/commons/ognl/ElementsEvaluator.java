@@ -0,0 +1,621 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.enhance.ExpressionAccessor;
+import org.apache.commons.ognl.enhance.ExpressionCompiler;
+
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates projections (<code>{ expr }</code>) and selections (<code>{? expr }</code>, <code>{^ expr }</code>,
+ * <code>{$ expr }</code>) over the elements of a source, either sequentially, in parallel once the source reaches
+ * {@link OgnlRuntime#getParallelThreshold()} elements, or lazily when the context asks for
+ * {@link OgnlContext#getLazyCollections() lazy collections}.
+ * <p>
+ * Arrays of objects, random access lists and other collections are walked directly, as long as their
+ * {@link ElementsAccessor} is the default one. The expression applied to each element is evaluated through its
+ * accessor when it has been compiled, see {@link #toGetSourceString(OgnlContext, Node, Object)}.
+ * </p>
+ */
+final class ElementsEvaluator
+{
+    static final int PROJECT = 0;
+
+    static final int SELECT = 1;
+
+    static final int SELECT_FIRST = 2;
+
+    static final int SELECT_LAST = 3;
+
+    /**
+     * Set while evaluating a part of a parallel projection or selection: nested ones run sequentially, so that the
+     * threads of the executor never wait for each other.
+     */
+    private static final ThreadLocal<Boolean> IN_PARALLEL_PART = new ThreadLocal<Boolean>();
+
+    private ElementsEvaluator()
+    {
+    }
+
+    /**
+     * @return the kind of projection or selection of the node
+     */
+    static int kindOf( Node node )
+    {
+        if ( node instanceof ASTProject )
+        {
+            return PROJECT;
+        }
+        if ( node instanceof ASTSelect )
+        {
+            return SELECT;
+        }
+        if ( node instanceof ASTSelectFirst )
+        {
+            return SELECT_FIRST;
+        }
+        if ( node instanceof ASTSelectLast )
+        {
+            return SELECT_LAST;
+        }
+        throw new IllegalArgumentException( "not a projection or selection: " + node );
+    }
+
+    /**
+     * Applies the first child of <code>node</code> to the elements of <code>source</code>.
+     *
+     * @param body the accessor evaluating the first child of <code>node</code>, or null to interpret it
+     * @return the values of the child for a projection, the elements for which it is true for a selection
+     */
+    static List<Object> evaluate( OgnlContext context, Node node, int kind, ExpressionAccessor body, Object source )
+        throws OgnlException
+    {
+        Node expr = node.jjtGetChild( 0 );
+        ElementsAccessor elementsAccessor = OgnlRuntime.getElementsAccessor( OgnlRuntime.getTargetClass( source ) );
+        Object[] array = null;
+        List<?> list = null;
+
+        if ( ( elementsAccessor.getClass() == ArrayElementsAccessor.class ) && ( source instanceof Object[] ) )
+        {
+            array = (Object[]) source;
+        }
+        else if ( ( elementsAccessor.getClass() == CollectionElementsAccessor.class ) && ( source instanceof List )
+            && ( source instanceof RandomAccess ) )
+        {
+            list = (List<?>) source;
+        }
+
+        if ( ( kind == SELECT_FIRST ) || ( kind == SELECT_LAST ) )
+        {
+            return selectOne( context, expr, kind, body, source, elementsAccessor, array, list );
+        }
+
+        if ( context.getLazyCollections() )
+        {
+            return new LazyList( context.copy(), expr, kind, body, elementsAccessor.getElements( source ) );
+        }
+
+        int threshold = OgnlRuntime.getParallelThreshold();
+        int size;
+        if ( ( threshold > 0 ) && ( IN_PARALLEL_PART.get() == null )
+            && ( ( ( size = sizeOf( source, array, list ) ) < 0 ) || ( size >= threshold ) ) )
+        {
+            Object[] elements = ( array != null ) ? array
+                            : ( source instanceof Collection ) ? ( (Collection<?>) source ).toArray()
+                                            : Collections.list( elementsAccessor.getElements( source ) ).toArray();
+            if ( elements.length >= threshold )
+            {
+                return evaluateParallel( context, expr, kind, body, elements );
+            }
+            array = elements;
+        }
+
+        List<Object> answer;
+        if ( array != null )
+        {
+            answer = new ArrayList<Object>( ( kind == PROJECT ) ? array.length : 10 );
+            for ( Object element : array )
+            {
+                evaluate( context, expr, kind, body, element, answer );
+            }
+        }
+        else if ( list != null )
+        {
+            int count = list.size();
+            answer = new ArrayList<Object>( ( kind == PROJECT ) ? count : 10 );
+            for ( int i = 0; i < count; i++ )
+            {
+                evaluate( context, expr, kind, body, list.get( i ), answer );
+            }
+        }
+        else if ( ( elementsAccessor.getClass() == CollectionElementsAccessor.class ) && ( source instanceof Collection ) )
+        {
+            answer = new ArrayList<Object>();
+            for ( Object element : (Collection<?>) source )
+            {
+                evaluate( context, expr, kind, body, element, answer );
+            }
+        }
+        else
+        {
+            answer = new ArrayList<Object>();
+            for ( Enumeration<?> e = elementsAccessor.getElements( source ); e.hasMoreElements(); )
+            {
+                evaluate( context, expr, kind, body, e.nextElement(), answer );
+            }
+        }
+        return answer;
+    }
+
+    private static Object value( OgnlContext context, Node expr, ExpressionAccessor body, Object element )
+        throws OgnlException
+    {
+        return ( body == null ) ? expr.getValue( context, element ) : body.get( context, element );
+    }
+
+    private static void evaluate( OgnlContext context, Node expr, int kind, ExpressionAccessor body, Object element,
+                                  List<Object> answer )
+        throws OgnlException
+    {
+        Object value = value( context, expr, body, element );
+        if ( kind == PROJECT )
+        {
+            answer.add( value );
+        }
+        else if ( OgnlOps.booleanValue( value ) )
+        {
+            answer.add( element );
+        }
+    }
+
+    /**
+     * Walks the elements of arrays and random access lists backwards to find the last match.
+     */
+    private static List<Object> selectOne( OgnlContext context, Node expr, int kind, ExpressionAccessor body,
+                                           Object source, ElementsAccessor elementsAccessor, Object[] array,
+                                           List<?> list )
+        throws OgnlException
+    {
+        List<Object> answer = new ArrayList<Object>();
+
+        if ( ( kind == SELECT_LAST ) && ( ( array != null ) || ( list != null ) ) )
+        {
+            for ( int i = ( array != null ) ? array.length - 1 : list.size() - 1; i >= 0; i-- )
+            {
+                Object element = ( array != null ) ? array[i] : list.get( i );
+                if ( OgnlOps.booleanValue( value( context, expr, body, element ) ) )
+                {
+                    answer.add( element );
+                    break;
+                }
+            }
+            return answer;
+        }
+
+        Object last = null;
+        boolean found = false;
+        for ( Enumeration<?> e = elementsAccessor.getElements( source ); e.hasMoreElements(); )
+        {
+            Object element = e.nextElement();
+            if ( OgnlOps.booleanValue( value( context, expr, body, element ) ) )
+            {
+                last = element;
+                found = true;
+                if ( kind == SELECT_FIRST )
+                {
+                    break;
+                }
+            }
+        }
+        if ( found )
+        {
+            answer.add( last );
+        }
+        return answer;
+    }
+
+    /**
+     * @return the number of elements of a collection, map or array, -1 when it is not known without enumerating
+     */
+    private static int sizeOf( Object source, Object[] array, List<?> list )
+    {
+        if ( array != null )
+        {
+            return array.length;
+        }
+        if ( list != null )
+        {
+            return list.size();
+        }
+        if ( source instanceof Collection )
+        {
+            return ( (Collection<?>) source ).size();
+        }
+        if ( ( source != null ) && source.getClass().isArray() )
+        {
+            return Array.getLength( source );
+        }
+        return -1;
+    }
+
+    private static List<Object> evaluateParallel( OgnlContext context, Node expr, int kind, ExpressionAccessor body,
+                                                  Object[] elements )
+        throws OgnlException
+    {
+        int parts = Math.min( Runtime.getRuntime().availableProcessors(), elements.length );
+        if ( parts < 2 )
+        {
+            return new Part( context.copy(), expr, kind, body, elements, 0, elements.length ).call();
+        }
+
+        if ( expr instanceof SimpleNode )
+        {
+            // the parts share the tree, its lazily initialised state is settled before they are submitted
+            ( (SimpleNode) expr ).decideConstants( context.copy() );
+        }
+
+        ExecutorService executor = OgnlRuntime.getParallelExecutor();
+        List<Future<List<Object>>> futures = new ArrayList<Future<List<Object>>>( parts - 1 );
+        List<List<Object>> results = new ArrayList<List<Object>>( parts );
+        int partSize = ( elements.length + parts - 1 ) / parts;
+
+        try
+        {
+            // the evaluating thread takes the first part, the executor the others
+            for ( int from = partSize; from < elements.length; from += partSize )
+            {
+                Part part =
+                    new Part( context.copy(), expr, kind, body, elements, from,
+                              Math.min( from + partSize, elements.length ) );
+                try
+                {
+                    futures.add( executor.submit( part ) );
+                }
+                catch ( RejectedExecutionException e )
+                {
+                    futures.add( new EvaluatedPart( part.call() ) );
+                }
+            }
+            results.add( new Part( context.copy(), expr, kind, body, elements, 0, partSize ).call() );
+
+            for ( Future<List<Object>> future : futures )
+            {
+                results.add( future.get() );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new OgnlException( "interrupted while evaluating " + expr + " in parallel", e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof OgnlException )
+            {
+                throw (OgnlException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new OgnlException( "error evaluating " + expr + " in parallel", cause );
+        }
+        finally
+        {
+            for ( Future<List<Object>> future : futures )
+            {
+                future.cancel( false );
+            }
+        }
+
+        int size = 0;
+        for ( List<Object> result : results )
+        {
+            size += result.size();
+        }
+        List<Object> answer = new ArrayList<Object>( size );
+        for ( List<Object> result : results )
+        {
+            answer.addAll( result );
+        }
+        return answer;
+    }
+
+    /**
+     * Generates the java source of a projection or selection for {@link ExpressionCompiler}: the node evaluates itself
+     * against the compiled source, and its first child is compiled on its own against the first element, so that every
+     * element of the same class is evaluated through that accessor.
+     */
+    static String toGetSourceString( OgnlContext context, Node node, Object target )
+    {
+        try
+        {
+            compileBody( context, node.jjtGetChild( 0 ), target );
+
+            String result = ExpressionCompiler.getNodeValueSource( context, node, List.class );
+
+            context.setCurrentObject( node.getValue( context, target ) );
+            context.setCurrentType( List.class );
+            context.setCurrentAccessor( List.class );
+
+            return result;
+        }
+        catch ( Throwable t )
+        {
+            throw OgnlOps.castToRuntime( t );
+        }
+    }
+
+    private static void compileBody( OgnlContext context, Node body, Object source )
+        throws OgnlException
+    {
+        if ( ( body.getAccessor() != null ) || ( source == null ) || ( source instanceof Iterator )
+            || ( source instanceof Enumeration ) )
+        {
+            return;
+        }
+
+        Enumeration<?> elements =
+            OgnlRuntime.getElementsAccessor( OgnlRuntime.getTargetClass( source ) ).getElements( source );
+        Object sample = elements.hasMoreElements() ? elements.nextElement() : null;
+        if ( sample == null )
+        {
+            return;
+        }
+
+        OgnlContext bodyContext = context.copy();
+        // drop the state kept by the compiler while generating the enclosing expression
+        for ( Iterator<String> it = bodyContext.keySet().iterator(); it.hasNext(); )
+        {
+            if ( it.next().startsWith( "_" ) )
+            {
+                it.remove();
+            }
+        }
+
+        try
+        {
+            OgnlRuntime.compileExpression( bodyContext, body, sample );
+        }
+        catch ( Throwable t )
+        {
+            body.setAccessor( null );
+        }
+    }
+
+    /**
+     * A range of the elements, evaluated with its own context.
+     */
+    private static final class Part
+        implements Callable<List<Object>>
+    {
+        private final OgnlContext _context;
+
+        private final Node _expr;
+
+        private final int _kind;
+
+        private final ExpressionAccessor _body;
+
+        private final Object[] _elements;
+
+        private final int _from;
+
+        private final int _to;
+
+        Part( OgnlContext context, Node expr, int kind, ExpressionAccessor body, Object[] elements, int from, int to )
+        {
+            _context = context;
+            _expr = expr;
+            _kind = kind;
+            _body = body;
+            _elements = elements;
+            _from = from;
+            _to = to;
+        }
+
+        public List<Object> call()
+            throws OgnlException
+        {
+            Boolean nested = IN_PARALLEL_PART.get();
+            IN_PARALLEL_PART.set( Boolean.TRUE );
+            try
+            {
+                List<Object> answer = new ArrayList<Object>( ( _kind == PROJECT ) ? _to - _from : 16 );
+                for ( int i = _from; i < _to; i++ )
+                {
+                    evaluate( _context, _expr, _kind, _body, _elements[i], answer );
+                }
+                return answer;
+            }
+            finally
+            {
+                IN_PARALLEL_PART.set( nested );
+            }
+        }
+    }
+
+    /**
+     * A part the executor rejected, evaluated by the evaluating thread.
+     */
+    private static final class EvaluatedPart
+        implements Future<List<Object>>
+    {
+        private final List<Object> _result;
+
+        EvaluatedPart( List<Object> result )
+        {
+            _result = result;
+        }
+
+        public boolean cancel( boolean mayInterruptIfRunning )
+        {
+            return false;
+        }
+
+        public boolean isCancelled()
+        {
+            return false;
+        }
+
+        public boolean isDone()
+        {
+            return true;
+        }
+
+        public List<Object> get()
+        {
+            return _result;
+        }
+
+        public List<Object> get( long timeout, TimeUnit unit )
+        {
+            return _result;
+        }
+    }
+
+    /**
+     * Projection or selection evaluating the elements of its source as they are asked for. Errors are thrown from the
+     * list methods as a {@link RuntimeException} wrapping the {@link OgnlException}.
+     */
+    static final class LazyList
+        extends AbstractList<Object>
+    {
+        private final OgnlContext _context;
+
+        private final Node _expr;
+
+        private final int _kind;
+
+        private final ExpressionAccessor _body;
+
+        private Enumeration<?> _elements;
+
+        private final List<Object> _evaluated = new ArrayList<Object>();
+
+        LazyList( OgnlContext context, Node expr, int kind, ExpressionAccessor body, Enumeration<?> elements )
+        {
+            _context = context;
+            _expr = expr;
+            _kind = kind;
+            _body = body;
+            _elements = elements;
+        }
+
+        /**
+         * Evaluates elements until the one at <code>index</code> is known or the source is exhausted.
+         */
+        private synchronized boolean evaluateTo( int index )
+        {
+            while ( ( _evaluated.size() <= index ) && ( _elements != null ) )
+            {
+                if ( !_elements.hasMoreElements() )
+                {
+                    _elements = null;
+                    break;
+                }
+                Object element = _elements.nextElement();
+                try
+                {
+                    evaluate( _context, _expr, _kind, _body, element, _evaluated );
+                }
+                catch ( OgnlException e )
+                {
+                    throw new RuntimeException( "Error evaluating " + _expr + " on " + element, e );
+                }
+            }
+            return index < _evaluated.size();
+        }
+
+        @Override
+        public synchronized Object get( int index )
+        {
+            if ( ( index < 0 ) || !evaluateTo( index ) )
+            {
+                throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size() );
+            }
+            return _evaluated.get( index );
+        }
+
+        @Override
+        public synchronized int size()
+        {
+            evaluateTo( Integer.MAX_VALUE );
+            return _evaluated.size();
+        }
+
+        @Override
+        public boolean isEmpty()
+        {
+            return !evaluateTo( 0 );
+        }
+
+        @Override
+        public Iterator<Object> iterator()
+        {
+            return new Iterator<Object>()
+            {
+                private int _next;
+
+                public boolean hasNext()
+                {
+                    return evaluateTo( _next );
+                }
+
+                public Object next()
+                {
+                    if ( !hasNext() )
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return get( _next++ );
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.ognl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Low overhead alternative to {@link OgnlContext#setTraceEvaluations(boolean)}, meant to be left on in production.
+ * <p>
+ * Installed with {@link OgnlContext#setEvaluationTracer(EvaluationTracer)}, a tracer samples one evaluation in
+ * {@link #getSampleInterval()} of the expressions enabled (all of them unless {@link #enable(Node)} was called). A
+ * sampled evaluation is interpreted, even if the expression has been compiled, and every node evaluated records an
+ * event into the preallocated {@link TraceBuffer} of the context; no {@link Evaluation} is created. The buffer is then
+ * handed to the {@link TraceListener}. Evaluations that are not sampled only pay for a counter increment, and
+ * contexts without a tracer for a null check.
+ * </p>
+ * <p>
+ * Tracers are thread-safe and can be shared by any number of contexts.
+ * </p>
+ */
+public final class EvaluationTracer
+{
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final TraceListener _listener;
+
+    private final int _capacity;
+
+    private final int _sampleInterval;
+
+    private final AtomicLong _evaluations = new AtomicLong();
+
+    private final Map<Node, Boolean> _expressions = new ConcurrentHashMap<Node, Boolean>();
+
+    /**
+     * Creates a tracer recording every evaluation into buffers of {@link #DEFAULT_CAPACITY} events.
+     */
+    public EvaluationTracer( TraceListener listener )
+    {
+        this( listener, 1, DEFAULT_CAPACITY );
+    }
+
+    /**
+     * @param listener receives the sampled evaluations
+     * @param sampleInterval records one evaluation in <code>sampleInterval</code>
+     * @param capacity the number of events kept per evaluation
+     */
+    public EvaluationTracer( TraceListener listener, int sampleInterval, int capacity )
+    {
+        if ( listener == null )
+        {
+            throw new IllegalArgumentException( "listener cannot be null" );
+        }
+        if ( sampleInterval <= 0 )
+        {
+            throw new IllegalArgumentException( "sampleInterval must be positive: " + sampleInterval );
+        }
+        if ( capacity <= 0 )
+        {
+            throw new IllegalArgumentException( "capacity must be positive: " + capacity );
+        }
+        _listener = listener;
+        _sampleInterval = sampleInterval;
+        _capacity = capacity;
+    }
+
+    public TraceListener getListener()
+    {
+        return _listener;
+    }
+
+    public int getSampleInterval()
+    {
+        return _sampleInterval;
+    }
+
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    /**
+     * Restricts tracing to the given expression, and to the other ones enabled. Expressions are matched by identity,
+     * as returned by {@link Ognl#parseExpression(String)}.
+     */
+    public void enable( Node expression )
+    {
+        _expressions.put( expression, Boolean.TRUE );
+    }
+
+    /**
+     * Stops tracing the given expression; once no expression is enabled anymore every expression is traced again.
+     */
+    public void disable( Node expression )
+    {
+        _expressions.remove( expression );
+    }
+
+    /**
+     * @return true if the evaluation of the expression about to start on the context is to be traced
+     */
+    boolean sample( OgnlContext context, Node expression )
+    {
+        if ( context.getActiveTrace() != null || context.getTraceEvaluations() )
+        {
+            // nested evaluation, or traced the old way
+            return false;
+        }
+        if ( !_expressions.isEmpty() && !_expressions.containsKey( expression ) )
+        {
+            return false;
+        }
+        return ( _sampleInterval == 1 ) || ( _evaluations.getAndIncrement() % _sampleInterval == 0 );
+    }
+
+    Object getValue( OgnlContext context, Node expression, Object root )
+        throws OgnlException
+    {
+        TraceBuffer trace = context.startTrace( _capacity );
+        try
+        {
+            return expression.getValue( context, root );
+        }
+        finally
+        {
+            context.stopTrace();
+            publish( context, expression, trace );
+        }
+    }
+
+    void setValue( OgnlContext context, Node expression, Object root, Object value )
+        throws OgnlException
+    {
+        TraceBuffer trace = context.startTrace( _capacity );
+        try
+        {
+            expression.setValue( context, root, value );
+        }
+        finally
+        {
+            context.stopTrace();
+            publish( context, expression, trace );
+        }
+    }
+
+    private void publish( OgnlContext context, Node expression, TraceBuffer trace )
+    {
+        try
+        {
+            _listener.evaluationTraced( context, expression, trace );
+        }
+        finally
+        {
+            trace.clear();
+        }
+    }
+}
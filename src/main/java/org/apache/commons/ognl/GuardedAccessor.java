@@ -0,0 +1,293 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.enhance.ExpressionAccessor;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Guards the accessor generated by {@link org.apache.commons.ognl.enhance.ExpressionCompiler}, which casts the root to
+ * the class of the sample root it was compiled against, so that a compiled expression can be evaluated against roots
+ * of any class.
+ * <p>
+ * Each root class gets its own accessor, looked up by identity in a small table: the first one is the accessor compiled
+ * with the expression, the next ones are compiled by the first evaluation meeting a root of their class, on the
+ * evaluating thread and against that root, from a fresh parse of the text of the expression, see
+ * {@link SimpleNode#parseCopy(Node)}. Threads meeting roots of that class meanwhile interpret them. Once
+ * {@link #MAX_SPECIALISATIONS} root classes have been seen the expression is megamorphic and roots of any further
+ * class are always interpreted, as are null roots. Roots of a class the compiler failed on are interpreted too, the
+ * failure being kept, see {@link #getCompilationFailure(Class)}; errors are not caught.
+ * </p>
+ * <p>
+ * The tree may live in the shared expression cache, so root classes are weakly referenced and their accessors, whose
+ * generated classes are bound to the loader of the root class, softly: neither keeps the class loader of a redeployed
+ * application alive. The slot of a collected class is reused; a root class whose accessor was collected is compiled
+ * again.
+ * </p>
+ */
+final class GuardedAccessor
+    implements ExpressionAccessor
+{
+    static final int MAX_SPECIALISATIONS = 4;
+
+    private final Node _node;
+
+    private volatile Specialisation[] _specialisations;
+
+    private GuardedAccessor( ExpressionAccessor accessor, Node node, Class<?> rootClass )
+    {
+        _node = node;
+        _specialisations = new Specialisation[] { new Specialisation( rootClass, accessor ) };
+    }
+
+    /**
+     * @return the accessor compiled for the root given, guarded unless it does not depend on the class of the root
+     */
+    static ExpressionAccessor guard( ExpressionAccessor accessor, Node node, Object root )
+    {
+        if ( accessor == null || accessor instanceof GuardedAccessor
+            || accessor instanceof ReflectiveExpressionCompiler.LinkedAccessor )
+        {
+            return accessor;
+        }
+        return new GuardedAccessor( accessor, node, ( root == null ) ? null : root.getClass() );
+    }
+
+    public Object get( OgnlContext context, Object target )
+    {
+        ExpressionAccessor accessor = accessorFor( context, target );
+        if ( accessor != null )
+        {
+            return accessor.get( context, target );
+        }
+        try
+        {
+            return _node.getValue( context, target );
+        }
+        catch ( OgnlException e )
+        {
+            throw OgnlOps.castToRuntime( e );
+        }
+    }
+
+    public void set( OgnlContext context, Object target, Object value )
+    {
+        ExpressionAccessor accessor = accessorFor( context, target );
+        if ( accessor != null )
+        {
+            accessor.set( context, target, value );
+            return;
+        }
+        try
+        {
+            _node.setValue( context, target, value );
+        }
+        catch ( OgnlException e )
+        {
+            throw OgnlOps.castToRuntime( e );
+        }
+    }
+
+    public void setExpression( Node expression )
+    {
+        ExpressionAccessor accessor = _specialisations[0].getAccessor();
+        if ( accessor != null )
+        {
+            accessor.setExpression( expression );
+        }
+    }
+
+    /**
+     * @return true once roots of more classes than {@link #MAX_SPECIALISATIONS} have been seen
+     */
+    boolean isMegamorphic()
+    {
+        return _specialisations.length > MAX_SPECIALISATIONS;
+    }
+
+    /**
+     * @return the number of root classes evaluated through an accessor of their own
+     */
+    int getSpecialisationCount()
+    {
+        int count = 0;
+        for ( Specialisation specialisation : _specialisations )
+        {
+            if ( specialisation.getAccessor() != null )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the exception the compiler failed with on roots of the given class, null if it did not fail
+     */
+    Exception getCompilationFailure( Class<?> rootClass )
+    {
+        for ( Specialisation specialisation : _specialisations )
+        {
+            if ( specialisation.isFor( rootClass ) )
+            {
+                return specialisation._failure;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the accessor for the class of the root, null to use the interpreter
+     */
+    private ExpressionAccessor accessorFor( OgnlContext context, Object target )
+    {
+        Class<?> rootClass = ( target == null ) ? null : target.getClass();
+        Specialisation[] specialisations = _specialisations;
+        for ( Specialisation specialisation : specialisations )
+        {
+            if ( specialisation.isFor( rootClass ) )
+            {
+                ExpressionAccessor accessor = specialisation.getAccessor();
+                if ( ( accessor != null ) || !specialisation.isCollected() )
+                {
+                    return accessor;
+                }
+                // compiled again
+                break;
+            }
+        }
+        if ( target != null && specialisations.length <= MAX_SPECIALISATIONS )
+        {
+            return specialise( context, target );
+        }
+        return null;
+    }
+
+    /**
+     * Records the class of the root, so that other threads interpret its roots, and compiles its accessor. Collected
+     * specialisations are dropped.
+     * 
+     * @return the accessor compiled, null if another thread compiles it or it could not be compiled
+     */
+    private ExpressionAccessor specialise( OgnlContext context, Object root )
+    {
+        Specialisation specialisation = new Specialisation( root.getClass(), null );
+        synchronized ( this )
+        {
+            Specialisation[] specialisations = _specialisations;
+            if ( specialisations.length > MAX_SPECIALISATIONS )
+            {
+                return null;
+            }
+            List<Specialisation> live = new ArrayList<Specialisation>( specialisations.length + 1 );
+            for ( Specialisation s : specialisations )
+            {
+                if ( s.isCollected() )
+                {
+                    continue;
+                }
+                if ( s.isFor( root.getClass() ) )
+                {
+                    return null;
+                }
+                live.add( s );
+            }
+            live.add( specialisation );
+            Specialisation[] grown = live.toArray( new Specialisation[live.size()] );
+            _specialisations = grown;
+            if ( grown.length > MAX_SPECIALISATIONS )
+            {
+                // megamorphic, that class and any other one are interpreted
+                return null;
+            }
+        }
+
+        // the evaluation goes on with its context, the compiler works on a copy of it and of the tree
+        OgnlContext compileContext = context.copy();
+        compileContext.setRoot( root );
+        try
+        {
+            Node copy = SimpleNode.parseCopy( _node );
+            OgnlRuntime.getCompiler().compileExpression( compileContext, copy, root );
+            ExpressionAccessor accessor = copy.getAccessor();
+            specialisation.setAccessor( accessor );
+            return accessor;
+        }
+        catch ( Exception e )
+        {
+            specialisation._failure = e;
+            return null;
+        }
+    }
+
+    /**
+     * Accessor used for the roots of one class, null while it is compiled, if it could not be, or once collected.
+     */
+    private static final class Specialisation
+    {
+        /** null for null roots */
+        private final WeakReference<Class<?>> _rootClass;
+
+        private volatile SoftReference<ExpressionAccessor> _accessor;
+
+        volatile Exception _failure;
+
+        Specialisation( Class<?> rootClass, ExpressionAccessor accessor )
+        {
+            _rootClass = ( rootClass == null ) ? null : new WeakReference<Class<?>>( rootClass );
+            setAccessor( accessor );
+        }
+
+        boolean isFor( Class<?> rootClass )
+        {
+            if ( _rootClass == null )
+            {
+                return rootClass == null;
+            }
+            return ( rootClass != null ) && ( _rootClass.get() == rootClass );
+        }
+
+        ExpressionAccessor getAccessor()
+        {
+            SoftReference<ExpressionAccessor> accessor = _accessor;
+            return ( accessor == null ) ? null : accessor.get();
+        }
+
+        void setAccessor( ExpressionAccessor accessor )
+        {
+            _accessor = ( accessor == null ) ? null : new SoftReference<ExpressionAccessor>( accessor );
+        }
+
+        /**
+         * @return true once the root class, or the accessor compiled for it, has been collected
+         */
+        boolean isCollected()
+        {
+            SoftReference<ExpressionAccessor> accessor = _accessor;
+            return ( ( _rootClass != null ) && ( _rootClass.get() == null ) )
+                || ( ( accessor != null ) && ( accessor.get() == null ) );
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Hash index over the constant elements of the list literal on the right of <code>in</code> / <code>not in</code>,
+ * answering membership without walking the list.
+ * <p>
+ * {@link OgnlOps#equal(Object, Object)} converts between types, so only lists made entirely of strings, or entirely of
+ * numbers, are indexed. Strings equal each other exactly when {@link String#equals(Object)} says so. Numbers equal
+ * each other when their double values are equal, except that a Float and a BigInteger / BigDecimal are compared
+ * through their decimal string; those probes fall back to the linear scan, as do NaN, infinite values and any probe
+ * of another kind.
+ * </p>
+ */
+final class InIndex
+{
+    /**
+     * Used when the list is not a constant list literal, or cannot be indexed.
+     */
+    static final InIndex NONE = new InIndex( null, false, false, false );
+
+    private final Set<Object> _keys;
+
+    private final boolean _numeric;
+
+    private final boolean _hasFloat;
+
+    private final boolean _hasBig;
+
+    private InIndex( Set<Object> keys, boolean numeric, boolean hasFloat, boolean hasBig )
+    {
+        _keys = keys;
+        _numeric = numeric;
+        _hasFloat = hasFloat;
+        _hasBig = hasBig;
+    }
+
+    /**
+     * @return the index of the list node, or {@link #NONE}
+     */
+    static InIndex create( OgnlContext context, Node list, Object source )
+        throws OgnlException
+    {
+        if ( !( list instanceof ASTList ) || ( list.jjtGetNumChildren() == 0 ) )
+        {
+            return NONE;
+        }
+
+        Set<Object> keys = new HashSet<Object>();
+        boolean strings = true, numbers = true, hasFloat = false, hasBig = false;
+
+        for ( int i = 0, icount = list.jjtGetNumChildren(); i < icount; i++ )
+        {
+            Node child = list.jjtGetChild( i );
+            if ( !( child instanceof SimpleNode ) || !( (SimpleNode) child ).isConstant( context ) )
+            {
+                return NONE;
+            }
+
+            Object value = child.getValue( context, source );
+            strings &= value instanceof String;
+            numbers &= isIndexedNumber( value );
+            if ( !strings && !numbers )
+            {
+                return NONE;
+            }
+            if ( numbers )
+            {
+                if ( Double.isNaN( OgnlOps.doubleValue( value ) ) )
+                {
+                    // NaN only equals a NaN of its own class
+                    return NONE;
+                }
+                hasFloat |= value instanceof Float;
+                hasBig |= isBig( value );
+                keys.add( numericKey( value ) );
+            }
+            else
+            {
+                keys.add( value );
+            }
+        }
+        return new InIndex( keys, numbers, hasFloat, hasBig );
+    }
+
+    /**
+     * @return whether the list contains the value, or null if the list has to be walked
+     */
+    Boolean contains( Object value )
+    {
+        if ( _keys == null )
+        {
+            return null;
+        }
+        if ( value == null )
+        {
+            // indexed lists hold no null
+            return Boolean.FALSE;
+        }
+        if ( _numeric )
+        {
+            if ( !isIndexedNumber( value ) || ( _hasBig && ( value instanceof Float ) )
+                || ( _hasFloat && isBig( value ) ) )
+            {
+                return null;
+            }
+            double d = OgnlOps.doubleValue( value );
+            if ( Double.isNaN( d ) || Double.isInfinite( d ) )
+            {
+                // depending on the elements the scan may convert them to BigDecimal and fail
+                return null;
+            }
+            return _keys.contains( numericKey( value ) ) ? Boolean.TRUE : Boolean.FALSE;
+        }
+        if ( !( value instanceof String ) )
+        {
+            return null;
+        }
+        return _keys.contains( value ) ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    private static boolean isIndexedNumber( Object value )
+    {
+        switch ( OgnlOps.getNumericType( value ) )
+        {
+            case NumericTypes.BYTE:
+            case NumericTypes.SHORT:
+            case NumericTypes.INT:
+            case NumericTypes.LONG:
+            case NumericTypes.FLOAT:
+            case NumericTypes.DOUBLE:
+            case NumericTypes.BIGINT:
+            case NumericTypes.BIGDEC:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isBig( Object value )
+    {
+        return ( value instanceof BigInteger ) || ( value instanceof BigDecimal );
+    }
+
+    private static Double numericKey( Object value )
+    {
+        double d = OgnlOps.doubleValue( value );
+        // 0.0 == -0.0, unlike their Double objects
+        return ( d == 0.0 ) ? 0.0 : d;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Small call-site cache kept by AST nodes, mapping the receiver class (and optionally the classes of the call
+ * arguments) seen by the node to the member resolved for them. Up to {@link #MAX_ENTRIES} shapes are remembered, past
+ * that the call site is considered megamorphic and the node always goes through the regular {@link OgnlRuntime} path.
+ * <p>
+ * Every state is immutable and published through a volatile field, so a node shared between threads never needs to
+ * lock; concurrent updates may lose an entry, which only costs a later miss. All entries are dropped whenever
+ * {@link OgnlRuntime#getCacheGeneration()} changes, i.e. when accessors are registered or the caches are cleared.
+ * </p>
+ * <p>
+ * Nodes live in the shared expression cache, so the classes of a shape and the cached member are only weakly
+ * referenced: the cache does not keep the class loader of a redeployed application alive. An entry whose class or
+ * member has been collected no longer matches, and makes room for the next shape.
+ * </p>
+ */
+final class InlineCache
+{
+    static final int MAX_ENTRIES = 4;
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    private volatile State state = new State( OgnlRuntime.getCacheGeneration( ), NO_ENTRIES, false );
+
+    /**
+     * @return the value cached for the receiver class and argument classes, or null on a miss
+     */
+    Object get( Class<?> receiver, Object[] args )
+    {
+        State s = state;
+
+        if ( s.generation != OgnlRuntime.getCacheGeneration( ) )
+        {
+            return null;
+        }
+
+        Entry[] entries = s.entries;
+        for ( int i = 0; i < entries.length; i++ )
+        {
+            if ( entries[i].matches( receiver, args ) )
+            {
+                return entries[i].value.get( );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the call site has seen too many shapes to be worth caching
+     */
+    boolean isMegamorphic( )
+    {
+        State s = state;
+        return s.megamorphic && s.generation == OgnlRuntime.getCacheGeneration( );
+    }
+
+    /**
+     * Caches a value for the receiver class and the classes of the given arguments, which must all be non null.
+     */
+    void put( Class<?> receiver, Object[] args, Object value )
+    {
+        State s = state;
+        int generation = OgnlRuntime.getCacheGeneration( );
+
+        if ( s.generation != generation )
+        {
+            s = new State( generation, NO_ENTRIES, false );
+        }
+        if ( s.megamorphic )
+        {
+            return;
+        }
+
+        // collected entries, and the one of the same shape whose value was collected, are dropped
+        Entry[] entries = new Entry[s.entries.length + 1];
+        int size = 0;
+        for ( Entry entry : s.entries )
+        {
+            if ( entry.isLive( ) && !entry.matches( receiver, args ) )
+            {
+                entries[size++] = entry;
+            }
+        }
+
+        if ( size == MAX_ENTRIES )
+        {
+            state = new State( generation, NO_ENTRIES, true );
+            return;
+        }
+
+        entries[size++] = new Entry( receiver, args, value );
+        if ( size < entries.length )
+        {
+            Entry[] trimmed = new Entry[size];
+            System.arraycopy( entries, 0, trimmed, 0, size );
+            entries = trimmed;
+        }
+
+        state = new State( generation, entries, false );
+    }
+
+    private static final class Entry
+    {
+        final WeakReference<?>[] shape;
+
+        final WeakReference<Object> value;
+
+        Entry( Class<?> receiver, Object[] args, Object value )
+        {
+            int argCount = ( args == null ) ? 0 : args.length;
+            shape = new WeakReference<?>[argCount + 1];
+            shape[0] = new WeakReference<Class<?>>( receiver );
+            for ( int i = 0; i < argCount; i++ )
+            {
+                shape[i + 1] = new WeakReference<Class<?>>( args[i].getClass( ) );
+            }
+            this.value = new WeakReference<Object>( value );
+        }
+
+        boolean matches( Class<?> receiver, Object[] args )
+        {
+            if ( shape[0].get( ) != receiver )
+            {
+                return false;
+            }
+
+            int argCount = ( args == null ) ? 0 : args.length;
+            if ( shape.length != argCount + 1 )
+            {
+                return false;
+            }
+            for ( int i = 0; i < argCount; i++ )
+            {
+                if ( args[i] == null || args[i].getClass( ) != shape[i + 1].get( ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isLive( )
+        {
+            if ( value.get( ) == null )
+            {
+                return false;
+            }
+            for ( WeakReference<?> c : shape )
+            {
+                if ( c.get( ) == null )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class State
+    {
+        final int generation;
+
+        final Entry[] entries;
+
+        final boolean megamorphic;
+
+        State( int generation, Entry[] entries, boolean megamorphic )
+        {
+            this.generation = generation;
+            this.entries = entries;
+            this.megamorphic = megamorphic;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Invokes a single, already resolved, method. Invokers are created once per method by the
+ * {@link MethodInvokerFactory} registered with {@link OgnlRuntime#setMethodInvokerFactory(MethodInvokerFactory)} and
+ * cached by the runtime, so implementations must be thread-safe and should not do any per-call lookup.
+ */
+public interface MethodInvoker
+{
+    /**
+     * Invokes the method on the given target.
+     *
+     * @param target the object to invoke the method on, null for static methods
+     * @param args the arguments, already converted to the parameter types of the method
+     * @return the result of the invocation
+     * @throws InvocationTargetException if the invoked method throws an exception
+     * @throws IllegalAccessException if the method cannot be accessed
+     */
+    Object invoke( Object target, Object[] args )
+        throws InvocationTargetException, IllegalAccessException;
+}
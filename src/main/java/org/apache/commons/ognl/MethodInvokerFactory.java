@@ -0,0 +1,39 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates the {@link MethodInvoker} used by {@link OgnlRuntime#invokeMethod(Object, Method, Object[])} for a given
+ * method.
+ */
+public interface MethodInvokerFactory
+{
+    /**
+     * @param method the method to be invoked
+     * @param needsAccess true if the method is not public (or is declared by a non public class) and has not been made
+     *            accessible, that is invoking it through plain reflection would fail
+     * @return an invoker for the method, never null
+     */
+    MethodInvoker createInvoker( Method method, boolean needsAccess );
+}
@@ -33,6 +33,8 @@ public abstract class NumericExpression
 
     protected Class<?> _getterClass;
 
+    private transient volatile TypeFeedback _typeFeedback;
+
     public NumericExpression( int id )
     {
         super( id );
@@ -43,6 +45,19 @@ public abstract class NumericExpression
         super( p, id );
     }
 
+    /**
+     * @return the operand types observed by this node, see {@link TypeFeedback}
+     */
+    TypeFeedback getTypeFeedback()
+    {
+        TypeFeedback feedback = _typeFeedback;
+        if ( feedback == null )
+        {
+            _typeFeedback = feedback = new TypeFeedback();
+        }
+        return feedback;
+    }
+
     /**
      * {@inheritDoc}
      */
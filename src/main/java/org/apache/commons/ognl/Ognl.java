@@ -58,7 +58,9 @@ import java.util.Map;
  * user-supplied expressions it allows you to catch parse errors before evaluation and it allows you to cache parsed
  * expressions into an AST for better speed during repeated use. The pre-parsed expression is always returned as an
  * <code>Object</code> to simplify use for programs that just wish to store the value for repeated use and do not care
- * that it is an AST. If it does care it can always safely cast the value to an <code>AST</code> type.
+ * that it is an AST. If it does care it can always safely cast the value to an <code>AST</code> type. The
+ * <code>String</code> variants of the get and set methods already reuse parsed trees through a bounded cache, see
+ * {@link OgnlRuntime#setExpressionCacheSize(int)}.
  * </p>
  * <p>
  * The Ognl class also takes a <I>context map</I> as one of the parameters to the set and get methods. This allows you
@@ -113,7 +115,12 @@ public abstract class Ognl
         try
         {
             OgnlParser parser = new OgnlParser( new StringReader( expression ) );
-            return parser.topLevelExpression();
+            Node result = parser.topLevelExpression();
+            if ( result instanceof SimpleNode )
+            {
+                ( (SimpleNode) result ).setSource( expression, OptimizationLevel.NONE );
+            }
+            return result;
         }
         catch ( ParseException e )
         {
@@ -125,6 +132,35 @@ public abstract class Ognl
         }
     }
 
+    /**
+     * Parses the given OGNL expression and optimises the tree as requested. With
+     * {@link OptimizationLevel#FOLD_CONSTANTS} constant subtrees are evaluated once here instead of on every
+     * evaluation, and the constancy of the remaining nodes is decided up front, so the returned tree can be shared
+     * between threads without racing on it.
+     * 
+     * @param expression the OGNL expression to be parsed
+     * @param level the optimisations to apply
+     * @return a tree representation of the expression
+     * @throws ExpressionSyntaxException if the expression is malformed
+     * @throws OgnlException if there is a pathological environmental problem
+     */
+    public static Object parseExpression( String expression, OptimizationLevel level )
+        throws OgnlException
+    {
+        Node result = (Node) parseExpression( expression );
+
+        if ( level == OptimizationLevel.FOLD_CONSTANTS )
+        {
+            result = new ConstantFolder().fold( result );
+            result.jjtSetParent( null );
+            if ( result instanceof SimpleNode )
+            {
+                ( (SimpleNode) result ).setSource( expression, level );
+            }
+        }
+        return result;
+    }
+
     /**
      * Parses and compiles the given expression using the {@link org.apache.commons.ognl.enhance.OgnlExpressionCompiler} returned from
      * {@link org.apache.commons.ognl.OgnlRuntime#getCompiler()}.
@@ -148,6 +184,42 @@ public abstract class Ognl
         return expr;
     }
 
+    /**
+     * Parses and compiles the given expression for roots of the given type, without evaluating anything.
+     * <p>
+     * The type of every node is derived statically from the root type, the return types of getters and methods and
+     * their generic signatures, so an expression reading a property or calling a method its static type does not
+     * declare fails here rather than on its first evaluation. The expression is then linked by
+     * {@link ReflectiveExpressionCompiler}: the accessor is always set, whatever the values an evaluation meets, and
+     * does not depend on any sample root. This allows compiling expressions at deployment time, before any data exists.
+     * Values typed <code>Object</code>, such as variables, are resolved at evaluation time.
+     * </p>
+     *
+     * @param context The context to use, for its class resolver.
+     * @param rootType The type of the roots the expression will be evaluated against.
+     * @param expression The expression to compile.
+     * @return The node with a compiled accessor set on {@link org.apache.commons.ognl.Node#getAccessor()}.
+     * @throws OgnlException If the expression does not parse, or reads a member missing from its static type.
+     */
+    public static Node compileExpressionForType( OgnlContext context, Class<?> rootType, String expression )
+        throws OgnlException
+    {
+        Node expr = (Node) Ognl.parseExpression( expression );
+
+        new TypeInference( context, rootType ).typeOf( expr );
+
+        try
+        {
+            new ReflectiveExpressionCompiler().compileExpression( context, expr, null );
+        }
+        catch ( Exception e )
+        {
+            throw new OgnlException( "Unable to compile expression " + expression, e );
+        }
+
+        return expr;
+    }
+
     /**
      * Creates and returns a new standard naming context for evaluating an OGNL expression.
      * 
@@ -429,14 +501,21 @@ public abstract class Ognl
         OgnlContext ognlContext = (OgnlContext) addDefaultContext( root, context );
 
         Node node = (Node) tree;
+        ExpressionAccessor accessor = OgnlRuntime.getAccessor( node );
+        EvaluationTracer tracer = ognlContext.getEvaluationTracer();
 
-        if ( node.getAccessor() != null )
+        if ( tracer != null && tracer.sample( ognlContext, node ) )
         {
-            result = (T) node.getAccessor().get( ognlContext, root );
+            result = (T) tracer.getValue( ognlContext, node, root );
+        }
+        else if ( accessor != null )
+        {
+            result = (T) accessor.get( ognlContext, root );
         }
         else
         {
             result = (T) node.getValue( ognlContext, root );
+            OgnlRuntime.countInterpretation( ognlContext, node, root );
         }
 
         if ( resultType != null )
@@ -515,7 +594,7 @@ public abstract class Ognl
     public static <T> T getValue( String expression, Map<String, Object> context, Object root, Class<T> resultType )
         throws OgnlException
     {
-        return Ognl.<T> getValue( parseExpression( expression ), context, root, resultType );
+        return Ognl.<T> getValue( OgnlRuntime.getParsedExpression( expression ), context, root, resultType );
     }
 
     /**
@@ -591,7 +670,7 @@ public abstract class Ognl
     public static <T> T getValue( String expression, Object root, Class<T> resultType )
         throws OgnlException
     {
-        return Ognl.<T> getValue( parseExpression( expression ), root, resultType );
+        return Ognl.<T> getValue( OgnlRuntime.getParsedExpression( expression ), root, resultType );
     }
 
     /**
@@ -612,14 +691,22 @@ public abstract class Ognl
     {
         OgnlContext ognlContext = (OgnlContext) addDefaultContext( root, context );
         Node n = (Node) tree;
+        ExpressionAccessor accessor = OgnlRuntime.getAccessor( n );
+        EvaluationTracer tracer = ognlContext.getEvaluationTracer();
 
-        if ( n.getAccessor() != null )
+        if ( tracer != null && tracer.sample( ognlContext, n ) )
+        {
+            tracer.setValue( ognlContext, n, root, value );
+            return;
+        }
+        if ( accessor != null )
         {
-            n.getAccessor().set( ognlContext, root, value );
+            accessor.set( ognlContext, root, value );
             return;
         }
 
         n.setValue( ognlContext, root, value );
+        OgnlRuntime.countInterpretation( ognlContext, n, root );
     }
 
     /**
@@ -651,7 +738,7 @@ public abstract class Ognl
     public static void setValue( String expression, Map<String, Object> context, Object root, Object value )
         throws OgnlException
     {
-        setValue( parseExpression( expression ), context, root, value );
+        setValue( OgnlRuntime.getParsedExpression( expression ), context, root, value );
     }
 
     /**
@@ -688,7 +775,7 @@ public abstract class Ognl
     public static void setValue( String expression, Object root, Object value )
         throws OgnlException
     {
-        setValue( parseExpression( expression ), root, value );
+        setValue( OgnlRuntime.getParsedExpression( expression ), root, value );
     }
 
     /**
@@ -21,14 +21,13 @@ package org.apache.commons.ognl;
 
 import org.apache.commons.ognl.enhance.LocalReference;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 
 /**
  * This class defines the execution context for an OGNL expression
@@ -53,6 +52,8 @@ public class OgnlContext
 
     public static final String KEEP_LAST_EVALUATION_CONTEXT_KEY = "_keepLastEvaluation";
 
+    public static final String LAZY_COLLECTIONS_CONTEXT_KEY = "_lazyCollections";
+
     public static final String CLASS_RESOLVER_CONTEXT_KEY = "_classResolver";
 
     public static final String TYPE_CONVERTER_CONTEXT_KEY = "_typeConverter";
@@ -71,7 +72,29 @@ public class OgnlContext
 
     public static final MemberAccess DEFAULT_MEMBER_ACCESS = new DefaultMemberAccess( false );
 
-    private static final Set<String> RESERVED_KEYS = new HashSet<String>( 11 );
+    static final int NOT_RESERVED = 0;
+
+    private static final int CONTEXT = 1;
+
+    private static final int ROOT = 2;
+
+    private static final int THIS = 3;
+
+    private static final int TRACE_EVALUATIONS = 4;
+
+    private static final int LAST_EVALUATION = 5;
+
+    private static final int KEEP_LAST_EVALUATION = 6;
+
+    private static final int LAZY_COLLECTIONS = 7;
+
+    private static final int CLASS_RESOLVER = 8;
+
+    private static final int TYPE_CONVERTER = 9;
+
+    private static final int MEMBER_ACCESS = 10;
+
+    private static final Map<String, Integer> RESERVED_KEYS = new HashMap<String, Integer>( 16 );
 
     private Object _root;
 
@@ -89,7 +112,18 @@ public class OgnlContext
 
     private boolean _keepLastEvaluation = DEFAULT_KEEP_LAST_EVALUATION;
 
-    private Map<String, Object> _values = new HashMap<String, Object>( 23 );
+    private boolean _lazyCollections;
+
+    private EvaluationTracer _evaluationTracer;
+
+    private TraceBuffer _traceBuffer;
+
+    private TraceBuffer _activeTrace;
+
+    private Map<String, Object> _values;
+
+    /** Same as {@link #_values} when the context owns its variables, null when they live in a map given by the caller. */
+    private ContextValues _slotValues;
 
     private ClassResolver _classResolver = DEFAULT_CLASS_RESOLVER;
 
@@ -101,15 +135,16 @@ public class OgnlContext
     {
         String s;
 
-        RESERVED_KEYS.add( CONTEXT_CONTEXT_KEY );
-        RESERVED_KEYS.add( ROOT_CONTEXT_KEY );
-        RESERVED_KEYS.add( THIS_CONTEXT_KEY );
-        RESERVED_KEYS.add( TRACE_EVALUATIONS_CONTEXT_KEY );
-        RESERVED_KEYS.add( LAST_EVALUATION_CONTEXT_KEY );
-        RESERVED_KEYS.add( KEEP_LAST_EVALUATION_CONTEXT_KEY );
-        RESERVED_KEYS.add( CLASS_RESOLVER_CONTEXT_KEY );
-        RESERVED_KEYS.add( TYPE_CONVERTER_CONTEXT_KEY );
-        RESERVED_KEYS.add( MEMBER_ACCESS_CONTEXT_KEY );
+        RESERVED_KEYS.put( CONTEXT_CONTEXT_KEY, CONTEXT );
+        RESERVED_KEYS.put( ROOT_CONTEXT_KEY, ROOT );
+        RESERVED_KEYS.put( THIS_CONTEXT_KEY, THIS );
+        RESERVED_KEYS.put( TRACE_EVALUATIONS_CONTEXT_KEY, TRACE_EVALUATIONS );
+        RESERVED_KEYS.put( LAST_EVALUATION_CONTEXT_KEY, LAST_EVALUATION );
+        RESERVED_KEYS.put( KEEP_LAST_EVALUATION_CONTEXT_KEY, KEEP_LAST_EVALUATION );
+        RESERVED_KEYS.put( LAZY_COLLECTIONS_CONTEXT_KEY, LAZY_COLLECTIONS );
+        RESERVED_KEYS.put( CLASS_RESOLVER_CONTEXT_KEY, CLASS_RESOLVER );
+        RESERVED_KEYS.put( TYPE_CONVERTER_CONTEXT_KEY, TYPE_CONVERTER );
+        RESERVED_KEYS.put( MEMBER_ACCESS_CONTEXT_KEY, MEMBER_ACCESS );
 
         try
         {
@@ -128,9 +163,17 @@ public class OgnlContext
         }
     }
 
-    private Stack<Class<?>> _typeStack = new Stack<Class<?>>();
+    private final ClassStack _typeStack = new ClassStack();
+
+    private final ClassStack _accessorStack = new ClassStack();
+
+    private static final int MAX_BUFFERED_ARGUMENTS = 8;
+
+    private static final int MAX_BUFFERED_DEPTH = 16;
+
+    private Object[][][] _argumentBuffers;
 
-    private Stack<Class<?>> _accessorStack = new Stack<Class<?>>();
+    private int _argumentDepth;
 
     private int _localReferenceCounter = 0;
 
@@ -141,6 +184,7 @@ public class OgnlContext
      */
     public OgnlContext()
     {
+        _values = _slotValues = new ContextValues();
     }
 
     /**
@@ -175,6 +219,7 @@ public class OgnlContext
     {
         this( classResolver, typeConverter, memberAccess );
         this._values = values;
+        this._slotValues = null;
     }
 
     public void setValues( Map<String, Object> value )
@@ -262,6 +307,42 @@ public class OgnlContext
         _traceEvaluations = value;
     }
 
+    public EvaluationTracer getEvaluationTracer()
+    {
+        return _evaluationTracer;
+    }
+
+    /**
+     * Installs a tracer sampling the evaluations done with this context, or removes it if null.
+     */
+    public void setEvaluationTracer( EvaluationTracer value )
+    {
+        _evaluationTracer = value;
+    }
+
+    /**
+     * @return the buffer recording the evaluation in progress, or null if it is not traced by an
+     *         {@link EvaluationTracer}
+     */
+    TraceBuffer getActiveTrace()
+    {
+        return _activeTrace;
+    }
+
+    TraceBuffer startTrace( int capacity )
+    {
+        if ( _traceBuffer == null || _traceBuffer.getCapacity() != capacity )
+        {
+            _traceBuffer = new TraceBuffer( capacity );
+        }
+        return _activeTrace = _traceBuffer;
+    }
+
+    void stopTrace()
+    {
+        _activeTrace = null;
+    }
+
     public Evaluation getLastEvaluation()
     {
         return _lastEvaluation;
@@ -301,6 +382,42 @@ public class OgnlContext
         _keepLastEvaluation = value;
     }
 
+    /**
+     * Returns true if projections and selections evaluated with this context return lists computing their elements on
+     * demand. The default is false.
+     */
+    public boolean getLazyCollections()
+    {
+        return _lazyCollections;
+    }
+
+    /**
+     * Sets whether projections and selections evaluated with this context return lists computing their elements on
+     * demand, so that a consumer such as <code>list.{? active }[0]</code> stops evaluating at the first match. The
+     * elements are evaluated with a private copy of this context, possibly after the expression has returned.
+     */
+    public void setLazyCollections( boolean value )
+    {
+        _lazyCollections = value;
+    }
+
+    /**
+     * @return a context with the class resolver, type converter, member access, root and evaluation settings (lazy
+     *         collections, tracing) of this one and a private copy of its variables, to evaluate with on another
+     *         thread or at a later time.
+     */
+    OgnlContext copy()
+    {
+        OgnlContext result = new OgnlContext( _classResolver, _typeConverter, _memberAccess );
+        result.setValues( _values );
+        result.setRoot( _root );
+        result.setEvaluationTracer( _evaluationTracer );
+        result.setLazyCollections( _lazyCollections );
+        result.setTraceEvaluations( _traceEvaluations );
+        result.setKeepLastEvaluation( _keepLastEvaluation );
+        return result;
+    }
+
     public void setCurrentObject( Object value )
     {
         _currentObject = value;
@@ -313,7 +430,7 @@ public class OgnlContext
 
     public void setCurrentAccessor( Class<?> type )
     {
-        _accessorStack.add( type );
+        _accessorStack.push( type );
     }
 
     public Class<?> getCurrentAccessor()
@@ -368,7 +485,7 @@ public class OgnlContext
 
     public void setCurrentType( Class<?> type )
     {
-        _typeStack.add( type );
+        _typeStack.push( type );
     }
 
     /**
@@ -503,6 +620,56 @@ public class OgnlContext
         return result;
     }
 
+    /**
+     * Returns a scratch array of <code>count</code> elements to pass method arguments in. It must be handed back
+     * through {@link #releaseArguments(Object[])} once the call is over. Only {@link ObjectMethodAccessor} and
+     * {@link ObjectNullHandler} may be given the array itself; other accessors and null handlers are public extension
+     * points which may keep it, and get a copy through {@link OgnlRuntime#argumentsFor(Object, Class, Object[])}.
+     * Buffers are kept per nesting level, so the arguments of a call made while evaluating the arguments of another one
+     * do not overwrite them.
+     */
+    Object[] acquireArguments( int count )
+    {
+        if ( count == 0 )
+        {
+            return OgnlRuntime.NoArguments;
+        }
+
+        int depth = _argumentDepth++;
+        if ( count > MAX_BUFFERED_ARGUMENTS || depth >= MAX_BUFFERED_DEPTH )
+        {
+            return new Object[count];
+        }
+
+        if ( _argumentBuffers == null )
+        {
+            _argumentBuffers = new Object[MAX_BUFFERED_DEPTH][][];
+        }
+        Object[][] buffers = _argumentBuffers[depth];
+        if ( buffers == null )
+        {
+            buffers = _argumentBuffers[depth] = new Object[MAX_BUFFERED_ARGUMENTS + 1][];
+        }
+        Object[] result = buffers[count];
+        if ( result == null )
+        {
+            result = buffers[count] = new Object[count];
+        }
+        return result;
+    }
+
+    /**
+     * Hands back an array obtained from {@link #acquireArguments(int)}, dropping the references it holds.
+     */
+    void releaseArguments( Object[] args )
+    {
+        if ( args.length > 0 )
+        {
+            Arrays.fill( args, null );
+            _argumentDepth--;
+        }
+    }
+
     public int incrementLocalReferenceCounter()
     {
         return ++_localReferenceCounter;
@@ -544,167 +711,174 @@ public class OgnlContext
         return _values.containsValue( value );
     }
 
-    public Object get( Object key )
+    /**
+     * @return the constant standing for the reserved key, {@link #NOT_RESERVED} for the name of a variable
+     */
+    static int reservedKey( Object key )
     {
-        Object result = null;
-
-        // FIXME: complexity is O(n)
-        if ( RESERVED_KEYS.contains( key ) )
+        if ( key instanceof String )
         {
-            if ( THIS_CONTEXT_KEY.equals( key ) )
-            {
-                result = getCurrentObject();
-            }
-            else if ( ROOT_CONTEXT_KEY.equals( key ) )
-            {
-                result = getRoot();
-            }
-            else if ( CONTEXT_CONTEXT_KEY.equals( key ) )
+            String name = (String) key;
+            if ( name.length() > 0 )
             {
-                result = this;
-            }
-            else if ( TRACE_EVALUATIONS_CONTEXT_KEY.equals( key ) )
-            {
-                result = getTraceEvaluations() ? Boolean.TRUE : Boolean.FALSE;
-            }
-            else if ( LAST_EVALUATION_CONTEXT_KEY.equals( key ) )
-            {
-                result = getLastEvaluation();
-            }
-            else if ( KEEP_LAST_EVALUATION_CONTEXT_KEY.equals( key ) )
-            {
-                result = getKeepLastEvaluation() ? Boolean.TRUE : Boolean.FALSE;
-            }
-            else if ( CLASS_RESOLVER_CONTEXT_KEY.equals( key ) )
-            {
-                result = getClassResolver();
-            }
-            else if ( TYPE_CONVERTER_CONTEXT_KEY.equals( key ) )
-            {
-                result = getTypeConverter();
-            }
-            else if ( MEMBER_ACCESS_CONTEXT_KEY.equals( key ) )
-            {
-                result = getMemberAccess();
+                switch ( name.charAt( 0 ) )
+                {
+                    case '_':
+                    case 'c':
+                    case 'r':
+                    case 't':
+                        Integer reserved = RESERVED_KEYS.get( name );
+                        if ( reserved != null )
+                        {
+                            return reserved.intValue();
+                        }
+                }
             }
         }
-        else
+        return NOT_RESERVED;
+    }
+
+    /**
+     * Reads the variable <code>#name</code>, the same as {@link #get(Object)} but for names that are not reserved the
+     * given slot is read without hashing the name when this context owns its variables.
+     * 
+     * @param slot slot of the name obtained from {@link ContextValues#slotOf(String)}
+     */
+    Object getVariable( int slot, String name )
+    {
+        if ( slot == ContextValues.NO_SLOT )
         {
-            result = _values.get( key );
+            return get( name );
+        }
+        if ( _slotValues != null )
+        {
+            return _slotValues.read( slot, name );
+        }
+        return _values.get( name );
+    }
+
+    public Object get( Object key )
+    {
+        switch ( reservedKey( key ) )
+        {
+            case NOT_RESERVED:
+                return _values.get( key );
+            case THIS:
+                return getCurrentObject();
+            case ROOT:
+                return getRoot();
+            case CONTEXT:
+                return this;
+            case TRACE_EVALUATIONS:
+                return getTraceEvaluations() ? Boolean.TRUE : Boolean.FALSE;
+            case LAST_EVALUATION:
+                return getLastEvaluation();
+            case KEEP_LAST_EVALUATION:
+                return getKeepLastEvaluation() ? Boolean.TRUE : Boolean.FALSE;
+            case LAZY_COLLECTIONS:
+                return getLazyCollections() ? Boolean.TRUE : Boolean.FALSE;
+            case CLASS_RESOLVER:
+                return getClassResolver();
+            case TYPE_CONVERTER:
+                return getTypeConverter();
+            case MEMBER_ACCESS:
+                return getMemberAccess();
+            default:
+                throw new IllegalStateException( "unknown reserved key " + key );
         }
-        return result;
     }
 
     public Object put( String key, Object value )
     {
-        Object result = null;
+        Object result;
 
-        // FIXME: complexity is O(n)
-        if ( RESERVED_KEYS.contains( key ) )
+        switch ( reservedKey( key ) )
         {
-            if ( CONTEXT_CONTEXT_KEY.equals( key ) )
-            {
+            case NOT_RESERVED:
+                return _values.put( key, value );
+            case CONTEXT:
                 throw new IllegalArgumentException( "can't change " + CONTEXT_CONTEXT_KEY + " in context" );
-            }
-
-            if ( THIS_CONTEXT_KEY.equals( key ) )
-            {
+            case THIS:
                 result = getCurrentObject();
                 setCurrentObject( value );
-            }
-            else if ( ROOT_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case ROOT:
                 result = getRoot();
                 setRoot( value );
-            }
-            else if ( TRACE_EVALUATIONS_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case TRACE_EVALUATIONS:
                 result = getTraceEvaluations() ? Boolean.TRUE : Boolean.FALSE;
                 setTraceEvaluations( OgnlOps.booleanValue( value ) );
-            }
-            else if ( LAST_EVALUATION_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case LAST_EVALUATION:
                 result = getLastEvaluation();
                 _lastEvaluation = (Evaluation) value;
-            }
-            else if ( KEEP_LAST_EVALUATION_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case KEEP_LAST_EVALUATION:
                 result = getKeepLastEvaluation() ? Boolean.TRUE : Boolean.FALSE;
                 setKeepLastEvaluation( OgnlOps.booleanValue( value ) );
-            }
-            else if ( CLASS_RESOLVER_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case LAZY_COLLECTIONS:
+                result = getLazyCollections() ? Boolean.TRUE : Boolean.FALSE;
+                setLazyCollections( OgnlOps.booleanValue( value ) );
+                return result;
+            case CLASS_RESOLVER:
                 result = getClassResolver();
                 setClassResolver( (ClassResolver) value );
-            }
-            else if ( TYPE_CONVERTER_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case TYPE_CONVERTER:
                 result = getTypeConverter();
                 setTypeConverter( (TypeConverter) value );
-            }
-            else if ( MEMBER_ACCESS_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case MEMBER_ACCESS:
                 result = getMemberAccess();
                 setMemberAccess( (MemberAccess) value );
-            }
+                return result;
+            default:
+                throw new IllegalStateException( "unknown reserved key " + key );
         }
-        else
-        {
-            result = _values.put( key, value );
-        }
-
-        return result;
     }
 
     public Object remove( Object key )
     {
-        Object result = null;
+        Object result;
 
-        // FIXME: complexity is O(n)
-        if ( RESERVED_KEYS.contains( key ) )
+        switch ( reservedKey( key ) )
         {
-            if ( CONTEXT_CONTEXT_KEY.equals( key ) || TRACE_EVALUATIONS_CONTEXT_KEY.equals( key )
-                || KEEP_LAST_EVALUATION_CONTEXT_KEY.equals( key ) )
-            {
+            case NOT_RESERVED:
+                return _values.remove( key );
+            case CONTEXT:
+            case TRACE_EVALUATIONS:
+            case KEEP_LAST_EVALUATION:
+            case LAZY_COLLECTIONS:
                 throw new IllegalArgumentException( "can't remove " + key + " from context" );
-            }
-
-            if ( THIS_CONTEXT_KEY.equals( key ) )
-            {
+            case THIS:
                 result = getCurrentObject();
                 setCurrentObject( null );
-            }
-            else if ( ROOT_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case ROOT:
                 result = getRoot();
                 setRoot( null );
-            }
-            else if ( LAST_EVALUATION_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case LAST_EVALUATION:
                 result = _lastEvaluation;
                 setLastEvaluation( null );
-            }
-            else if ( CLASS_RESOLVER_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case CLASS_RESOLVER:
                 result = getClassResolver();
                 setClassResolver( null );
-            }
-            else if ( TYPE_CONVERTER_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case TYPE_CONVERTER:
                 result = getTypeConverter();
                 setTypeConverter( null );
-            }
-            else if ( MEMBER_ACCESS_CONTEXT_KEY.equals( key ) )
-            {
+                return result;
+            case MEMBER_ACCESS:
                 result = getMemberAccess();
                 setMemberAccess( null );
-            }
+                return result;
+            default:
+                throw new IllegalStateException( "unknown reserved key " + key );
         }
-        else
-        {
-            result = _values.remove( key );
-        }
-        return result;
     }
 
     public void putAll( Map<? extends String, ? extends Object> t )
@@ -720,24 +894,51 @@ public class OgnlContext
     public void clear()
     {
         _values.clear();
+        reset();
+
+        setClassResolver( DEFAULT_CLASS_RESOLVER );
+        setTypeConverter( DEFAULT_TYPE_CONVERTER );
+        setMemberAccess( DEFAULT_MEMBER_ACCESS );
+    }
+
+    /**
+     * Clears the state left behind by previous evaluations: root, current object, node and type stacks, evaluations
+     * and local references. Variables, the class resolver, type converter, member access and the evaluation flags are
+     * kept, so one context can serve any number of evaluations in turn without allocating a new one. Nothing is
+     * reallocated.
+     */
+    public void reset()
+    {
         _typeStack.clear();
         _accessorStack.clear();
 
+        _argumentDepth = 0;
         _localReferenceCounter = 0;
         if ( _localReferenceMap != null )
         {
             _localReferenceMap.clear();
         }
 
-        setRoot( null );
-        setCurrentObject( null );
-        setRootEvaluation( null );
-        setCurrentEvaluation( null );
-        setLastEvaluation( null );
-        setCurrentNode( null );
-        setClassResolver( DEFAULT_CLASS_RESOLVER );
-        setTypeConverter( DEFAULT_TYPE_CONVERTER );
-        setMemberAccess( DEFAULT_MEMBER_ACCESS );
+        _root = null;
+        _currentObject = null;
+        _currentNode = null;
+        _rootEvaluation = null;
+        _currentEvaluation = null;
+        _lastEvaluation = null;
+        _activeTrace = null;
+    }
+
+    /**
+     * Brings the context back to the state of a new one: {@link #clear()}, plus the evaluation flags set back to their
+     * defaults.
+     */
+    void recycle()
+    {
+        clear();
+        _traceEvaluations = DEFAULT_TRACE_EVALUATIONS;
+        _keepLastEvaluation = DEFAULT_KEEP_LAST_EVALUATION;
+        _lazyCollections = false;
+        _evaluationTracer = null;
     }
 
     public Set<String> keySet()
@@ -769,4 +970,56 @@ public class OgnlContext
     {
         return _values.hashCode();
     }
+
+    /**
+     * Unsynchronized stack of classes, the context is never used by several threads at once.
+     */
+    private static final class ClassStack
+    {
+        private Class<?>[] _elements = new Class<?>[8];
+
+        private int _size;
+
+        void push( Class<?> type )
+        {
+            if ( _size == _elements.length )
+            {
+                Class<?>[] grown = new Class<?>[_size * 2];
+                System.arraycopy( _elements, 0, grown, 0, _size );
+                _elements = grown;
+            }
+            _elements[_size++] = type;
+        }
+
+        Class<?> peek()
+        {
+            return _elements[_size - 1];
+        }
+
+        Class<?> get( int index )
+        {
+            return _elements[index];
+        }
+
+        void set( int index, Class<?> type )
+        {
+            _elements[index] = type;
+        }
+
+        int size()
+        {
+            return _size;
+        }
+
+        boolean isEmpty()
+        {
+            return _size == 0;
+        }
+
+        void clear()
+        {
+            Arrays.fill( _elements, 0, _size, null );
+            _size = 0;
+        }
+    }
 }
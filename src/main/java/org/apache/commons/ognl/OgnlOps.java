@@ -25,6 +25,10 @@ import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This is an abstract class with static methods that define the operations of OGNL.
@@ -616,6 +620,22 @@ public abstract class OgnlOps
         return convertValue( value, toType, false );
     }
 
+    /**
+     * Puts keys and values into a map, used by the java source of compiled map literals.
+     * 
+     * @param map The map to fill.
+     * @param keysAndValues The keys, each followed by its value.
+     * @return The map.
+     */
+    public static Map<Object, Object> putAll( Map<Object, Object> map, Object[] keysAndValues )
+    {
+        for ( int i = 0; i < keysAndValues.length; i += 2 )
+        {
+            map.put( keysAndValues[i], keysAndValues[i + 1] );
+        }
+        return map;
+    }
+
     public static Object toArray( Object value, Class<?> toType )
         throws OgnlException
     {
@@ -666,121 +686,55 @@ public abstract class OgnlOps
     public static <T> Object convertValue( Object value, Class<T> toType, boolean preventNulls )
         throws OgnlException
     {
-        Object result = null;
-
-        if ( value != null && toType.isAssignableFrom( value.getClass() ) )
+        if ( value == null )
         {
-            return value;
+            return convertNull( toType, preventNulls );
         }
+        return convertValue( value, toType, preventNulls, ConversionPlans.getBuiltIn( value.getClass(), toType ) );
+    }
 
-        if ( value != null )
+    /**
+     * Converts a non null value with the given plan, see {@link ConversionPlans}.
+     */
+    static Object convertValue( Object value, Class<?> toType, boolean preventNulls, ConversionPlan plan )
+        throws OgnlException
+    {
+        Object result = plan.convert( value );
+
+        if ( result == null )
         {
-            /* If array -> array then convert components of array individually */
-            if ( value.getClass().isArray() && toType.isArray() )
+            if ( value.getClass().isArray() && !toType.isArray() )
             {
-                Class<?> componentType = toType.getComponentType();
-
-                result = Array.newInstance( componentType, Array.getLength( value ) );
-                for ( int i = 0, icount = Array.getLength( value ); i < icount; i++ )
-                {
-                    Array.set( result, i, convertValue( Array.get( value, i ), componentType ) );
-                }
+                // the first element of the array was null
+                return null;
             }
-            else if ( value.getClass().isArray() && !toType.isArray() )
+            if ( preventNulls )
             {
-
-                return convertValue( Array.get( value, 0 ), toType );
+                return value;
             }
-            else if ( !value.getClass().isArray() && toType.isArray() )
-            {
+            throw new IllegalArgumentException( "Unable to convert type " + value.getClass().getName() + " of " + value
+                + " to type of " + toType.getName() );
+        }
 
-                if ( toType.getComponentType() == Character.TYPE )
-                {
+        return result;
+    }
 
-                    result = stringValue( value ).toCharArray();
-                }
-                else if ( toType.getComponentType() == Object.class )
-                {
-                    return new Object[] { value };
-                }
-            }
-            else
-            {
-                if ( ( toType == Integer.class ) || ( toType == Integer.TYPE ) )
-                {
-                    result = (int) longValue( value );
-                }
-                if ( ( toType == Double.class ) || ( toType == Double.TYPE ) )
-                {
-                    result = doubleValue( value );
-                }
-                if ( ( toType == Boolean.class ) || ( toType == Boolean.TYPE ) )
-                {
-                    result = booleanValue( value ) ? Boolean.TRUE : Boolean.FALSE;
-                }
-                if ( ( toType == Byte.class ) || ( toType == Byte.TYPE ) )
-                {
-                    result = (byte) longValue( value );
-                }
-                if ( ( toType == Character.class ) || ( toType == Character.TYPE ) )
-                {
-                    result = (char) longValue( value );
-                }
-                if ( ( toType == Short.class ) || ( toType == Short.TYPE ) )
-                {
-                    result = (short) longValue( value );
-                }
-                if ( ( toType == Long.class ) || ( toType == Long.TYPE ) )
-                {
-                    result = longValue( value );
-                }
-                if ( ( toType == Float.class ) || ( toType == Float.TYPE ) )
-                {
-                    result = new Float( doubleValue( value ) );
-                }
-                if ( toType == BigInteger.class )
-                {
-                    result = bigIntValue( value );
-                }
-                if ( toType == BigDecimal.class )
-                {
-                    result = bigDecValue( value );
-                }
-                if ( toType == String.class )
-                {
-                    result = stringValue( value );
-                }
-            }
-        }
-        else
+    private static Object convertNull( Class<?> toType, boolean preventNulls )
+        throws OgnlException
+    {
+        if ( toType.isPrimitive() )
         {
-            if ( toType.isPrimitive() )
-            {
-                result = OgnlRuntime.getPrimitiveDefaultValue( toType );
-            }
-            else if ( preventNulls && toType == Boolean.class )
-            {
-                result = Boolean.FALSE;
-            }
-            else if ( preventNulls && Number.class.isAssignableFrom( toType ) )
-            {
-                result = OgnlRuntime.getNumericDefaultValue( toType );
-            }
+            return OgnlRuntime.getPrimitiveDefaultValue( toType );
         }
-
-        if ( result == null && preventNulls )
+        else if ( preventNulls && toType == Boolean.class )
         {
-            return value;
+            return Boolean.FALSE;
         }
-
-        if ( value != null && result == null )
+        else if ( preventNulls && Number.class.isAssignableFrom( toType ) )
         {
-
-            throw new IllegalArgumentException( "Unable to convert type " + value.getClass().getName() + " of " + value
-                + " to type of " + toType.getName() );
+            return OgnlRuntime.getNumericDefaultValue( toType );
         }
-
-        return result;
+        return null;
     }
 
     /**
@@ -1036,9 +990,16 @@ public abstract class OgnlOps
             return false;
         }
 
+        Class<?> c = v2.getClass();
+        if ( ( ( c == HashSet.class ) || ( c == LinkedHashSet.class ) ) && ( v1 != null )
+            && hasExactEquals( v1.getClass() ) && containsOnly( (Set<?>) v2, v1.getClass() ) )
+        {
+            return ( (Set<?>) v2 ).contains( v1 );
+        }
+
         ElementsAccessor elementsAccessor = OgnlRuntime.getElementsAccessor( OgnlRuntime.getTargetClass( v2 ) );
 
-        // FIXME O(n) is there a better way?!
+        // equal() converts between types, so a miss has to look at every element; constant lists are indexed by InIndex
         for ( Enumeration<?> e = elementsAccessor.getElements( v2 ); e.hasMoreElements(); )
         {
             Object o = e.nextElement();
@@ -1052,6 +1013,34 @@ public abstract class OgnlOps
         return false;
     }
 
+    /**
+     * Whether {@link #equal(Object, Object)} of two instances of the class is their <code>equals()</code>, without
+     * throwing. Not so for floating point numbers and <code>BigDecimal</code>, whose equal values may differ by sign or
+     * scale.
+     */
+    private static boolean hasExactEquals( Class<?> c )
+    {
+        return c == String.class || c == Integer.class || c == Long.class || c == Short.class || c == Byte.class
+            || c == Character.class || c == Boolean.class || c == BigInteger.class;
+    }
+
+    /**
+     * Whether every element of the set is null or of the given class, which makes a hash lookup of an instance of the
+     * class answer like the {@link #equal(Object, Object)} scan: elements of another class would be converted, or make
+     * the scan fail.
+     */
+    private static boolean containsOnly( Set<?> set, Class<?> c )
+    {
+        for ( Object o : set )
+        {
+            if ( ( o != null ) && ( o.getClass() != c ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static Object shiftLeft( Object v1, Object v2 )
     {
         int type = getNumericType( v1 );
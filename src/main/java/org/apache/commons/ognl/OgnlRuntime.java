@@ -21,8 +21,10 @@
 
 package org.apache.commons.ognl;
 
+import org.apache.commons.ognl.enhance.ExpressionAccessor;
 import org.apache.commons.ognl.enhance.ExpressionCompiler;
 import org.apache.commons.ognl.enhance.OgnlExpressionCompiler;
+import org.apache.commons.ognl.internal.BoundedCache;
 import org.apache.commons.ognl.internal.Cache;
 import org.apache.commons.ognl.internal.CacheException;
 import org.apache.commons.ognl.internal.CacheFactory;
@@ -41,13 +43,9 @@ import org.apache.commons.ognl.internal.entry.MethodAccessEntryValue;
 import org.apache.commons.ognl.internal.entry.MethodPermCacheEntryFactory;
 import org.apache.commons.ognl.internal.entry.PermissionCacheEntry;
 import org.apache.commons.ognl.internal.entry.PermissionCacheEntryFactory;
-import org.apache.commons.ognl.internal.entry.PropertyDescriptorCacheEntryFactory;
 
-import java.beans.BeanInfo;
 import java.beans.IndexedPropertyDescriptor;
 import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.MethodDescriptor;
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -72,6 +70,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utility class used by internal OGNL API to do various things like:
@@ -167,11 +171,39 @@ public class OgnlRuntime
 
     static final ClassCache<NullHandler> _nullHandlers = cacheFactory.createClassCache( );
 
-    static final ClassCache<Map<String, PropertyDescriptor>> _propertyDescriptorCache =
-        cacheFactory.createClassCache( new PropertyDescriptorCacheEntryFactory( ) );
+    /*
+     * The reflection metadata caches below are weakly keyed, so they never keep a class loader (and with it a whole
+     * redeployed application) alive.
+     */
+
+    /**
+     * Bean metadata (methods and property descriptors) of each class, see {@link BeanIndex}.
+     */
+    static final ClassCache<BeanIndex> _propertyDescriptorCache =
+        cacheFactory.createWeakClassCache( new ClassCacheEntryFactory<BeanIndex>( )
+        {
+            public BeanIndex create( Class<?> key )
+                throws CacheException
+            {
+                return new BeanIndex( key );
+            }
+        } );
+
+    /**
+     * Built-in {@link ConversionPlan}s by target type, then by source class.
+     */
+    static final ClassCache<ClassCache<ConversionPlan>> _conversionPlanCache =
+        cacheFactory.createWeakClassCache( new ClassCacheEntryFactory<ClassCache<ConversionPlan>>( )
+        {
+            public ClassCache<ConversionPlan> create( Class<?> key )
+                throws CacheException
+            {
+                return cacheFactory.<ConversionPlan>createWeakClassCache( null );
+            }
+        } );
 
     static final ClassCache<List<Constructor<?>>> _constructorCache =
-        cacheFactory.createClassCache( new ClassCacheEntryFactory<List<Constructor<?>>>( )
+        cacheFactory.createWeakClassCache( new ClassCacheEntryFactory<List<Constructor<?>>>( )
         {
             public List<Constructor<?>> create( Class<?> key )
                 throws CacheException
@@ -180,21 +212,35 @@ public class OgnlRuntime
             }
         } );
 
-    static final Cache<DeclaredMethodCacheEntry, Map<String, List<Method>>> _methodCache =
-        cacheFactory.createCache( new DeclaredMethodCacheEntryFactory( ) );
+    static final ClassCache<Map<String, List<Method>>> _methodCache = createDeclaredMethodCache( null );
+
+    static final ClassCache<Map<String, List<Method>>> _staticMethodCache =
+        createDeclaredMethodCache( DeclaredMethodCacheEntry.MethodType.STATIC );
 
-    static final Cache<PermissionCacheEntry, Permission> _invokePermissionCache =
-        cacheFactory.createCache( new PermissionCacheEntryFactory( ) );
+    static final ClassCache<Map<String, List<Method>>> _instanceMethodCache =
+        createDeclaredMethodCache( DeclaredMethodCacheEntry.MethodType.NON_STATIC );
+
+    static final Cache<Method, Permission> _invokePermissionCache =
+        cacheFactory.createWeakCache( new CacheEntryFactory<Method, Permission>( )
+        {
+            private final PermissionCacheEntryFactory permissionFactory = new PermissionCacheEntryFactory( );
+
+            public Permission create( Method key )
+                throws CacheException
+            {
+                return permissionFactory.create( new PermissionCacheEntry( key ) );
+            }
+        } );
 
     static final ClassCache<Map<String, Field>> _fieldCache =
-        cacheFactory.createClassCache( new FiedlCacheEntryFactory( ) );
+        cacheFactory.createWeakClassCache( new FiedlCacheEntryFactory( ) );
 
     static final Map<String, Class<?>> _primitiveTypes = new HashMap<String, Class<?>>( 101 );
 
     static final Map<Class<?>, Object> _primitiveDefaults = new HashMap<Class<?>, Object>( 20 );
 
     static final Cache<Method, Class<?>[]> _methodParameterTypesCache =
-        cacheFactory.createCache( new CacheEntryFactory<Method, Class<?>[]>( )
+        cacheFactory.createWeakCache( new CacheEntryFactory<Method, Class<?>[]>( )
         {
             public Class<?>[] create( Method key )
                 throws CacheException
@@ -207,7 +253,7 @@ public class OgnlRuntime
         cacheFactory.createCache( new GenericMethodParameterTypeFactory( ) );
 
     static final Cache<Constructor<?>, Class<?>[]> _ctorParameterTypesCache =
-        cacheFactory.createCache( new CacheEntryFactory<Constructor<?>, Class<?>[]>( )
+        cacheFactory.createWeakCache( new CacheEntryFactory<Constructor<?>, Class<?>[]>( )
         {
             public Class<?>[] create( Constructor<?> key )
                 throws CacheException
@@ -222,13 +268,31 @@ public class OgnlRuntime
 
     static final ObjectArrayPool _objectArrayPool = new ObjectArrayPool( );
 
+    private static final MethodAccessCacheEntryFactory methodAccessCacheEntryFactory =
+        new MethodAccessCacheEntryFactory( );
+
     static final Cache<Method, MethodAccessEntryValue> _methodAccessCache =
-        cacheFactory.createCache( new MethodAccessCacheEntryFactory( ) );
+        cacheFactory.createWeakCache( methodAccessCacheEntryFactory );
 
     private static final MethodPermCacheEntryFactory methodPermCacheEntryFactory =
         new MethodPermCacheEntryFactory( _securityManager );
 
-    static final Cache<Method, Boolean> _methodPermCache = cacheFactory.createCache( methodPermCacheEntryFactory );
+    static final Cache<Method, Boolean> _methodPermCache = cacheFactory.createWeakCache( methodPermCacheEntryFactory );
+
+    /**
+     * Default maximum number of parsed expressions kept by {@link #getParsedExpression(String)}, it can be overridden
+     * through the <code>ognl.expressionCacheSize</code> system property (0 disables the cache).
+     */
+    public static final int DEFAULT_EXPRESSION_CACHE_SIZE = 1024;
+
+    static volatile BoundedCache<String, Node> _expressionCache =
+        createExpressionCache( getIntegerProperty( "ognl.expressionCacheSize", DEFAULT_EXPRESSION_CACHE_SIZE ) );
+
+    /**
+     * Bumped whenever accessors are registered or the caches are cleared, so the inline caches held by AST nodes know
+     * their entries may be stale.
+     */
+    private static volatile int _cacheGeneration;
 
     static ClassCacheInspector _cacheInspector;
 
@@ -237,6 +301,26 @@ public class OgnlRuntime
      */
     private static OgnlExpressionCompiler _compiler;
 
+    /**
+     * Interpreted evaluations after which an expression is compiled in the background, 0 when disabled.
+     */
+    private static volatile int _compileThreshold = 0;
+
+    /**
+     * Runs the background compilations, created on first use unless set.
+     */
+    private static Executor _compilationExecutor;
+
+    /**
+     * Number of elements from which projections and selections are evaluated in parallel, 0 when disabled.
+     */
+    private static volatile int _parallelThreshold = 0;
+
+    /**
+     * Runs the parallel parts of projections and selections, created on first use unless set.
+     */
+    private static ExecutorService _parallelExecutor;
+
     /**
      * Lazy loading of Javassist library
      */
@@ -450,13 +534,143 @@ public class OgnlRuntime
         _methodParameterTypesCache.clear( );
         _ctorParameterTypesCache.clear( );
         _propertyDescriptorCache.clear( );
+        _conversionPlanCache.clear( );
         _constructorCache.clear( );
         _methodCache.clear( );
+        _staticMethodCache.clear( );
+        _instanceMethodCache.clear( );
         _invokePermissionCache.clear( );
         _fieldCache.clear( );
 //        _setterMethods.clear( );
 //        _getterMethods.clear( );
         _methodAccessCache.clear( );
+
+        BoundedCache<String, Node> expressionCache = _expressionCache;
+        if ( expressionCache != null )
+        {
+            expressionCache.clear( );
+        }
+        if ( _compiler instanceof ExpressionCompiler )
+        {
+            ( (ExpressionCompiler) _compiler ).clearAccessorClasses( );
+        }
+        invalidateInlineCaches( );
+    }
+
+    /**
+     * @return the current generation of the reflection caches, see {@link InlineCache}
+     */
+    static int getCacheGeneration( )
+    {
+        return _cacheGeneration;
+    }
+
+    private static synchronized void invalidateInlineCaches( )
+    {
+        _cacheGeneration++;
+    }
+
+    /**
+     * Returns the parsed tree of the given expression, reusing the tree cached for the same expression text unless the
+     * expression cache has been disabled with {@link #setExpressionCacheSize(int)}. Cached trees are parsed with
+     * {@link OptimizationLevel#FOLD_CONSTANTS}.
+     * <p>
+     * The returned tree may be shared between threads and callers, so it must not be altered (e.g. compiled); use
+     * {@link Ognl#parseExpression(String)} to obtain a private tree.
+     * </p>
+     *
+     * @param expression the OGNL expression to be parsed
+     * @return a tree representation of the expression
+     * @throws ExpressionSyntaxException if the expression is malformed
+     * @throws OgnlException if there is a pathological environmental problem
+     */
+    public static Node getParsedExpression( String expression )
+        throws OgnlException
+    {
+        BoundedCache<String, Node> expressionCache = _expressionCache;
+
+        if ( expressionCache == null )
+        {
+            return (Node) Ognl.parseExpression( expression );
+        }
+
+        Node result = expressionCache.get( expression );
+        if ( result == null )
+        {
+            result =
+                expressionCache.put( expression,
+                                     (Node) Ognl.parseExpression( expression, OptimizationLevel.FOLD_CONSTANTS ) );
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the parsed expression cache with a new, empty one created by the current {@link CacheFactory}.
+     *
+     * @param maxSize the maximum number of cached expressions, 0 or less disables caching
+     */
+    public static void setExpressionCacheSize( int maxSize )
+    {
+        _expressionCache = createExpressionCache( maxSize );
+    }
+
+    /**
+     * @return the parsed expression cache, or null if it has been disabled
+     */
+    public static BoundedCache<String, Node> getExpressionCache( )
+    {
+        return _expressionCache;
+    }
+
+    private static BoundedCache<String, Node> createExpressionCache( int maxSize )
+    {
+        if ( maxSize <= 0 )
+        {
+            return null;
+        }
+        return cacheFactory.createBoundedCache( maxSize, null );
+    }
+
+    /**
+     * Creates a cache of the declared methods of a class, grouped by name, keyed on the class alone so it can be held
+     * weakly. Groups of overloads carry their {@link OverloadTable}.
+     *
+     * @param type the kind of methods to keep, or null for all of them
+     */
+    private static ClassCache<Map<String, List<Method>>> createDeclaredMethodCache(
+        final DeclaredMethodCacheEntry.MethodType type )
+    {
+        final DeclaredMethodCacheEntryFactory methodFactory = new DeclaredMethodCacheEntryFactory( );
+
+        return cacheFactory.createWeakClassCache( new ClassCacheEntryFactory<Map<String, List<Method>>>( )
+        {
+            public Map<String, List<Method>> create( Class<?> key )
+                throws CacheException
+            {
+                return OverloadTable.overloads( methodFactory.create( new DeclaredMethodCacheEntry( key, type ) ) );
+            }
+        } );
+    }
+
+    private static int getIntegerProperty( String name, int defaultValue )
+    {
+        try
+        {
+            String s = System.getProperty( name );
+            if ( s != null )
+            {
+                return Integer.parseInt( s.trim( ) );
+            }
+        }
+        catch ( NumberFormatException ex )
+        {
+            // malformed value, just keep the default
+        }
+        catch ( SecurityException ex )
+        {
+            // restricted access environment, just keep the default
+        }
+        return defaultValue;
     }
 
     /**
@@ -508,6 +722,7 @@ public class OgnlRuntime
     public static void setCompiler( OgnlExpressionCompiler compiler )
     {
         _compiler = compiler;
+        invalidateInlineCaches( );
     }
 
     public static OgnlExpressionCompiler getCompiler( )
@@ -519,6 +734,162 @@ public class OgnlRuntime
         throws Exception
     {
         _compiler.compileExpression( context, expression, root );
+        expression.setAccessor( GuardedAccessor.guard( expression.getAccessor( ), expression, root ) );
+    }
+
+    /**
+     * Enables tiered evaluation: an expression evaluated by the interpreter through {@link Ognl#getValue(Object, Map,
+     * Object)} or {@link Ognl#setValue(Object, Map, Object, Object)} <code>threshold</code> times is compiled with
+     * {@link #getCompiler()} on the {@link #getCompilationExecutor()}, and evaluated through its compiled accessor
+     * from then on. Evaluating threads never wait for the background compiler, though the first evaluation of a
+     * compiled expression against a root of a further class compiles an accessor for that class on the evaluating
+     * thread. Expressions the compiler fails on stay interpreted for good.
+     * <p>
+     * Compilers generating classes, such as the default {@link ExpressionCompiler}, read the root of the evaluation
+     * which reached the threshold, calling the getters and methods of the expression on it, from the compilation
+     * executor thread while the evaluating thread goes on. Only enable tiered evaluation for roots which are safe to
+     * read concurrently, install a {@link ReflectiveExpressionCompiler}, which never evaluates the expression, or run
+     * the compilations on the evaluating thread with an executor calling {@link Runnable#run()} directly.
+     * </p>
+     *
+     * @param threshold number of interpreted evaluations before compiling, 0 to disable tiered evaluation (default).
+     */
+    public static void setCompileThreshold( int threshold )
+    {
+        if ( threshold < 0 )
+        {
+            throw new IllegalArgumentException( "threshold must not be negative: " + threshold );
+        }
+        _compileThreshold = threshold;
+    }
+
+    public static int getCompileThreshold( )
+    {
+        return _compileThreshold;
+    }
+
+    /**
+     * Sets the executor running the compilations of tiered evaluation, see {@link #setCompileThreshold(int)}.
+     *
+     * @param executor the executor, or null to fall back to a single daemon thread.
+     */
+    public static synchronized void setCompilationExecutor( Executor executor )
+    {
+        _compilationExecutor = executor;
+    }
+
+    public static synchronized Executor getCompilationExecutor( )
+    {
+        if ( _compilationExecutor == null )
+        {
+            // compilers are not required to be thread-safe, one thread runs them all
+            _compilationExecutor = Executors.newSingleThreadExecutor( new ThreadFactory( )
+            {
+                public Thread newThread( Runnable r )
+                {
+                    Thread thread = new Thread( r, "ognl-compiler" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        }
+        return _compilationExecutor;
+    }
+
+    /**
+     * Enables parallel projection and selection: the elements of a source holding at least <code>threshold</code>
+     * elements are split into one part per processor, each part evaluated with its own copy of the context on the
+     * {@link #getParallelExecutor()}, and the results are concatenated in the order of the source. Only use it for
+     * expressions which are safe to evaluate concurrently: assignments to variables made while evaluating the elements
+     * are not visible outside of their part. The parts share the tree of the element expression: its constant nodes
+     * are decided on the evaluating thread before the parts are handed out, other lazily initialised state of the
+     * nodes (inline caches, type feedback) is itself safe to share.
+     *
+     * @param threshold minimum number of elements to evaluate in parallel, 0 to disable parallel evaluation (default).
+     */
+    public static void setParallelThreshold( int threshold )
+    {
+        if ( threshold < 0 )
+        {
+            throw new IllegalArgumentException( "threshold must not be negative: " + threshold );
+        }
+        _parallelThreshold = threshold;
+    }
+
+    public static int getParallelThreshold( )
+    {
+        return _parallelThreshold;
+    }
+
+    /**
+     * Sets the executor running the parallel parts of projections and selections, see
+     * {@link #setParallelThreshold(int)}. The evaluating thread runs one part itself and waits for the others.
+     *
+     * @param executor the executor, or null to fall back to one daemon thread per processor.
+     */
+    public static synchronized void setParallelExecutor( ExecutorService executor )
+    {
+        _parallelExecutor = executor;
+    }
+
+    public static synchronized ExecutorService getParallelExecutor( )
+    {
+        if ( _parallelExecutor == null )
+        {
+            _parallelExecutor =
+                Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new ThreadFactory( )
+                {
+                    private final AtomicInteger _count = new AtomicInteger( );
+
+                    public Thread newThread( Runnable r )
+                    {
+                        Thread thread = new Thread( r, "ognl-parallel-" + _count.incrementAndGet() );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+        }
+        return _parallelExecutor;
+    }
+
+    /**
+     * Counts an interpreted evaluation of a whole expression and hands the expression to the background compiler once
+     * the compile threshold is reached.
+     */
+    static void countInterpretation( OgnlContext context, Node expression, Object root )
+    {
+        int threshold = _compileThreshold;
+        if ( ( threshold == 0 ) || !( expression instanceof SimpleNode ) )
+        {
+            return;
+        }
+
+        SimpleNode node = (SimpleNode) expression;
+        if ( node.countInterpretation( threshold ) )
+        {
+            try
+            {
+                getCompilationExecutor( ).execute( new BackgroundCompilation( context, node, root ) );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                node.setTier( SimpleNode.TIER_INTERPRETED );
+            }
+        }
+    }
+
+    /**
+     * @return the accessor to evaluate the expression with, null while the background compiler is still installing it
+     */
+    static ExpressionAccessor getAccessor( Node expression )
+    {
+        ExpressionAccessor accessor = expression.getAccessor( );
+        if ( ( accessor != null ) && ( expression instanceof SimpleNode )
+            && ( ( (SimpleNode) expression ).getTier( ) == SimpleNode.TIER_COMPILING ) )
+        {
+            return null;
+        }
+        return accessor;
     }
 
     /**
@@ -763,14 +1134,16 @@ public class OgnlRuntime
     public static Permission getPermission( Method method )
         throws CacheException
     {
-        return _invokePermissionCache.get( new PermissionCacheEntry( method ) );
+        return _invokePermissionCache.get( method );
     }
 
+    /**
+     * Invokes the method through the {@link MethodInvoker} resolved once for it by the current
+     * {@link MethodInvokerFactory}, after checking the invoke permission when a security manager is set.
+     */
     public static Object invokeMethod( Object target, Method method, Object[] argsArray )
         throws InvocationTargetException, IllegalAccessException, CacheException
     {
-        Object result;
-
         if ( _securityManager != null )
         {
             if ( !_methodPermCache.get( method ) )
@@ -779,33 +1152,28 @@ public class OgnlRuntime
             }
 
         }
-        MethodAccessEntryValue entry = _methodAccessCache.get( method );
-
-        if ( !entry.isAccessible( ) )
-        {
-            // only synchronize method invocation if it actually requires it
-            synchronized ( method )
-            {
-
-                if ( entry.isNotPublic( ) && !entry.isAccessible( ) )
-                {
-                    method.setAccessible( true );
-                }
-
-                result = method.invoke( target, argsArray );
+        return _methodAccessCache.get( method ).getInvoker( ).invoke( target, argsArray );
+    }
 
-                if ( !entry.isAccessible( ) )
-                {
-                    method.setAccessible( false );
-                }
-            }
-        }
-        else
+    /**
+     * Sets the factory creating the {@link MethodInvoker}s used by {@link #invokeMethod(Object, Method, Object[])}.
+     * Invokers already resolved are discarded.
+     *
+     * @param factory the new invoker factory, not null
+     */
+    public static void setMethodInvokerFactory( MethodInvokerFactory factory )
+    {
+        if ( factory == null )
         {
-            result = method.invoke( target, argsArray );
+            throw new IllegalArgumentException( "cannot set MethodInvokerFactory to null" );
         }
+        methodAccessCacheEntryFactory.setInvokerFactory( factory );
+        _methodAccessCache.clear( );
+    }
 
-        return result;
+    public static MethodInvokerFactory getMethodInvokerFactory( )
+    {
+        return methodAccessCacheEntryFactory.getInvokerFactory( );
     }
 
     /**
@@ -1167,43 +1535,76 @@ public class OgnlRuntime
         Method result = null;
         Class<?>[] resultParameterTypes = null;
 
-        if ( methods != null )
+        if ( methods == null )
         {
-            for ( Method m : methods )
-            {
-                Class<?> typeClass = target != null ? target.getClass( ) : null;
-                if ( typeClass == null && source != null && Class.class.isInstance( source ) )
-                {
-                    typeClass = (Class<?>) source;
-                }
+            return getConvertedMethodAndArgs( context, target, propertyName, methods, args, actualArgs );
+        }
+
+        Class<?> typeClass = target != null ? target.getClass( ) : null;
+        if ( typeClass == null && source != null && Class.class.isInstance( source ) )
+        {
+            typeClass = (Class<?>) source;
+        }
+
+        OverloadTable overloads = OverloadTable.of( methods );
+        OverloadTable.Plan plan = ( overloads == null ) ? null : overloads.get( typeClass, args );
+        if ( plan != null && plan.apply( context, source, target, propertyName, args, actualArgs ) )
+        {
+            return plan.getMethod( );
+        }
+
+        for ( Method m : methods )
+        {
+            Class<?>[] mParameterTypes = findParameterTypes( typeClass, m );
 
-                Class<?>[] mParameterTypes = findParameterTypes( typeClass, m );
+            if ( areArgsCompatible( args, mParameterTypes, m ) && ( ( result == null ) || isMoreSpecific(
+                mParameterTypes, resultParameterTypes ) ) )
+            {
+                result = m;
+                resultParameterTypes = mParameterTypes;
+                System.arraycopy( args, 0, actualArgs, 0, args.length );
 
-                if ( areArgsCompatible( args, mParameterTypes, m ) && ( ( result == null ) || isMoreSpecific(
-                    mParameterTypes, resultParameterTypes ) ) )
+                for ( int j = 0; j < mParameterTypes.length; j++ )
                 {
-                    result = m;
-                    resultParameterTypes = mParameterTypes;
-                    System.arraycopy( args, 0, actualArgs, 0, args.length );
+                    Class<?> type = mParameterTypes[j];
 
-                    for ( int j = 0; j < mParameterTypes.length; j++ )
+                    if ( type.isPrimitive( ) && ( actualArgs[j] == null ) )
                     {
-                        Class<?> type = mParameterTypes[j];
-
-                        if ( type.isPrimitive( ) && ( actualArgs[j] == null ) )
-                        {
-                            actualArgs[j] = getConvertedType( context, source, result, propertyName, null, type );
-                        }
+                        actualArgs[j] = getConvertedType( context, source, result, propertyName, null, type );
                     }
                 }
             }
         }
 
-        if ( result == null )
+        if ( result != null )
         {
-            result = getConvertedMethodAndArgs( context, target, propertyName, methods, args, actualArgs );
+            if ( overloads != null )
+            {
+                overloads.put( typeClass, args, result, resultParameterTypes, false );
+            }
+            return result;
         }
 
+        result = getConvertedMethodAndArgs( context, target, propertyName, methods, args, actualArgs );
+
+        if ( result != null && overloads != null )
+        {
+            // only an overload without competitor of the same arity is chosen regardless of the argument values
+            Method candidate = null;
+            for ( Method m : methods )
+            {
+                if ( getParameterTypes( m ).length == args.length )
+                {
+                    if ( candidate != null )
+                    {
+                        return result;
+                    }
+                    candidate = m;
+                }
+            }
+            overloads.put( typeClass, args, result,
+                           findParameterTypes( target != null ? target.getClass( ) : null, result ), true );
+        }
         return result;
     }
 
@@ -1212,7 +1613,7 @@ public class OgnlRuntime
         throws MethodFailedException
     {
         Throwable reason = null;
-        Object[] actualArgs = _objectArrayPool.create( args.length );
+        Object[] actualArgs = ( context == null ) ? new Object[args.length] : context.acquireArguments( args.length );
 
         try
         {
@@ -1265,16 +1666,23 @@ public class OgnlRuntime
 
                         if ( actualArgs.length > i )
                         {
-                            List<Object> varArgsList = new ArrayList<Object>( );
+                            int count = 0;
                             for ( int j = i; j < actualArgs.length; j++ )
                             {
                                 if ( actualArgs[j] != null )
                                 {
-                                    varArgsList.add( actualArgs[j] );
+                                    count++;
                                 }
                             }
 
-                            varArgs = varArgsList.toArray( );
+                            varArgs = new Object[count];
+                            for ( int j = i, k = 0; j < actualArgs.length; j++ )
+                            {
+                                if ( actualArgs[j] != null )
+                                {
+                                    varArgs[k++] = actualArgs[j];
+                                }
+                            }
                         }
                         else
                         {
@@ -1308,7 +1716,10 @@ public class OgnlRuntime
         }
         finally
         {
-            _objectArrayPool.recycle( actualArgs );
+            if ( context != null )
+            {
+                context.releaseArguments( actualArgs );
+            }
         }
 
         throw new MethodFailedException( source, methodName, reason );
@@ -1316,6 +1727,17 @@ public class OgnlRuntime
 
     public static Object callStaticMethod( OgnlContext context, String className, String methodName, Object[] args )
         throws OgnlException
+    {
+        return callStaticMethod( context, className, methodName, args, false );
+    }
+
+    /**
+     * Calls a static method with arguments which may come from {@link OgnlContext#acquireArguments(int)}, in which
+     * case a {@link MethodAccessor} other than {@link ObjectMethodAccessor} is given its own copy.
+     */
+    static Object callStaticMethod( OgnlContext context, String className, String methodName, Object[] args,
+                                    boolean scratchArguments )
+        throws OgnlException
     {
         try
         {
@@ -1327,7 +1749,8 @@ public class OgnlRuntime
 
             MethodAccessor ma = getMethodAccessor( targetClass );
 
-            return ma.callStaticMethod( context, targetClass, methodName, args );
+            return ma.callStaticMethod( context, targetClass, methodName,
+                                        scratchArguments ? argumentsFor( ma, ObjectMethodAccessor.class, args ) : args );
         }
         catch ( ClassNotFoundException ex )
         {
@@ -1375,6 +1798,147 @@ public class OgnlRuntime
         return getMethodAccessor( target.getClass( ) ).callMethod( context, target, methodName, args );
     }
 
+    /**
+     * Calls a method with arguments which may come from {@link OgnlContext#acquireArguments(int)}, in which case a
+     * {@link MethodAccessor} other than {@link ObjectMethodAccessor} is given its own copy.
+     */
+    static Object callMethod( OgnlContext context, Object target, String methodName, Object[] args,
+                              boolean scratchArguments )
+        throws OgnlException
+    {
+        if ( target == null )
+        {
+            throw new NullPointerException( "target is null for method " + methodName );
+        }
+
+        MethodAccessor ma = getMethodAccessor( target.getClass( ) );
+
+        return ma.callMethod( context, target, methodName,
+                              scratchArguments ? argumentsFor( ma, ObjectMethodAccessor.class, args ) : args );
+    }
+
+    /**
+     * Returns the scratch arguments to hand to <code>handler</code>. They are only passed as they are to the default
+     * implementation, known not to keep them; any other {@link MethodAccessor} or {@link NullHandler} may hold on to
+     * the array it is given, so it gets a copy the context will not overwrite.
+     */
+    static Object[] argumentsFor( Object handler, Class<?> defaultHandler, Object[] args )
+    {
+        return ( args.length == 0 || handler.getClass( ) == defaultHandler ) ? args : args.clone( );
+    }
+
+    /**
+     * Invokes the method remembered by the call-site cache for the classes of the target and of the arguments,
+     * skipping the overload resolution done by {@link ObjectMethodAccessor}. Only calls which resolve to a non varargs
+     * method taking the arguments as they are, without any conversion, are cached.
+     *
+     * @param cache      the call-site cache of the caller.
+     * @param context    The current execution context.
+     * @param target     The object to invoke the method on.
+     * @param methodName Name of the method.
+     * @param args       the arguments, never null.
+     * @return the method result, or {@link #NotFound} if {@link #callMethod(OgnlContext, Object, String, Object[])}
+     *         has to be used instead
+     * @throws OgnlException if the method fails.
+     */
+    static Object callCachedMethod( InlineCache cache, OgnlContext context, Object target, String methodName,
+                                    Object[] args )
+        throws OgnlException
+    {
+        if ( target == null )
+        {
+            return NotFound;
+        }
+        for ( Object arg : args )
+        {
+            if ( arg == null )
+            {
+                return NotFound;
+            }
+        }
+
+        Class<?> targetClass = target.getClass( );
+        Object cached = cache.get( targetClass, args );
+
+        if ( cached == null )
+        {
+            if ( cache.isMegamorphic( ) )
+            {
+                return NotFound;
+            }
+            cached = NotFound;
+            if ( getMethodAccessor( targetClass ).getClass( ) == ObjectMethodAccessor.class )
+            {
+                Method resolved = resolveCachableMethod( context, target, methodName, args );
+                if ( resolved != null )
+                {
+                    cached = resolved;
+                }
+            }
+            cache.put( targetClass, args, cached );
+        }
+        if ( cached == NotFound )
+        {
+            return NotFound;
+        }
+
+        Method m = (Method) cached;
+
+        Throwable reason;
+        try
+        {
+            if ( !isMethodAccessible( context, target, m, null ) )
+            {
+                return NotFound;
+            }
+            return invokeMethod( target, m, args );
+        }
+        catch ( IllegalAccessException e )
+        {
+            reason = e;
+        }
+        catch ( InvocationTargetException e )
+        {
+            reason = e.getTargetException( );
+        }
+        throw new MethodFailedException( target, methodName, reason );
+    }
+
+    /**
+     * Resolves the method the same way {@link ObjectMethodAccessor#callMethod} does.
+     *
+     * @return the method, or null if it cannot be called with the arguments as they are
+     */
+    private static Method resolveCachableMethod( OgnlContext context, Object target, String methodName,
+                                                 Object[] args )
+        throws OgnlException
+    {
+        Class<?> targetClass = target.getClass( );
+        List<Method> methods = getMethods( targetClass, methodName, false );
+
+        if ( ( methods == null ) || ( methods.size( ) == 0 ) )
+        {
+            methods = getMethods( targetClass, methodName, true );
+        }
+
+        Object[] actualArgs = context.acquireArguments( args.length );
+        try
+        {
+            Method m = getAppropriateMethod( context, target, target, null, methods, args, actualArgs );
+
+            if ( ( m == null ) || m.isVarArgs( )
+                || !areArgsCompatible( args, findParameterTypes( targetClass, m ), m ) )
+            {
+                return null;
+            }
+            return m;
+        }
+        finally
+        {
+            context.releaseArguments( actualArgs );
+        }
+    }
+
     public static Object callConstructor( OgnlContext context, String className, Object[] args )
         throws OgnlException
     {
@@ -1555,17 +2119,7 @@ public class OgnlRuntime
     public static Map<String, List<Method>> getMethods( Class<?> targetClass, boolean staticMethods )
         throws OgnlException
     {
-        DeclaredMethodCacheEntry.MethodType type;
-        if ( staticMethods )
-        {
-            type = DeclaredMethodCacheEntry.MethodType.STATIC;
-        }
-        else
-        {
-            type = DeclaredMethodCacheEntry.MethodType.NON_STATIC;
-
-        }
-        return _methodCache.get( new DeclaredMethodCacheEntry( targetClass, type ) );
+        return ( staticMethods ? _staticMethodCache : _instanceMethodCache ).get( targetClass );
     }
 
     public static List<Method> getMethods( Class<?> targetClass, String name, boolean staticMethods )
@@ -1791,7 +2345,7 @@ public class OgnlRuntime
         }
         for ( String s : find )
         {
-            List<Method> methodList = _methodCache.get( new DeclaredMethodCacheEntry( targetClass ) ).get( s );
+            List<Method> methodList = _methodCache.get( targetClass ).get( s );
             if ( methodList != null )
             {
                 result.addAll( methodList );
@@ -1968,7 +2522,7 @@ public class OgnlRuntime
                 if ( ( ( isSet = methodName.startsWith( SET_PREFIX ) ) || ( isGet =
                     methodName.startsWith( GET_PREFIX ) ) ) && ( methodName.length( ) > 3 ) )
                 {
-                    String propertyName = Introspector.decapitalize( methodName.substring( 3 ) );
+                    String propertyName = BeanIndex.decapitalize( methodName.substring( 3 ) );
                     Class<?>[] parameterTypes = getParameterTypes( m );
                     int parameterCount = parameterTypes.length;
 
@@ -2033,17 +2587,19 @@ public class OgnlRuntime
     }
 
     /**
-     * This method returns the property descriptors for the given class as a Map.
+     * This method returns the property descriptors for the given class as a Map. The map is shared and cannot be
+     * modified.
      *
      * @param targetClass The class to get the descriptors for.
      * @return Map map of property descriptors for class.
-     * @throws IntrospectionException on errors using {@link Introspector}.
+     * @throws IntrospectionException kept for compatibility, property descriptors are no longer obtained from the
+     *             {@link java.beans.Introspector}.
      * @throws OgnlException          On general errors.
      */
     public static Map<String, PropertyDescriptor> getPropertyDescriptors( Class<?> targetClass )
         throws IntrospectionException, OgnlException
     {
-        return _propertyDescriptorCache.get( targetClass );
+        return _propertyDescriptorCache.get( targetClass ).getPropertyDescriptors( );
     }
 
     /**
@@ -2061,10 +2617,14 @@ public class OgnlRuntime
         return getPropertyDescriptors( targetClass ).get( propertyName );
     }
 
+    /**
+     * Returns the property descriptors of the given class sorted by name. The array is shared and must not be
+     * modified.
+     */
     public static PropertyDescriptor[] getPropertyDescriptorsArray( Class<?> targetClass )
         throws IntrospectionException, OgnlException
     {
-        return (PropertyDescriptor[]) getPropertyDescriptors( targetClass ).entrySet( ).toArray( );
+        return _propertyDescriptorCache.get( targetClass ).getPropertyDescriptorsArray( );
     }
 
     /**
@@ -2093,6 +2653,7 @@ public class OgnlRuntime
     public static void setMethodAccessor( Class<?> cls, MethodAccessor accessor )
     {
         _methodAccessors.put( cls, accessor );
+        invalidateInlineCaches( );
     }
 
     public static MethodAccessor getMethodAccessor( Class<?> cls )
@@ -2109,6 +2670,7 @@ public class OgnlRuntime
     public static void setPropertyAccessor( Class<?> cls, PropertyAccessor accessor )
     {
         _propertyAccessors.put( cls, accessor );
+        invalidateInlineCaches( );
     }
 
     public static PropertyAccessor getPropertyAccessor( Class<?> cls )
@@ -2172,6 +2734,82 @@ public class OgnlRuntime
         return accessor.getProperty( context, source, name );
     }
 
+    /**
+     * Reads a simple property through the getter remembered by the call-site cache for the class of the source,
+     * skipping the property accessor lookup and method introspection done by
+     * {@link #getProperty(OgnlContext, Object, Object)}. Only sources handled by the plain
+     * {@link ObjectPropertyAccessor} are cached.
+     *
+     * @param cache   the call-site cache of the caller, only ever used for this property name.
+     * @param context The current execution context.
+     * @param source  the object to read the property from.
+     * @param name    the property name.
+     * @return the property value, or {@link #NotFound} if {@link #getProperty(OgnlContext, Object, Object)} has to be
+     *         used instead
+     * @throws OgnlException if the getter fails.
+     */
+    static Object getCachedProperty( InlineCache cache, OgnlContext context, Object source, String name )
+        throws OgnlException
+    {
+        if ( source == null )
+        {
+            return NotFound;
+        }
+
+        Class<?> sourceClass = source.getClass( );
+        Object cached = cache.get( sourceClass, null );
+
+        if ( cached == null )
+        {
+            if ( cache.isMegamorphic( ) )
+            {
+                return NotFound;
+            }
+            cached = NotFound;
+            if ( sourceClass != Class.class
+                && getPropertyAccessor( sourceClass ).getClass( ) == ObjectPropertyAccessor.class )
+            {
+                try
+                {
+                    Method getter = getGetMethod( context, sourceClass, name );
+                    if ( getter != null )
+                    {
+                        cached = getter;
+                    }
+                }
+                catch ( IntrospectionException ex )
+                {
+                    // leave it to the regular path to report
+                }
+            }
+            cache.put( sourceClass, null, cached );
+        }
+        if ( cached == NotFound )
+        {
+            return NotFound;
+        }
+
+        Method m = (Method) cached;
+
+        if ( !context.getMemberAccess( ).isAccessible( context, source, m, name ) )
+        {
+            return NotFound;
+        }
+
+        try
+        {
+            return invokeMethod( source, m, NoArguments );
+        }
+        catch ( InvocationTargetException ex )
+        {
+            throw new OgnlException( name, ex.getTargetException( ) );
+        }
+        catch ( Exception ex )
+        {
+            throw new OgnlException( name, ex );
+        }
+    }
+
     public static void setProperty( OgnlContext context, Object target, Object name, Object value )
         throws OgnlException
     {
@@ -2451,99 +3089,12 @@ public class OgnlRuntime
     {
         try
         {
-            name = name.replaceAll( "\"", "" ).toLowerCase( );
-
-            BeanInfo info = Introspector.getBeanInfo( target );
-            MethodDescriptor[] methods = info.getMethodDescriptors( );
-
-            // exact matches first
-
-            Method m = null;
-
-            for ( MethodDescriptor method : methods )
-            {
-                if ( !isMethodCallable( method.getMethod( ) ) )
-                {
-                    continue;
-                }
-
-                String methodName = method.getName( );
-                String lowerMethodName = methodName.toLowerCase( );
-                int methodParamLen = method.getMethod( ).getParameterTypes( ).length;
-
-                if ( ( methodName.equalsIgnoreCase( name ) || lowerMethodName.equals( "get" + name )
-                    || lowerMethodName.equals( "has" + name ) || lowerMethodName.equals( "is" + name ) )
-                    && !methodName.startsWith( "set" ) )
-                {
-                    if ( numParms > 0 && methodParamLen == numParms )
-                    {
-                        return method.getMethod( );
-                    }
-                    else if ( numParms < 0 )
-                    {
-                        if ( methodName.equals( name ) )
-                        {
-                            return method.getMethod( );
-                        }
-                        else if ( m == null || ( m.getParameterTypes( ).length > methodParamLen ) )
-                        {
-                            m = method.getMethod( );
-                        }
-                    }
-                }
-            }
-
-            if ( m != null )
-            {
-                return m;
-            }
-
-            for ( MethodDescriptor method : methods )
-            {
-                if ( !isMethodCallable( method.getMethod( ) ) )
-                {
-                    continue;
-                }
-
-                if ( method.getName( ).toLowerCase( ).endsWith( name ) && !method.getName( ).startsWith( "set" )
-                    && method.getMethod( ).getReturnType( ) != Void.TYPE )
-                {
-
-                    if ( numParms > 0 && method.getMethod( ).getParameterTypes( ).length == numParms )
-                    {
-                        return method.getMethod( );
-                    }
-                    else if ( numParms < 0 )
-                    {
-                        if ( ( m != null
-                            && m.getParameterTypes( ).length > method.getMethod( ).getParameterTypes( ).length )
-                            || m == null )
-                        {
-                            m = method.getMethod( );
-                        }
-                    }
-                }
-            }
-
-            if ( m != null )
-            {
-                return m;
-            }
-
-            // try one last time adding a get to beginning
-
-            if ( !name.startsWith( "get" ) )
-            {
-                return OgnlRuntime.getReadMethod( target, "get" + name, numParms );
-            }
-
+            return _propertyDescriptorCache.get( target ).getReadMethod( name, numParms );
         }
         catch ( Throwable t )
         {
             throw OgnlOps.castToRuntime( t );
         }
-
-        return null;
     }
 
     public static Method getWriteMethod( Class<?> target, String name )
@@ -2555,101 +3106,24 @@ public class OgnlRuntime
     {
         try
         {
-            name = name.replaceAll( "\"", "" );
-
-            BeanInfo info = Introspector.getBeanInfo( target );
-            MethodDescriptor[] methods = info.getMethodDescriptors( );
-
-            for ( MethodDescriptor method : methods )
-            {
-                if ( !isMethodCallable( method.getMethod( ) ) )
-                {
-                    continue;
-                }
-
-                if ( ( method.getName( ).equalsIgnoreCase( name ) || method.getName( ).toLowerCase( ).equals(
-                    name.toLowerCase( ) ) || method.getName( ).toLowerCase( ).equals( "set" + name.toLowerCase( ) ) )
-                    && !method.getName( ).startsWith( "get" ) )
-                {
-
-                    if ( numParms > 0 && method.getMethod( ).getParameterTypes( ).length == numParms )
-                    {
-                        return method.getMethod( );
-                    }
-                    else if ( numParms < 0 )
-                    {
-                        return method.getMethod( );
-                    }
-                }
-            }
-
-            // try again on pure class
-
-            Method[] cmethods = target.getClass( ).getMethods( );
-            for ( Method cmethod : cmethods )
-            {
-                if ( !isMethodCallable( cmethod ) )
-                {
-                    continue;
-                }
-
-                if ( ( cmethod.getName( ).equalsIgnoreCase( name ) || cmethod.getName( ).toLowerCase( ).equals(
-                    name.toLowerCase( ) ) || cmethod.getName( ).toLowerCase( ).equals( "set" + name.toLowerCase( ) ) )
-                    && !cmethod.getName( ).startsWith( "get" ) )
-                {
-
-                    if ( numParms > 0 && cmethod.getParameterTypes( ).length == numParms )
-                    {
-                        return cmethod;
-                    }
-                    else if ( numParms < 0 )
-                    {
-                        return cmethod;
-                    }
-                }
-            }
-
-            // try one last time adding a set to beginning
-
-            if ( !name.startsWith( "set" ) )
-            {
-                return OgnlRuntime.getReadMethod( target, "set" + name, numParms );
-            }
-
+            return _propertyDescriptorCache.get( target ).getWriteMethod( name, numParms );
         }
         catch ( Throwable t )
         {
             throw OgnlOps.castToRuntime( t );
         }
-
-        return null;
     }
 
     public static PropertyDescriptor getProperty( Class<?> target, String name )
     {
         try
         {
-            BeanInfo info = Introspector.getBeanInfo( target );
-
-            PropertyDescriptor[] pds = info.getPropertyDescriptors( );
-
-            for ( PropertyDescriptor pd : pds )
-            {
-
-                if ( pd.getName( ).equalsIgnoreCase( name ) || pd.getName( ).toLowerCase( ).equals(
-                    name.toLowerCase( ) ) || pd.getName( ).toLowerCase( ).endsWith( name.toLowerCase( ) ) )
-                {
-                    return pd;
-                }
-            }
-
+            return _propertyDescriptorCache.get( target ).getProperty( name );
         }
         catch ( Throwable t )
         {
             throw OgnlOps.castToRuntime( t );
         }
-
-        return null;
     }
 
     public static boolean isBoolean( String expression )
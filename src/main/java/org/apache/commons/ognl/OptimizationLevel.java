@@ -0,0 +1,43 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+/**
+ * How much work {@link Ognl#parseExpression(String, OptimizationLevel)} does on a tree once parsed.
+ */
+public enum OptimizationLevel
+{
+    /**
+     * The tree is returned as parsed, constant subtrees are detected and cached on first evaluation.
+     */
+    NONE,
+
+    /**
+     * Constant subtrees of literals and operators (arithmetic, string concatenation, comparisons, ...) whose value is
+     * a literal are replaced by a single constant, <code>and</code>, <code>or</code> and <code>?:</code> nodes with
+     * constant conditions are reduced to the branches which can still be taken, and the constancy of every remaining
+     * node is decided up front instead of on first evaluation, by whichever thread gets there first. Subtrees naming a
+     * class, such as static fields and methods, are left to the first evaluation, which resolves them with the
+     * evaluating context.
+     */
+    FOLD_CONSTANTS
+}
@@ -0,0 +1,294 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.internal.BoundedCache;
+import org.apache.commons.ognl.internal.ClockCache;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of {@link OgnlRuntime#getAppropriateMethod} remembered per target class and tuple of argument classes, so
+ * that a call repeating an argument shape resolves with a single lookup instead of testing every overload, and its
+ * conversion fallback, again.
+ * <p>
+ * The overload chosen only depends on the classes of the arguments (and on which of them are null) as long as no
+ * conversion is needed, so such outcomes are always kept. An overload reached through argument conversion is only
+ * kept when it is the single candidate of that arity, as conversion may succeed or fail depending on the argument
+ * values; if replaying the conversion fails the full resolution runs again. Conversions are replayed with the type
+ * converter of the calling context.
+ * </p>
+ * <p>
+ * A table belongs to the list of same-named methods it resolves: the method caches of {@link OgnlRuntime} group the
+ * methods of a class by name in {@link Overloads} lists, see {@link #overloads(Map)}, so the outcomes live and die
+ * with the weakly held metadata of the class. Lists of a single method, and lists built by callers, have no table.
+ * Each table holds at most {@link #MAX_SHAPES} shapes, the least used ones being evicted.
+ * </p>
+ */
+final class OverloadTable
+{
+    static final int MAX_SHAPES = 64;
+
+    private final int _maxShapes;
+
+    private volatile BoundedCache<Shape, Plan> _plans;
+
+    OverloadTable( int maxShapes )
+    {
+        _maxShapes = maxShapes;
+    }
+
+    /**
+     * Replaces the method lists of the given map holding more than one method by {@link Overloads} lists.
+     * 
+     * @return the given map
+     */
+    static Map<String, List<Method>> overloads( Map<String, List<Method>> methods )
+    {
+        for ( Map.Entry<String, List<Method>> entry : methods.entrySet() )
+        {
+            if ( entry.getValue().size() > 1 )
+            {
+                entry.setValue( new Overloads( entry.getValue() ) );
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * @return the table of the given method list, null if it has none
+     */
+    static OverloadTable of( List<Method> methods )
+    {
+        return ( methods instanceof Overloads ) ? ( (Overloads) methods )._table : null;
+    }
+
+    /**
+     * @return the plan recorded for the call, or null
+     */
+    Plan get( Class<?> type, Object[] args )
+        throws OgnlException
+    {
+        BoundedCache<Shape, Plan> plans = _plans;
+        return ( plans == null ) ? null : plans.get( new Shape( type, args, null ) );
+    }
+
+    /**
+     * Records the method resolved for a call.
+     * 
+     * @param parameterTypes the parameter types of the method as seen from the target class
+     * @param converted true if the arguments had to be converted to match the method
+     */
+    void put( Class<?> type, Object[] args, Method method, Class<?>[] parameterTypes, boolean converted )
+    {
+        Class<?>[] classes = new Class<?>[args.length];
+        Class<?>[] conversions = null;
+        for ( int i = 0; i < args.length; i++ )
+        {
+            classes[i] = ( args[i] == null ) ? null : args[i].getClass();
+        }
+        for ( int i = 0; i < parameterTypes.length && i < args.length; i++ )
+        {
+            Class<?> parameterType = parameterTypes[i];
+            if ( converted ? !OgnlRuntime.isTypeCompatible( args[i], parameterType )
+                            : parameterType.isPrimitive() && args[i] == null )
+            {
+                if ( conversions == null )
+                {
+                    conversions = new Class<?>[args.length];
+                }
+                conversions[i] = parameterType;
+            }
+        }
+        plans().put( new Shape( type, null, classes ), new Plan( method, conversions, converted ) );
+    }
+
+    int size()
+    {
+        BoundedCache<Shape, Plan> plans = _plans;
+        return ( plans == null ) ? 0 : plans.getSize();
+    }
+
+    private synchronized BoundedCache<Shape, Plan> plans()
+    {
+        if ( _plans == null )
+        {
+            _plans = new ClockCache<Shape, Plan>( _maxShapes );
+        }
+        return _plans;
+    }
+
+    /**
+     * Methods of a class sharing a name, along with the table of their resolutions.
+     */
+    static final class Overloads
+        extends ArrayList<Method>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final transient OverloadTable _table = new OverloadTable( MAX_SHAPES );
+
+        Overloads( Collection<Method> methods )
+        {
+            super( methods );
+        }
+    }
+
+    /**
+     * The method resolved for an argument shape, and the arguments to convert before calling it.
+     */
+    static final class Plan
+    {
+        private final Method _method;
+
+        /** Type to convert each argument to, null when the argument is passed as it is. */
+        private final Class<?>[] _conversions;
+
+        private final boolean _converted;
+
+        Plan( Method method, Class<?>[] conversions, boolean converted )
+        {
+            _method = method;
+            _conversions = conversions;
+            _converted = converted;
+        }
+
+        Method getMethod()
+        {
+            return _method;
+        }
+
+        /**
+         * Fills <code>actualArgs</code> the way {@link OgnlRuntime#getAppropriateMethod} does for this method.
+         * 
+         * @return false if an argument could not be converted, in which case the call must be resolved again
+         */
+        boolean apply( OgnlContext context, Object source, Object target, String propertyName, Object[] args,
+                       Object[] actualArgs )
+            throws OgnlException
+        {
+            System.arraycopy( args, 0, actualArgs, 0, args.length );
+            if ( _conversions == null )
+            {
+                return true;
+            }
+            if ( _converted && context == null )
+            {
+                return false;
+            }
+
+            for ( int i = 0; i < _conversions.length; i++ )
+            {
+                Class<?> type = _conversions[i];
+                if ( type != null )
+                {
+                    Object value =
+                        OgnlRuntime.getConvertedType( context, _converted ? target : source, _method, propertyName,
+                                                      args[i], type );
+                    if ( _converted && value == OgnlRuntime.NoConversionPossible )
+                    {
+                        return false;
+                    }
+                    actualArgs[i] = value;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Target class and argument classes of a call. Probes built from the arguments themselves compare equal to
+     * recorded shapes built from their classes, so a lookup allocates nothing else.
+     */
+    private static final class Shape
+    {
+        private final Class<?> _type;
+
+        private final Object[] _args;
+
+        private final Class<?>[] _classes;
+
+        private final int _hash;
+
+        Shape( Class<?> type, Object[] args, Class<?>[] classes )
+        {
+            _type = type;
+            _args = args;
+            _classes = classes;
+
+            int hash = ( type == null ) ? 0 : type.hashCode();
+            for ( int i = 0, count = length(); i < count; i++ )
+            {
+                Class<?> c = classAt( i );
+                hash = hash * 31 + ( c == null ? 0 : c.hashCode() );
+            }
+            _hash = hash;
+        }
+
+        private int length()
+        {
+            return _classes != null ? _classes.length : _args.length;
+        }
+
+        private Class<?> classAt( int index )
+        {
+            if ( _classes != null )
+            {
+                return _classes[index];
+            }
+            Object arg = _args[index];
+            return arg == null ? null : arg.getClass();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof Shape ) )
+            {
+                return false;
+            }
+            Shape other = (Shape) o;
+            if ( _hash != other._hash || _type != other._type || length() != other.length() )
+            {
+                return false;
+            }
+            for ( int i = 0, count = length(); i < count; i++ )
+            {
+                if ( classAt( i ) != other.classAt( i ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
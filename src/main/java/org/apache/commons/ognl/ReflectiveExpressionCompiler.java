@@ -0,0 +1,820 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.enhance.ExpressionAccessor;
+import org.apache.commons.ognl.enhance.ExpressionCompiler;
+
+/**
+ * Expression compiler which links the nodes of an expression into a tree of pre-resolved accessor objects instead of
+ * generating java source and loading it as a new class through Javassist.
+ * <p>
+ * Compiling is a single walk over the tree and defines no class, so it costs microseconds, works whatever the class
+ * loader of the root, and leaves nothing behind once the expression is dropped. Property reads and method calls go
+ * through the same call-site caches as the interpreter, guarded by the class of each source, so one compiled
+ * expression serves any root type. Nodes without a linked form (projections, lambdas, constructors, ...) are evaluated
+ * by the interpreter from within the compiled tree.
+ * </p>
+ * <p>
+ * Install it with <code>OgnlRuntime.setCompiler( new ReflectiveExpressionCompiler() )</code>. As with the Javassist
+ * compiled accessors, evaluation through the accessor neither records {@link Evaluation} traces nor maintains the
+ * current object and node of the context, and an {@link OgnlException} raised by the expression is thrown wrapped by
+ * {@link OgnlOps#castToRuntime(Throwable)}.
+ * </p>
+ */
+public class ReflectiveExpressionCompiler
+    extends ExpressionCompiler
+{
+    private static final NodeVisitor<Link, Object> LINKER = new Linker();
+
+    public void compileExpression( OgnlContext context, Node expression, Object root )
+        throws Exception
+    {
+        if ( expression.getAccessor() != null )
+        {
+            return;
+        }
+
+        ExpressionAccessor accessor = new LinkedAccessor( link( expression ) );
+        accessor.setExpression( expression );
+        expression.setAccessor( accessor );
+    }
+
+    static Link link( Node node )
+    {
+        return node.accept( LINKER, null );
+    }
+
+    static Link[] linkChildren( Node node )
+    {
+        Link[] result = new Link[node.jjtGetNumChildren()];
+        for ( int i = 0; i < result.length; i++ )
+        {
+            result[i] = link( node.jjtGetChild( i ) );
+        }
+        return result;
+    }
+
+    static final class LinkedAccessor
+        implements ExpressionAccessor
+    {
+        private final Link _link;
+
+        private Node _expression;
+
+        LinkedAccessor( Link link )
+        {
+            _link = link;
+        }
+
+        public Object get( OgnlContext context, Object target )
+        {
+            try
+            {
+                return _link.get( context, target );
+            }
+            catch ( OgnlException e )
+            {
+                throw OgnlOps.castToRuntime( e );
+            }
+        }
+
+        public void set( OgnlContext context, Object target, Object value )
+        {
+            try
+            {
+                _link.set( context, target, value );
+            }
+            catch ( OgnlException e )
+            {
+                throw OgnlOps.castToRuntime( e );
+            }
+        }
+
+        public void setExpression( Node expression )
+        {
+            _expression = expression;
+        }
+
+        public String toString()
+        {
+            return "LinkedAccessor[" + _expression + "]";
+        }
+    }
+
+    /**
+     * One node of a linked expression, evaluating its node against the given source.
+     */
+    abstract static class Link
+    {
+        final Node _node;
+
+        Link( Node node )
+        {
+            _node = node;
+        }
+
+        abstract Object get( OgnlContext context, Object source )
+            throws OgnlException;
+
+        void set( OgnlContext context, Object target, Object value )
+            throws OgnlException
+        {
+            _node.setValue( context, target, value );
+        }
+    }
+
+    static final class InterpretedLink
+        extends Link
+    {
+        InterpretedLink( Node node )
+        {
+            super( node );
+        }
+
+        Object get( OgnlContext context, Object source )
+            throws OgnlException
+        {
+            return _node.getValue( context, source );
+        }
+    }
+
+    static final class ConstantLink
+        extends Link
+    {
+        private final Object _value;
+
+        ConstantLink( ASTConst node )
+        {
+            super( node );
+            _value = node.getValue();
+        }
+
+        Object get( OgnlContext context, Object source )
+        {
+            return _value;
+        }
+    }
+
+    static final class ThisLink
+        extends Link
+    {
+        ThisLink( Node node )
+        {
+            super( node );
+        }
+
+        Object get( OgnlContext context, Object source )
+        {
+            return source;
+        }
+    }
+
+    static final class RootLink
+        extends Link
+    {
+        RootLink( Node node )
+        {
+            super( node );
+        }
+
+        Object get( OgnlContext context, Object source )
+        {
+            return context.getRoot();
+        }
+    }
+
+    static final class VariableLink
+        extends Link
+    {
+        private final ASTVarRef _variable;
+
+        VariableLink( ASTVarRef node )
+        {
+            super( node );
+            _variable = node;
+        }
+
+        Object get( OgnlContext context, Object source )
+        {
+            return _variable.getVariable( context );
+        }
+    }
+
+    static final class PropertyLink
+        extends Link
+    {
+        private final String _name;
+
+        private final InlineCache _cache = new InlineCache();
+
+        PropertyLink( Node node, String name )
+        {
+            super( node );
+            _name = name;
+        }
+
+        Object get( OgnlContext context, Object source )
+            throws OgnlException
+        {
+            Object result = OgnlRuntime.getCachedProperty( _cache, context, source, _name );
+
+            if ( result == OgnlRuntime.NotFound )
+            {
+                result = OgnlRuntime.getProperty( context, source, _name );
+            }
+            if ( result == null )
+            {
+                result = OgnlRuntime.getNullHandler( OgnlRuntime.getTargetClass( source ) ).nullPropertyValue( context,
+                                                                                                          source,
+                                                                                                          _name );
+            }
+            return result;
+        }
+
+        void set( OgnlContext context, Object target, Object value )
+            throws OgnlException
+        {
+            OgnlRuntime.setProperty( context, target, _name, value );
+        }
+    }
+
+    static final class MethodLink
+        extends Link
+    {
+        private final String _name;
+
+        private final Link[] _args;
+
+        private final InlineCache _cache = new InlineCache();
+
+        MethodLink( ASTMethod node, Link[] args )
+        {
+            super( node );
+            _name = node.getMethodName();
+            _args = args;
+        }
+
+        Object get( OgnlContext context, Object source )
+            throws OgnlException
+        {
+            Object[] args = context.acquireArguments( _args.length );
+
+            try
+            {
+                // like the interpreter, arguments are evaluated against the root rather than the source
+                Object root = context.getRoot();
+                for ( int i = 0; i < args.length; i++ )
+                {
+                    args[i] = _args[i].get( context, root );
+                }
+
+                Object result = OgnlRuntime.callCachedMethod( _cache, context, source, _name, args );
+
+                if ( result == OgnlRuntime.NotFound )
+                {
+                    result = OgnlRuntime.callMethod( context, source, _name, args, true );
+                }
+                if ( result == null )
+                {
+                    NullHandler nh = OgnlRuntime.getNullHandler( OgnlRuntime.getTargetClass( source ) );
+                    result = nh.nullMethodResult( context, source, _name,
+                                                  OgnlRuntime.argumentsFor( nh, ObjectNullHandler.class, args ) );
+                }
+                return result;
+            }
+            finally
+            {
+                context.releaseArguments( args );
+            }
+        }
+    }
+
+    static final class ChainLink
+        extends Link
+    {
+        private final Link[] _links;
+
+        ChainLink( Node node, Link[] links )
+        {
+            super( node );
+            _links = links;
+        }
+
+        Object get( OgnlContext context, Object source )
+            throws OgnlException
+        {
+            Object result = source;
+            for ( Link link : _links )
+            {
+                result = link.get( context, result );
+            }
+            return result;
+        }
+
+        void set( OgnlContext context, Object target, Object value )
+            throws OgnlException
+        {
+            int last = _links.length - 1;
+            for ( int i = 0; i < last; i++ )
+            {
+                target = _links[i].get( context, target );
+            }
+            _links[last].set( context, target, value );
+        }
+    }
+
+    /**
+     * Projection or selection applying its linked first child to each element.
+     */
+    static final class ElementsLink
+        extends Link
+    {
+        private final int _kind;
+
+        private final ExpressionAccessor _body;
+
+        ElementsLink( Node node )
+        {
+            super( node );
+            _kind = ElementsEvaluator.kindOf( node );
+            _body = new LinkedAccessor( link( node.jjtGetChild( 0 ) ) );
+            _body.setExpression( node.jjtGetChild( 0 ) );
+        }
+
+        Object get( OgnlContext context, Object source )
+            throws OgnlException
+        {
+            return ElementsEvaluator.evaluate( context, _node, _kind, _body, source );
+        }
+    }
+
+    /**
+     * Left-associative operator applied to the values of two or more operands.
+     */
+    abstract static class OperatorLink
+        extends Link
+    {
+        private final Link[] _operands;
+
+        OperatorLink( Node node, Link[] operands )
+        {
+            super( node );
+            _operands = operands;
+        }
+
+        abstract Object apply( Object v1, Object v2 )
+            throws OgnlException;
+
+        Object get( OgnlContext context, Object source )
+            throws OgnlException
+        {
+            Object result = _operands[0].get( context, source );
+            for ( int i = 1; i < _operands.length; i++ )
+            {
+                result = apply( result, _operands[i].get( context, source ) );
+            }
+            return result;
+        }
+    }
+
+    static final class NotLink
+        extends Link
+    {
+        private final Link _operand;
+
+        NotLink( Node node, Link operand )
+        {
+            super( node );
+            _operand = operand;
+        }
+
+        Object get( OgnlContext context, Object source )
+            throws OgnlException
+        {
+            return OgnlOps.booleanValue( _operand.get( context, source ) ) ? Boolean.FALSE : Boolean.TRUE;
+        }
+    }
+
+    static final class NegateLink
+        extends Link
+    {
+        private final Link _operand;
+
+        NegateLink( Node node, Link operand )
+        {
+            super( node );
+            _operand = operand;
+        }
+
+        Object get( OgnlContext context, Object source )
+            throws OgnlException
+        {
+            return OgnlOps.negate( _operand.get( context, source ) );
+        }
+    }
+
+    /**
+     * <code>and</code> / <code>or</code>: evaluates operands until one decides the result, which is the value of the
+     * last operand evaluated.
+     */
+    static final class LogicalLink
+        extends Link
+    {
+        private final Link[] _operands;
+
+        private final boolean _stopOn;
+
+        LogicalLink( Node node, Link[] operands, boolean stopOn )
+        {
+            super( node );
+            _operands = operands;
+            _stopOn = stopOn;
+        }
+
+        Object get( OgnlContext context, Object source )
+            throws OgnlException
+        {
+            Object result = null;
+            int last = _operands.length - 1;
+            for ( int i = 0; i <= last; i++ )
+            {
+                result = _operands[i].get( context, source );
+                if ( i != last && OgnlOps.booleanValue( result ) == _stopOn )
+                {
+                    break;
+                }
+            }
+            return result;
+        }
+    }
+
+    static final class TestLink
+        extends Link
+    {
+        private final Link _test;
+
+        private final Link _then;
+
+        private final Link _else;
+
+        TestLink( Node node, Link[] operands )
+        {
+            super( node );
+            _test = operands[0];
+            _then = operands[1];
+            _else = operands[2];
+        }
+
+        Object get( OgnlContext context, Object source )
+            throws OgnlException
+        {
+            return ( OgnlOps.booleanValue( _test.get( context, source ) ) ? _then : _else ).get( context, source );
+        }
+    }
+
+    /**
+     * Builds the {@link Link} of each node, falling back to an {@link InterpretedLink} for the nodes it does not know.
+     */
+    static final class Linker
+        implements NodeVisitor<Link, Object>
+    {
+        private static Link interpreted( Node node )
+        {
+            return new InterpretedLink( node );
+        }
+
+        public Link visit( ASTSequence node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTAssign node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTTest node, Object data )
+        {
+            return new TestLink( node, linkChildren( node ) );
+        }
+
+        public Link visit( ASTOr node, Object data )
+        {
+            return new LogicalLink( node, linkChildren( node ), true );
+        }
+
+        public Link visit( ASTAnd node, Object data )
+        {
+            return new LogicalLink( node, linkChildren( node ), false );
+        }
+
+        public Link visit( ASTBitOr node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTXor node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTBitAnd node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTEq node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return OgnlOps.equal( v1, v2 ) ? Boolean.TRUE : Boolean.FALSE;
+                }
+            };
+        }
+
+        public Link visit( ASTNotEq node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return OgnlOps.equal( v1, v2 ) ? Boolean.FALSE : Boolean.TRUE;
+                }
+            };
+        }
+
+        public Link visit( final ASTLess node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return node.getTypeFeedback().compare( v1, v2 ) < 0 ? Boolean.TRUE : Boolean.FALSE;
+                }
+            };
+        }
+
+        public Link visit( final ASTGreater node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return node.getTypeFeedback().compare( v1, v2 ) > 0 ? Boolean.TRUE : Boolean.FALSE;
+                }
+            };
+        }
+
+        public Link visit( final ASTLessEq node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return node.getTypeFeedback().compare( v1, v2 ) > 0 ? Boolean.FALSE : Boolean.TRUE;
+                }
+            };
+        }
+
+        public Link visit( final ASTGreaterEq node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return node.getTypeFeedback().compare( v1, v2 ) < 0 ? Boolean.FALSE : Boolean.TRUE;
+                }
+            };
+        }
+
+        public Link visit( ASTIn node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTNotIn node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTShiftLeft node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTShiftRight node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTUnsignedShiftRight node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( final ASTAdd node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return node.getTypeFeedback().add( v1, v2 );
+                }
+            };
+        }
+
+        public Link visit( final ASTSubtract node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return node.getTypeFeedback().subtract( v1, v2 );
+                }
+            };
+        }
+
+        public Link visit( final ASTMultiply node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return node.getTypeFeedback().multiply( v1, v2 );
+                }
+            };
+        }
+
+        public Link visit( final ASTDivide node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return node.getTypeFeedback().divide( v1, v2 );
+                }
+            };
+        }
+
+        public Link visit( final ASTRemainder node, Object data )
+        {
+            return new OperatorLink( node, linkChildren( node ) )
+            {
+                Object apply( Object v1, Object v2 )
+                {
+                    return node.getTypeFeedback().remainder( v1, v2 );
+                }
+            };
+        }
+
+        public Link visit( ASTNegate node, Object data )
+        {
+            return new NegateLink( node, link( node.jjtGetChild( 0 ) ) );
+        }
+
+        public Link visit( ASTBitNegate node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTNot node, Object data )
+        {
+            return new NotLink( node, link( node.jjtGetChild( 0 ) ) );
+        }
+
+        public Link visit( ASTInstanceof node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTChain node, Object data )
+        {
+            for ( int i = 0; i < node.jjtGetNumChildren(); i++ )
+            {
+                Node child = node.jjtGetChild( i );
+                // index navigation depends on the property descriptors of the values met, leave it to the chain
+                if ( ( child instanceof ASTProperty ) && ( (ASTProperty) child ).isIndexedAccess() )
+                {
+                    return interpreted( node );
+                }
+            }
+            return new ChainLink( node, linkChildren( node ) );
+        }
+
+        public Link visit( ASTEval node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTConst node, Object data )
+        {
+            return new ConstantLink( node );
+        }
+
+        public Link visit( ASTThisVarRef node, Object data )
+        {
+            return new ThisLink( node );
+        }
+
+        public Link visit( ASTRootVarRef node, Object data )
+        {
+            return new RootLink( node );
+        }
+
+        public Link visit( ASTVarRef node, Object data )
+        {
+            return new VariableLink( node );
+        }
+
+        public Link visit( ASTList node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTMap node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTKeyValue node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTStaticField node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTCtor node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTProperty node, Object data )
+        {
+            if ( !node.isIndexedAccess() && ( node.jjtGetNumChildren() == 1 )
+                && ( node.jjtGetChild( 0 ) instanceof ASTConst ) )
+            {
+                Object name = ( (ASTConst) node.jjtGetChild( 0 ) ).getValue();
+                if ( name instanceof String )
+                {
+                    return new PropertyLink( node, (String) name );
+                }
+            }
+            return interpreted( node );
+        }
+
+        public Link visit( ASTStaticMethod node, Object data )
+        {
+            return interpreted( node );
+        }
+
+        public Link visit( ASTMethod node, Object data )
+        {
+            return new MethodLink( node, linkChildren( node ) );
+        }
+
+        public Link visit( ASTProject node, Object data )
+        {
+            return new ElementsLink( node );
+        }
+
+        public Link visit( ASTSelect node, Object data )
+        {
+            return new ElementsLink( node );
+        }
+
+        public Link visit( ASTSelectFirst node, Object data )
+        {
+            return new ElementsLink( node );
+        }
+
+        public Link visit( ASTSelectLast node, Object data )
+        {
+            return new ElementsLink( node );
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.apache.commons.ognl.enhance.ExpressionAccessor;
 
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * @author Luke Blanshard (blanshlu@netscape.net)
@@ -34,6 +35,21 @@ public abstract class SimpleNode
 
     private static final long serialVersionUID = 8305393337889433901L;
 
+    /** Evaluated by the interpreter, compiled once the compile threshold is reached. */
+    static final int TIER_INTERPRETED = 0;
+
+    /** Handed to the background compiler. */
+    static final int TIER_COMPILING = 1;
+
+    /** Compiled, evaluated through its accessor. */
+    static final int TIER_COMPILED = 2;
+
+    /** Compilation failed, evaluated by the interpreter for good. */
+    static final int TIER_UNSUPPORTED = 3;
+
+    private static final AtomicIntegerFieldUpdater<SimpleNode> TIER =
+        AtomicIntegerFieldUpdater.newUpdater( SimpleNode.class, "_tier" );
+
     protected Node _parent;
 
     protected Node[] _children;
@@ -48,7 +64,16 @@ public abstract class SimpleNode
 
     private Object _constantValue;
 
-    private ExpressionAccessor _accessor;
+    private volatile ExpressionAccessor _accessor;
+
+    private transient volatile int _tier;
+
+    private transient volatile int _interpretations;
+
+    /** text the tree was parsed from and how it was optimised, only kept on the root of a parsed tree */
+    private String _source;
+
+    private OptimizationLevel _optimization;
 
     public SimpleNode( int i )
     {
@@ -200,18 +225,124 @@ public abstract class SimpleNode
 
         if ( !_constantValueCalculated )
         {
-            _constantValueCalculated = true;
-            boolean constant = isConstant( context );
+            calculateConstantValue( context, source );
+        }
+
+        return _hasConstantValue ? _constantValue : getValueBody( context, source );
+    }
+
+    /**
+     * Decides whether this node is constant, computing its value if so. Done on first evaluation unless the tree has
+     * been through {@link ConstantFolder}, which does it for every node once parsed.
+     * <p>
+     * Threads sharing a tree may race here: the value is written before the volatile <code>_hasConstantValue</code>,
+     * so a thread seeing the flag set also sees the value, and a thread seeing it unset evaluates the node itself.
+     * </p>
+     */
+    void calculateConstantValue( OgnlContext context, Object source )
+        throws OgnlException
+    {
+        _constantValueCalculated = true;
+        boolean constant = isConstant( context );
+
+        if ( constant )
+        {
+            _constantValue = getValueBody( context, source );
+        }
+
+        _hasConstantValue = constant;
+    }
+
+    void setSource( String source, OptimizationLevel optimization )
+    {
+        _source = source;
+        _optimization = optimization;
+    }
 
-            if ( constant )
+    /**
+     * Parses a private copy of the given tree, to compile it without altering a tree other threads evaluate. The root
+     * of a parsed tree is parsed again from its text with the same optimisation level, other trees from their printed
+     * form, which must parse back to the same text.
+     *
+     * @throws OgnlException if the tree can not be copied
+     */
+    static Node parseCopy( Node expression )
+        throws OgnlException
+    {
+        if ( expression instanceof SimpleNode )
+        {
+            SimpleNode node = (SimpleNode) expression;
+            if ( node._source != null )
             {
-                _constantValue = getValueBody( context, source );
+                return (Node) Ognl.parseExpression( node._source, node._optimization );
             }
+        }
 
-            _hasConstantValue = constant;
+        String text = expression.toString();
+        Node result = (Node) Ognl.parseExpression( text );
+        if ( !text.equals( result.toString() ) )
+        {
+            throw new OgnlException( "Unable to copy the expression " + text + ", it is printed as "
+                + result.toString() + " once parsed again" );
         }
+        return result;
+    }
 
-        return _hasConstantValue ? _constantValue : getValueBody( context, source );
+    /**
+     * Decides the constancy of the nodes of this tree which have not been evaluated yet, so that threads handed the tree
+     * afterwards, through a happens-before edge such as the submission of a task, only read the lazily set fields.
+     * Failures are left to evaluation time, as are the nodes {@link #namesClass() naming a class}.
+     */
+    void decideConstants( OgnlContext context )
+    {
+        if ( !_constantValueCalculated && !namesClass() )
+        {
+            try
+            {
+                calculateConstantValue( context, null );
+            }
+            catch ( OgnlException e )
+            {
+                // evaluated, and failing, on each evaluation
+            }
+            catch ( RuntimeException e )
+            {
+                // evaluated, and failing, on each evaluation
+            }
+        }
+        for ( int i = 0, icount = jjtGetNumChildren(); i < icount; i++ )
+        {
+            if ( _children[i] instanceof SimpleNode )
+            {
+                ( (SimpleNode) _children[i] ).decideConstants( context );
+            }
+        }
+    }
+
+    /**
+     * Whether this tree refers to a class by name. Resolving it depends on the {@link ClassResolver} and
+     * {@link MemberAccess} of the evaluating context, so such a tree is only decided constant on evaluation.
+     */
+    boolean namesClass()
+    {
+        for ( int i = 0, icount = jjtGetNumChildren(); i < icount; i++ )
+        {
+            if ( ( _children[i] instanceof SimpleNode ) && ( (SimpleNode) _children[i] ).namesClass() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean hasConstantValue()
+    {
+        return _hasConstantValue;
+    }
+
+    Object getConstantValue()
+    {
+        return _constantValue;
     }
 
     protected void evaluateSetValueBody( OgnlContext context, Object target, Object value )
@@ -265,6 +396,10 @@ public abstract class SimpleNode
                 }
             }
         }
+        else if ( context.getActiveTrace() != null )
+        {
+            result = context.getActiveTrace().getValue( this, context, source );
+        }
         else
         {
             result = evaluateGetValueBody( context, source );
@@ -320,6 +455,10 @@ public abstract class SimpleNode
                 }
             }
         }
+        else if ( context.getActiveTrace() != null )
+        {
+            context.getActiveTrace().setValue( this, context, target, value );
+        }
         else
         {
             evaluateSetValueBody( context, target, value );
@@ -425,4 +564,35 @@ public abstract class SimpleNode
     {
         _accessor = accessor;
     }
+
+    /**
+     * Counts one evaluation of this node, as a whole expression, by the interpreter. Concurrent evaluations may lose
+     * counts, the threshold is only a hint.
+     *
+     * @return true for the single evaluation moving the node to {@link #TIER_COMPILING}, whose caller must then have it
+     *         compiled
+     */
+    boolean countInterpretation( int threshold )
+    {
+        if ( _tier != TIER_INTERPRETED || ++_interpretations < threshold )
+        {
+            return false;
+        }
+        return TIER.compareAndSet( this, TIER_INTERPRETED, TIER_COMPILING );
+    }
+
+    int getTier()
+    {
+        return _tier;
+    }
+
+    /**
+     * Ends a compilation started by {@link #countInterpretation(int)}. Going back to {@link #TIER_INTERPRETED} restarts
+     * the count.
+     */
+    void setTier( int tier )
+    {
+        _interpretations = 0;
+        _tier = tier;
+    }
 }
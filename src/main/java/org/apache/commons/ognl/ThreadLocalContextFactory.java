@@ -0,0 +1,161 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+/**
+ * Hands out one reusable {@link OgnlContext} per thread, for callers evaluating expressions at a high rate, e.g. once
+ * or more per request, that would otherwise build a new context every time.
+ * <p>
+ * A context is obtained with {@link #acquire(Object)} and must be handed back with {@link #release(OgnlContext)} on
+ * the same thread once the evaluation is over, typically in a <code>finally</code> block. Releasing clears its
+ * variables and evaluation state, so nothing leaks from one use to the next. A context acquired while the thread's
+ * context is still in use, e.g. by an expression calling back into code that evaluates another expression, is a new
+ * one that is simply dropped on release.
+ * </p>
+ * <pre>
+ * OgnlContext context = factory.acquire( root );
+ * try
+ * {
+ *     return Ognl.getValue( expression, context, root );
+ * }
+ * finally
+ * {
+ *     factory.release( context );
+ * }
+ * </pre>
+ */
+public class ThreadLocalContextFactory
+{
+    private final ClassResolver _classResolver;
+
+    private final TypeConverter _typeConverter;
+
+    private final MemberAccess _memberAccess;
+
+    private final ThreadLocal<Slot> _slots = new ThreadLocal<Slot>()
+    {
+        @Override
+        protected Slot initialValue()
+        {
+            return new Slot();
+        }
+    };
+
+    /**
+     * Creates a factory of contexts with the default class resolver, type converter and member access.
+     */
+    public ThreadLocalContextFactory()
+    {
+        this( null, null, null );
+    }
+
+    /**
+     * Creates a factory of contexts with the given class resolver, type converter and member access. If any of these
+     * parameters is null the default will be used.
+     */
+    public ThreadLocalContextFactory( ClassResolver classResolver, TypeConverter typeConverter,
+                                      MemberAccess memberAccess )
+    {
+        _classResolver = classResolver;
+        _typeConverter = typeConverter;
+        _memberAccess = memberAccess;
+    }
+
+    /**
+     * @param root the root object of the evaluations to come, may be null
+     * @return the context of the calling thread, or a new context if that one is in use
+     */
+    public OgnlContext acquire( Object root )
+    {
+        Slot slot = _slots.get();
+        OgnlContext result;
+
+        if ( slot._inUse )
+        {
+            result = newContext();
+        }
+        else
+        {
+            if ( slot._context == null )
+            {
+                slot._context = newContext();
+            }
+            slot._inUse = true;
+            result = slot._context;
+        }
+        result.setRoot( root );
+        return result;
+    }
+
+    /**
+     * Hands back a context obtained from {@link #acquire(Object)} on the calling thread. The context must not be used
+     * afterwards.
+     */
+    public void release( OgnlContext context )
+    {
+        Slot slot = _slots.get();
+        if ( slot._context == context && slot._inUse )
+        {
+            context.recycle();
+            configure( context );
+            slot._inUse = false;
+        }
+    }
+
+    /**
+     * Drops the context of the calling thread, e.g. before the thread is returned to a pool it outlives.
+     */
+    public void remove()
+    {
+        _slots.remove();
+    }
+
+    private OgnlContext newContext()
+    {
+        OgnlContext result = new OgnlContext();
+        configure( result );
+        return result;
+    }
+
+    private void configure( OgnlContext context )
+    {
+        if ( _classResolver != null )
+        {
+            context.setClassResolver( _classResolver );
+        }
+        if ( _typeConverter != null )
+        {
+            context.setTypeConverter( _typeConverter );
+        }
+        if ( _memberAccess != null )
+        {
+            context.setMemberAccess( _memberAccess );
+        }
+    }
+
+    private static final class Slot
+    {
+        OgnlContext _context;
+
+        boolean _inUse;
+    }
+}
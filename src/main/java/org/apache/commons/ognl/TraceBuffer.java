@@ -0,0 +1,216 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.ognl;
+
+/**
+ * Preallocated ring of the events recorded during a sampled evaluation, one event per node evaluated.
+ * <p>
+ * An event is recorded when the evaluation of its node completes, so children come before their parent and the
+ * expression itself is the last event. Each event holds the node, its depth below the expression, the time spent in
+ * nanoseconds and the exception thrown if any. Once the buffer is full the oldest events are overwritten, see
+ * {@link #getDroppedCount()}. Events are indexed from 0, the oldest kept, to {@link #size()} - 1.
+ * </p>
+ * <p>
+ * A buffer belongs to one {@link OgnlContext} and is reused by each sampled evaluation on it; it is not thread-safe.
+ * </p>
+ */
+public final class TraceBuffer
+{
+    private final Node[] _nodes;
+
+    private final int[] _depths;
+
+    private final long[] _durations;
+
+    private final Throwable[] _exceptions;
+
+    private final boolean[] _setOperations;
+
+    private int _count;
+
+    private int _depth;
+
+    TraceBuffer( int capacity )
+    {
+        if ( capacity <= 0 )
+        {
+            throw new IllegalArgumentException( "capacity must be positive: " + capacity );
+        }
+        _nodes = new Node[capacity];
+        _depths = new int[capacity];
+        _durations = new long[capacity];
+        _exceptions = new Throwable[capacity];
+        _setOperations = new boolean[capacity];
+    }
+
+    public int getCapacity()
+    {
+        return _nodes.length;
+    }
+
+    /**
+     * @return the number of events available
+     */
+    public int size()
+    {
+        return Math.min( _count, _nodes.length );
+    }
+
+    /**
+     * @return the number of events overwritten because the evaluation recorded more than {@link #getCapacity()}
+     */
+    public int getDroppedCount()
+    {
+        return Math.max( 0, _count - _nodes.length );
+    }
+
+    public Node getNode( int index )
+    {
+        return _nodes[slot( index )];
+    }
+
+    /**
+     * @return the depth of the node below the expression evaluated, which is at depth 0
+     */
+    public int getDepth( int index )
+    {
+        return _depths[slot( index )];
+    }
+
+    /**
+     * @return the time spent evaluating the node, its children included, in nanoseconds
+     */
+    public long getDuration( int index )
+    {
+        return _durations[slot( index )];
+    }
+
+    /**
+     * @return the exception the evaluation of the node completed with, or null
+     */
+    public Throwable getException( int index )
+    {
+        return _exceptions[slot( index )];
+    }
+
+    public boolean isSetOperation( int index )
+    {
+        return _setOperations[slot( index )];
+    }
+
+    private int slot( int index )
+    {
+        if ( index < 0 || index >= size() )
+        {
+            throw new IndexOutOfBoundsException( "index: " + index + ", size: " + size() );
+        }
+        return ( _count - size() + index ) % _nodes.length;
+    }
+
+    /**
+     * Empties the buffer, dropping the references it holds.
+     */
+    void clear()
+    {
+        for ( int i = 0, n = size(); i < n; i++ )
+        {
+            int slot = ( _count - n + i ) % _nodes.length;
+            _nodes[slot] = null;
+            _exceptions[slot] = null;
+        }
+        _count = 0;
+        _depth = 0;
+    }
+
+    Object getValue( SimpleNode node, OgnlContext context, Object source )
+        throws OgnlException
+    {
+        int depth = _depth++;
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try
+        {
+            return node.evaluateGetValueBody( context, source );
+        }
+        catch ( OgnlException e )
+        {
+            failure = e;
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            failure = e;
+            throw e;
+        }
+        catch ( Error e )
+        {
+            failure = e;
+            throw e;
+        }
+        finally
+        {
+            _depth = depth;
+            record( node, depth, false, System.nanoTime() - start, failure );
+        }
+    }
+
+    void setValue( SimpleNode node, OgnlContext context, Object target, Object value )
+        throws OgnlException
+    {
+        int depth = _depth++;
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try
+        {
+            node.evaluateSetValueBody( context, target, value );
+        }
+        catch ( OgnlException e )
+        {
+            failure = e;
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            failure = e;
+            throw e;
+        }
+        catch ( Error e )
+        {
+            failure = e;
+            throw e;
+        }
+        finally
+        {
+            _depth = depth;
+            record( node, depth, true, System.nanoTime() - start, failure );
+        }
+    }
+
+    private void record( Node node, int depth, boolean setOperation, long duration, Throwable failure )
+    {
+        int slot = _count++ % _nodes.length;
+        _nodes[slot] = node;
+        _depths[slot] = depth;
+        _durations[slot] = duration;
+        _exceptions[slot] = failure;
+        _setOperations[slot] = setOperation;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.ognl;
+
+/**
+ * Receives the evaluations sampled by an {@link EvaluationTracer}.
+ * <p>
+ * Implementations can log the events, aggregate durations per node or turn them into events of a monitoring system
+ * such as Java Flight Recorder.
+ * </p>
+ */
+public interface TraceListener
+{
+    /**
+     * Called on the evaluating thread once a sampled evaluation completed, normally or not.
+     * 
+     * @param context the context of the evaluation
+     * @param expression the expression evaluated
+     * @param trace the events recorded during the evaluation; the buffer is reused by the next sampled evaluation on
+     *            the same context, so it is only valid during this call
+     */
+    void evaluationTraced( OgnlContext context, Node expression, TraceBuffer trace );
+}
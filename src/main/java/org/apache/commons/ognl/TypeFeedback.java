@@ -0,0 +1,189 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+/**
+ * Operand types observed by an arithmetic or comparison node. The first evaluation records whether both operands
+ * were Integers, Longs or Doubles; while that keeps holding, the operation runs on primitives and skips the
+ * {@link OgnlOps#getNumericType(Object, Object, boolean)} ladder and the re-boxing through
+ * {@link OgnlOps#newInteger(int, long)}. The first operands of any other type switch the node to the generic
+ * {@link OgnlOps} path for good.
+ * <p>
+ * Results are exactly those of the generic path. The state is a single int, so a node shared between threads needs
+ * no locking: a lost update only means another trip through the generic path.
+ * </p>
+ */
+final class TypeFeedback
+    implements NumericTypes
+{
+    /** Type of a node not evaluated yet. */
+    static final int UNSEEN = -1;
+
+    private int _type = UNSEEN;
+
+    /**
+     * @return the operand type the node is specialised for, {@link NumericTypes#NONNUMERIC} once it went generic
+     */
+    int getType( )
+    {
+        return _type;
+    }
+
+    Object add( Object v1, Object v2 )
+    {
+        switch ( observe( v1, v2 ) )
+        {
+            case INT:
+                return ( (Integer) v1 ).intValue( ) + ( (Integer) v2 ).intValue( );
+            case LONG:
+                return ( (Long) v1 ).longValue( ) + ( (Long) v2 ).longValue( );
+            case DOUBLE:
+                return ( (Double) v1 ).doubleValue( ) + ( (Double) v2 ).doubleValue( );
+            default:
+                return OgnlOps.add( v1, v2 );
+        }
+    }
+
+    Object subtract( Object v1, Object v2 )
+    {
+        switch ( observe( v1, v2 ) )
+        {
+            case INT:
+                return ( (Integer) v1 ).intValue( ) - ( (Integer) v2 ).intValue( );
+            case LONG:
+                return ( (Long) v1 ).longValue( ) - ( (Long) v2 ).longValue( );
+            case DOUBLE:
+                return ( (Double) v1 ).doubleValue( ) - ( (Double) v2 ).doubleValue( );
+            default:
+                return OgnlOps.subtract( v1, v2 );
+        }
+    }
+
+    Object multiply( Object v1, Object v2 )
+    {
+        switch ( observe( v1, v2 ) )
+        {
+            case INT:
+                return ( (Integer) v1 ).intValue( ) * ( (Integer) v2 ).intValue( );
+            case LONG:
+                return ( (Long) v1 ).longValue( ) * ( (Long) v2 ).longValue( );
+            case DOUBLE:
+                return ( (Double) v1 ).doubleValue( ) * ( (Double) v2 ).doubleValue( );
+            default:
+                return OgnlOps.multiply( v1, v2 );
+        }
+    }
+
+    Object divide( Object v1, Object v2 )
+    {
+        switch ( observe( v1, v2 ) )
+        {
+            case INT:
+                return ( (Integer) v1 ).intValue( ) / ( (Integer) v2 ).intValue( );
+            case LONG:
+                return ( (Long) v1 ).longValue( ) / ( (Long) v2 ).longValue( );
+            case DOUBLE:
+                return ( (Double) v1 ).doubleValue( ) / ( (Double) v2 ).doubleValue( );
+            default:
+                return OgnlOps.divide( v1, v2 );
+        }
+    }
+
+    Object remainder( Object v1, Object v2 )
+    {
+        switch ( observe( v1, v2 ) )
+        {
+            case INT:
+                return ( (Integer) v1 ).intValue( ) % ( (Integer) v2 ).intValue( );
+            case LONG:
+                return ( (Long) v1 ).longValue( ) % ( (Long) v2 ).longValue( );
+            default:
+                // doubles are truncated to longs by OgnlOps.remainder, keep its result type
+                return OgnlOps.remainder( v1, v2 );
+        }
+    }
+
+    /**
+     * @see OgnlOps#compareWithConversion(Object, Object)
+     */
+    int compare( Object v1, Object v2 )
+    {
+        if ( v1 == v2 )
+        {
+            return 0;
+        }
+        switch ( observe( v1, v2 ) )
+        {
+            case INT:
+                int i1 = ( (Integer) v1 ).intValue( ), i2 = ( (Integer) v2 ).intValue( );
+                return ( i1 == i2 ) ? 0 : ( ( i1 < i2 ) ? -1 : 1 );
+            case LONG:
+                long l1 = ( (Long) v1 ).longValue( ), l2 = ( (Long) v2 ).longValue( );
+                return ( l1 == l2 ) ? 0 : ( ( l1 < l2 ) ? -1 : 1 );
+            case DOUBLE:
+                double d1 = ( (Double) v1 ).doubleValue( ), d2 = ( (Double) v2 ).doubleValue( );
+                return ( d1 == d2 ) ? 0 : ( ( d1 < d2 ) ? -1 : 1 );
+            default:
+                return OgnlOps.compareWithConversion( v1, v2 );
+        }
+    }
+
+    /**
+     * @return the type to specialise on for these operands, {@link NumericTypes#NONNUMERIC} for the generic path
+     */
+    private int observe( Object v1, Object v2 )
+    {
+        int type = _type;
+        if ( type == NONNUMERIC )
+        {
+            return NONNUMERIC;
+        }
+
+        int actual = NONNUMERIC;
+        if ( v1 != null && v2 != null )
+        {
+            Class<?> c = v1.getClass( );
+            if ( c == v2.getClass( ) )
+            {
+                if ( c == Integer.class )
+                {
+                    actual = INT;
+                }
+                else if ( c == Long.class )
+                {
+                    actual = LONG;
+                }
+                else if ( c == Double.class )
+                {
+                    actual = DOUBLE;
+                }
+            }
+        }
+
+        if ( type != actual )
+        {
+            // specialise on the first operands, deoptimise to the generic path on any others
+            _type = type = ( type == UNSEEN ) ? actual : NONNUMERIC;
+        }
+        return type;
+    }
+}
@@ -0,0 +1,1114 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.commons.ognl;
+
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.IntrospectionException;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Static pass deriving the type of an expression from the class of its root alone, see
+ * {@link Ognl#compileExpressionForType(OgnlContext, Class, String)}.
+ * <p>
+ * Each node is typed from the type of its source: property and method types are the generic return types of the
+ * getters, fields and methods, resolved against the type arguments of the source, so <code>items[0].price</code> is
+ * typed through <code>List&lt;Item&gt; getItems()</code>. Members missing from a bean type fail the pass, as they would
+ * fail every evaluation. Where the type of a value is not known statically (<code>Object</code>, variables, map values
+ * without type arguments, sources with their own {@link PropertyAccessor}) it is typed <code>Object</code> and its
+ * members are left to be resolved at evaluation time. As with any static typing, members only declared by subclasses
+ * of the static type are rejected.
+ * </p>
+ */
+final class TypeInference
+    implements NodeVisitor<Type, Type>
+{
+    private final OgnlContext _context;
+
+    private final Class<?> _rootType;
+
+    TypeInference( OgnlContext context, Class<?> rootType )
+    {
+        _context = context;
+        _rootType = rootType;
+    }
+
+    /**
+     * Types the given expression evaluated against a root of the root type of this pass.
+     *
+     * @return the static type of the value of the expression, <code>Object</code> if it is not known
+     * @throws OgnlException if the expression reads a member its source type does not have
+     */
+    Type typeOf( Node expression )
+        throws OgnlException
+    {
+        return expression.accept( this, _rootType );
+    }
+
+    /**
+     * Types the given expression, failing through the unchecked visitor methods, see {@link #fail(OgnlException)}.
+     */
+    private Type type( Node node, Type source )
+    {
+        return node.accept( this, source );
+    }
+
+    private Type[] types( Node node, Type source )
+    {
+        Type[] result = new Type[node.jjtGetNumChildren()];
+        for ( int i = 0; i < result.length; i++ )
+        {
+            result[i] = type( node.jjtGetChild( i ), source );
+        }
+        return result;
+    }
+
+    /**
+     * Throws the checked exception through the unchecked visitor methods, {@link #typeOf(Node)} declaring it.
+     */
+    private static RuntimeException fail( OgnlException e )
+    {
+        return TypeInference.<RuntimeException> sneakyThrow( e );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static <T extends Throwable> RuntimeException sneakyThrow( Throwable t )
+        throws T
+    {
+        throw (T) t;
+    }
+
+    private Class<?> classForName( String className )
+    {
+        try
+        {
+            return OgnlRuntime.classForName( _context, className );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            throw fail( new OgnlException( "Unable to resolve class " + className, e ) );
+        }
+    }
+
+    /*
+     * Members.
+     */
+
+    /**
+     * Types the value of the named property of the source type.
+     */
+    private Type property( Type source, String name )
+    {
+        Class<?> sourceClass = erase( source );
+
+        if ( sourceClass.isArray() )
+        {
+            return "length".equals( name ) ? int.class : Object.class;
+        }
+        if ( Map.class.isAssignableFrom( sourceClass ) )
+        {
+            return mapProperty( source, name );
+        }
+
+        try
+        {
+            Method m = OgnlRuntime.getReadMethod( sourceClass, name );
+            if ( m != null )
+            {
+                return resolve( source, m.getGenericReturnType(), m.getDeclaringClass() );
+            }
+            Field f = OgnlRuntime.getField( sourceClass, name );
+            if ( f != null )
+            {
+                return resolve( source, f.getGenericType(), f.getDeclaringClass() );
+            }
+            m = OgnlRuntime.getGetMethod( _context, sourceClass, name );
+            if ( m != null )
+            {
+                return resolve( source, m.getGenericReturnType(), m.getDeclaringClass() );
+            }
+            if ( OgnlRuntime.getPropertyDescriptor( sourceClass, name ) != null )
+            {
+                return Object.class;
+            }
+        }
+        catch ( IntrospectionException e )
+        {
+            throw fail( new OgnlException( "problem typing property '" + name + "' of " + sourceClass, e ) );
+        }
+        catch ( OgnlException e )
+        {
+            throw fail( e );
+        }
+
+        if ( isChecked( sourceClass ) )
+        {
+            throw fail( new NoSuchPropertyException( sourceClass, name ) );
+        }
+        return Object.class;
+    }
+
+    /**
+     * Mirrors the names {@link MapPropertyAccessor} reads from the map itself rather than from its entries.
+     */
+    private static Type mapProperty( Type source, String name )
+    {
+        Type[] arguments = typeArguments( source, Map.class );
+        if ( "size".equals( name ) )
+        {
+            return Integer.class;
+        }
+        if ( "isEmpty".equals( name ) )
+        {
+            return Boolean.class;
+        }
+        if ( "keys".equals( name ) || "keySet".equals( name ) )
+        {
+            return ( arguments == null ) ? Set.class : new Parameterized( Set.class, arguments[0] );
+        }
+        if ( "values".equals( name ) )
+        {
+            return ( arguments == null ) ? Collection.class : new Parameterized( Collection.class, arguments[1] );
+        }
+        return ( arguments == null ) ? Object.class : normalize( arguments[1] );
+    }
+
+    /**
+     * Types the value of an indexed read, <code>source[index]</code>.
+     */
+    private Type element( Type source, ASTProperty node )
+    {
+        Class<?> sourceClass = erase( source );
+        Node index = node.jjtGetChild( 0 );
+        Object constant = ( index instanceof ASTConst ) ? ( (ASTConst) index ).getValue() : null;
+
+        if ( ( constant instanceof DynamicSubscript ) && ( ( (DynamicSubscript) constant ).getFlag() == DynamicSubscript.ALL ) )
+        {
+            return source;
+        }
+        if ( sourceClass.isArray() || Iterable.class.isAssignableFrom( sourceClass ) )
+        {
+            return elementType( source );
+        }
+        if ( Map.class.isAssignableFrom( sourceClass ) )
+        {
+            Type[] arguments = typeArguments( source, Map.class );
+            return ( arguments == null ) ? Object.class : normalize( arguments[1] );
+        }
+        if ( constant instanceof String )
+        {
+            return property( source, (String) constant );
+        }
+        return Object.class;
+    }
+
+    /**
+     * Types the value of the indexed property <code>name</code> of the source, or returns null if it is not one.
+     */
+    private Type indexedProperty( Type source, String name )
+    {
+        Class<?> sourceClass = erase( source );
+        Method m = null;
+
+        try
+        {
+            PropertyDescriptor pd = OgnlRuntime.getPropertyDescriptor( sourceClass, name );
+            if ( pd instanceof IndexedPropertyDescriptor )
+            {
+                m = ( (IndexedPropertyDescriptor) pd ).getIndexedReadMethod();
+            }
+            else if ( pd instanceof ObjectIndexedPropertyDescriptor )
+            {
+                m = ( (ObjectIndexedPropertyDescriptor) pd ).getIndexedReadMethod();
+            }
+        }
+        catch ( IntrospectionException e )
+        {
+            throw fail( new OgnlException( "problem typing property '" + name + "' of " + sourceClass, e ) );
+        }
+        catch ( OgnlException e )
+        {
+            throw fail( e );
+        }
+        return ( m == null ) ? null : resolve( source, m.getGenericReturnType(), m.getDeclaringClass() );
+    }
+
+    /**
+     * Types the value of a call of the named method on the source type, or of the static method of the given class.
+     */
+    private Type method( Type source, String name, Type[] arguments, boolean staticMethods )
+    {
+        Class<?> sourceClass = erase( source );
+        int argumentCount = arguments.length;
+        List<Method> candidates = new ArrayList<Method>();
+
+        try
+        {
+            addCandidates( candidates, OgnlRuntime.getMethods( sourceClass, name, staticMethods ), argumentCount );
+            if ( !staticMethods && candidates.isEmpty() )
+            {
+                addCandidates( candidates, OgnlRuntime.getMethods( sourceClass, name, true ), argumentCount );
+            }
+        }
+        catch ( OgnlException e )
+        {
+            throw fail( e );
+        }
+        if ( candidates.isEmpty() )
+        {
+            // the method caches walk superclasses only, interfaces inherit from their super interfaces and Object
+            List<Method> inherited = new ArrayList<Method>();
+            for ( Method m : sourceClass.getMethods() )
+            {
+                if ( m.getName().equals( name ) && ( Modifier.isStatic( m.getModifiers() ) || !staticMethods ) )
+                {
+                    inherited.add( m );
+                }
+            }
+            if ( sourceClass.isInterface() && !staticMethods )
+            {
+                for ( Method m : Object.class.getMethods() )
+                {
+                    if ( m.getName().equals( name ) )
+                    {
+                        inherited.add( m );
+                    }
+                }
+            }
+            addCandidates( candidates, inherited, argumentCount );
+        }
+
+        if ( candidates.isEmpty() )
+        {
+            if ( staticMethods || isChecked( sourceClass ) )
+            {
+                throw fail( new MethodFailedException( sourceClass, name ) );
+            }
+            return Object.class;
+        }
+
+        List<Method> applicable = new ArrayList<Method>( candidates.size() );
+        for ( Method m : candidates )
+        {
+            if ( isApplicable( m, arguments ) )
+            {
+                applicable.add( m );
+            }
+        }
+        if ( !applicable.isEmpty() )
+        {
+            candidates = applicable;
+        }
+
+        Method first = candidates.get( 0 );
+        for ( Method m : candidates )
+        {
+            if ( m.getReturnType() != first.getReturnType() )
+            {
+                // overloads the static argument types can not tell apart
+                return Object.class;
+            }
+        }
+        return resolve( source, first.getGenericReturnType(), first.getDeclaringClass() );
+    }
+
+    private static void addCandidates( List<Method> candidates, List<Method> methods, int argumentCount )
+    {
+        if ( methods == null )
+        {
+            return;
+        }
+        for ( Method m : methods )
+        {
+            int parameterCount = m.getParameterTypes().length;
+            if ( ( parameterCount == argumentCount )
+                || ( m.isVarArgs() && ( argumentCount >= parameterCount - 1 ) ) )
+            {
+                candidates.add( m );
+            }
+        }
+    }
+
+    /**
+     * Tells whether the method accepts arguments of the given static types, arguments typed <code>Object</code> being
+     * accepted by any parameter.
+     */
+    private static boolean isApplicable( Method m, Type[] arguments )
+    {
+        Class<?>[] parameters = m.getParameterTypes();
+        if ( m.isVarArgs() || ( parameters.length != arguments.length ) )
+        {
+            return true;
+        }
+        for ( int i = 0; i < parameters.length; i++ )
+        {
+            Class<?> argument = erase( box( arguments[i] ) );
+            if ( ( argument != Object.class ) && !erase( box( parameters[i] ) ).isAssignableFrom( argument ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether missing members of the given type are errors: only for types read through
+     * {@link ObjectPropertyAccessor} itself, other accessors may answer names the class does not declare.
+     */
+    private static boolean isChecked( Class<?> type )
+    {
+        if ( ( type == Object.class ) || type.isPrimitive() )
+        {
+            return false;
+        }
+        try
+        {
+            PropertyAccessor accessor = OgnlRuntime.getPropertyAccessor( type );
+            return ( accessor != null ) && ( accessor.getClass() == ObjectPropertyAccessor.class );
+        }
+        catch ( OgnlException e )
+        {
+            throw fail( e );
+        }
+    }
+
+    /*
+     * Types.
+     */
+
+    /**
+     * Returns the class a value of the given type is an instance of.
+     */
+    static Class<?> erase( Type type )
+    {
+        if ( type instanceof Class<?> )
+        {
+            return (Class<?>) type;
+        }
+        if ( type instanceof ParameterizedType )
+        {
+            return erase( ( (ParameterizedType) type ).getRawType() );
+        }
+        if ( type instanceof GenericArrayType )
+        {
+            return Array.newInstance( erase( ( (GenericArrayType) type ).getGenericComponentType() ), 0 ).getClass();
+        }
+        if ( type instanceof TypeVariable<?> )
+        {
+            Type[] bounds = ( (TypeVariable<?>) type ).getBounds();
+            return ( bounds.length == 0 ) ? Object.class : erase( bounds[0] );
+        }
+        if ( type instanceof WildcardType )
+        {
+            Type[] bounds = ( (WildcardType) type ).getUpperBounds();
+            return ( bounds.length == 0 ) ? Object.class : erase( bounds[0] );
+        }
+        return Object.class;
+    }
+
+    /**
+     * Replaces the type variables and wildcards left unresolved by their bounds and generic arrays by array classes.
+     */
+    private static Type normalize( Type type )
+    {
+        if ( type instanceof TypeVariable<?> )
+        {
+            Type[] bounds = ( (TypeVariable<?>) type ).getBounds();
+            return ( bounds.length == 0 ) ? Object.class : normalize( bounds[0] );
+        }
+        if ( type instanceof WildcardType )
+        {
+            Type[] bounds = ( (WildcardType) type ).getUpperBounds();
+            return ( bounds.length == 0 ) ? Object.class : normalize( bounds[0] );
+        }
+        if ( type instanceof GenericArrayType )
+        {
+            return erase( type );
+        }
+        return type;
+    }
+
+    /**
+     * Resolves a member type declared by the given class against the type arguments the source type gives it.
+     */
+    static Type resolve( Type source, Type type, Class<?> declaringClass )
+    {
+        Type[] arguments = typeArguments( source, declaringClass );
+        if ( arguments != null )
+        {
+            type = substitute( type, declaringClass.getTypeParameters(), arguments );
+        }
+        return normalize( type );
+    }
+
+    /**
+     * Finds the type arguments the given type passes to the type parameters of one of its super types.
+     *
+     * @return the arguments, or null if the type is raw or does not extend the super type
+     */
+    static Type[] typeArguments( Type type, Class<?> superType )
+    {
+        Class<?> raw = erase( type );
+        if ( raw == superType )
+        {
+            return ( type instanceof ParameterizedType ) ? ( (ParameterizedType) type ).getActualTypeArguments() : null;
+        }
+        if ( !superType.isAssignableFrom( raw ) )
+        {
+            return null;
+        }
+
+        Type[] arguments = ( type instanceof ParameterizedType )
+            ? ( (ParameterizedType) type ).getActualTypeArguments()
+            : null;
+        List<Type> supers = new ArrayList<Type>();
+        if ( raw.getGenericSuperclass() != null )
+        {
+            supers.add( raw.getGenericSuperclass() );
+        }
+        for ( Type i : raw.getGenericInterfaces() )
+        {
+            supers.add( i );
+        }
+
+        for ( Type s : supers )
+        {
+            if ( superType.isAssignableFrom( erase( s ) ) )
+            {
+                return typeArguments( ( arguments == null ) ? s : substitute( s, raw.getTypeParameters(), arguments ),
+                                      superType );
+            }
+        }
+        return null;
+    }
+
+    private static Type substitute( Type type, TypeVariable<?>[] variables, Type[] arguments )
+    {
+        if ( type instanceof TypeVariable<?> )
+        {
+            for ( int i = 0; i < variables.length; i++ )
+            {
+                if ( variables[i].equals( type ) )
+                {
+                    return arguments[i];
+                }
+            }
+            return type;
+        }
+        if ( type instanceof ParameterizedType )
+        {
+            ParameterizedType p = (ParameterizedType) type;
+            Type[] actual = p.getActualTypeArguments().clone();
+            for ( int i = 0; i < actual.length; i++ )
+            {
+                actual[i] = substitute( actual[i], variables, arguments );
+            }
+            return new Parameterized( erase( p ), actual );
+        }
+        if ( type instanceof GenericArrayType )
+        {
+            Type component = substitute( ( (GenericArrayType) type ).getGenericComponentType(), variables, arguments );
+            return Array.newInstance( erase( component ), 0 ).getClass();
+        }
+        if ( type instanceof WildcardType )
+        {
+            Type[] bounds = ( (WildcardType) type ).getUpperBounds();
+            return ( bounds.length == 0 ) ? Object.class : substitute( bounds[0], variables, arguments );
+        }
+        return type;
+    }
+
+    /**
+     * Types the elements of a collection or array, the values iterated by projections and selections.
+     */
+    private static Type elementType( Type type )
+    {
+        Class<?> c = erase( type );
+        if ( c.isArray() )
+        {
+            return c.getComponentType();
+        }
+        Type[] arguments = typeArguments( type, Iterable.class );
+        if ( arguments != null )
+        {
+            return normalize( arguments[0] );
+        }
+        if ( Map.class.isAssignableFrom( c ) )
+        {
+            arguments = typeArguments( type, Map.class );
+            return ( arguments == null ) ? Object.class : normalize( arguments[1] );
+        }
+        return Object.class;
+    }
+
+    private static Type box( Type type )
+    {
+        return ( ( type instanceof Class<?> ) && ( (Class<?>) type ).isPrimitive() )
+            ? OgnlRuntime.getPrimitiveWrapperClass( (Class<?>) type )
+            : type;
+    }
+
+    private static Type common( Type t1, Type t2 )
+    {
+        t1 = box( t1 );
+        t2 = box( t2 );
+        if ( t1.equals( t2 ) )
+        {
+            return t1;
+        }
+        Class<?> c1 = erase( t1 ), c2 = erase( t2 );
+        if ( c1.isAssignableFrom( c2 ) )
+        {
+            return c1;
+        }
+        return c2.isAssignableFrom( c1 ) ? c2 : Object.class;
+    }
+
+    /**
+     * Returns the {@link NumericTypes} constant of the values of the given type, or -1 if it is not known statically.
+     */
+    private static int numericType( Type type )
+    {
+        Class<?> c = erase( box( type ) );
+        if ( c == Integer.class )
+        {
+            return NumericTypes.INT;
+        }
+        if ( c == Double.class )
+        {
+            return NumericTypes.DOUBLE;
+        }
+        if ( c == Boolean.class )
+        {
+            return NumericTypes.BOOL;
+        }
+        if ( c == Byte.class )
+        {
+            return NumericTypes.BYTE;
+        }
+        if ( c == Character.class )
+        {
+            return NumericTypes.CHAR;
+        }
+        if ( c == Short.class )
+        {
+            return NumericTypes.SHORT;
+        }
+        if ( c == Long.class )
+        {
+            return NumericTypes.LONG;
+        }
+        if ( c == Float.class )
+        {
+            return NumericTypes.FLOAT;
+        }
+        if ( c == BigInteger.class )
+        {
+            return NumericTypes.BIGINT;
+        }
+        if ( c == BigDecimal.class )
+        {
+            return NumericTypes.BIGDEC;
+        }
+        // a subclass of Number or a super type of the wrappers may hold any number at evaluation time
+        return ( Number.class.isAssignableFrom( c ) || c.isAssignableFrom( Integer.class ) )
+            ? -1
+            : NumericTypes.NONNUMERIC;
+    }
+
+    /**
+     * Returns the class of the values {@link OgnlOps} creates for the given numeric type.
+     */
+    private static Type numericClass( int numericType )
+    {
+        switch ( numericType )
+        {
+            case NumericTypes.BYTE:
+                return Byte.class;
+            case NumericTypes.SHORT:
+                return Short.class;
+            case NumericTypes.LONG:
+                return Long.class;
+            case NumericTypes.BIGINT:
+                return BigInteger.class;
+            case NumericTypes.FLOAT:
+                return Float.class;
+            case NumericTypes.DOUBLE:
+                return Double.class;
+            case NumericTypes.BIGDEC:
+                return BigDecimal.class;
+            case NumericTypes.BOOL:
+            case NumericTypes.CHAR:
+            case NumericTypes.INT:
+                return Integer.class;
+            default:
+                return Object.class;
+        }
+    }
+
+    private Type arithmetic( Node node, Type source, boolean add )
+    {
+        Type[] operands = types( node, source );
+        int result = numericType( operands[0] );
+        for ( int i = 1; ( i < operands.length ) && ( result >= 0 ); i++ )
+        {
+            int operand = numericType( operands[i] );
+            result = ( operand < 0 ) ? -1 : OgnlOps.getNumericType( result, operand, add );
+        }
+        if ( result == NumericTypes.NONNUMERIC )
+        {
+            return add ? String.class : Object.class;
+        }
+        return ( result < 0 ) ? Object.class : numericClass( result );
+    }
+
+    private Type integral( Node node, Type source )
+    {
+        Type[] operands = types( node, source );
+        int result = numericType( operands[0] );
+        if ( ( result == NumericTypes.BIGINT ) || ( result == NumericTypes.BIGDEC ) )
+        {
+            return BigInteger.class;
+        }
+        return ( ( result < 0 ) || ( result > NumericTypes.LONG ) ) ? Object.class : numericClass( result );
+    }
+
+    private Type bitwise( Node node, Type source )
+    {
+        Type[] operands = types( node, source );
+        int result = numericType( operands[0] );
+        for ( int i = 1; ( i < operands.length ) && ( result >= 0 ); i++ )
+        {
+            int operand = numericType( operands[i] );
+            result = ( operand < 0 ) ? -1 : OgnlOps.getNumericType( result, operand, false );
+        }
+        if ( ( result == NumericTypes.BIGINT ) || ( result == NumericTypes.BIGDEC ) )
+        {
+            return BigInteger.class;
+        }
+        return ( ( result < 0 ) || ( result > NumericTypes.LONG ) ) ? Object.class : numericClass( result );
+    }
+
+    private Type condition( Node node, Type source )
+    {
+        types( node, source );
+        return Boolean.class;
+    }
+
+    private Type last( Node node, Type source )
+    {
+        Type[] types = types( node, source );
+        return ( types.length == 0 ) ? Object.class : types[types.length - 1];
+    }
+
+    private Type elements( Node node, Type source, boolean project )
+    {
+        Type body = type( node.jjtGetChild( 0 ), elementType( source ) );
+        return new Parameterized( List.class, box( project ? body : elementType( source ) ) );
+    }
+
+    /*
+     * Visitor.
+     */
+
+    public Type visit( ASTSequence node, Type data )
+    {
+        return last( node, data );
+    }
+
+    public Type visit( ASTAssign node, Type data )
+    {
+        return last( node, data );
+    }
+
+    public Type visit( ASTTest node, Type data )
+    {
+        Type[] types = types( node, data );
+        return common( types[1], types[2] );
+    }
+
+    public Type visit( ASTOr node, Type data )
+    {
+        // the value of the last operand evaluated, not a boolean
+        Type[] types = types( node, data );
+        Type result = types[0];
+        for ( int i = 1; i < types.length; i++ )
+        {
+            result = common( result, types[i] );
+        }
+        return result;
+    }
+
+    public Type visit( ASTAnd node, Type data )
+    {
+        Type[] types = types( node, data );
+        Type result = types[0];
+        for ( int i = 1; i < types.length; i++ )
+        {
+            result = common( result, types[i] );
+        }
+        return result;
+    }
+
+    public Type visit( ASTBitOr node, Type data )
+    {
+        return bitwise( node, data );
+    }
+
+    public Type visit( ASTXor node, Type data )
+    {
+        return bitwise( node, data );
+    }
+
+    public Type visit( ASTBitAnd node, Type data )
+    {
+        return bitwise( node, data );
+    }
+
+    public Type visit( ASTEq node, Type data )
+    {
+        return condition( node, data );
+    }
+
+    public Type visit( ASTNotEq node, Type data )
+    {
+        return condition( node, data );
+    }
+
+    public Type visit( ASTLess node, Type data )
+    {
+        return condition( node, data );
+    }
+
+    public Type visit( ASTGreater node, Type data )
+    {
+        return condition( node, data );
+    }
+
+    public Type visit( ASTLessEq node, Type data )
+    {
+        return condition( node, data );
+    }
+
+    public Type visit( ASTGreaterEq node, Type data )
+    {
+        return condition( node, data );
+    }
+
+    public Type visit( ASTIn node, Type data )
+    {
+        return condition( node, data );
+    }
+
+    public Type visit( ASTNotIn node, Type data )
+    {
+        return condition( node, data );
+    }
+
+    public Type visit( ASTShiftLeft node, Type data )
+    {
+        return integral( node, data );
+    }
+
+    public Type visit( ASTShiftRight node, Type data )
+    {
+        return integral( node, data );
+    }
+
+    public Type visit( ASTUnsignedShiftRight node, Type data )
+    {
+        return integral( node, data );
+    }
+
+    public Type visit( ASTAdd node, Type data )
+    {
+        return arithmetic( node, data, true );
+    }
+
+    public Type visit( ASTSubtract node, Type data )
+    {
+        return arithmetic( node, data, false );
+    }
+
+    public Type visit( ASTMultiply node, Type data )
+    {
+        return arithmetic( node, data, false );
+    }
+
+    public Type visit( ASTDivide node, Type data )
+    {
+        return arithmetic( node, data, false );
+    }
+
+    public Type visit( ASTRemainder node, Type data )
+    {
+        return arithmetic( node, data, false );
+    }
+
+    public Type visit( ASTNegate node, Type data )
+    {
+        return arithmetic( node, data, false );
+    }
+
+    public Type visit( ASTBitNegate node, Type data )
+    {
+        return integral( node, data );
+    }
+
+    public Type visit( ASTNot node, Type data )
+    {
+        return condition( node, data );
+    }
+
+    public Type visit( ASTInstanceof node, Type data )
+    {
+        classForName( node.getTargetType() );
+        return condition( node, data );
+    }
+
+    public Type visit( ASTChain node, Type data )
+    {
+        Type result = data;
+        for ( int i = 0, ilast = node.jjtGetNumChildren() - 1; i <= ilast; i++ )
+        {
+            Node child = node.jjtGetChild( i );
+
+            // name[index] reads an indexed property through its indexed getter, see ASTChain
+            if ( ( i < ilast ) && ( child instanceof ASTProperty ) && !( (ASTProperty) child ).isIndexedAccess()
+                && ( child.jjtGetChild( 0 ) instanceof ASTConst ) && ( node.jjtGetChild( i + 1 ) instanceof ASTProperty )
+                && ( (ASTProperty) node.jjtGetChild( i + 1 ) ).isIndexedAccess() )
+            {
+                Object name = ( (ASTConst) child.jjtGetChild( 0 ) ).getValue();
+                Type indexed = ( name instanceof String ) ? indexedProperty( result, (String) name ) : null;
+                if ( indexed != null )
+                {
+                    type( node.jjtGetChild( ++i ).jjtGetChild( 0 ), _rootType );
+                    result = indexed;
+                    continue;
+                }
+            }
+            result = type( child, result );
+        }
+        return result;
+    }
+
+    public Type visit( ASTEval node, Type data )
+    {
+        types( node, data );
+        return Object.class;
+    }
+
+    public Type visit( ASTConst node, Type data )
+    {
+        Object value = node.getValue();
+        return ( value == null ) ? Object.class : value.getClass();
+    }
+
+    public Type visit( ASTThisVarRef node, Type data )
+    {
+        return data;
+    }
+
+    public Type visit( ASTRootVarRef node, Type data )
+    {
+        return _rootType;
+    }
+
+    public Type visit( ASTVarRef node, Type data )
+    {
+        return Object.class;
+    }
+
+    public Type visit( ASTList node, Type data )
+    {
+        types( node, data );
+        return List.class;
+    }
+
+    public Type visit( ASTMap node, Type data )
+    {
+        types( node, data );
+        return Map.class;
+    }
+
+    public Type visit( ASTKeyValue node, Type data )
+    {
+        return last( node, data );
+    }
+
+    public Type visit( ASTStaticField node, Type data )
+    {
+        Class<?> c = classForName( node.getClassName() );
+        String name = node.getFieldName();
+        if ( "class".equals( name ) )
+        {
+            return Class.class;
+        }
+        try
+        {
+            return c.getField( name ).getGenericType();
+        }
+        catch ( NoSuchFieldException e )
+        {
+            if ( c.isEnum() )
+            {
+                for ( Object constant : c.getEnumConstants() )
+                {
+                    if ( ( (Enum<?>) constant ).name().equals( name ) )
+                    {
+                        return c;
+                    }
+                }
+            }
+            throw fail( new NoSuchPropertyException( c, name, e ) );
+        }
+    }
+
+    public Type visit( ASTCtor node, Type data )
+    {
+        types( node, _rootType );
+        Class<?> c = classForName( node.getClassName() );
+        return node.isArray() ? Array.newInstance( c, 0 ).getClass() : c;
+    }
+
+    public Type visit( ASTProperty node, Type data )
+    {
+        Node name = node.jjtGetChild( 0 );
+        type( name, _rootType );
+        if ( node.isIndexedAccess() )
+        {
+            return element( data, node );
+        }
+        if ( ( name instanceof ASTConst ) && ( ( (ASTConst) name ).getValue() instanceof String ) )
+        {
+            return property( data, (String) ( (ASTConst) name ).getValue() );
+        }
+        return Object.class;
+    }
+
+    public Type visit( ASTStaticMethod node, Type data )
+    {
+        return method( classForName( node.getClassName() ), node.getMethodName(), types( node, _rootType ), true );
+    }
+
+    public Type visit( ASTMethod node, Type data )
+    {
+        return method( data, node.getMethodName(), types( node, _rootType ), false );
+    }
+
+    public Type visit( ASTProject node, Type data )
+    {
+        return elements( node, data, true );
+    }
+
+    public Type visit( ASTSelect node, Type data )
+    {
+        return elements( node, data, false );
+    }
+
+    public Type visit( ASTSelectFirst node, Type data )
+    {
+        return elements( node, data, false );
+    }
+
+    public Type visit( ASTSelectLast node, Type data )
+    {
+        return elements( node, data, false );
+    }
+
+    /**
+     * A generic type with its type arguments substituted.
+     */
+    static final class Parameterized
+        implements ParameterizedType
+    {
+        private final Class<?> _rawType;
+
+        private final Type[] _arguments;
+
+        Parameterized( Class<?> rawType, Type... arguments )
+        {
+            _rawType = rawType;
+            _arguments = arguments;
+        }
+
+        public Type[] getActualTypeArguments()
+        {
+            return _arguments.clone();
+        }
+
+        public Type getRawType()
+        {
+            return _rawType;
+        }
+
+        public Type getOwnerType()
+        {
+            return null;
+        }
+
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof ParameterizedType ) )
+            {
+                return false;
+            }
+            ParameterizedType other = (ParameterizedType) o;
+            return _rawType.equals( other.getRawType() )
+                && Arrays.equals( _arguments, other.getActualTypeArguments() );
+        }
+
+        public int hashCode()
+        {
+            return _rawType.hashCode() ^ Arrays.hashCode( _arguments );
+        }
+
+        public String toString()
+        {
+            StringBuilder result = new StringBuilder( _rawType.getName() ).append( '<' );
+            for ( int i = 0; i < _arguments.length; i++ )
+            {
+                Type argument = _arguments[i];
+                result.append( ( i == 0 ) ? "" : ", " );
+                result.append( ( argument instanceof Class<?> ) ? ( (Class<?>) argument ).getName() : argument );
+            }
+            return result.append( '>' ).toString();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.enhance;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+
+import org.apache.commons.ognl.Node;
+import org.apache.commons.ognl.Ognl;
+import org.apache.commons.ognl.OgnlContext;
+import org.apache.commons.ognl.OptimizationLevel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Expression compiler keeping the accessor classes it generates, to write them with their index into a jar loaded
+ * at run time by {@link PrecompiledExpressionCompiler}. Used at build time, see the commons-ognl-maven-plugin module.
+ * <p>
+ * The accessors are generated exactly as at run time, against a sample root of each root type, and are named after
+ * the given prefix so that several bundles can share a class path. A compiler is meant to build one bundle from a
+ * single thread.
+ * </p>
+ */
+public class AccessorBundleCompiler
+    extends ExpressionCompiler
+{
+    private final String _classNamePrefix;
+
+    private final Map<String, byte[]> _classes = new LinkedHashMap<String, byte[]>();
+
+    private final Properties _index = new Properties();
+
+    /** accessor class names by root class name and expression text */
+    private final Map<String, String> _compiled = new HashMap<String, String>();
+
+    /**
+     * @param classNamePrefix The fully qualified name of the accessor classes, before their number.
+     */
+    public AccessorBundleCompiler( String classNamePrefix )
+    {
+        _classNamePrefix = classNamePrefix;
+    }
+
+    /**
+     * Compiles the given expression for roots of the class of the given root, once per expression and root class.
+     * 
+     * @param context The context to compile in.
+     * @param expression The expression to compile.
+     * @param root A sample root, evaluated to generate the accessor.
+     * @return The name of the accessor class of the expression.
+     * @throws Exception If the expression can not be parsed or compiled.
+     */
+    public String compile( OgnlContext context, String expression, Object root )
+        throws Exception
+    {
+        // indexed as looked up at run time, in the folded form of the trees cached by OgnlRuntime.getParsedExpression
+        Node node = (Node) Ognl.parseExpression( expression, OptimizationLevel.FOLD_CONSTANTS );
+        String entry = root.getClass().getName() + " " + node;
+
+        String accessorClassName = _compiled.get( entry );
+        if ( accessorClassName == null )
+        {
+            compileExpression( context, node, root );
+            accessorClassName = node.getAccessor().getClass().getName();
+            _index.setProperty( accessorClassName, entry );
+            _compiled.put( entry, accessorClassName );
+        }
+        return accessorClassName;
+    }
+
+    protected String getAccessorClassName( Node expression )
+    {
+        return _classNamePrefix + _classCounter++;
+    }
+
+    protected Class<?> defineAccessorClass( OgnlContext context, ClassPool pool, CtClass accessorClass )
+        throws Exception
+    {
+        byte[] byteCode = accessorClass.toBytecode();
+        _classes.put( accessorClass.getName(), byteCode );
+        return getClassLoader( context ).defineClass( accessorClass.getName(), byteCode );
+    }
+
+    /**
+     * @return The number of accessors compiled so far.
+     */
+    public int getAccessorCount()
+    {
+        return _index.size();
+    }
+
+    /**
+     * Writes the accessor classes of the compiled expressions and their index as a jar.
+     * 
+     * @param out The stream to write to, closed once written.
+     * @throws IOException If the jar can not be written.
+     */
+    public void writeJar( OutputStream out )
+        throws IOException
+    {
+        JarOutputStream jar = new JarOutputStream( out );
+        try
+        {
+            for ( Map.Entry<String, byte[]> accessorClass : _classes.entrySet() )
+            {
+                // accessors of expressions which failed to compile were never indexed
+                if ( _index.containsKey( accessorClass.getKey() ) )
+                {
+                    jar.putNextEntry( new JarEntry( accessorClass.getKey().replace( '.', '/' ) + ".class" ) );
+                    jar.write( accessorClass.getValue() );
+                    jar.closeEntry();
+                }
+            }
+
+            jar.putNextEntry( new JarEntry( PrecompiledExpressionCompiler.INDEX_RESOURCE ) );
+            _index.store( jar, "OGNL precompiled accessors: root class and expression by accessor class" );
+            jar.closeEntry();
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+}
@@ -26,9 +26,17 @@ import java.lang.reflect.Modifier;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
 import javassist.CannotCompileException;
 import javassist.ClassPool;
@@ -45,6 +53,7 @@ import org.apache.commons.ognl.ASTChain;
 import org.apache.commons.ognl.ASTConst;
 import org.apache.commons.ognl.ASTCtor;
 import org.apache.commons.ognl.ASTList;
+import org.apache.commons.ognl.ASTMap;
 import org.apache.commons.ognl.ASTMethod;
 import org.apache.commons.ognl.ASTOr;
 import org.apache.commons.ognl.ASTProperty;
@@ -58,10 +67,25 @@ import org.apache.commons.ognl.ExpressionNode;
 import org.apache.commons.ognl.Node;
 import org.apache.commons.ognl.OgnlContext;
 import org.apache.commons.ognl.OgnlRuntime;
+import org.apache.commons.ognl.internal.BoundedCache;
+import org.apache.commons.ognl.internal.Cache;
+import org.apache.commons.ognl.internal.CacheException;
+import org.apache.commons.ognl.internal.ClockCache;
+import org.apache.commons.ognl.internal.WeakKeyCache;
+import org.apache.commons.ognl.internal.entry.CacheEntryFactory;
 
 /**
  * Responsible for managing/providing functionality related to compiling generated java source expressions via bytecode
  * enhancements for a given ognl expression.
+ * <p>
+ * Compiling is thread-safe. Threads compiling the same node at once wait for a single compilation. Nodes parsed from
+ * the same expression text share one accessor class as long as the java source generated for them is the same: the
+ * source holds casts to the classes of the values met while compiling (the root, variables, intermediate results), so
+ * expressions compiled against values of other classes get classes of their own. Shared classes are held per class
+ * loader, weakly, up to {@link #MAX_SHARED_ACCESSOR_CLASSES} per loader. At most
+ * {@link #getMaxConcurrentCompilations()} classes are generated at once, the shared javassist {@link ClassPool} being
+ * only safe for one by default.
+ * </p>
  */
 public class ExpressionCompiler
     implements OgnlExpressionCompiler
@@ -72,6 +96,12 @@ public class ExpressionCompiler
      */
     public static final String PRE_CAST = "_preCast";
 
+    /**
+     * Key used to store the node being compiled in the {@link OgnlContext} during class compilation, it is the
+     * <code>_node</code> of the generated accessor.
+     */
+    public static final String COMPILED_NODE = "_compiledNode";
+
     /**
      * {@link ClassLoader} instances.
      */
@@ -84,6 +114,43 @@ public class ExpressionCompiler
 
     protected int _classCounter = 0;
 
+    /**
+     * Maximum number of accessor classes kept for sharing per class loader, the least used ones are no longer shared.
+     */
+    public static final int MAX_SHARED_ACCESSOR_CLASSES = 1024;
+
+    /**
+     * Key used to collect the java source of the local references of an accessor class while it is generated.
+     */
+    private static final String GENERATED_SOURCE = "_generatedSource";
+
+    /**
+     * Default of {@link #getMaxConcurrentCompilations()}.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_COMPILATIONS = 1;
+
+    private volatile Semaphore _compilationPermits = new Semaphore( DEFAULT_MAX_CONCURRENT_COMPILATIONS, true );
+
+    private volatile int _maxConcurrentCompilations = DEFAULT_MAX_CONCURRENT_COMPILATIONS;
+
+    /** set while the thread holds a compilation permit, compiling an expression may compile some of its nodes */
+    private final ThreadLocal<Boolean> _generating = new ThreadLocal<Boolean>();
+
+    /** compilations in flight by node, identity based as nodes do not override equals */
+    private final ConcurrentMap<Node, Future<Void>> _nodeCompilations = new ConcurrentHashMap<Node, Future<Void>>();
+
+    /** generated accessor classes by class loader, then by expression text and generated source */
+    private final Cache<ClassLoader, BoundedCache<AccessorKey, Class<?>>> _accessorClasses =
+        new WeakKeyCache<ClassLoader, BoundedCache<AccessorKey, Class<?>>>(
+            new CacheEntryFactory<ClassLoader, BoundedCache<AccessorKey, Class<?>>>()
+            {
+                public BoundedCache<AccessorKey, Class<?>> create( ClassLoader key )
+                    throws CacheException
+                {
+                    return new ClockCache<AccessorKey, Class<?>>( MAX_SHARED_ACCESSOR_CLASSES );
+                }
+            } );
+
     /**
      * Used by {@link #castExpression(org.apache.commons.ognl.OgnlContext, org.apache.commons.ognl.Node, String)} to
      * store the cast java source string in to the current {@link org.apache.commons.ognl.OgnlContext}. This will either
@@ -149,7 +216,8 @@ public class ExpressionCompiler
             return rootExpr;
         }
 
-        if ( ( !ASTList.class.isInstance( expression ) && !ASTVarRef.class.isInstance( expression )
+        if ( ( !ASTList.class.isInstance( expression ) && !ASTMap.class.isInstance( expression )
+            && !ASTVarRef.class.isInstance( expression )
             && !ASTStaticMethod.class.isInstance( expression ) && !ASTStaticField.class.isInstance( expression )
             && !ASTConst.class.isInstance( expression ) && !ExpressionNode.class.isInstance( expression )
             && !ASTCtor.class.isInstance( expression ) && !ASTStaticMethod.class.isInstance( expression ) && root != null )
@@ -180,6 +248,100 @@ public class ExpressionCompiler
         return rootExpr;
     }
 
+    /**
+     * Returns the java source referencing a node of the expression being compiled, starting from the
+     * <code>_node</code> field of the generated accessor.
+     * 
+     * @param context The current execution context.
+     * @param node The node to reference, the node being compiled or one of its descendants.
+     * @return The java source of the reference, typed as {@link Node}.
+     * @throws UnsupportedCompilationException If the node is not part of the expression being compiled.
+     */
+    public static String getNodeReference( OgnlContext context, Node node )
+    {
+        Object compiled = context.get( COMPILED_NODE );
+        StringBuilder path = new StringBuilder();
+
+        for ( Node child = node; child != compiled; child = child.jjtGetParent() )
+        {
+            Node parent = child.jjtGetParent();
+            int index = -1;
+            for ( int i = 0, count = ( parent == null ) ? 0 : parent.jjtGetNumChildren(); i < count; i++ )
+            {
+                if ( parent.jjtGetChild( i ) == child )
+                {
+                    index = i;
+                    break;
+                }
+            }
+            if ( index < 0 )
+            {
+                throw new UnsupportedCompilationException( "Node " + node + " is not part of the compiled expression." );
+            }
+            path.insert( 0, ".jjtGetChild(" + index + ")" );
+        }
+
+        return "_node" + path;
+    }
+
+    /**
+     * Returns the java source of a node which is evaluated through the interpreter, against the value the enclosing
+     * source evaluates to, so that the rest of the expression can still be compiled. The node must either be the node
+     * being compiled, or a child of a chain which is itself the node being compiled or an operand of an
+     * {@link ExpressionNode}: the source of the chain is then wrapped through {@link #PRE_CAST}.
+     * 
+     * @param context The current execution context.
+     * @param node The node to evaluate.
+     * @param type The type the value of the node is cast to.
+     * @return The java source to use as the source of the node.
+     * @throws UnsupportedCompilationException If the node is used elsewhere.
+     */
+    public static String getNodeValueSource( OgnlContext context, Node node, Class<?> type )
+    {
+        String call = "((" + getCastString( type ) + ")" + getNodeReference( context, node ) + ".getValue($1, ";
+
+        if ( node == context.get( COMPILED_NODE ) )
+        {
+            context.put( "_noRoot", "true" );
+            return call + "$2))";
+        }
+
+        Node chain = node.jjtGetParent();
+        if ( !ASTChain.class.isInstance( chain )
+            || ( chain != context.get( COMPILED_NODE ) && !ExpressionNode.class.isInstance( chain.jjtGetParent() ) ) )
+        {
+            throw new UnsupportedCompilationException( "Can't compile " + node + " within " + chain );
+        }
+
+        addCastString( context, call + "($w) (" );
+        return ")))";
+    }
+
+    /**
+     * Tells whether a node is evaluated against the same source as the node being compiled, whose value is the second
+     * parameter of the generated accessor: this is the case when only operators, and chains of which it is the first
+     * child, are between the two.
+     * 
+     * @param context The current execution context.
+     * @param node The node to check.
+     * @return True if the node is evaluated against the root of the generated accessor.
+     */
+    public static boolean isEvaluatedOnRoot( OgnlContext context, Node node )
+    {
+        Object compiled = context.get( COMPILED_NODE );
+
+        for ( Node child = node; ( child != compiled ) && ( child.jjtGetParent() != null ); child = child.jjtGetParent() )
+        {
+            Node parent = child.jjtGetParent();
+            if ( ASTChain.class.isInstance( parent ) ? parent.jjtGetChild( 0 ) != child
+                            : !ExpressionNode.class.isInstance( parent ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Used by {@link #getRootExpression(org.apache.commons.ognl.Node, Object, org.apache.commons.ognl.OgnlContext)} to
      * determine if the expression needs to be cast at all.
@@ -193,7 +355,7 @@ public class ExpressionCompiler
         {
             Node child = expression.jjtGetChild( 0 );
             if ( ASTConst.class.isInstance( child ) || ASTStaticMethod.class.isInstance( child )
-                || ASTStaticField.class.isInstance( child )
+                || ASTStaticField.class.isInstance( child ) || ASTMap.class.isInstance( child )
                 || ( ASTVarRef.class.isInstance( child ) && !ASTRootVarRef.class.isInstance( child ) ) )
                 return false;
         }
@@ -486,13 +648,92 @@ public class ExpressionCompiler
             return;
         }
 
+        if ( _generating.get() != null )
+        {
+            // never wait for other threads while holding a permit, they may be waiting for it
+            new NodeCompilation( context, expression, root ).call();
+            return;
+        }
+
+        FutureTask<Void> compilation = new FutureTask<Void>( new NodeCompilation( context, expression, root ) );
+        Future<Void> running = _nodeCompilations.putIfAbsent( expression, compilation );
+        if ( running == null )
+        {
+            try
+            {
+                compilation.run();
+            }
+            finally
+            {
+                _nodeCompilations.remove( expression );
+            }
+            running = compilation;
+        }
+        await( running );
+    }
+
+    private static <T> T await( Future<T> task )
+        throws Exception
+    {
+        try
+        {
+            return task.get();
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof Exception )
+            {
+                throw (Exception) e.getCause();
+            }
+            if ( e.getCause() instanceof Error )
+            {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Generates the accessor class for the given expression, holding one of the compilation permits unless the thread
+     * already holds one. The class is only loaded if no class generated with the same source is shared.
+     * 
+     * @param context The current execution context.
+     * @param expression The expression to compile.
+     * @param root The root the expression is compiled against.
+     * @return The loaded or shared class.
+     * @throws Exception If the class can not be generated.
+     */
+    protected Class<?> generateAccessorClass( OgnlContext context, Node expression, Object root )
+        throws Exception
+    {
+        if ( _generating.get() != null )
+        {
+            return generateAccessorClassBody( context, expression, root );
+        }
+
+        Semaphore permits = _compilationPermits;
+        permits.acquire();
+        _generating.set( Boolean.TRUE );
+        try
+        {
+            return generateAccessorClassBody( context, expression, root );
+        }
+        finally
+        {
+            _generating.remove();
+            permits.release();
+        }
+    }
+
+    private Class<?> generateAccessorClassBody( OgnlContext context, Node expression, Object root )
+        throws Exception
+    {
         String getBody, setBody;
 
         EnhancedClassLoader loader = getClassLoader( context );
         ClassPool pool = getClassPool( context, loader );
 
-        CtClass newClass =
-            pool.makeClass( expression.getClass().getName() + expression.hashCode() + _classCounter++ + "Accessor" );
+        CtClass newClass = pool.makeClass( getAccessorClassName( expression ) );
         newClass.addInterface( getCtClass( ExpressionAccessor.class ) );
 
         CtClass ognlClass = getCtClass( OgnlContext.class );
@@ -502,72 +743,83 @@ public class ExpressionCompiler
         CtMethod valueSetter =
             new CtMethod( CtClass.voidType, "set", new CtClass[] { ognlClass, objClass, objClass }, newClass );
 
-        CtField nodeMember = null; // will only be set if uncompilable exception is thrown
-
-        CtClass nodeClass = getCtClass( Node.class );
-        CtMethod setExpression = null;
+        // used by the fail safe getter and setter, and by the source of nodes evaluated through getNodeReference
+        CtField nodeMember = new CtField( getCtClass( Node.class ), "_node", newClass );
+        newClass.addField( nodeMember );
+        newClass.addMethod( CtNewMethod.setter( "setExpression", nodeMember ) );
 
+        Map<String, String> localReferences = new LinkedHashMap<String, String>();
+        Object previousNode = context.put( COMPILED_NODE, expression );
+        Object previousSource = context.put( GENERATED_SOURCE, localReferences );
         try
         {
+            try
+            {
 
-            getBody = generateGetter( context, newClass, objClass, pool, valueGetter, expression, root );
+                getBody = generateGetter( context, newClass, objClass, pool, valueGetter, expression, root );
 
-        }
-        catch ( UnsupportedCompilationException uc )
-        {
-            // uc.printStackTrace();
+            }
+            catch ( UnsupportedCompilationException uc )
+            {
+                // uc.printStackTrace();
 
-            nodeMember = new CtField( nodeClass, "_node", newClass );
-            newClass.addField( nodeMember );
+                getBody = generateOgnlGetter( newClass, valueGetter, nodeMember );
+            }
 
-            getBody = generateOgnlGetter( newClass, valueGetter, nodeMember );
+            try
+            {
 
-            setExpression = CtNewMethod.setter( "setExpression", nodeMember );
-            newClass.addMethod( setExpression );
-        }
+                setBody = generateSetter( context, newClass, objClass, pool, valueSetter, expression, root );
 
-        try
-        {
+            }
+            catch ( UnsupportedCompilationException uc )
+            {
 
-            setBody = generateSetter( context, newClass, objClass, pool, valueSetter, expression, root );
+                // uc.printStackTrace();
 
+                setBody = generateOgnlSetter( newClass, valueSetter, nodeMember );
+            }
         }
-        catch ( UnsupportedCompilationException uc )
+        finally
         {
-
-            // uc.printStackTrace();
-
-            if ( nodeMember == null )
+            if ( previousNode == null )
             {
-                nodeMember = new CtField( nodeClass, "_node", newClass );
-                newClass.addField( nodeMember );
+                context.remove( COMPILED_NODE );
             }
-
-            setBody = generateOgnlSetter( newClass, valueSetter, nodeMember );
-
-            if ( setExpression == null )
+            else
             {
-                setExpression = CtNewMethod.setter( "setExpression", nodeMember );
-                newClass.addMethod( setExpression );
+                context.put( COMPILED_NODE, previousNode );
             }
+            if ( previousSource == null )
+            {
+                context.remove( GENERATED_SOURCE );
+            }
+            else
+            {
+                context.put( GENERATED_SOURCE, previousSource );
+            }
+        }
+
+        // the source holds every cast taken from the values met, equal sources behave alike for any node of that text
+        AccessorKey key = new AccessorKey( context, root, expression, getSource( getBody, setBody, localReferences ) );
+        BoundedCache<AccessorKey, Class<?>> shared = _accessorClasses.get( loader );
+        Class<?> existing = shared.get( key );
+        if ( existing != null )
+        {
+            newClass.detach();
+            return existing;
         }
 
         try
         {
             newClass.addConstructor( CtNewConstructor.defaultConstructor( newClass ) );
 
-            Class<?> clazz = pool.toClass( newClass );
+            Class<?> clazz = defineAccessorClass( context, pool, newClass );
             newClass.detach();
 
-            expression.setAccessor( (ExpressionAccessor) clazz.newInstance() );
-
-            // need to set expression on node if the field was just defined.
-
-            if ( nodeMember != null )
-            {
-                expression.getAccessor().setExpression( expression );
-            }
-
+            // checks the new class before any other node shares it
+            clazz.newInstance();
+            return shared.put( key, clazz );
         }
         catch ( Throwable t )
         {
@@ -579,6 +831,91 @@ public class ExpressionCompiler
 
     }
 
+    /**
+     * @return the whole java source of an accessor class, its local references being numbered from 0 whatever the
+     *         counter of the context they were created with
+     */
+    private static String getSource( String getBody, String setBody, Map<String, String> localReferences )
+    {
+        StringBuilder source = new StringBuilder( getBody ).append( '\n' ).append( setBody );
+        for ( String declaration : localReferences.values() )
+        {
+            source.append( '\n' ).append( declaration );
+        }
+
+        String result = source.toString();
+        int index = 0;
+        for ( String name : localReferences.keySet() )
+        {
+            result = result.replaceAll( "\\b" + name + "\\b", "\\$ref" + index++ );
+        }
+        return result;
+    }
+
+    /**
+     * Forgets the accessor classes shared by the expressions compiled so far, called by
+     * {@link OgnlRuntime#clearCache()}. Accessors already set on expressions are kept.
+     */
+    public void clearAccessorClasses()
+    {
+        _accessorClasses.clear();
+    }
+
+    /**
+     * Sets the maximum number of accessor classes generated at once, the shared javassist {@link ClassPool} of this
+     * compiler is only safe for one: raise it for subclasses giving each compilation its own pool.
+     * 
+     * @param maxConcurrentCompilations The number of classes generated at once, at least 1.
+     */
+    public void setMaxConcurrentCompilations( int maxConcurrentCompilations )
+    {
+        if ( maxConcurrentCompilations < 1 )
+        {
+            throw new IllegalArgumentException( "maxConcurrentCompilations must be positive: "
+                + maxConcurrentCompilations );
+        }
+        _compilationPermits = new Semaphore( maxConcurrentCompilations, true );
+        _maxConcurrentCompilations = maxConcurrentCompilations;
+    }
+
+    /**
+     * @return The maximum number of accessor classes generated at once, {@link #DEFAULT_MAX_CONCURRENT_COMPILATIONS}
+     *         unless set.
+     */
+    public int getMaxConcurrentCompilations()
+    {
+        return _maxConcurrentCompilations;
+    }
+
+    /**
+     * Names the accessor class generated for the given expression, the name must not have been used by this compiler.
+     * 
+     * @param expression The expression being compiled.
+     * @return The fully qualified name of the new class.
+     */
+    protected String getAccessorClassName( Node expression )
+    {
+        synchronized ( this )
+        {
+            return expression.getClass().getName() + expression.hashCode() + _classCounter++ + "Accessor";
+        }
+    }
+
+    /**
+     * Loads the fully generated accessor class.
+     * 
+     * @param context The current execution context.
+     * @param pool The pool the class was generated in.
+     * @param accessorClass The generated class, detached from the pool once loaded.
+     * @return The loaded class.
+     * @throws Exception If a javassist error occurs.
+     */
+    protected Class<?> defineAccessorClass( OgnlContext context, ClassPool pool, CtClass accessorClass )
+        throws Exception
+    {
+        return pool.toClass( accessorClass );
+    }
+
     protected String generateGetter( OgnlContext context, CtClass newClass, CtClass objClass, ClassPool pool,
                                      CtMethod valueGetter, Node expression, Object root )
         throws Exception
@@ -693,6 +1030,13 @@ public class ExpressionCompiler
             CtMethod method = new CtMethod( pool.get( getCastString( ref.getType() ) ), ref.getName(), params, clazz );
             method.setBody( body );
 
+            @SuppressWarnings( "unchecked" )
+            Map<String, String> source = (Map<String, String>) context.get( GENERATED_SOURCE );
+            if ( source != null )
+            {
+                source.put( ref.getName(), getCastString( ref.getType() ) + ' ' + ref.getName() + body );
+            }
+
             clazz.addMethod( method );
 
             it.remove();
@@ -799,19 +1143,22 @@ public class ExpressionCompiler
      */
     protected EnhancedClassLoader getClassLoader( OgnlContext context )
     {
-        EnhancedClassLoader ret = _loaders.get( context.getClassResolver() );
-
-        if ( ret != null )
+        synchronized ( _loaders )
         {
-            return ret;
-        }
+            EnhancedClassLoader ret = _loaders.get( context.getClassResolver() );
 
-        ClassLoader classLoader = new ContextClassLoader( OgnlContext.class.getClassLoader(), context );
+            if ( ret != null )
+            {
+                return ret;
+            }
 
-        ret = new EnhancedClassLoader( classLoader );
-        _loaders.put( context.getClassResolver(), ret );
+            ClassLoader classLoader = new ContextClassLoader( OgnlContext.class.getClassLoader(), context );
 
-        return ret;
+            ret = new EnhancedClassLoader( classLoader );
+            _loaders.put( context.getClassResolver(), ret );
+
+            return ret;
+        }
     }
 
     /**
@@ -837,7 +1184,7 @@ public class ExpressionCompiler
      *            {@link #getClassLoader(org.apache.commons.ognl.OgnlContext)}.
      * @return The existing or new {@link ClassPool} instance.
      */
-    protected ClassPool getClassPool( OgnlContext context, EnhancedClassLoader loader )
+    protected synchronized ClassPool getClassPool( OgnlContext context, EnhancedClassLoader loader )
     {
         if ( _pool != null )
         {
@@ -849,4 +1196,86 @@ public class ExpressionCompiler
 
         return _pool;
     }
+
+    /**
+     * Sets an accessor on a node, of the class shared by its expression text and generated source.
+     */
+    private final class NodeCompilation
+        implements Callable<Void>
+    {
+        private final OgnlContext _context;
+
+        private final Node _expression;
+
+        private final Object _root;
+
+        NodeCompilation( OgnlContext context, Node expression, Object root )
+        {
+            _context = context;
+            _expression = expression;
+            _root = root;
+        }
+
+        public Void call()
+            throws Exception
+        {
+            // compiled by a thread which was done before this one registered
+            if ( _expression.getAccessor() == null )
+            {
+                ExpressionAccessor accessor =
+                    (ExpressionAccessor) generateAccessorClass( _context, _expression, _root ).newInstance();
+                accessor.setExpression( _expression );
+                _expression.setAccessor( accessor );
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Identifies the accessors generated with the same java source from equal expression texts, node paths in the
+     * generated source hold for every node parsed from the same text. The member access and type converter of the
+     * context decide what the generated source may call, they are part of the key.
+     */
+    private static final class AccessorKey
+    {
+        private final Object _memberAccess;
+
+        private final Object _typeConverter;
+
+        private final Class<?> _rootClass;
+
+        private final String _expression;
+
+        private final String _source;
+
+        private final int _hashCode;
+
+        AccessorKey( OgnlContext context, Object root, Node expression, String source )
+        {
+            _memberAccess = context.getMemberAccess();
+            _typeConverter = context.getTypeConverter();
+            _rootClass = ( root == null ) ? null : root.getClass();
+            _expression = expression.getClass().getName() + ':' + expression;
+            _source = source;
+            _hashCode =
+                31 * ( 31 * System.identityHashCode( _rootClass ) + _expression.hashCode() ) + source.hashCode();
+        }
+
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof AccessorKey ) )
+            {
+                return false;
+            }
+            AccessorKey other = (AccessorKey) o;
+            return ( _memberAccess == other._memberAccess ) && ( _typeConverter == other._typeConverter )
+                && ( _rootClass == other._rootClass ) && _expression.equals( other._expression )
+                && _source.equals( other._source );
+        }
+
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+    }
 }
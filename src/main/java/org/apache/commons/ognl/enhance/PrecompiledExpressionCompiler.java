@@ -0,0 +1,194 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.enhance;
+
+import org.apache.commons.ognl.Node;
+import org.apache.commons.ognl.OgnlContext;
+import org.apache.commons.ognl.OgnlException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Expression compiler attaching the accessors generated ahead of time by {@link AccessorBundleCompiler} instead of
+ * generating new classes.
+ * <p>
+ * The bundles are found through the {@link #INDEX_RESOURCE} resources of the given class loader, every jar on the
+ * class path can hold one. An expression is matched by its text, as printed once parsed with
+ * {@link org.apache.commons.ognl.OptimizationLevel#FOLD_CONSTANTS} like the trees used by the <code>String</code>
+ * overloads of {@link org.apache.commons.ognl.Ognl#getValue(String, Object)}, and by the exact class of its root. A
+ * tree parsed without folding only matches if it has no constant subexpression. Expressions or roots which were not bundled are compiled by the fallback compiler, or through javassist
+ * when there is none: install a {@link org.apache.commons.ognl.ReflectiveExpressionCompiler} as the fallback to never
+ * generate any class at run time.
+ * </p>
+ * <p>
+ * Install it with <code>OgnlRuntime.setCompiler( new PrecompiledExpressionCompiler( loader ) )</code>.
+ * </p>
+ */
+public class PrecompiledExpressionCompiler
+    extends ExpressionCompiler
+{
+    /**
+     * The index of a bundle: the accessor class names mapped to the root class name and the expression text, separated
+     * by a space.
+     */
+    public static final String INDEX_RESOURCE = "META-INF/ognl/accessors.properties";
+
+    private final ClassLoader _classLoader;
+
+    private final OgnlExpressionCompiler _fallback;
+
+    /** accessor class names by expression text, then by root class name */
+    private final Map<String, Map<String, String>> _index = new HashMap<String, Map<String, String>>();
+
+    private final Map<String, Class<?>> _accessorClasses = new ConcurrentHashMap<String, Class<?>>();
+
+    private int _accessorCount;
+
+    public PrecompiledExpressionCompiler( ClassLoader classLoader )
+        throws IOException
+    {
+        this( classLoader, null );
+    }
+
+    /**
+     * @param classLoader The class loader of the bundles, and of the classes of the expressions.
+     * @param fallback The compiler of the expressions which were not bundled, null to compile them through javassist.
+     * @throws IOException If an index can not be read.
+     */
+    public PrecompiledExpressionCompiler( ClassLoader classLoader, OgnlExpressionCompiler fallback )
+        throws IOException
+    {
+        _classLoader = classLoader;
+        _fallback = fallback;
+
+        Enumeration<URL> indexes = classLoader.getResources( INDEX_RESOURCE );
+        while ( indexes.hasMoreElements() )
+        {
+            Properties index = new Properties();
+            InputStream in = indexes.nextElement().openStream();
+            try
+            {
+                index.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+
+            for ( Map.Entry<Object, Object> e : index.entrySet() )
+            {
+                String accessorClassName = (String) e.getKey(), entry = (String) e.getValue();
+                int separator = entry.indexOf( ' ' );
+                if ( separator < 0 )
+                {
+                    throw new IOException( "Invalid entry for " + accessorClassName + " in " + INDEX_RESOURCE );
+                }
+                String expression = entry.substring( separator + 1 );
+                Map<String, String> byRoot = _index.get( expression );
+                if ( byRoot == null )
+                {
+                    byRoot = new HashMap<String, String>( 4 );
+                    _index.put( expression, byRoot );
+                }
+                if ( byRoot.put( entry.substring( 0, separator ), accessorClassName ) == null )
+                {
+                    _accessorCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void compileExpression( OgnlContext context, Node expression, Object root )
+        throws Exception
+    {
+        if ( ( expression.getAccessor() != null ) || ( ( root != null ) && attach( expression, root.getClass() ) ) )
+        {
+            return;
+        }
+        if ( _fallback != null )
+        {
+            _fallback.compileExpression( context, expression, root );
+        }
+        else
+        {
+            super.compileExpression( context, expression, root );
+        }
+    }
+
+    /**
+     * Sets the bundled accessor of the given expression and root type on the expression.
+     * 
+     * @param expression The parsed expression.
+     * @param rootType The class of the roots the expression is evaluated against.
+     * @return true if an accessor was bundled for the expression and root type, false if the expression is unchanged.
+     * @throws OgnlException If the bundled accessor can not be loaded.
+     */
+    public boolean attach( Node expression, Class<?> rootType )
+        throws OgnlException
+    {
+        Map<String, String> byRoot = _index.get( expression.toString() );
+        String accessorClassName = ( byRoot == null ) ? null : byRoot.get( rootType.getName() );
+        if ( accessorClassName == null )
+        {
+            return false;
+        }
+
+        try
+        {
+            Class<?> accessorClass = _accessorClasses.get( accessorClassName );
+            if ( accessorClass == null )
+            {
+                accessorClass = Class.forName( accessorClassName, true, _classLoader );
+                _accessorClasses.put( accessorClassName, accessorClass );
+            }
+
+            // the accessor references the nodes of its expression, each expression needs its own instance
+            ExpressionAccessor accessor = (ExpressionAccessor) accessorClass.newInstance();
+            accessor.setExpression( expression );
+            expression.setAccessor( accessor );
+            return true;
+        }
+        catch ( Exception e )
+        {
+            throw new OgnlException( "Unable to load the precompiled accessor " + accessorClassName + " of "
+                + expression, e );
+        }
+    }
+
+    /**
+     * @return The number of bundled accessors.
+     */
+    public int getAccessorCount()
+    {
+        return _accessorCount;
+    }
+}
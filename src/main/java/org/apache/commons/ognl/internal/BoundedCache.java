@@ -0,0 +1,38 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.internal;
+
+/**
+ * A {@link Cache} holding at most {@link #getMaxSize()} entries, evicting older entries according to the policy of
+ * the implementation. Hit, miss and eviction counters are kept so the cache can be sized from real usage.
+ */
+public interface BoundedCache<K, V>
+    extends Cache<K, V>
+{
+    int getMaxSize( );
+
+    long getHitCount( );
+
+    long getMissCount( );
+
+    long getEvictionCount( );
+}
@@ -12,7 +12,30 @@ public interface CacheFactory
 {
     <K,V> Cache<K,V> createCache( CacheEntryFactory<K, V> entryFactory );
 
+    /**
+     * Creates a cache holding at most <code>maxSize</code> entries. The eviction policy is chosen by the factory.
+     *
+     * @param maxSize the maximum number of entries, must be positive
+     * @param entryFactory the factory used to create missing entries, may be null
+     */
+    <K,V> BoundedCache<K,V> createBoundedCache( int maxSize, CacheEntryFactory<K, V> entryFactory );
+
     <V> ClassCache<V> createClassCache( );
 
     <V> ClassCache<V> createClassCache( ClassCacheEntryFactory<V> entryFactory );
+
+    /**
+     * Creates a cache holding its keys weakly, so entries keyed by reflection objects do not keep their class loader
+     * alive. Values may be reclaimed under memory pressure and are then created again by the entry factory.
+     *
+     * @param entryFactory the factory used to create missing entries
+     */
+    <K, V> Cache<K, V> createWeakCache( CacheEntryFactory<K, V> entryFactory );
+
+    /**
+     * Class keyed counterpart of {@link #createWeakCache(CacheEntryFactory)}.
+     *
+     * @param entryFactory the factory used to create missing entries
+     */
+    <V> ClassCache<V> createWeakClassCache( ClassCacheEntryFactory<V> entryFactory );
 }
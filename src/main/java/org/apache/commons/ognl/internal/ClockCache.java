@@ -0,0 +1,216 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.commons.ognl.internal;
+
+import org.apache.commons.ognl.internal.entry.CacheEntryFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe {@link BoundedCache} backed by a {@link ConcurrentHashMap}, approximating least recently used eviction
+ * with the CLOCK algorithm: a hit only marks its entry as referenced, without any lock, and once the maximum size is
+ * exceeded the entries are swept in turn, referenced ones losing their mark and the others being evicted. Reads never
+ * block, a single inserting thread at a time does the sweeping and the others go on.
+ * <p>
+ * Like {@link LRUCache}, {@link #put(Object, Object)} never replaces an existing mapping: the value already cached for
+ * the key is returned instead, so concurrent creators of the same entry agree on a single value.
+ * </p>
+ */
+public class ClockCache<K, V>
+    implements BoundedCache<K, V>
+{
+    private final int maxSize;
+
+    private final ConcurrentMap<K, Slot<V>> cache = new ConcurrentHashMap<K, Slot<V>>( );
+
+    private final AtomicInteger size = new AtomicInteger( );
+
+    private final AtomicLong hits = new AtomicLong( );
+
+    private final AtomicLong misses = new AtomicLong( );
+
+    private final AtomicLong evictions = new AtomicLong( );
+
+    private final Lock evictionLock = new ReentrantLock( );
+
+    /** position of the sweep, guarded by evictionLock */
+    private Iterator<Map.Entry<K, Slot<V>>> hand;
+
+    private CacheEntryFactory<K, V> cacheEntryFactory;
+
+    public ClockCache( int maxSize )
+    {
+        this( maxSize, null );
+    }
+
+    public ClockCache( int maxSize, CacheEntryFactory<K, V> cacheEntryFactory )
+    {
+        if ( maxSize <= 0 )
+        {
+            throw new IllegalArgumentException( "maxSize must be positive: " + maxSize );
+        }
+        this.maxSize = maxSize;
+        this.cacheEntryFactory = cacheEntryFactory;
+    }
+
+    public void clear( )
+    {
+        for ( K key : cache.keySet( ) )
+        {
+            Slot<V> slot = cache.remove( key );
+            if ( slot != null )
+            {
+                size.decrementAndGet( );
+            }
+        }
+    }
+
+    public int getSize( )
+    {
+        return size.get( );
+    }
+
+    public V get( K key )
+        throws CacheException
+    {
+        Slot<V> slot = cache.get( key );
+        if ( slot != null )
+        {
+            if ( !slot.referenced )
+            {
+                slot.referenced = true;
+            }
+            hits.incrementAndGet( );
+            return slot.value;
+        }
+        misses.incrementAndGet( );
+        if ( cacheEntryFactory == null )
+        {
+            return null;
+        }
+        return put( key, cacheEntryFactory.create( key ) );
+    }
+
+    public V put( K key, V value )
+    {
+        Slot<V> collision = cache.putIfAbsent( key, new Slot<V>( value ) );
+        if ( collision != null )
+        {
+            return collision.value;
+        }
+        if ( size.incrementAndGet( ) > maxSize )
+        {
+            evict( );
+        }
+        return value;
+    }
+
+    /**
+     * Sweeps the entries until the cache is back to its maximum size, unless another thread is already sweeping.
+     */
+    private void evict( )
+    {
+        if ( !evictionLock.tryLock( ) )
+        {
+            return;
+        }
+        try
+        {
+            // two full turns clear every mark, so the loop ends even if all entries were referenced
+            int budget = 2 * ( size.get( ) + 1 );
+            while ( size.get( ) > maxSize && budget-- > 0 )
+            {
+                if ( hand == null || !hand.hasNext( ) )
+                {
+                    hand = cache.entrySet( ).iterator( );
+                    if ( !hand.hasNext( ) )
+                    {
+                        return;
+                    }
+                }
+                Map.Entry<K, Slot<V>> candidate = hand.next( );
+                Slot<V> slot = candidate.getValue( );
+                if ( slot.referenced )
+                {
+                    slot.referenced = false;
+                }
+                else if ( cache.remove( candidate.getKey( ), slot ) )
+                {
+                    size.decrementAndGet( );
+                    evictions.incrementAndGet( );
+                }
+            }
+        }
+        finally
+        {
+            evictionLock.unlock( );
+        }
+    }
+
+    public int getMaxSize( )
+    {
+        return maxSize;
+    }
+
+    public long getHitCount( )
+    {
+        return hits.get( );
+    }
+
+    public long getMissCount( )
+    {
+        return misses.get( );
+    }
+
+    public long getEvictionCount( )
+    {
+        return evictions.get( );
+    }
+
+    @Override
+    public String toString( )
+    {
+        return "ClockCache[" + "maxSize=" + maxSize + ", size=" + getSize( ) + ", hits=" + hits + ", misses=" + misses
+            + ", evictions=" + evictions + ']';
+    }
+
+    private static final class Slot<V>
+    {
+        final V value;
+
+        /** set on hits, cleared by the sweep; a stale read only delays an eviction */
+        volatile boolean referenced;
+
+        Slot( V value )
+        {
+            this.value = value;
+        }
+    }
+}
@@ -33,6 +33,21 @@ public class ConcurrentHashMapCacheFactory
         return new ConcurrentHashMapCache<K, V>(entryFactory );
     }
 
+    public <K, V> BoundedCache<K, V> createBoundedCache( int maxSize, CacheEntryFactory<K, V> entryFactory )
+    {
+        return new ClockCache<K, V>( maxSize, entryFactory );
+    }
+
+    public <K, V> Cache<K, V> createWeakCache( CacheEntryFactory<K, V> entryFactory )
+    {
+        return new WeakKeyCache<K, V>( entryFactory );
+    }
+
+    public <V> ClassCache<V> createWeakClassCache( ClassCacheEntryFactory<V> entryFactory )
+    {
+        return new WeakClassCache<V>( entryFactory );
+    }
+
     public <V> ClassCache<V> createClassCache( )
     {
         return createClassCache( null );
@@ -40,6 +55,6 @@ public class ConcurrentHashMapCacheFactory
 
     public <V> ClassCache<V> createClassCache( ClassCacheEntryFactory<V> entryFactory )
     {
-        return new ConcurrentHashMapClassCache<V>(entryFactory );
+        return new LockFreeClassCache<V>( entryFactory );
     }
 }
@@ -32,6 +32,21 @@ public class HashMapCacheFactory
         return new HashMapCache<K, V>( entryFactory );
     }
 
+    public <K, V> BoundedCache<K, V> createBoundedCache( int maxSize, CacheEntryFactory<K, V> entryFactory )
+    {
+        return new LRUCache<K, V>( maxSize, entryFactory );
+    }
+
+    public <K, V> Cache<K, V> createWeakCache( CacheEntryFactory<K, V> entryFactory )
+    {
+        return new WeakKeyCache<K, V>( entryFactory );
+    }
+
+    public <V> ClassCache<V> createWeakClassCache( ClassCacheEntryFactory<V> entryFactory )
+    {
+        return new WeakClassCache<V>( entryFactory );
+    }
+
     public <V> ClassCache<V> createClassCache( )
     {
         return createClassCache( null );
@@ -0,0 +1,160 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.internal;
+
+import org.apache.commons.ognl.internal.entry.CacheEntryFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe {@link BoundedCache} evicting the least recently used entry once the maximum size is exceeded.
+ * <p>
+ * Like {@link ConcurrentHashMapCache}, {@link #put(Object, Object)} never replaces an existing mapping: the value
+ * already cached for the key is returned instead, so concurrent creators of the same entry agree on a single value.
+ * </p>
+ */
+public class LRUCache<K, V>
+    implements BoundedCache<K, V>
+{
+    private final int maxSize;
+
+    private final Map<K, V> cache;
+
+    private final AtomicLong hits = new AtomicLong( );
+
+    private final AtomicLong misses = new AtomicLong( );
+
+    private final AtomicLong evictions = new AtomicLong( );
+
+    private CacheEntryFactory<K, V> cacheEntryFactory;
+
+    public LRUCache( int maxSize )
+    {
+        this( maxSize, null );
+    }
+
+    public LRUCache( int maxSize, CacheEntryFactory<K, V> cacheEntryFactory )
+    {
+        if ( maxSize <= 0 )
+        {
+            throw new IllegalArgumentException( "maxSize must be positive: " + maxSize );
+        }
+        this.maxSize = maxSize;
+        this.cacheEntryFactory = cacheEntryFactory;
+        this.cache = new LinkedHashMap<K, V>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = -2540426264934838337L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<K, V> eldest )
+            {
+                if ( size( ) > LRUCache.this.maxSize )
+                {
+                    evictions.incrementAndGet( );
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public void clear( )
+    {
+        synchronized ( cache )
+        {
+            cache.clear( );
+        }
+    }
+
+    public int getSize( )
+    {
+        synchronized ( cache )
+        {
+            return cache.size( );
+        }
+    }
+
+    public V get( K key )
+        throws CacheException
+    {
+        V v;
+        synchronized ( cache )
+        {
+            v = cache.get( key );
+        }
+        if ( v != null )
+        {
+            hits.incrementAndGet( );
+            return v;
+        }
+        misses.incrementAndGet( );
+        if ( cacheEntryFactory == null )
+        {
+            return null;
+        }
+        // create outside of the lock, a slow factory must not block readers of other keys
+        return put( key, cacheEntryFactory.create( key ) );
+    }
+
+    public V put( K key, V value )
+    {
+        synchronized ( cache )
+        {
+            V collision = cache.get( key );
+            if ( collision != null )
+            {
+                return collision;
+            }
+            cache.put( key, value );
+            return value;
+        }
+    }
+
+    public int getMaxSize( )
+    {
+        return maxSize;
+    }
+
+    public long getHitCount( )
+    {
+        return hits.get( );
+    }
+
+    public long getMissCount( )
+    {
+        return misses.get( );
+    }
+
+    public long getEvictionCount( )
+    {
+        return evictions.get( );
+    }
+
+    @Override
+    public String toString( )
+    {
+        return "LRUCache[" + "maxSize=" + maxSize + ", size=" + getSize( ) + ", hits=" + hits + ", misses=" + misses
+            + ", evictions=" + evictions + ']';
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.internal;
+
+import org.apache.commons.ognl.ClassCacheInspector;
+import org.apache.commons.ognl.internal.entry.CacheEntryFactory;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link ClassCache} backed by an open-addressing table compared by identity. Readers never lock: they probe the
+ * current table, whose slots only ever hold immutable entries. Writers are serialized, publish each entry with a single
+ * atomic slot write and double the table once it gets half full, so the cache keeps short probe sequences however
+ * many classes are loaded.
+ * <p>
+ * {@link #put(Class, Object)} replaces an existing mapping, values built by the entry factory on a miss are only added
+ * if no other thread got there first, so concurrent callers of {@link #get(Class)} agree on a single value.
+ * </p>
+ */
+public class LockFreeClassCache<V>
+    implements ClassCache<V>
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Object writeLock = new Object( );
+
+    private volatile AtomicReferenceArray<Node<V>> table = new AtomicReferenceArray<Node<V>>( INITIAL_CAPACITY );
+
+    private volatile int size;
+
+    private volatile ClassCacheInspector inspector;
+
+    private final CacheEntryFactory<Class<?>, V> cacheEntryFactory;
+
+    public LockFreeClassCache( )
+    {
+        this( null );
+    }
+
+    public LockFreeClassCache( CacheEntryFactory<Class<?>, V> cacheEntryFactory )
+    {
+        this.cacheEntryFactory = cacheEntryFactory;
+    }
+
+    public void setClassInspector( ClassCacheInspector inspector )
+    {
+        this.inspector = inspector;
+    }
+
+    public void clear( )
+    {
+        synchronized ( writeLock )
+        {
+            table = new AtomicReferenceArray<Node<V>>( INITIAL_CAPACITY );
+            size = 0;
+        }
+    }
+
+    public int getSize( )
+    {
+        return size;
+    }
+
+    public V get( Class<?> key )
+        throws CacheException
+    {
+        AtomicReferenceArray<Node<V>> t = table;
+        int mask = t.length( ) - 1;
+
+        for ( int i = indexFor( key, mask ); ; i = ( i + 1 ) & mask )
+        {
+            Node<V> node = t.get( i );
+            if ( node == null )
+            {
+                break;
+            }
+            if ( node.key == key )
+            {
+                return node.value;
+            }
+        }
+
+        if ( cacheEntryFactory == null )
+        {
+            return null;
+        }
+        // create outside of the lock, a slow factory must not block writers of other classes
+        return insert( key, cacheEntryFactory.create( key ), false );
+    }
+
+    public V put( Class<?> key, V value )
+    {
+        return insert( key, value, true );
+    }
+
+    private V insert( Class<?> key, V value, boolean replace )
+    {
+        ClassCacheInspector classInspector = inspector;
+        if ( classInspector != null && !classInspector.shouldCache( key ) )
+        {
+            return value;
+        }
+
+        synchronized ( writeLock )
+        {
+            AtomicReferenceArray<Node<V>> t = table;
+            int i = probe( t, key );
+            Node<V> node = t.get( i );
+
+            if ( node != null )
+            {
+                if ( !replace )
+                {
+                    return node.value;
+                }
+                t.set( i, new Node<V>( key, value ) );
+                return value;
+            }
+
+            if ( ( size + 1 ) * 2 > t.length( ) )
+            {
+                // readers keep probing the old table until the grown one is published
+                t = resize( t );
+                t.set( probe( t, key ), new Node<V>( key, value ) );
+                table = t;
+            }
+            else
+            {
+                t.set( i, new Node<V>( key, value ) );
+            }
+            size++;
+            return value;
+        }
+    }
+
+    /**
+     * @return the slot holding the key, or the empty slot where it belongs
+     */
+    private static <V> int probe( AtomicReferenceArray<Node<V>> t, Class<?> key )
+    {
+        int mask = t.length( ) - 1;
+        int i = indexFor( key, mask );
+        Node<V> node;
+
+        while ( ( node = t.get( i ) ) != null && node.key != key )
+        {
+            i = ( i + 1 ) & mask;
+        }
+        return i;
+    }
+
+    private static <V> AtomicReferenceArray<Node<V>> resize( AtomicReferenceArray<Node<V>> t )
+    {
+        AtomicReferenceArray<Node<V>> resized = new AtomicReferenceArray<Node<V>>( t.length( ) * 2 );
+
+        for ( int i = 0; i < t.length( ); i++ )
+        {
+            Node<V> node = t.get( i );
+            if ( node != null )
+            {
+                resized.set( probe( resized, node.key ), node );
+            }
+        }
+        return resized;
+    }
+
+    private static int indexFor( Class<?> key, int mask )
+    {
+        int h = System.identityHashCode( key );
+        return ( h ^ ( h >>> 16 ) ) & mask;
+    }
+
+    @Override
+    public String toString( )
+    {
+        return "LockFreeClassCache[" + "capacity=" + table.length( ) + ", size=" + size + ", inspector=" + inspector
+            + ']';
+    }
+
+    private static final class Node<V>
+    {
+        final Class<?> key;
+
+        final V value;
+
+        Node( Class<?> key, V value )
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
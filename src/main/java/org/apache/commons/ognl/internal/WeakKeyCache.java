@@ -0,0 +1,254 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.internal;
+
+import org.apache.commons.ognl.internal.entry.CacheEntryFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link Cache} holding its keys weakly, meant for reflection metadata keyed by {@link Class}, {@link
+ * java.lang.reflect.Method} or {@link java.lang.reflect.Constructor}: once a class loader becomes unreachable its
+ * entries are dropped, without the need of a global {@link org.apache.commons.ognl.OgnlRuntime#clearCache()}.
+ * <p>
+ * Values are held softly, since metadata almost always refers back to its key (a method to its declaring class, a
+ * property descriptor to its accessors) and a strongly held value would keep the key reachable forever. Entries of an
+ * unloaded application go away once the collector clears their unused soft values, at the latest before running out
+ * of memory; a value reclaimed while its key is still in use is simply created again by the entry factory.
+ * </p>
+ * <p>
+ * Lookups never lock: buckets are chains of immutable nodes published through an {@link AtomicReferenceArray}.
+ * Writers are serialized and purge the entries of collected keys as they go. Like {@link ConcurrentHashMapCache},
+ * {@link #put(Object, Object)} keeps an existing mapping and returns it.
+ * </p>
+ */
+public class WeakKeyCache<K, V>
+    implements Cache<K, V>
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Object writeLock = new Object( );
+
+    private final ReferenceQueue<K> queue = new ReferenceQueue<K>( );
+
+    private volatile AtomicReferenceArray<Node<K, V>> table = new AtomicReferenceArray<Node<K, V>>( INITIAL_CAPACITY );
+
+    private volatile int size;
+
+    private final CacheEntryFactory<K, V> cacheEntryFactory;
+
+    public WeakKeyCache( )
+    {
+        this( null );
+    }
+
+    public WeakKeyCache( CacheEntryFactory<K, V> cacheEntryFactory )
+    {
+        this.cacheEntryFactory = cacheEntryFactory;
+    }
+
+    public void clear( )
+    {
+        synchronized ( writeLock )
+        {
+            while ( queue.poll( ) != null )
+            {
+                // nothing left to purge
+            }
+            table = new AtomicReferenceArray<Node<K, V>>( INITIAL_CAPACITY );
+            size = 0;
+        }
+    }
+
+    public int getSize( )
+    {
+        return size;
+    }
+
+    public V get( K key )
+        throws CacheException
+    {
+        int h = hash( key );
+        AtomicReferenceArray<Node<K, V>> t = table;
+
+        for ( Node<K, V> node = t.get( h & ( t.length( ) - 1 ) ); node != null; node = node.next )
+        {
+            if ( node.hash == h && node.matches( key ) )
+            {
+                V v = node.value.get( );
+                if ( v != null )
+                {
+                    return v;
+                }
+                break;
+            }
+        }
+
+        if ( cacheEntryFactory == null )
+        {
+            return null;
+        }
+        return put( key, cacheEntryFactory.create( key ) );
+    }
+
+    public V put( K key, V value )
+    {
+        int h = hash( key );
+
+        synchronized ( writeLock )
+        {
+            expungeStaleEntries( );
+
+            AtomicReferenceArray<Node<K, V>> t = table;
+            int i = h & ( t.length( ) - 1 );
+            Node<K, V> head = t.get( i );
+            Node<K, V> found = null;
+
+            for ( Node<K, V> node = head; node != null; node = node.next )
+            {
+                if ( node.hash == h && node.matches( key ) )
+                {
+                    found = node;
+                    break;
+                }
+            }
+
+            if ( found != null )
+            {
+                V existing = found.value.get( );
+                if ( existing != null )
+                {
+                    return existing;
+                }
+                // the value has been reclaimed, replace the whole node
+                head = without( head, found );
+                size--;
+            }
+
+            t.set( i, new Node<K, V>( key, h, new SoftReference<V>( value ), head, queue ) );
+            size++;
+
+            if ( size > t.length( ) * 3 / 4 )
+            {
+                table = rehash( t, t.length( ) * 2 );
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Rebuilds the table without the entries whose key has been collected, if any were reported.
+     */
+    private void expungeStaleEntries( )
+    {
+        if ( queue.poll( ) == null )
+        {
+            return;
+        }
+        while ( queue.poll( ) != null )
+        {
+            // drained, the rehash below drops every stale node at once
+        }
+        AtomicReferenceArray<Node<K, V>> t = table;
+        table = rehash( t, t.length( ) );
+    }
+
+    private AtomicReferenceArray<Node<K, V>> rehash( AtomicReferenceArray<Node<K, V>> t, int capacity )
+    {
+        AtomicReferenceArray<Node<K, V>> rehashed = new AtomicReferenceArray<Node<K, V>>( capacity );
+        int count = 0;
+
+        for ( int i = 0; i < t.length( ); i++ )
+        {
+            for ( Node<K, V> node = t.get( i ); node != null; node = node.next )
+            {
+                K k = node.get( );
+                if ( k != null )
+                {
+                    int j = node.hash & ( capacity - 1 );
+                    rehashed.set( j, new Node<K, V>( k, node.hash, node.value, rehashed.get( j ), queue ) );
+                    count++;
+                }
+            }
+        }
+        size = count;
+        return rehashed;
+    }
+
+    /**
+     * @return a copy of the chain without the given node, shared with the original after it
+     */
+    private Node<K, V> without( Node<K, V> head, Node<K, V> removed )
+    {
+        if ( head == removed )
+        {
+            return head.next;
+        }
+        K k = head.get( );
+        Node<K, V> rest = without( head.next, removed );
+        if ( k == null )
+        {
+            size--;
+            return rest;
+        }
+        return new Node<K, V>( k, head.hash, head.value, rest, queue );
+    }
+
+    private static int hash( Object key )
+    {
+        int h = key.hashCode( );
+        return h ^ ( h >>> 16 );
+    }
+
+    @Override
+    public String toString( )
+    {
+        return "WeakKeyCache[" + "capacity=" + table.length( ) + ", size=" + size + ']';
+    }
+
+    private static final class Node<K, V>
+        extends WeakReference<K>
+    {
+        final int hash;
+
+        final SoftReference<V> value;
+
+        final Node<K, V> next;
+
+        Node( K key, int hash, SoftReference<V> value, Node<K, V> next, ReferenceQueue<K> queue )
+        {
+            super( key, queue );
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+
+        boolean matches( Object key )
+        {
+            Object k = get( );
+            return k == key || ( k != null && k.equals( key ) );
+        }
+    }
+}
@@ -21,6 +21,8 @@
 
 package org.apache.commons.ognl.internal.entry;
 
+import org.apache.commons.ognl.DefaultMethodInvokerFactory;
+import org.apache.commons.ognl.MethodInvokerFactory;
 import org.apache.commons.ognl.internal.CacheException;
 
 import java.lang.reflect.Method;
@@ -38,25 +40,36 @@ public class MethodAccessCacheEntryFactory
 
     public static final MethodAccessEntryValue PUBLIC_METHOD = new MethodAccessEntryValue( true );
 
+    private MethodInvokerFactory invokerFactory;
+
+    public MethodAccessCacheEntryFactory( )
+    {
+        this( new DefaultMethodInvokerFactory( ) );
+    }
+
+    public MethodAccessCacheEntryFactory( MethodInvokerFactory invokerFactory )
+    {
+        this.invokerFactory = invokerFactory;
+    }
+
     public MethodAccessEntryValue create( Method method )
         throws CacheException
     {
         final boolean notPublic = !Modifier.isPublic( method.getModifiers( ) ) || !Modifier.isPublic(
             method.getDeclaringClass( ).getModifiers( ) );
-        if ( notPublic )
-        {
-            if ( !method.isAccessible( ) )
-            {
-                return INACCESSIBLE_NON_PUBLIC_METHOD;
-            }
-            else
-            {
-                return ACCESSIBLE_NON_PUBLIC_METHOD;
-            }
-        }
-        else
-        {
-            return PUBLIC_METHOD;
-        }
+        final boolean accessible = !notPublic || method.isAccessible( );
+
+        return new MethodAccessEntryValue( accessible, notPublic,
+                                           invokerFactory.createInvoker( method, !accessible ) );
+    }
+
+    public MethodInvokerFactory getInvokerFactory( )
+    {
+        return invokerFactory;
+    }
+
+    public void setInvokerFactory( MethodInvokerFactory invokerFactory )
+    {
+        this.invokerFactory = invokerFactory;
     }
 }
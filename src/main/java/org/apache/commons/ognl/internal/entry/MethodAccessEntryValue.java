@@ -21,12 +21,16 @@
 
 package org.apache.commons.ognl.internal.entry;
 
+import org.apache.commons.ognl.MethodInvoker;
+
 public class MethodAccessEntryValue
 {
     private boolean isAccessible;
 
     private boolean notPublic;
 
+    private MethodInvoker invoker;
+
     public MethodAccessEntryValue( boolean accessible )
     {
         this.isAccessible = accessible;
@@ -38,6 +42,12 @@ public class MethodAccessEntryValue
         this.notPublic = notPublic;
     }
 
+    public MethodAccessEntryValue( boolean accessible, boolean notPublic, MethodInvoker invoker )
+    {
+        this( accessible, notPublic );
+        this.invoker = invoker;
+    }
+
     public boolean isAccessible( )
     {
         return isAccessible;
@@ -47,4 +57,12 @@ public class MethodAccessEntryValue
     {
         return notPublic;
     }
+
+    /**
+     * @return the invoker resolved for the method, null for the shared constant values
+     */
+    public MethodInvoker getInvoker( )
+    {
+        return invoker;
+    }
 }
@@ -0,0 +1,236 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.test.objects.Bean2;
+import org.apache.commons.ognl.test.objects.BaseGeneric;
+import org.apache.commons.ognl.test.objects.GameGeneric;
+import org.apache.commons.ognl.test.objects.Indexed;
+import org.apache.commons.ognl.test.objects.ObjectIndexed;
+import org.apache.commons.ognl.test.objects.Root;
+import org.apache.commons.ognl.test.objects.Simple;
+import org.apache.commons.ognl.test.objects.SubclassSyntheticObject;
+import org.junit.Test;
+
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.beans.SimpleBeanInfo;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BeanIndexTest
+{
+    public static class Person
+    {
+        public String getFirstName()
+        {
+            return "ann";
+        }
+
+        public String getName()
+        {
+            return "ann smith";
+        }
+    }
+
+    public static class Labelled
+    {
+        private String _title = "t";
+
+        public String getTitle()
+        {
+            return _title;
+        }
+
+        public void setTitle( String title )
+        {
+            _title = title;
+        }
+
+        public int getHidden()
+        {
+            return 1;
+        }
+    }
+
+    /**
+     * Found by the Introspector next to {@link Labelled}: exposes its title as "label" and hides "hidden".
+     */
+    public static class LabelledBeanInfo
+        extends SimpleBeanInfo
+    {
+        @Override
+        public PropertyDescriptor[] getPropertyDescriptors()
+        {
+            try
+            {
+                return new PropertyDescriptor[] { new PropertyDescriptor( "label", Labelled.class, "getTitle",
+                                                                          "setTitle" ) };
+            }
+            catch ( IntrospectionException e )
+            {
+                throw new IllegalStateException( e );
+            }
+        }
+    }
+
+    @Test
+    public void testSameDescriptorsAsIntrospector()
+        throws Exception
+    {
+        Class<?>[] classes = { Root.class, Simple.class, Bean2.class, Indexed.class, GameGeneric.class,
+            BaseGeneric.class, SubclassSyntheticObject.class };
+
+        for ( Class<?> c : classes )
+        {
+            Map<String, PropertyDescriptor> descriptors = new BeanIndex( c ).getPropertyDescriptors();
+
+            for ( PropertyDescriptor expected : Introspector.getBeanInfo( c ).getPropertyDescriptors() )
+            {
+                PropertyDescriptor pd = descriptors.get( expected.getName() );
+                String where = c.getName() + "." + expected.getName();
+
+                assertNotNull( where, pd );
+                assertEquals( where, name( expected.getReadMethod() ), name( pd.getReadMethod() ) );
+                assertEquals( where, name( expected.getWriteMethod() ), name( pd.getWriteMethod() ) );
+                assertEquals( where, expected instanceof IndexedPropertyDescriptor,
+                              pd instanceof IndexedPropertyDescriptor );
+            }
+        }
+    }
+
+    private static String name( Method m )
+    {
+        return ( m == null ) ? null : m.getName();
+    }
+
+    @Test
+    public void testIndexedProperties()
+        throws Exception
+    {
+        BeanIndex index = new BeanIndex( Indexed.class );
+
+        PropertyDescriptor values = index.getPropertyDescriptors().get( "values" );
+        assertTrue( values instanceof IndexedPropertyDescriptor );
+        assertEquals( Indexed.class.getMethod( "getValues", Integer.TYPE ),
+                      ( (IndexedPropertyDescriptor) values ).getIndexedReadMethod() );
+
+        BeanIndex objectIndexed = new BeanIndex( ObjectIndexed.class );
+        assertTrue( objectIndexed.getPropertyDescriptors().get( "attribute" ) instanceof ObjectIndexedPropertyDescriptor );
+    }
+
+    @Test
+    public void testSortedArray()
+        throws Exception
+    {
+        PropertyDescriptor[] pds = OgnlRuntime.getPropertyDescriptorsArray( Root.class );
+
+        assertEquals( OgnlRuntime.getPropertyDescriptors( Root.class ).size(), pds.length );
+        for ( int i = 1; i < pds.length; i++ )
+        {
+            assertTrue( pds[i - 1].getName().compareTo( pds[i].getName() ) < 0 );
+        }
+        assertSame( pds, OgnlRuntime.getPropertyDescriptorsArray( Root.class ) );
+        assertEquals( "index", OgnlRuntime.getPropertyDescriptorFromArray( Root.class, "index" ).getName() );
+    }
+
+    @Test
+    public void testReadAndWriteMethods()
+        throws Exception
+    {
+        BeanIndex index = new BeanIndex( Simple.class );
+
+        Method read = index.getReadMethod( "stringValue", -1 );
+        assertEquals( Simple.class.getMethod( "getStringValue" ), read );
+        assertSame( read, index.getReadMethod( "\"STRINGVALUE\"", -1 ) );
+        assertEquals( Simple.class.getMethod( "setStringValue", String.class ),
+                      index.getWriteMethod( "stringValue", -1 ) );
+        assertEquals( Simple.class.getMethod( "setStringValue", String.class ),
+                      index.getWriteMethod( "stringValue", 1 ) );
+
+        assertNull( index.getReadMethod( "noSuchProperty", -1 ) );
+        assertNull( index.getReadMethod( "noSuchProperty", -1 ) );
+        assertNull( index.getWriteMethod( "noSuchProperty", 1 ) );
+    }
+
+    @Test
+    public void testCaseInsensitiveProperty()
+        throws Exception
+    {
+        assertEquals( "stringValue", OgnlRuntime.getProperty( Simple.class, "STRINGVALUE" ).getName() );
+        assertEquals( "bigDecValue", OgnlRuntime.getProperty( Simple.class, "DecValue" ).getName() );
+        assertNull( OgnlRuntime.getProperty( Simple.class, "noSuchProperty" ) );
+    }
+
+    @Test
+    public void testExactCaseInsensitiveMatchBeforeSuffixMatch()
+        throws Exception
+    {
+        // the Introspector based lookup returned the first descriptor, in name order, matching or ending with the name
+        PropertyDescriptor first = null;
+        for ( PropertyDescriptor pd : Introspector.getBeanInfo( Person.class ).getPropertyDescriptors() )
+        {
+            if ( first == null && pd.getName().toLowerCase().endsWith( "name" ) )
+            {
+                first = pd;
+            }
+        }
+        assertEquals( "firstName", first.getName() );
+
+        // an exact case insensitive match now wins, suffix matches are only a fallback
+        assertEquals( "name", OgnlRuntime.getProperty( Person.class, "name" ).getName() );
+        assertEquals( "name", OgnlRuntime.getProperty( Person.class, "NAME" ).getName() );
+        assertEquals( "firstName", OgnlRuntime.getProperty( Person.class, "stname" ).getName() );
+    }
+
+    @Test
+    public void testExplicitBeanInfo()
+        throws Exception
+    {
+        assertTrue( BeanIndex.hasExplicitBeanInfo( Labelled.class ) );
+        assertFalse( BeanIndex.hasExplicitBeanInfo( Simple.class ) );
+
+        Map<String, PropertyDescriptor> descriptors = new BeanIndex( Labelled.class ).getPropertyDescriptors();
+        assertEquals( 1, descriptors.size() );
+        assertEquals( Labelled.class.getMethod( "getTitle" ), descriptors.get( "label" ).getReadMethod() );
+        assertEquals( "label", OgnlRuntime.getProperty( Labelled.class, "label" ).getName() );
+        assertNull( OgnlRuntime.getProperty( Labelled.class, "hidden" ) );
+    }
+
+    @Test
+    public void testDecapitalize()
+    {
+        assertEquals( "value", BeanIndex.decapitalize( "Value" ) );
+        assertEquals( "URL", BeanIndex.decapitalize( "URL" ) );
+        assertEquals( "x", BeanIndex.decapitalize( "X" ) );
+        assertEquals( "", BeanIndex.decapitalize( "" ) );
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.test.objects.Simple;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link Ognl#parseExpression(String, OptimizationLevel)} with {@link OptimizationLevel#FOLD_CONSTANTS}.
+ */
+public class ConstantFolderTest
+{
+    private static Node fold( String expression )
+        throws OgnlException
+    {
+        Node result = (Node) Ognl.parseExpression( expression, OptimizationLevel.FOLD_CONSTANTS );
+        assertNull( result.jjtGetParent( ) );
+        return result;
+    }
+
+    private static void assertFoldsTo( String expression, Object expected )
+        throws OgnlException
+    {
+        Node node = fold( expression );
+        assertTrue( expression + " -> " + node.getClass( ), node instanceof ASTConst );
+        assertEquals( expected, ( (ASTConst) node ).getValue( ) );
+    }
+
+    @Test
+    public void testFoldsConstantSubtrees( )
+        throws Exception
+    {
+        assertFoldsTo( "1 + 2 * 3", 7 );
+        assertFoldsTo( "\"a\" + \"b\" + 1", "ab1" );
+        assertFoldsTo( "10L - 2 > 3 and !false", Boolean.TRUE );
+        assertFoldsTo( "true ? 1 : 2", 1 );
+        assertFoldsTo( "false && foo", Boolean.FALSE );
+        assertFoldsTo( "null", null );
+    }
+
+    @Test
+    public void testPartialEvaluation( )
+        throws Exception
+    {
+        assertTrue( fold( "true && stringValue" ) instanceof ASTProperty );
+        assertTrue( fold( "1 > 2 ? intValue : stringValue" ) instanceof ASTProperty );
+        assertEquals( 2, fold( "stringValue || false || intValue" ).jjtGetNumChildren( ) );
+        assertEquals( "stringValue + 6", fold( "stringValue + 2 * 3" ).toString( ) );
+    }
+
+    @Test
+    public void testSameResultsAsInterpreter( )
+        throws Exception
+    {
+        String[] expressions =
+            { "1 + 2 * 3", "intValue + (2 * 3)", "true && stringValue", "stringValue || false || intValue",
+                "1 > 2 ? intValue : stringValue", "{1 + 1, intValue}", "#{\"a\" : 1 + 1}",
+                "@java.lang.Integer@MAX_VALUE > intValue", "!(1 == 1) or intValue == 0" };
+        Simple root = new Simple( );
+
+        for ( String expression : expressions )
+        {
+            Object expected = Ognl.getValue( Ognl.parseExpression( expression ), root );
+            assertEquals( expression, expected, Ognl.getValue( fold( expression ), root ) );
+        }
+    }
+
+    @Test
+    public void testStaticMembersLeftToEvaluation( )
+        throws Exception
+    {
+        Node field = fold( "@java.lang.Integer@MAX_VALUE - 1" );
+        assertTrue( field instanceof ASTSubtract );
+        assertFalse( ( (SimpleNode) field ).hasConstantValue( ) );
+        assertFalse( ( (SimpleNode) field.jjtGetChild( 0 ) ).hasConstantValue( ) );
+        assertTrue( fold( "@java.lang.Math@abs(-1) + 1" ) instanceof ASTAdd );
+
+        final List<String> resolved = new ArrayList<String>( );
+        Map<String, Object> context = Ognl.createDefaultContext( null, new DefaultClassResolver( )
+        {
+            @Override
+            public Class<?> classForName( String className, Map<String, Object> context )
+                throws ClassNotFoundException
+            {
+                resolved.add( className );
+                return super.classForName( className, context );
+            }
+        } );
+        assertEquals( Integer.MAX_VALUE - 1, Ognl.getValue( field, context, (Object) null ) );
+        assertTrue( resolved.contains( "java.lang.Integer" ) );
+        assertTrue( ( (SimpleNode) field ).hasConstantValue( ) );
+    }
+
+    @Test
+    public void testCollectionsAreNotShared( )
+        throws Exception
+    {
+        Node node = fold( "{1 + 1, 2}" );
+        assertTrue( node instanceof ASTList );
+        assertTrue( node.jjtGetChild( 0 ) instanceof ASTConst );
+
+        List<?> first = (List<?>) Ognl.getValue( node, null );
+        assertEquals( 2, first.get( 0 ) );
+        assertNotSame( first, Ognl.getValue( node, null ) );
+    }
+
+    @Test
+    public void testFailuresAreLeftToEvaluation( )
+        throws Exception
+    {
+        Node node = fold( "1 / 0" );
+        assertTrue( node instanceof ASTDivide );
+        try
+        {
+            Ognl.getValue( node, null );
+            fail( "expected division by zero" );
+        }
+        catch ( ArithmeticException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFoldedTreesPrintBack( )
+        throws Exception
+    {
+        String[] expressions =
+            { "1.0 / 0 > intValue", "-1.0 / 0 + intValue", "0.0 / 0 == intValue",
+                "@java.lang.Integer@MAX_VALUE + 1", "-9223372036854775807L - 1L", "-2 * 3 + intValue",
+                "\"a\\\"b\" + 1 + stringValue", "1.5 * 2 + intValue" };
+        Simple root = new Simple( );
+
+        for ( String expression : expressions )
+        {
+            Node node = fold( expression );
+            Node reparsed = (Node) Ognl.parseExpression( node.toString( ) );
+            assertEquals( expression, node.toString( ), reparsed.toString( ) );
+            assertEquals( expression, Ognl.getValue( Ognl.parseExpression( expression ), root ),
+                          Ognl.getValue( reparsed, root ) );
+        }
+        assertTrue( fold( "-2 * 3" ) instanceof ASTConst );
+        assertTrue( fold( "1.0 / 0" ) instanceof ASTDivide );
+        assertTrue( fold( "@java.lang.Integer@MAX_VALUE + 1" ) instanceof ASTAdd );
+    }
+
+    @Test
+    public void testExpressionCacheFolds( )
+        throws Exception
+    {
+        Node node = OgnlRuntime.getParsedExpression( "2 * 21" );
+        if ( OgnlRuntime.getExpressionCache( ) != null )
+        {
+            assertTrue( node instanceof ASTConst );
+            assertSame( node, OgnlRuntime.getParsedExpression( "2 * 21" ) );
+        }
+        assertEquals( 42, Ognl.getValue( "2 * 21", null ) );
+    }
+}
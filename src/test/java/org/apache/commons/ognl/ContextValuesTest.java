@@ -0,0 +1,158 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the slot mirrored variables of {@link OgnlContext}.
+ */
+public class ContextValuesTest
+{
+    private static Object read( OgnlContext context, String expression )
+        throws Exception
+    {
+        return Ognl.getValue( expression, context, (Object) null );
+    }
+
+    @Test
+    public void testSlotsFollowEveryChange( )
+        throws Exception
+    {
+        OgnlContext context = new OgnlContext();
+        context.put( "slotA", 1 );
+        context.put( "slotB", 2 );
+        assertEquals( 1, read( context, "#slotA" ) );
+        assertEquals( 2, read( context, "#slotB" ) );
+
+        context.put( "slotA", 3 );
+        assertEquals( 3, read( context, "#slotA" ) );
+
+        context.getValues().remove( "slotA" );
+        assertNull( read( context, "#slotA" ) );
+
+        for ( Map.Entry<String, Object> entry : context.entrySet() )
+        {
+            entry.setValue( 4 );
+        }
+        assertEquals( 4, read( context, "#slotB" ) );
+
+        for ( Iterator<String> it = context.keySet().iterator(); it.hasNext(); )
+        {
+            it.next();
+            it.remove();
+        }
+        assertNull( read( context, "#slotB" ) );
+        assertTrue( context.isEmpty() );
+
+        context.put( "slotB", 5 );
+        context.values().clear();
+        assertNull( read( context, "#slotB" ) );
+
+        read( context, "#slotA = 6" );
+        assertEquals( 6, context.get( "slotA" ) );
+        assertEquals( 6, read( context, "#slotA" ) );
+    }
+
+    @Test
+    public void testNamesParsedAfterPut( )
+        throws Exception
+    {
+        OgnlContext context = new OgnlContext();
+        read( context, "#slotC" );
+        context.put( "slotLate", "late" );
+        context.put( "slotC", "c" );
+        assertEquals( "c", read( context, "#slotC" ) );
+        assertEquals( "late", read( context, "#slotLate" ) );
+        assertEquals( "c", read( context.copy(), "#slotC" ) );
+    }
+
+    @Test
+    public void testCallerMap( )
+        throws Exception
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        OgnlContext context = new OgnlContext( null, null, null, values );
+        values.put( "slotD", "d" );
+        assertEquals( "d", read( context, "#slotD" ) );
+        values.put( "slotD", "e" );
+        assertEquals( "e", read( context, "#slotD" ) );
+    }
+
+    @Test
+    public void testReservedKeys( )
+        throws Exception
+    {
+        OgnlContext context = new OgnlContext();
+        context.setRoot( "root" );
+        assertEquals( "root", context.get( OgnlContext.ROOT_CONTEXT_KEY ) );
+        assertSame( context, read( context, "#context" ) );
+        assertEquals( Boolean.FALSE, read( context, "#_lazyCollections" ) );
+        assertSame( OgnlContext.DEFAULT_MEMBER_ACCESS, context.get( OgnlContext.MEMBER_ACCESS_CONTEXT_KEY ) );
+        assertEquals( ContextValues.NO_SLOT, ContextValues.slotOf( OgnlContext.TYPE_CONVERTER_CONTEXT_KEY ) );
+        assertTrue( ContextValues.slotOf( "traced" ) > 0 );
+
+        context.put( "_other", "value" );
+        assertEquals( "value", read( context, "#_other" ) );
+        assertFalse( context.containsKey( OgnlContext.ROOT_CONTEXT_KEY ) );
+        try
+        {
+            context.remove( OgnlContext.CONTEXT_CONTEXT_KEY );
+            fail( "expected the reserved key to be rejected" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTypeStack( )
+    {
+        OgnlContext context = new OgnlContext();
+        assertNull( context.getCurrentType() );
+        for ( int i = 0; i < 20; i++ )
+        {
+            context.setCurrentType( i % 2 == 0 ? String.class : Integer.class );
+        }
+        assertEquals( Integer.class, context.getCurrentType() );
+        assertEquals( String.class, context.getPreviousType() );
+        assertEquals( String.class, context.getFirstType() );
+        context.setPreviousType( Long.class );
+        assertEquals( Long.class, context.getPreviousType() );
+
+        context.setRoot( null );
+        assertNull( context.getCurrentType() );
+        assertNull( context.getPreviousType() );
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConversionPlansTest
+{
+    @Test
+    public void testBuiltInPlanIsCached()
+    {
+        ConversionPlan plan = ConversionPlans.getBuiltIn( String.class, Integer.TYPE );
+        assertSame( plan, ConversionPlans.getBuiltIn( String.class, Integer.TYPE ) );
+    }
+
+    @Test
+    public void testScalars()
+        throws Exception
+    {
+        assertEquals( 12, OgnlOps.convertValue( "12", Integer.TYPE ) );
+        assertEquals( 12L, OgnlOps.convertValue( 12.7, Long.class ) );
+        assertEquals( 1.5f, OgnlOps.convertValue( "1.5", Float.TYPE ) );
+        assertEquals( Boolean.TRUE, OgnlOps.convertValue( 3, Boolean.class ) );
+        assertEquals( 'A', OgnlOps.convertValue( 65, Character.TYPE ) );
+        assertEquals( new BigDecimal( "2.5" ), OgnlOps.convertValue( "2.5", BigDecimal.class ) );
+        assertEquals( "7", OgnlOps.convertValue( 7, String.class ) );
+        assertEquals( 0, OgnlOps.convertValue( null, Integer.TYPE ) );
+        assertEquals( 0, OgnlOps.convertValue( null, Integer.class, true ) );
+
+        String s = "same";
+        assertSame( s, OgnlOps.convertValue( s, CharSequence.class ) );
+    }
+
+    @Test
+    public void testNotConvertible()
+        throws Exception
+    {
+        Object value = "now";
+        assertSame( value, OgnlOps.convertValue( value, Date.class, true ) );
+        try
+        {
+            OgnlOps.convertValue( value, Date.class );
+            fail();
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPrimitiveArrays()
+        throws Exception
+    {
+        assertArrayEquals( new long[] { 1, 2, 3 }, (long[]) OgnlOps.convertValue( new int[] { 1, 2, 3 }, long[].class ) );
+        assertArrayEquals( new int[] { 1, -2 }, (int[]) OgnlOps.convertValue( new double[] { 1.9, -2.5 }, int[].class ) );
+        assertArrayEquals( new double[] { 97, 1 }, (double[]) OgnlOps.convertValue( new char[] { 'a', 1 }, double[].class ),
+                           0 );
+        assertTrue( ( (boolean[]) OgnlOps.convertValue( new byte[] { 0, 4 }, boolean[].class ) )[1] );
+        assertArrayEquals( new float[] { 1, 0 }, (float[]) OgnlOps.convertValue( new boolean[] { true, false },
+                                                                                 float[].class ), 0 );
+    }
+
+    @Test
+    public void testObjectArrays()
+        throws Exception
+    {
+        assertArrayEquals( new int[] { 1, 0, 3 },
+                           (int[]) OgnlOps.convertValue( new Object[] { 1, null, "3" }, int[].class ) );
+        assertArrayEquals( new String[] { "1", "2" }, (String[]) OgnlOps.convertValue( new int[] { 1, 2 },
+                                                                                         String[].class ) );
+        assertArrayEquals( new Long[] { 1L, null }, (Long[]) OgnlOps.convertValue( new Object[] { "1", null },
+                                                                                    Long[].class ) );
+    }
+
+    @Test
+    public void testArrayAndScalar()
+        throws Exception
+    {
+        assertEquals( 4, OgnlOps.convertValue( new String[] { "4", "5" }, Integer.class ) );
+        assertNull( OgnlOps.convertValue( new String[] { null }, Integer.class ) );
+        assertArrayEquals( new char[] { 'a', 'b' }, (char[]) OgnlOps.convertValue( "ab", char[].class ) );
+        assertArrayEquals( new Object[] { "x" }, (Object[]) OgnlOps.convertValue( "x", Object[].class ) );
+    }
+
+    @Test
+    public void testRegisteredPlan()
+        throws Exception
+    {
+        DefaultTypeConverter converter = new DefaultTypeConverter();
+        converter.registerConversionPlan( String.class, Date.class, new ConversionPlan()
+        {
+            public Object convert( Object value )
+            {
+                return new Date( Long.parseLong( (String) value ) );
+            }
+        } );
+
+        assertEquals( new Date( 1000 ), converter.convertValue( null, "1000", Date.class ) );
+        assertEquals( 5, converter.convertValue( null, "5", Integer.class ).intValue() );
+        assertEquals( 5, new DefaultTypeConverter().convertValue( null, "5", Integer.class ).intValue() );
+    }
+}
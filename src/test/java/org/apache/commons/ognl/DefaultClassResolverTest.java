@@ -0,0 +1,183 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link DefaultClassResolver}.
+ */
+public class DefaultClassResolverTest
+{
+    /**
+     * Delegates to its parent, counting the lookups.
+     */
+    static class CountingClassLoader
+        extends ClassLoader
+    {
+        int loads;
+
+        CountingClassLoader( )
+        {
+            super( DefaultClassResolverTest.class.getClassLoader( ) );
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass( String name, boolean resolve )
+            throws ClassNotFoundException
+        {
+            loads++;
+            return super.loadClass( name, resolve );
+        }
+    }
+
+    @Test
+    public void testJavaLangIsImplicit( )
+        throws Exception
+    {
+        DefaultClassResolver resolver = new DefaultClassResolver( );
+        assertSame( String.class, resolver.classForName( "String", null ) );
+        assertSame( String.class, resolver.classForName( "java.lang.String", null ) );
+        assertSame( Map.class, resolver.classForName( "java.util.Map", null ) );
+    }
+
+    @Test
+    public void testImports( )
+        throws Exception
+    {
+        DefaultClassResolver resolver =
+            new DefaultClassResolver( null, Arrays.asList( "java.util.concurrent.ConcurrentHashMap", "java.util.*",
+                                                           "java.lang.*" ) );
+        assertSame( ConcurrentHashMap.class, resolver.classForName( "ConcurrentHashMap", null ) );
+        assertSame( ArrayList.class, resolver.classForName( "ArrayList", null ) );
+        assertSame( Integer.class, resolver.classForName( "Integer", null ) );
+
+        Map<String, Object> context = Ognl.createDefaultContext( null, resolver );
+        assertEquals( new ArrayList<Object>( ), Ognl.getValue( "new ArrayList()", context, (Object) null ) );
+        assertEquals( Boolean.TRUE, Ognl.getValue( "#this instanceof ConcurrentHashMap", context,
+                                                   new ConcurrentHashMap<String, String>( ) ) );
+    }
+
+    @Test
+    public void testResultsAreCachedPerLoader( )
+        throws Exception
+    {
+        CountingClassLoader loader = new CountingClassLoader( );
+        DefaultClassResolver resolver = new DefaultClassResolver( loader );
+        int firstRoundLoads = 0;
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertSame( Integer.class, resolver.classForName( "Integer", null ) );
+            try
+            {
+                resolver.classForName( "org.example.Missing", null );
+                fail( "expected a ClassNotFoundException" );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                assertEquals( "org.example.Missing", e.getMessage( ) );
+            }
+            if ( i == 0 )
+            {
+                firstRoundLoads = loader.loads;
+                assertTrue( firstRoundLoads > 0 );
+            }
+        }
+        assertEquals( firstRoundLoads, loader.loads );
+
+        CountingClassLoader other = new CountingClassLoader( );
+        assertSame( Integer.class, new DefaultClassResolver( other ).classForName( "Integer", null ) );
+        assertTrue( other.loads > 0 );
+    }
+
+    @Test
+    public void testStaticReferencesThroughCache( )
+        throws Exception
+    {
+        CountingClassLoader loader = new CountingClassLoader( );
+        Map<String, Object> context = Ognl.createDefaultContext( null, new DefaultClassResolver( loader ) );
+        Object root = new Object( );
+
+        int firstRoundLoads = 0;
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertEquals( Integer.MAX_VALUE, Ognl.getValue( "@Integer@MAX_VALUE", context, root ) );
+            assertEquals( "1", Ognl.getValue( "@String@valueOf(1)", context, root ) );
+            if ( i == 0 )
+            {
+                firstRoundLoads = loader.loads;
+            }
+        }
+        assertEquals( firstRoundLoads, loader.loads );
+    }
+
+    @Test
+    public void testMissesAreCachedUpToABound( )
+        throws Exception
+    {
+        CountingClassLoader loader = new CountingClassLoader( );
+        DefaultClassResolver resolver = new DefaultClassResolver( loader );
+
+        for ( int i = 0; i <= DefaultClassResolver.MAX_NOT_FOUND; i++ )
+        {
+            assertMissing( resolver, "org.example.Missing" + i );
+        }
+
+        int loads = loader.loads;
+        assertMissing( resolver, "org.example.Missing0" );
+        assertEquals( loads, loader.loads );
+
+        // beyond the bound misses are looked up again rather than remembered
+        assertMissing( resolver, "org.example.Missing" + DefaultClassResolver.MAX_NOT_FOUND );
+        assertTrue( loader.loads > loads );
+
+        assertSame( Integer.class, resolver.classForName( "Integer", null ) );
+        loads = loader.loads;
+        assertSame( Integer.class, resolver.classForName( "Integer", null ) );
+        assertEquals( loads, loader.loads );
+    }
+
+    private static void assertMissing( DefaultClassResolver resolver, String className )
+    {
+        try
+        {
+            resolver.classForName( className, null );
+            fail( "expected a ClassNotFoundException" );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            assertEquals( className, e.getMessage( ) );
+        }
+    }
+}
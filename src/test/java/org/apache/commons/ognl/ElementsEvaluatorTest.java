@@ -0,0 +1,304 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the parallel and lazy evaluation of projections and selections.
+ */
+public class ElementsEvaluatorTest
+{
+    @After
+    public void tearDown( )
+    {
+        OgnlRuntime.setParallelThreshold( 0 );
+    }
+
+    public static class Item
+    {
+        private final String name;
+
+        private final int price;
+
+        public Item( String name, int price )
+        {
+            this.name = name;
+            this.price = price;
+        }
+
+        public String getName( )
+        {
+            return name;
+        }
+
+        public int getPrice( )
+        {
+            return price;
+        }
+    }
+
+    public static class Shop
+    {
+        private final List<Item> items =
+            Arrays.asList( new Item( "pen", 2 ), new Item( "book", 15 ), new Item( "lamp", 40 ) );
+
+        public List<Item> getItems( )
+        {
+            return items;
+        }
+
+        public Item[] getItemArray( )
+        {
+            return items.toArray( new Item[items.size()] );
+        }
+    }
+
+    private static List<Integer> numbers( int count )
+    {
+        List<Integer> result = new ArrayList<Integer>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            result.add( i );
+        }
+        return result;
+    }
+
+    @Test
+    public void testParallelKeepsOrder( )
+        throws Exception
+    {
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+        context.put( "list", numbers( 10000 ) );
+        context.put( "array", numbers( 10000 ).toArray() );
+
+        String[] expressions =
+            { "#list.{ #this * 2 }", "#list.{? #this % 3 == 0 }", "#array.{ #this + 1 }", "#list.{? #this < 20 }.{ #list.{? #this < 3 } }",
+                "#list.{? #this > 10000 }" };
+        for ( String expression : expressions )
+        {
+            Object sequential = Ognl.getValue( expression, context, (Object) null );
+            OgnlRuntime.setParallelThreshold( 100 );
+            assertEquals( expression, sequential, Ognl.getValue( expression, context, (Object) null ) );
+            OgnlRuntime.setParallelThreshold( 0 );
+        }
+    }
+
+    @Test
+    public void testSelectLast( )
+        throws Exception
+    {
+        Shop shop = new Shop();
+        assertEquals( Arrays.asList( "book" ), Ognl.getValue( "items.{$ price < 20 }.{ name }", shop ) );
+        assertEquals( Arrays.asList( "book" ), Ognl.getValue( "itemArray.{$ price < 20 }.{ name }", shop ) );
+        assertTrue( ( (List<?>) Ognl.getValue( "itemArray.{$ price > 100 }", shop ) ).isEmpty() );
+    }
+
+    @Test
+    public void testCompiledSameAsInterpreter( )
+        throws Exception
+    {
+        String[] expressions =
+            { "items.{? #this.price > 10 }.{ name }", "items.{? price > 10 }.size()", "items.{^ price > 10 }[0].name",
+                "itemArray.{$ price > 10 }[0].name", "items.{ price * 2 }", "items.{ name }.size() > 2",
+                "#{ 'a' : items.size(), 'b' : 2 }", "#@java.util.TreeMap@{ 'x' : items[0].price }",
+                "#{ 'a' : 1 }.size()", "(\"size()\")(items)" };
+        Shop shop = new Shop();
+        for ( String expression : expressions )
+        {
+            OgnlContext context = (OgnlContext) Ognl.createDefaultContext( shop );
+            Node node = Ognl.compileExpression( context, shop, expression );
+            assertTrue( expression, node.getAccessor() != null );
+            Object expected = Ognl.getValue( expression, shop );
+            for ( int i = 0; i < 2; i++ )
+            {
+                assertEquals( expression, expected, node.getAccessor().get( context, shop ) );
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledBody( )
+        throws Exception
+    {
+        Shop shop = new Shop();
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( shop );
+        Node node = Ognl.compileExpression( context, shop, "items.{? price > 10 }" );
+        Node select = node.jjtGetChild( 1 );
+        assertTrue( select instanceof ASTSelect );
+        assertTrue( select.jjtGetChild( 0 ).getAccessor() != null );
+
+        // the compiled body is only used for the element class it was compiled for
+        context.put( "mixed", new ArrayList<Object>( shop.getItems() ) );
+        node = Ognl.compileExpression( context, shop, "#mixed.{? price > 10 }.size()" );
+        assertEquals( 2, node.getAccessor().get( context, shop ) );
+        Map<String, Object> other = new HashMap<String, Object>();
+        other.put( "price", 20 );
+        List<Object> mixed = new ArrayList<Object>( shop.getItems() );
+        mixed.add( other );
+        context.put( "mixed", mixed );
+        assertEquals( 3, node.getAccessor().get( context, shop ) );
+    }
+
+    @Test
+    public void testParallelBelowThreshold( )
+        throws Exception
+    {
+        OgnlRuntime.setParallelThreshold( 100 );
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+        context.put( "list", numbers( 10 ) );
+
+        assertEquals( Arrays.asList( 1, 2 ), Ognl.getValue( "#list.{? #this in {1, 2} }", context, (Object) null ) );
+        assertEquals( Arrays.asList( 0, 1, 4 ),
+                      Ognl.getValue( "#list.iterator.{ #this * #this }.{? #this < 5 }", context, (Object) null ) );
+    }
+
+    @Test
+    public void testParallelFailure( )
+        throws Exception
+    {
+        OgnlRuntime.setParallelThreshold( 100 );
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+        context.put( "list", numbers( 1000 ) );
+
+        try
+        {
+            Ognl.getValue( "#list.{ #this == 999 ? unknownProperty : #this }", context, new Object() );
+            fail( "expected the failure of the last element" );
+        }
+        catch ( NoSuchPropertyException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCopiesKeepTheEvaluationSettings( )
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        context.setLazyCollections( true );
+        context.setTraceEvaluations( true );
+        context.setKeepLastEvaluation( true );
+
+        OgnlContext copy = context.copy( );
+        assertTrue( copy.getLazyCollections( ) );
+        assertTrue( copy.getTraceEvaluations( ) );
+        assertTrue( copy.getKeepLastEvaluation( ) );
+
+        // elements evaluated later on with a copy of the context are lazy themselves
+        context.setTraceEvaluations( false );
+        context.put( "list", numbers( 3 ) );
+        List<?> outer = (List<?>) Ognl.getValue( "#list.{ #list.{ #this * 2 } }", context, (Object) null );
+        assertEquals( outer.getClass( ), outer.get( 0 ).getClass( ) );
+        assertEquals( Arrays.asList( 0, 2, 4 ), outer.get( 0 ) );
+    }
+
+    @Test
+    public void testParallelTraced( )
+        throws Exception
+    {
+        OgnlRuntime.setParallelThreshold( 100 );
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        context.put( "list", numbers( 1000 ) );
+        context.setTraceEvaluations( true );
+
+        // the tree is not folded, its constant nodes are decided before the parts share it
+        Node node = (Node) Ognl.parseExpression( "#list.{ #this * (2 + 1) }" );
+        List<?> result = (List<?>) Ognl.getValue( node, context, (Object) null );
+        assertEquals( 1000, result.size( ) );
+        assertEquals( 2997, result.get( 999 ) );
+        assertTrue( ( (SimpleNode) node.jjtGetChild( 1 ).jjtGetChild( 0 ).jjtGetChild( 1 ) ).hasConstantValue( ) );
+    }
+
+    @Test
+    public void testLazyStopsEarly( )
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        List<AtomicInteger> counters = new ArrayList<AtomicInteger>( );
+        for ( int i = 0; i < 100; i++ )
+        {
+            counters.add( new AtomicInteger( ) );
+        }
+        context.put( "counters", counters );
+        context.put( OgnlContext.LAZY_COLLECTIONS_CONTEXT_KEY, Boolean.TRUE );
+        assertTrue( context.getLazyCollections() );
+
+        assertEquals( 1, Ognl.getValue( "#counters.{ incrementAndGet() }[0]", context, (Object) null ) );
+        assertEquals( 1, counters.get( 0 ).get() );
+        assertEquals( 0, counters.get( 1 ).get() );
+
+        assertEquals( counters.get( 2 ), Ognl.getValue( "#counters.{? get() == 0 }.{? true }[1]", context, (Object) null ) );
+        assertEquals( 0, counters.get( 3 ).get() );
+
+        List<?> all = (List<?>) Ognl.getValue( "#counters.{ incrementAndGet() }", context, (Object) null );
+        assertEquals( 0, counters.get( 99 ).get() );
+        assertEquals( 100, all.size() );
+        assertEquals( 1, counters.get( 99 ).get() );
+        assertEquals( 2, all.get( 0 ) );
+    }
+
+    @Test
+    public void testLazyList( )
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        context.setLazyCollections( true );
+        context.put( "list", numbers( 5 ) );
+
+        List<?> odd = (List<?>) Ognl.getValue( "#list.{? #this % 2 == 1 }", context, (Object) null );
+        assertFalse( odd.isEmpty() );
+        Iterator<?> it = odd.iterator();
+        assertEquals( 1, it.next() );
+        assertEquals( 3, it.next() );
+        assertFalse( it.hasNext() );
+        assertEquals( Arrays.asList( 1, 3 ), odd );
+        assertTrue( ( (List<?>) Ognl.getValue( "#list.{? #this > 5 }", context, (Object) null ) ).isEmpty() );
+
+        List<?> failing = (List<?>) Ognl.getValue( "#list.{ 10 / (2 - #this) }", context, (Object) null );
+        assertEquals( 5, failing.get( 0 ) );
+        try
+        {
+            failing.get( 2 );
+            fail( "expected the division by zero" );
+        }
+        catch ( RuntimeException e )
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.test.objects.Simple;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EvaluationTracerTest
+{
+    private final List<String> _traces = new ArrayList<String>();
+
+    private final TraceListener _listener = new TraceListener()
+    {
+        public void evaluationTraced( OgnlContext context, Node expression, TraceBuffer trace )
+        {
+            StringBuilder sb = new StringBuilder();
+            for ( int i = 0; i < trace.size(); i++ )
+            {
+                assertTrue( trace.getDuration( i ) >= 0 );
+                sb.append( i == 0 ? "" : " " ).append( trace.getDepth( i ) ).append( ':' ).append( trace.getNode( i ) );
+                if ( trace.getException( i ) != null )
+                {
+                    sb.append( '!' );
+                }
+                if ( trace.isSetOperation( i ) )
+                {
+                    sb.append( '=' );
+                }
+            }
+            if ( trace.getDroppedCount() > 0 )
+            {
+                sb.append( " +" ).append( trace.getDroppedCount() );
+            }
+            _traces.add( sb.toString() );
+        }
+    };
+
+    private Map<String, Object> _context;
+
+    @Before
+    public void setUp()
+    {
+        _context = Ognl.createDefaultContext( null );
+    }
+
+    @Test
+    public void testRecordsNodesOfExpression()
+        throws Exception
+    {
+        ( (OgnlContext) _context ).setEvaluationTracer( new EvaluationTracer( _listener ) );
+
+        assertEquals( 4, Ognl.getValue( "intValue + 1", _context, new Simple( "a", 1f, 3 ) ) );
+
+        assertEquals( 1, _traces.size() );
+        assertEquals( "2:\"intValue\" 1:intValue 1:1 0:intValue + 1", _traces.get( 0 ) );
+        assertNull( ( (OgnlContext) _context ).getActiveTrace() );
+    }
+
+    @Test
+    public void testSetValue()
+        throws Exception
+    {
+        ( (OgnlContext) _context ).setEvaluationTracer( new EvaluationTracer( _listener ) );
+        Simple simple = new Simple();
+
+        Ognl.setValue( "stringValue", _context, simple, "b" );
+
+        assertEquals( "b", simple.getStringValue() );
+        assertEquals( "1:\"stringValue\" 0:stringValue=", _traces.get( 0 ) );
+    }
+
+    @Test
+    public void testSampling()
+        throws Exception
+    {
+        ( (OgnlContext) _context ).setEvaluationTracer( new EvaluationTracer( _listener, 3, 16 ) );
+        Node expression = (Node) Ognl.parseExpression( "intValue" );
+
+        for ( int i = 0; i < 7; i++ )
+        {
+            Ognl.getValue( expression, _context, new Simple() );
+        }
+
+        assertEquals( 3, _traces.size() );
+    }
+
+    @Test
+    public void testEnabledExpressions()
+        throws Exception
+    {
+        EvaluationTracer tracer = new EvaluationTracer( _listener );
+        Node traced = (Node) Ognl.parseExpression( "intValue" );
+        Node other = (Node) Ognl.parseExpression( "stringValue" );
+        tracer.enable( traced );
+        ( (OgnlContext) _context ).setEvaluationTracer( tracer );
+
+        Ognl.getValue( other, _context, new Simple() );
+        Ognl.getValue( traced, _context, new Simple() );
+
+        assertEquals( 1, _traces.size() );
+        assertEquals( "1:\"intValue\" 0:intValue", _traces.get( 0 ) );
+
+        tracer.disable( traced );
+        Ognl.getValue( other, _context, new Simple() );
+        assertEquals( 2, _traces.size() );
+    }
+
+    @Test
+    public void testRecordsException()
+        throws Exception
+    {
+        ( (OgnlContext) _context ).setEvaluationTracer( new EvaluationTracer( _listener ) );
+
+        try
+        {
+            Ognl.getValue( "noSuchProperty.intValue", _context, new Simple() );
+            fail();
+        }
+        catch ( OgnlException e )
+        {
+            // expected
+        }
+
+        assertTrue( _traces.get( 0 ), _traces.get( 0 ).endsWith( " 1:noSuchProperty! 0:noSuchProperty.intValue!" ) );
+    }
+
+    @Test
+    public void testOverflow()
+        throws Exception
+    {
+        ( (OgnlContext) _context ).setEvaluationTracer( new EvaluationTracer( _listener, 1, 2 ) );
+
+        Ognl.getValue( "intValue + 1 + 2", _context, new Simple() );
+
+        assertEquals( "1:2 0:intValue + 1 + 2 +3", _traces.get( 0 ) );
+    }
+
+    @Test
+    public void testCompiledExpressionIsInterpreted()
+        throws Exception
+    {
+        Simple root = new Simple( "a", 1f, 3 );
+        Node expression = Ognl.compileExpression( (OgnlContext) _context, root, "intValue" );
+        ( (OgnlContext) _context ).setEvaluationTracer( new EvaluationTracer( _listener ) );
+
+        assertEquals( 3, Ognl.getValue( expression, _context, root ) );
+        assertEquals( "1:\"intValue\" 0:intValue", _traces.get( 0 ) );
+    }
+
+    @Test
+    public void testNestedEvaluationNotSampled()
+        throws Exception
+    {
+        final OgnlContext context = (OgnlContext) _context;
+        final Node inner = (Node) Ognl.parseExpression( "intValue" );
+        EvaluationTracer tracer = new EvaluationTracer( new TraceListener()
+        {
+            public void evaluationTraced( OgnlContext c, Node expression, TraceBuffer trace )
+            {
+                _traces.add( String.valueOf( trace.size() ) );
+            }
+        } );
+        context.setEvaluationTracer( tracer );
+
+        assertTrue( tracer.sample( context, inner ) );
+        context.startTrace( tracer.getCapacity() );
+        try
+        {
+            assertTrue( !tracer.sample( context, inner ) );
+        }
+        finally
+        {
+            context.stopTrace();
+        }
+        assertSame( tracer, context.getEvaluationTracer() );
+
+        context.recycle();
+        assertNull( context.getEvaluationTracer() );
+    }
+}
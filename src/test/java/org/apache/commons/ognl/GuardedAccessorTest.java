@@ -0,0 +1,245 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.TieredCompilationTest.Person;
+import org.apache.commons.ognl.TieredCompilationTest.Robot;
+import org.apache.commons.ognl.enhance.ExpressionAccessor;
+import org.apache.commons.ognl.enhance.ExpressionCompiler;
+import org.apache.commons.ognl.enhance.OgnlExpressionCompiler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests compiled expressions evaluated against roots of several classes.
+ */
+public class GuardedAccessorTest
+{
+    public static class Droid
+    {
+        public String getName()
+        {
+            return "c3po";
+        }
+    }
+
+    public static class Cyborg
+    {
+        public String getName()
+        {
+            return "borg";
+        }
+    }
+
+    private static final Executor UNUSED = new Executor()
+    {
+        public void execute( Runnable command )
+        {
+            throw new AssertionError( "specialisations are compiled on the evaluating thread" );
+        }
+    };
+
+    private OgnlExpressionCompiler _previousCompiler;
+
+    private int _compilations;
+
+    private Thread _compilingThread;
+
+    private Map<String, Object> _context;
+
+    @Before
+    public void setUp()
+    {
+        _previousCompiler = OgnlRuntime.getCompiler();
+        OgnlRuntime.setCompilationExecutor( UNUSED );
+        OgnlRuntime.setCompiler( new ExpressionCompiler()
+        {
+            @Override
+            public void compileExpression( OgnlContext context, Node expression, Object root )
+                throws Exception
+            {
+                _compilations++;
+                _compilingThread = Thread.currentThread();
+                if ( root instanceof Droid )
+                {
+                    throw new IllegalStateException( "droids are not compiled" );
+                }
+                super.compileExpression( context, expression, root );
+            }
+        } );
+        _context = Ognl.createDefaultContext( null );
+    }
+
+    @After
+    public void tearDown()
+    {
+        OgnlRuntime.setCompilationExecutor( null );
+        OgnlRuntime.setCompiler( _previousCompiler );
+    }
+
+    @Test
+    public void testOtherRootClasses()
+        throws Exception
+    {
+        Node node = Ognl.compileExpression( (OgnlContext) _context, new Person(), "name" );
+        GuardedAccessor accessor = (GuardedAccessor) node.getAccessor();
+        assertEquals( 1, accessor.getSpecialisationCount() );
+
+        assertEquals( "ann", Ognl.getValue( node, _context, new Person() ) );
+        assertEquals( "r2", Ognl.getValue( node, _context, new Robot() ) );
+        assertEquals( 2, accessor.getSpecialisationCount() );
+        assertSame( Thread.currentThread(), _compilingThread );
+        assertEquals( "r2", Ognl.getValue( node, _context, new Robot() ) );
+        assertEquals( "r2", node.getAccessor().get( (OgnlContext) _context, new Robot() ) );
+        assertEquals( 2, _compilations );
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put( "name", "map" );
+        assertEquals( "map", Ognl.getValue( node, _context, map ) );
+        assertEquals( "map", Ognl.getValue( node, _context, map ) );
+    }
+
+    @Test
+    public void testMegamorphic()
+        throws Exception
+    {
+        Node node = Ognl.compileExpression( (OgnlContext) _context, new Person(), "name" );
+        GuardedAccessor accessor = (GuardedAccessor) node.getAccessor();
+        Object[] roots = { new Robot(), new Droid(), new Cyborg(), new HashMap<String, Object>() };
+
+        for ( Object root : roots )
+        {
+            Ognl.getValue( node, _context, root );
+        }
+        assertEquals( GuardedAccessor.MAX_SPECIALISATIONS, _compilations );
+        assertTrue( accessor.isMegamorphic() );
+
+        for ( Object root : roots )
+        {
+            Ognl.getValue( node, _context, root );
+        }
+        assertEquals( GuardedAccessor.MAX_SPECIALISATIONS, _compilations );
+        assertEquals( "borg", Ognl.getValue( node, _context, new Cyborg() ) );
+    }
+
+    @Test
+    public void testFailedSpecialisationInterpreted()
+        throws Exception
+    {
+        Node node = Ognl.compileExpression( (OgnlContext) _context, new Person(), "name" );
+        GuardedAccessor accessor = (GuardedAccessor) node.getAccessor();
+
+        assertEquals( "c3po", Ognl.getValue( node, _context, new Droid() ) );
+        assertEquals( "c3po", node.getAccessor().get( (OgnlContext) _context, new Droid() ) );
+        assertEquals( 2, _compilations );
+        assertEquals( 1, accessor.getSpecialisationCount() );
+        assertTrue( accessor.getCompilationFailure( Droid.class ) instanceof IllegalStateException );
+        assertNull( accessor.getCompilationFailure( Person.class ) );
+    }
+
+    @Test
+    public void testNullRootInterpreted()
+        throws Exception
+    {
+        Node node = Ognl.compileExpression( (OgnlContext) _context, new Person(), "#x" );
+        _context.put( "x", "y" );
+
+        assertEquals( "y", node.getAccessor().get( (OgnlContext) _context, null ) );
+        assertFalse( ( (GuardedAccessor) node.getAccessor() ).isMegamorphic() );
+        assertEquals( 1, _compilations );
+    }
+
+    @Test
+    public void testSpecialisationsCompileACopyOfTheParsedText()
+        throws Exception
+    {
+        Node node = (Node) Ognl.parseExpression( "name + (2 * 3)", OptimizationLevel.FOLD_CONSTANTS );
+        OgnlRuntime.compileExpression( (OgnlContext) _context, node, new Person() );
+        GuardedAccessor accessor = (GuardedAccessor) node.getAccessor();
+
+        assertEquals( "r26", Ognl.getValue( node, _context, new Robot() ) );
+        assertEquals( 2, accessor.getSpecialisationCount() );
+        assertEquals( "r26", node.getAccessor().get( (OgnlContext) _context, new Robot() ) );
+
+        Node copy = SimpleNode.parseCopy( node );
+        assertNotSame( node, copy );
+        assertEquals( node.toString(), copy.toString() );
+        assertNull( copy.getAccessor() );
+        // subtrees have no text of their own, they are copied from their printed form
+        assertEquals( "name", SimpleNode.parseCopy( node.jjtGetChild( 0 ) ).toString() );
+    }
+
+    @Test
+    public void testRootClassesWeaklyReferenced()
+        throws Exception
+    {
+        Node node = (Node) Ognl.parseExpression( "name" );
+        URL classes = Cyborg.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader( new URL[] { classes }, null );
+        Object root = loader.loadClass( Cyborg.class.getName() ).newInstance();
+        GuardedAccessor accessor = (GuardedAccessor) GuardedAccessor.guard( new ExpressionAccessor()
+        {
+            public Object get( OgnlContext context, Object target )
+            {
+                return "stub";
+            }
+
+            public void set( OgnlContext context, Object target, Object value )
+            {
+            }
+
+            public void setExpression( Node expression )
+            {
+            }
+        }, node, root );
+        assertEquals( "stub", accessor.get( (OgnlContext) _context, root ) );
+
+        WeakReference<ClassLoader> ref = new WeakReference<ClassLoader>( loader );
+        loader = null;
+        root = null;
+        for ( int i = 0; i < 50 && ref.get() != null; i++ )
+        {
+            System.gc();
+            Thread.sleep( 10 );
+        }
+        assertNull( ref.get() );
+
+        // the slot of the collected class is reused
+        assertEquals( "ann", accessor.get( (OgnlContext) _context, new Person() ) );
+        assertEquals( 1, accessor.getSpecialisationCount() );
+    }
+}
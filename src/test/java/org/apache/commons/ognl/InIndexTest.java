@@ -0,0 +1,189 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the hash index used by <code>in</code> / <code>not in</code> over constant list literals.
+ */
+public class InIndexTest
+{
+    private static final String[] LISTS =
+        { "{\"a\", \"b\", \"1\"}", "{1, 2L, 3.5, 0, -7}", "{1.5f, 2}", "{1.5B, 10H}", "{0.1B}", "{-0.0}",
+            "{\"a\", 1}", "{'a', 'b'}", "{}" };
+
+    private static final Object[] PROBES =
+        { "a", "c", "1", 1, 1L, 1.0, (short) 2, 3.5f, 2.0f, new BigDecimal( "1.50" ), BigInteger.TEN, 10.0, 0.1f,
+            0.1, 0.0, -0.0, Double.NaN, Float.NaN, Double.POSITIVE_INFINITY, null, 'a', Boolean.TRUE, -7 };
+
+    @Test
+    public void testSameAnswersAsLinearScan( )
+        throws Exception
+    {
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+
+        for ( String list : LISTS )
+        {
+            Node in = (Node) Ognl.parseExpression( "#p in " + list );
+            Node notIn = (Node) Ognl.parseExpression( "#p not in " + list );
+            Object elements = Ognl.getValue( list, context, (Object) null );
+
+            for ( Object probe : PROBES )
+            {
+                context.put( "p", probe );
+                String expected, expectedNot;
+                try
+                {
+                    boolean result = OgnlOps.in( probe, elements );
+                    expected = String.valueOf( result );
+                    expectedNot = String.valueOf( !result );
+                }
+                catch ( RuntimeException e )
+                {
+                    expected = expectedNot = e.getClass( ).getName( );
+                }
+                String message = probe + " in " + list;
+                // twice: index creation, then index use
+                for ( int i = 0; i < 2; i++ )
+                {
+                    assertEquals( message, expected, evaluate( in, context ) );
+                    assertEquals( message, expectedNot, evaluate( notIn, context ) );
+                }
+            }
+        }
+    }
+
+    private static String evaluate( Node node, Map<String, Object> context )
+        throws OgnlException
+    {
+        try
+        {
+            return String.valueOf( Ognl.getValue( node, context, (Object) null ) );
+        }
+        catch ( RuntimeException e )
+        {
+            return e.getClass( ).getName( );
+        }
+    }
+
+    @Test
+    public void testIndexedLists( )
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+
+        assertNotSame( InIndex.NONE, index( context, "{\"a\", \"b\"}" ) );
+        assertNotSame( InIndex.NONE, index( context, "{1, 2.5, -3}" ) );
+        assertSame( InIndex.NONE, index( context, "{\"a\", 1}" ) );
+        assertSame( InIndex.NONE, index( context, "{\"a\", #b}" ) );
+        assertSame( InIndex.NONE, index( context, "{1, 0.0 / 0}" ) );
+        assertSame( InIndex.NONE, index( context, "#list" ) );
+
+        InIndex strings = index( context, "{\"a\", \"b\"}" );
+        assertEquals( Boolean.TRUE, strings.contains( "b" ) );
+        assertEquals( Boolean.FALSE, strings.contains( "z" ) );
+        assertEquals( Boolean.FALSE, strings.contains( null ) );
+        assertEquals( null, strings.contains( 1 ) );
+    }
+
+    private static InIndex index( OgnlContext context, String list )
+        throws OgnlException
+    {
+        return InIndex.create( context, (Node) Ognl.parseExpression( list ), null );
+    }
+
+    @Test
+    public void testHashSetHits( )
+        throws Exception
+    {
+        Set<Object> strings = new HashSet<Object>( Arrays.<Object> asList( "a", "b" ) );
+        Set<Object> numbers = new HashSet<Object>( Arrays.<Object> asList( 1, 2 ) );
+
+        assertTrue( OgnlOps.in( "a", strings ) );
+        assertTrue( !OgnlOps.in( "c", strings ) );
+        // other classes are not looked up, equal() converts
+        assertTrue( OgnlOps.in( 1L, numbers ) );
+        assertTrue( OgnlOps.in( "2", numbers ) );
+        assertTrue( !OgnlOps.in( 3, numbers ) );
+    }
+
+    @Test
+    public void testHashSetsAnswerLikeTheScan( )
+        throws Exception
+    {
+        Object[] probes = { 1, 1L, 2, 1.0, 1.0f, (short) 1, new BigDecimal( "1.0" ), BigInteger.ONE, "1", "a", null };
+        Object[][] sets =
+            { { 1L, 2L }, { 1, 2 }, { 1.0, 3.0 }, { 1L, "a" }, { "a", 1L }, { "b", 1L, "a" }, { "a", null },
+                { new BigDecimal( "1.00" ) }, { BigInteger.ONE }, { (short) 1 } };
+
+        for ( Object[] elements : sets )
+        {
+            List<Object> list = Arrays.asList( elements );
+            Set<?>[] hashed = { new HashSet<Object>( list ), new LinkedHashSet<Object>( list ) };
+            for ( Set<?> set : hashed )
+            {
+                for ( Object probe : probes )
+                {
+                    // the scan of a list holding the elements in iteration order
+                    String expected = in( probe, new ArrayList<Object>( set ) );
+                    assertEquals( probe + " in " + set, expected, in( probe, set ) );
+                }
+            }
+        }
+
+        Set<Object> longs = new HashSet<Object>( Arrays.<Object> asList( 1L, 2L ) );
+        assertTrue( OgnlOps.in( 1, longs ) );
+        assertTrue( OgnlOps.in( 2.0, longs ) );
+        assertTrue( !OgnlOps.in( 3, longs ) );
+        assertEquals( NumberFormatException.class.getName( ),
+                      in( "a", new LinkedHashSet<Object>( Arrays.<Object> asList( 1L, "a" ) ) ) );
+    }
+
+    private static String in( Object probe, Object elements )
+        throws OgnlException
+    {
+        try
+        {
+            return String.valueOf( OgnlOps.in( probe, elements ) );
+        }
+        catch ( RuntimeException e )
+        {
+            return e.getClass( ).getName( );
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the call-site caches kept by {@link ASTProperty} and {@link ASTMethod}.
+ */
+public class InlineCacheTest
+{
+    public static class Circle
+    {
+        public String getName( )
+        {
+            return "circle";
+        }
+
+        public int scale( Integer factor )
+        {
+            return 2 * factor;
+        }
+
+        public String scale( String factor )
+        {
+            return "circle*" + factor;
+        }
+    }
+
+    public static class Square
+    {
+        public String getName( )
+        {
+            return "square";
+        }
+
+        public int scale( Integer factor )
+        {
+            return 4 * factor;
+        }
+    }
+
+    @Test
+    public void testPolymorphicProperty( )
+        throws Exception
+    {
+        Node node = (Node) Ognl.parseExpression( "name" );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertEquals( "circle", Ognl.getValue( node, new Circle( ) ) );
+            assertEquals( "square", Ognl.getValue( node, new Square( ) ) );
+        }
+    }
+
+    @Test
+    public void testPolymorphicMethod( )
+        throws Exception
+    {
+        Node node = (Node) Ognl.parseExpression( "scale(#factor)" );
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            context.put( "factor", 3 );
+            assertEquals( 6, Ognl.getValue( node, context, new Circle( ) ) );
+            assertEquals( 12, Ognl.getValue( node, context, new Square( ) ) );
+            context.put( "factor", "3" );
+            assertEquals( "circle*3", Ognl.getValue( node, context, new Circle( ) ) );
+        }
+    }
+
+    @Test
+    public void testAccessorRegistrationInvalidates( )
+        throws Exception
+    {
+        InlineCache cache = new InlineCache( );
+        Object value = new Object( );
+        cache.put( Circle.class, null, value );
+        assertSame( value, cache.get( Circle.class, null ) );
+
+        OgnlRuntime.setPropertyAccessor( Circle.class, new ObjectPropertyAccessor( ) );
+        assertNull( cache.get( Circle.class, null ) );
+
+        cache.put( Circle.class, null, value );
+        OgnlRuntime.setMethodAccessor( Circle.class, new ObjectMethodAccessor( ) );
+        assertNull( cache.get( Circle.class, null ) );
+    }
+
+    @Test
+    public void testMegamorphic( )
+        throws Exception
+    {
+        InlineCache cache = new InlineCache( );
+        Class<?>[] receivers = { String.class, Integer.class, Long.class, Double.class, Float.class };
+
+        for ( int i = 0; i < InlineCache.MAX_ENTRIES; i++ )
+        {
+            cache.put( receivers[i], null, i );
+        }
+        assertEquals( 2, cache.get( Long.class, null ) );
+        assertFalse( cache.isMegamorphic( ) );
+
+        cache.put( Float.class, null, 4 );
+        assertTrue( cache.isMegamorphic( ) );
+        assertNull( cache.get( String.class, null ) );
+    }
+
+    @Test
+    public void testArgumentShapes( )
+        throws Exception
+    {
+        InlineCache cache = new InlineCache( );
+        Object value = new Object( );
+        cache.put( String.class, new Object[] { 1, "a" }, value );
+
+        assertSame( value, cache.get( String.class, new Object[] { 2, "b" } ) );
+        assertNull( cache.get( String.class, new Object[] { 2L, "b" } ) );
+        assertNull( cache.get( String.class, new Object[] { 2 } ) );
+        assertNull( cache.get( String.class, new Object[] { null, "b" } ) );
+
+        OgnlRuntime.clearCache( );
+        assertNull( cache.get( String.class, new Object[] { 2, "b" } ) );
+    }
+
+    @Test
+    public void testClassesWeaklyReferenced( )
+        throws Exception
+    {
+        InlineCache cache = new InlineCache( );
+        URL classes = Circle.class.getProtectionDomain( ).getCodeSource( ).getLocation( );
+        ClassLoader loader = new URLClassLoader( new URL[] { classes }, null );
+        Class<?> circle = loader.loadClass( Circle.class.getName( ) );
+        Method getName = circle.getMethod( "getName" );
+        cache.put( circle, new Object[] { circle.newInstance( ) }, getName );
+        assertSame( getName, cache.get( circle, new Object[] { circle.newInstance( ) } ) );
+
+        WeakReference<ClassLoader> ref = new WeakReference<ClassLoader>( loader );
+        loader = null;
+        circle = null;
+        getName = null;
+        gc( ref );
+        assertNull( ref.get( ) );
+    }
+
+    @Test
+    public void testCollectedEntriesMakeRoom( )
+        throws Exception
+    {
+        InlineCache cache = new InlineCache( );
+        Class<?>[] receivers = { String.class, Integer.class, Long.class, Double.class, Float.class };
+
+        Object value = new Object( );
+        WeakReference<Object> ref = new WeakReference<Object>( value );
+        cache.put( receivers[0], null, value );
+        value = null;
+        for ( int i = 1; i < InlineCache.MAX_ENTRIES; i++ )
+        {
+            cache.put( receivers[i], null, i );
+        }
+        gc( ref );
+        assertNull( ref.get( ) );
+        assertNull( cache.get( String.class, null ) );
+
+        cache.put( Float.class, null, 4 );
+        assertFalse( cache.isMegamorphic( ) );
+        assertEquals( 4, cache.get( Float.class, null ) );
+        assertEquals( 1, cache.get( Integer.class, null ) );
+
+        cache.put( String.class, null, 0 );
+        assertTrue( cache.isMegamorphic( ) );
+    }
+
+    private static void gc( WeakReference<?> ref )
+        throws InterruptedException
+    {
+        for ( int i = 0; i < 50 && ref.get( ) != null; i++ )
+        {
+            System.gc( );
+            Thread.sleep( 10 );
+        }
+    }
+}
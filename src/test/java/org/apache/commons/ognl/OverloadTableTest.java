@@ -0,0 +1,198 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the overload resolution outcomes remembered by {@link OverloadTable}.
+ */
+public class OverloadTableTest
+{
+    public static class Overloaded
+    {
+        public String pick( Object value )
+        {
+            return "object";
+        }
+
+        public String pick( String value )
+        {
+            return "string";
+        }
+
+        public String pick( Integer value )
+        {
+            return "integer";
+        }
+
+        public String pick( int a, int b )
+        {
+            return "ints " + ( a + b );
+        }
+
+        public String pick( String a, int b )
+        {
+            return "string int " + b;
+        }
+
+        public int single( int value )
+        {
+            return value * 2;
+        }
+
+        public void setValue( int value )
+        {
+        }
+    }
+
+    private static OverloadTable table( String name )
+        throws Exception
+    {
+        return OverloadTable.of( OgnlRuntime.getMethods( Overloaded.class, name, false ) );
+    }
+
+    private static Object call( OgnlContext context, String method, Object... args )
+        throws Exception
+    {
+        return OgnlRuntime.callMethod( context, new Overloaded(), method, args );
+    }
+
+    @Test
+    public void testSameResolutionWhenCached( )
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        Object[][] calls = { { "x" }, { 1 }, { 1.5 }, { null }, { 2, 3 }, { null, 3 }, { "s", null }, { 4, 5 } };
+        Object[] expected = new Object[calls.length];
+
+        for ( int i = 0; i < calls.length; i++ )
+        {
+            OgnlRuntime.clearCache();
+            expected[i] = call( context, "pick", calls[i] );
+            assertTrue( table( "pick" ).size() > 0 );
+        }
+        assertEquals( "string", expected[0] );
+        assertEquals( "integer", expected[1] );
+        assertEquals( "object", expected[2] );
+        assertEquals( "ints 3", expected[5] );
+
+        for ( int round = 0; round < 2; round++ )
+        {
+            for ( int i = 0; i < calls.length; i++ )
+            {
+                assertEquals( expected[i], call( context, "pick", calls[i] ) );
+            }
+        }
+        // ( 2, 3 ) and ( 4, 5 ) share their shape
+        assertTrue( table( "pick" ).size() >= calls.length - 1 );
+    }
+
+    @Test
+    public void testOnlyOverloadsHaveATable( )
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        assertEquals( 6, call( context, "single", 3 ) );
+        assertNull( table( "single" ) );
+
+        List<Method> methods = Collections.singletonList( Overloaded.class.getMethod( "setValue", int.class ) );
+        assertNull( OverloadTable.of( methods ) );
+        for ( int i = 0; i < 2 * OverloadTable.MAX_SHAPES; i++ )
+        {
+            Ognl.setValue( "value", context, new Overloaded(), i );
+        }
+        int recorded = table( "pick" ).size();
+        assertEquals( "object", call( context, "pick", new StringBuilder() ) );
+        assertEquals( recorded + 1, table( "pick" ).size() );
+    }
+
+    @Test
+    public void testUnusedShapesEvicted( )
+        throws Exception
+    {
+        Method pick = Overloaded.class.getMethod( "pick", Object.class );
+        Class<?>[] parameterTypes = pick.getParameterTypes();
+        OverloadTable table = new OverloadTable( 2 );
+        Object[] used = { "a" };
+        Object[][] calls = { { 1 }, { 1.5 }, { 2L }, { 'c' } };
+
+        table.put( Overloaded.class, used, pick, parameterTypes, false );
+        for ( Object[] args : calls )
+        {
+            assertEquals( pick, table.get( Overloaded.class, used ).getMethod() );
+            table.put( Overloaded.class, args, pick, parameterTypes, false );
+            assertTrue( table.size() <= 2 );
+        }
+        assertEquals( pick, table.get( Overloaded.class, used ).getMethod() );
+    }
+
+    @Test
+    public void testConversionReplayed( )
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+
+        for ( int round = 0; round < 2; round++ )
+        {
+            assertEquals( 24, call( context, "single", "12" ) );
+            assertEquals( 6, call( context, "single", 3L ) );
+            assertEquals( 0, call( context, "single", (Object) null ) );
+            try
+            {
+                call( context, "single", "twelve" );
+                fail( "expected the conversion failure" );
+            }
+            catch ( Exception e )
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testThroughExpressions( )
+        throws Exception
+    {
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+        Object[] values = { "a", 1, 2.5, "b" };
+        String[] expected = { "string", "integer", "object", "string" };
+        for ( int round = 0; round < 2; round++ )
+        {
+            for ( int i = 0; i < values.length; i++ )
+            {
+                context.put( "v", values[i] );
+                assertEquals( expected[i], Ognl.getValue( "pick( #v )", context, new Overloaded() ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.enhance.OgnlExpressionCompiler;
+import org.apache.commons.ognl.enhance.UnsupportedCompilationException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link ReflectiveExpressionCompiler} against the interpreter.
+ */
+public class ReflectiveExpressionCompilerTest
+{
+    public static class Address
+    {
+        private String city = "Paris";
+
+        public String getCity( )
+        {
+            return city;
+        }
+
+        public void setCity( String city )
+        {
+            this.city = city;
+        }
+    }
+
+    public static class Person
+    {
+        private final Address address = new Address( );
+
+        public String getName( )
+        {
+            return "ann";
+        }
+
+        public int getAge( )
+        {
+            return 42;
+        }
+
+        public Address getAddress( )
+        {
+            return address;
+        }
+
+        public List<Integer> getScores( )
+        {
+            return Arrays.asList( 1, 2, 3 );
+        }
+
+        public String greet( String greeting, int times )
+        {
+            return greeting + " " + getName( ) + " x" + times;
+        }
+
+        public String fail( )
+        {
+            throw new IllegalStateException( "failed" );
+        }
+    }
+
+    public static class Robot
+    {
+        public String getName( )
+        {
+            return "r2";
+        }
+
+        public int getAge( )
+        {
+            return 7;
+        }
+    }
+
+    private static final String[] EXPRESSIONS =
+        { "name", "address.city", "name + ' ' + age", "age > 18 ? 'adult' : 'minor'", "greet(#greeting, age * 2)",
+            "#root.name", "!(age < 18) && name != null", "age <= 7 or age >= 40", "-age % 5", "#this.name.length()",
+            "scores.{? #this > 1}.size()", "address.city == 'Paris'", "age / 2 - 1",
+            "scores.{ #this * #root.age }", "scores.{^ #this > 1}[0]", "scores.{$ #this > 1}[0]" };
+
+    private final ReflectiveExpressionCompiler compiler = new ReflectiveExpressionCompiler( );
+
+    private Node compile( String expression, Map<String, Object> context, Object root )
+        throws Exception
+    {
+        Node node = (Node) Ognl.parseExpression( expression );
+        compiler.compileExpression( (OgnlContext) context, node, root );
+        assertTrue( node.getAccessor( ) instanceof ReflectiveExpressionCompiler.LinkedAccessor );
+        return node;
+    }
+
+    @Test
+    public void testSameResultsAsInterpreter( )
+        throws Exception
+    {
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+        context.put( "greeting", "hello" );
+        Person root = new Person( );
+
+        for ( String expression : EXPRESSIONS )
+        {
+            Node compiled = compile( expression, context, root );
+            Object expected = Ognl.getValue( Ognl.parseExpression( expression ), context, root );
+            for ( int i = 0; i < 3; i++ )
+            {
+                assertEquals( expression, expected, Ognl.getValue( compiled, context, root ) );
+            }
+        }
+    }
+
+    @Test
+    public void testPolymorphicRoots( )
+        throws Exception
+    {
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+        Node node = compile( "name + age", context, new Person( ) );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertEquals( "ann42", Ognl.getValue( node, context, new Person( ) ) );
+            assertEquals( "r27", Ognl.getValue( node, context, new Robot( ) ) );
+        }
+    }
+
+    @Test
+    public void testSetValue( )
+        throws Exception
+    {
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+        Person root = new Person( );
+
+        Ognl.setValue( compile( "address.city", context, root ), context, root, "Rome" );
+        assertEquals( "Rome", root.getAddress( ).getCity( ) );
+
+        Ognl.setValue( compile( "#city", context, root ), context, root, "Oslo" );
+        assertEquals( "Oslo", context.get( "city" ) );
+    }
+
+    @Test
+    public void testCheckedExceptionsAreWrapped( )
+        throws Exception
+    {
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+        Node node = compile( "fail()", context, new Person( ) );
+        try
+        {
+            Ognl.getValue( node, context, new Person( ) );
+            fail( "expected the method failure" );
+        }
+        catch ( UnsupportedCompilationException e )
+        {
+            assertTrue( e.getCause( ) instanceof MethodFailedException );
+            assertTrue( ( (MethodFailedException) e.getCause( ) ).getReason( ) instanceof IllegalStateException );
+        }
+        try
+        {
+            Ognl.setValue( compile( "address.zip", context, new Person( ) ), context, new Person( ), "1" );
+            fail( "expected the missing property" );
+        }
+        catch ( UnsupportedCompilationException e )
+        {
+            assertTrue( e.getCause( ) instanceof OgnlException );
+        }
+    }
+
+    @Test
+    public void testInstalledCompiler( )
+        throws Exception
+    {
+        OgnlExpressionCompiler previous = OgnlRuntime.getCompiler( );
+        try
+        {
+            OgnlRuntime.setCompiler( compiler );
+            OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+            Node node = Ognl.compileExpression( context, new Person( ), "address.city" );
+
+            assertTrue( node.getAccessor( ) instanceof ReflectiveExpressionCompiler.LinkedAccessor );
+            assertEquals( "Paris", Ognl.getValue( node.getAccessor( ), context, new Person( ) ) );
+            assertSame( Object.class, compiler.getInterfaceClass( Object.class ) );
+        }
+        finally
+        {
+            OgnlRuntime.setCompiler( previous );
+        }
+    }
+}
@@ -45,8 +45,10 @@ import java.beans.PropertyDescriptor;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static junit.framework.Assert.*;
 
@@ -393,4 +395,53 @@ public class TestOgnlRuntime
         assertNotNull( getter );
         assertNull( setter );
     }
+
+    @Test
+    public void testNestedCallsDoNotShareArguments( )
+        throws OgnlException
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        Object expr = Ognl.parseExpression( "concat(concat(concat(\"x\")))" );
+
+        assertEquals( "abcabcabcx", Ognl.getValue( expr, context, "abc" ) );
+        assertEquals( "abcabcabcx", Ognl.getValue( expr, context, "abc" ) );
+    }
+
+    @Test
+    public void testMethodAccessorsMayKeepArguments( )
+        throws OgnlException
+    {
+        final List<Object[]> kept = new ArrayList<Object[]>( );
+        OgnlRuntime.setMethodAccessor( ArgumentKeeper.class, new MethodAccessor( )
+        {
+            public Object callStaticMethod( Map<String, Object> context, Class<?> targetClass, String methodName,
+                                            Object[] args )
+            {
+                kept.add( args );
+                return methodName;
+            }
+
+            public Object callMethod( Map<String, Object> context, Object target, String methodName, Object[] args )
+            {
+                kept.add( args );
+                return methodName;
+            }
+        } );
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+
+        Ognl.getValue( "keep(1, 2)", context, new ArgumentKeeper( ) );
+        Ognl.getValue( "keep(3, 4)", context, new ArgumentKeeper( ) );
+        Ognl.getValue( "@org.apache.commons.ognl.TestOgnlRuntime$ArgumentKeeper@keep(5, 6)", context, (Object) null );
+        Ognl.getValue( "@org.apache.commons.ognl.TestOgnlRuntime$ArgumentKeeper@keep(7, 8)", context, (Object) null );
+
+        assertEquals( 4, kept.size( ) );
+        assertEquals( Arrays.<Object>asList( 1, 2 ), Arrays.asList( kept.get( 0 ) ) );
+        assertEquals( Arrays.<Object>asList( 3, 4 ), Arrays.asList( kept.get( 1 ) ) );
+        assertEquals( Arrays.<Object>asList( 5, 6 ), Arrays.asList( kept.get( 2 ) ) );
+        assertEquals( Arrays.<Object>asList( 7, 8 ), Arrays.asList( kept.get( 3 ) ) );
+    }
+
+    public static class ArgumentKeeper
+    {
+    }
 }
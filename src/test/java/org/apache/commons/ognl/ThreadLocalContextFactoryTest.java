@@ -0,0 +1,120 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ThreadLocalContextFactory} and {@link OgnlContext#reset()}.
+ */
+public class ThreadLocalContextFactoryTest
+{
+    @Test
+    public void testReusedPerThread( )
+        throws Exception
+    {
+        final ThreadLocalContextFactory factory = new ThreadLocalContextFactory();
+
+        OgnlContext first = factory.acquire( "abc" );
+        assertEquals( 3, Ognl.getValue( "length()", first, "abc" ) );
+        first.put( "var", 1 );
+        first.setLazyCollections( true );
+        factory.release( first );
+
+        OgnlContext second = factory.acquire( "de" );
+        assertSame( first, second );
+        assertEquals( "de", second.getRoot() );
+        assertNull( second.get( "var" ) );
+        assertTrue( second.isEmpty() );
+        assertFalse( second.getLazyCollections() );
+
+        final AtomicReference<OgnlContext> other = new AtomicReference<OgnlContext>();
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                other.set( factory.acquire( null ) );
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotSame( second, other.get() );
+
+        // still in use on this thread
+        OgnlContext nested = factory.acquire( null );
+        assertNotSame( second, nested );
+        factory.release( nested );
+        factory.release( second );
+        assertSame( second, factory.acquire( null ) );
+    }
+
+    @Test
+    public void testConfiguration( )
+        throws Exception
+    {
+        MemberAccess memberAccess = new DefaultMemberAccess( true );
+        ThreadLocalContextFactory factory = new ThreadLocalContextFactory( null, null, memberAccess );
+
+        OgnlContext context = factory.acquire( null );
+        assertSame( memberAccess, context.getMemberAccess() );
+        context.setMemberAccess( new DefaultMemberAccess( false ) );
+        factory.release( context );
+
+        context = factory.acquire( null );
+        assertSame( memberAccess, context.getMemberAccess() );
+        assertSame( OgnlContext.DEFAULT_CLASS_RESOLVER, context.getClassResolver() );
+        factory.release( context );
+        factory.remove();
+        assertNotSame( context, factory.acquire( null ) );
+    }
+
+    @Test
+    public void testReset( )
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( "root" );
+        context.put( "var", "value" );
+        context.setKeepLastEvaluation( true );
+        context.setTraceEvaluations( true );
+        Ognl.getValue( "length()", context, "root" );
+        assertTrue( context.getLastEvaluation() != null );
+
+        context.reset();
+        assertNull( context.getRoot() );
+        assertNull( context.getCurrentObject() );
+        assertNull( context.getCurrentType() );
+        assertNull( context.getLastEvaluation() );
+        assertEquals( "value", context.get( "var" ) );
+        assertTrue( context.getTraceEvaluations() );
+        assertEquals( 2, Ognl.getValue( "length()", context, "ab" ) );
+    }
+}
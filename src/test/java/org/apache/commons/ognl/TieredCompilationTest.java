@@ -0,0 +1,255 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.apache.commons.ognl.enhance.ExpressionAccessor;
+import org.apache.commons.ognl.enhance.ExpressionCompiler;
+import org.apache.commons.ognl.enhance.OgnlExpressionCompiler;
+import org.apache.commons.ognl.enhance.UnsupportedCompilationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the background compilation of hot expressions enabled by {@link OgnlRuntime#setCompileThreshold(int)}.
+ */
+public class TieredCompilationTest
+{
+    public static class Person
+    {
+        public String getName( )
+        {
+            return "ann";
+        }
+    }
+
+    public static class Robot
+    {
+        public String getName( )
+        {
+            return "r2";
+        }
+    }
+
+    /**
+     * Compiles every expression to an accessor returning a constant, counting the compilations.
+     */
+    static class CountingCompiler
+        extends ExpressionCompiler
+    {
+        int compilations;
+
+        public void compileExpression( OgnlContext context, Node expression, Object root )
+            throws Exception
+        {
+            compilations++;
+            expression.setAccessor( new ExpressionAccessor( )
+            {
+                public Object get( OgnlContext context, Object target )
+                {
+                    return "compiled";
+                }
+
+                public void set( OgnlContext context, Object target, Object value )
+                {
+                }
+
+                public void setExpression( Node expression )
+                {
+                }
+            } );
+        }
+    }
+
+    private static final Executor SAME_THREAD = new Executor( )
+    {
+        public void execute( Runnable command )
+        {
+            command.run( );
+        }
+    };
+
+    private OgnlExpressionCompiler previousCompiler;
+
+    @Before
+    public void setUp( )
+    {
+        previousCompiler = OgnlRuntime.getCompiler( );
+        OgnlRuntime.setCompilationExecutor( SAME_THREAD );
+        OgnlRuntime.setCompileThreshold( 3 );
+    }
+
+    @After
+    public void tearDown( )
+    {
+        OgnlRuntime.setCompileThreshold( 0 );
+        OgnlRuntime.setCompilationExecutor( null );
+        OgnlRuntime.setCompiler( previousCompiler );
+    }
+
+    @Test
+    public void testCompiledAfterThreshold( )
+        throws Exception
+    {
+        OgnlRuntime.setCompiler( new ReflectiveExpressionCompiler( ) );
+        Node node = (Node) Ognl.parseExpression( "name" );
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertEquals( "ann", Ognl.getValue( node, context, new Person( ) ) );
+            assertNull( node.getAccessor( ) );
+        }
+        assertEquals( "ann", Ognl.getValue( node, context, new Person( ) ) );
+        assertTrue( node.getAccessor( ) instanceof ReflectiveExpressionCompiler.LinkedAccessor );
+
+        // linked accessors do not depend on the root
+        assertEquals( "r2", Ognl.getValue( node, context, new Robot( ) ) );
+    }
+
+    @Test
+    public void testDisabledByDefault( )
+        throws Exception
+    {
+        OgnlRuntime.setCompileThreshold( 0 );
+        Node node = (Node) Ognl.parseExpression( "name" );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            Ognl.getValue( node, new Person( ) );
+        }
+        assertNull( node.getAccessor( ) );
+    }
+
+    @Test
+    public void testUnsupportedIsNeverRetried( )
+        throws Exception
+    {
+        final int[] compilations = new int[1];
+        OgnlRuntime.setCompiler( new ExpressionCompiler( )
+        {
+            public void compileExpression( OgnlContext context, Node expression, Object root )
+                throws Exception
+            {
+                compilations[0]++;
+                throw new UnsupportedCompilationException( "not this one" );
+            }
+        } );
+        Node node = (Node) Ognl.parseExpression( "name" );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertEquals( "ann", Ognl.getValue( node, new Person( ) ) );
+        }
+        assertEquals( 1, compilations[0] );
+        assertNull( node.getAccessor( ) );
+    }
+
+    @Test
+    public void testCompiledAccessorGuardedByRootClass( )
+        throws Exception
+    {
+        CountingCompiler compiler = new CountingCompiler( );
+        OgnlRuntime.setCompiler( compiler );
+        Node node = (Node) Ognl.parseExpression( "name" );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            Ognl.getValue( node, new Person( ) );
+        }
+        assertEquals( 1, compiler.compilations );
+        assertEquals( "compiled", Ognl.getValue( node, new Person( ) ) );
+        // the accessor compiled for persons is not used for robots, they get their own one
+        assertEquals( "compiled", Ognl.getValue( node, new Robot( ) ) );
+        assertEquals( 2, compiler.compilations );
+        assertEquals( "compiled", Ognl.getValue( node, new Robot( ) ) );
+        assertEquals( 2, compiler.compilations );
+    }
+
+    @Test
+    public void testCompilesOffTheEvaluatingThread( )
+        throws Exception
+    {
+        final CountDownLatch compiled = new CountDownLatch( 1 );
+        OgnlRuntime.setCompiler( new ReflectiveExpressionCompiler( )
+        {
+            public void compileExpression( OgnlContext context, Node expression, Object root )
+                throws Exception
+            {
+                super.compileExpression( context, expression, root );
+                compiled.countDown( );
+            }
+        } );
+        OgnlRuntime.setCompilationExecutor( null );
+        Node node = (Node) Ognl.parseExpression( "name" );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertEquals( "ann", Ognl.getValue( node, new Person( ) ) );
+        }
+        assertTrue( compiled.await( 10, TimeUnit.SECONDS ) );
+        // the tier is published after the accessor, wait for it before relying on the accessor
+        while ( ( (SimpleNode) node ).getTier( ) != SimpleNode.TIER_COMPILED )
+        {
+            Thread.yield( );
+        }
+        assertTrue( node.getAccessor( ) instanceof ReflectiveExpressionCompiler.LinkedAccessor );
+        assertEquals( "ann", Ognl.getValue( node, new Person( ) ) );
+    }
+
+    @Test
+    public void testCompilesACopyOfTheSharedTree( )
+        throws Exception
+    {
+        final Node[] compiled = new Node[1];
+        OgnlRuntime.setCompiler( new ReflectiveExpressionCompiler( )
+        {
+            public void compileExpression( OgnlContext context, Node expression, Object root )
+                throws Exception
+            {
+                compiled[0] = expression;
+                super.compileExpression( context, expression, root );
+            }
+        } );
+        Node node = (Node) Ognl.parseExpression( "name + (2 * 3)", OptimizationLevel.FOLD_CONSTANTS );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertEquals( "ann6", Ognl.getValue( node, new Person( ) ) );
+        }
+        assertNotSame( node, compiled[0] );
+        assertEquals( node.toString( ), compiled[0].toString( ) );
+        assertSame( compiled[0].getAccessor( ), node.getAccessor( ) );
+        assertEquals( "r26", Ognl.getValue( node, new Robot( ) ) );
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the operand type specialisation of arithmetic and comparison nodes against the generic {@link OgnlOps} path.
+ */
+public class TypeFeedbackTest
+{
+    private static final Object[] OPERANDS =
+        { 7, -3, Integer.MAX_VALUE, Integer.MIN_VALUE, 0, 5L, Long.MIN_VALUE, 2.5, -0.0, Double.NaN, 1.5f,
+            (short) 4, BigInteger.TEN, new BigDecimal( "1.25" ), "x", null };
+
+    private static Object generic( String op, Object v1, Object v2 )
+    {
+        if ( "add".equals( op ) )
+        {
+            return OgnlOps.add( v1, v2 );
+        }
+        if ( "subtract".equals( op ) )
+        {
+            return OgnlOps.subtract( v1, v2 );
+        }
+        if ( "multiply".equals( op ) )
+        {
+            return OgnlOps.multiply( v1, v2 );
+        }
+        if ( "divide".equals( op ) )
+        {
+            return OgnlOps.divide( v1, v2 );
+        }
+        if ( "remainder".equals( op ) )
+        {
+            return OgnlOps.remainder( v1, v2 );
+        }
+        return OgnlOps.compareWithConversion( v1, v2 );
+    }
+
+    private static Object specialised( TypeFeedback feedback, String op, Object v1, Object v2 )
+    {
+        if ( "add".equals( op ) )
+        {
+            return feedback.add( v1, v2 );
+        }
+        if ( "subtract".equals( op ) )
+        {
+            return feedback.subtract( v1, v2 );
+        }
+        if ( "multiply".equals( op ) )
+        {
+            return feedback.multiply( v1, v2 );
+        }
+        if ( "divide".equals( op ) )
+        {
+            return feedback.divide( v1, v2 );
+        }
+        if ( "remainder".equals( op ) )
+        {
+            return feedback.remainder( v1, v2 );
+        }
+        return feedback.compare( v1, v2 );
+    }
+
+    private static Object outcome( TypeFeedback feedback, String op, Object v1, Object v2 )
+    {
+        try
+        {
+            return feedback == null ? generic( op, v1, v2 ) : specialised( feedback, op, v1, v2 );
+        }
+        catch ( RuntimeException e )
+        {
+            return e.getClass();
+        }
+    }
+
+    @Test
+    public void testSameResultsAsGenericPath( )
+    {
+        String[] ops = { "add", "subtract", "multiply", "divide", "remainder", "compare" };
+        for ( String op : ops )
+        {
+            for ( Object v1 : OPERANDS )
+            {
+                for ( Object v2 : OPERANDS )
+                {
+                    // once specialised on these operands, then after having seen another pair
+                    TypeFeedback fresh = new TypeFeedback( );
+                    TypeFeedback seeded = new TypeFeedback( );
+                    outcome( seeded, op, 1, 2 );
+
+                    Object expected = outcome( null, op, v1, v2 );
+                    String message = op + "(" + v1 + ", " + v2 + ")";
+                    assertEquals( message, expected, outcome( fresh, op, v1, v2 ) );
+                    assertEquals( message, expected, outcome( fresh, op, v1, v2 ) );
+                    assertEquals( message, expected, outcome( seeded, op, v1, v2 ) );
+                    if ( expected != null )
+                    {
+                        assertEquals( message, expected.getClass( ), outcome( fresh, op, v1, v2 ).getClass( ) );
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDeoptimisesOnOtherTypes( )
+    {
+        TypeFeedback feedback = new TypeFeedback( );
+        assertEquals( TypeFeedback.UNSEEN, feedback.getType( ) );
+
+        assertEquals( 3, feedback.add( 1, 2 ) );
+        assertEquals( NumericTypes.INT, feedback.getType( ) );
+        assertEquals( 5, feedback.add( 2, 3 ) );
+        assertEquals( NumericTypes.INT, feedback.getType( ) );
+
+        assertEquals( 3.5, feedback.add( 1, 2.5 ) );
+        assertEquals( NumericTypes.NONNUMERIC, feedback.getType( ) );
+        assertEquals( 5, feedback.add( 2, 3 ) );
+        assertEquals( NumericTypes.NONNUMERIC, feedback.getType( ) );
+    }
+
+    @Test
+    public void testNodesRecordOperandTypes( )
+        throws Exception
+    {
+        Map<String, Object> context = Ognl.createDefaultContext( null );
+        ASTAdd add = (ASTAdd) Ognl.parseExpression( "#a + #b" );
+        ASTLess less = (ASTLess) Ognl.parseExpression( "#a < #b" );
+
+        context.put( "a", 2L );
+        context.put( "b", 40L );
+        assertEquals( 42L, Ognl.getValue( add, context, (Object) null ) );
+        assertEquals( Boolean.TRUE, Ognl.getValue( less, context, (Object) null ) );
+        assertEquals( NumericTypes.LONG, add.getTypeFeedback( ).getType( ) );
+        assertEquals( NumericTypes.LONG, less.getTypeFeedback( ).getType( ) );
+
+        context.put( "b", "s" );
+        assertEquals( "2s", Ognl.getValue( add, context, (Object) null ) );
+        assertEquals( NumericTypes.NONNUMERIC, add.getTypeFeedback( ).getType( ) );
+    }
+}
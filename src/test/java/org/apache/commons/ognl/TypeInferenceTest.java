@@ -0,0 +1,247 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.commons.ognl;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests typing expressions from the class of their root, and compiling them without a root.
+ */
+public class TypeInferenceTest
+{
+    public static class Item
+    {
+        private final String _name;
+
+        private final double _price;
+
+        public Item( String name, double price )
+        {
+            _name = name;
+            _price = price;
+        }
+
+        public String getName()
+        {
+            return _name;
+        }
+
+        public double getPrice()
+        {
+            return _price;
+        }
+    }
+
+    public static class Box<T>
+    {
+        private T _content;
+
+        public T getContent()
+        {
+            return _content;
+        }
+
+        public void setContent( T content )
+        {
+            _content = content;
+        }
+    }
+
+    public static class ItemBox
+        extends Box<Item>
+    {
+    }
+
+    public static class Shop
+    {
+        private final List<Item> _items = new ArrayList<Item>();
+
+        private final Map<String, Item> _index = new HashMap<String, Item>();
+
+        private final ItemBox _box = new ItemBox();
+
+        public Item first;
+
+        public Shop add( Item item )
+        {
+            _items.add( item );
+            _index.put( item.getName(), item );
+            return this;
+        }
+
+        public List<Item> getItems()
+        {
+            return _items;
+        }
+
+        public Map<String, Item> getIndex()
+        {
+            return _index;
+        }
+
+        public Item[] getFeatured()
+        {
+            return _items.toArray( new Item[_items.size()] );
+        }
+
+        public ItemBox getBox()
+        {
+            return _box;
+        }
+
+        public Object getAnything()
+        {
+            return _box;
+        }
+    }
+
+    private static Type typeOf( Class<?> rootType, String expression )
+        throws OgnlException
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        return new TypeInference( context, rootType ).typeOf( (Node) Ognl.parseExpression( expression ) );
+    }
+
+    @Test
+    public void testTypesProperties()
+        throws Exception
+    {
+        assertEquals( double.class, typeOf( Item.class, "price" ) );
+        assertEquals( Item.class, typeOf( Shop.class, "first" ) );
+        assertEquals( String.class, typeOf( Shop.class, "first.name" ) );
+        assertEquals( int.class, typeOf( Shop.class, "featured.length" ) );
+        assertEquals( Item.class, typeOf( Shop.class, "featured[0]" ) );
+        assertEquals( Object.class, typeOf( Shop.class, "anything.whatever" ) );
+        assertEquals( Object.class, typeOf( Shop.class, "#var.whatever" ) );
+        assertEquals( Shop.class, typeOf( Shop.class, "#root" ) );
+    }
+
+    @Test
+    public void testResolvesTypeArguments()
+        throws Exception
+    {
+        assertEquals( double.class, typeOf( Shop.class, "items[0].price" ) );
+        assertEquals( String.class, typeOf( Shop.class, "index['cake'].name" ) );
+        assertEquals( String.class, typeOf( Shop.class, "index.cake.name" ) );
+        assertEquals( double.class, typeOf( Shop.class, "box.content.price" ) );
+        assertEquals( Item.class, typeOf( Shop.class, "items.get(0)" ) );
+        assertEquals( "java.util.List<java.lang.String>", typeOf( Shop.class, "items.{name}" ).toString() );
+        assertEquals( "java.util.List<" + Item.class.getName() + ">",
+                      typeOf( Shop.class, "items.{? price > 1}" ).toString() );
+        assertEquals( String.class, typeOf( Shop.class, "items.{name}[0]" ) );
+    }
+
+    @Test
+    public void testTypesOperators()
+        throws Exception
+    {
+        assertEquals( Double.class, typeOf( Item.class, "price * 2" ) );
+        assertEquals( Integer.class, typeOf( Shop.class, "items.size() + 1" ) );
+        assertEquals( Long.class, typeOf( Shop.class, "items.size() + 1L" ) );
+        assertEquals( String.class, typeOf( Item.class, "name + price" ) );
+        assertEquals( Boolean.class, typeOf( Item.class, "price > 2 and name != null" ) );
+        assertEquals( Item.class, typeOf( Shop.class, "first != null ? first : items[0]" ) );
+        assertEquals( double.class, typeOf( Item.class, "@java.lang.Math@max(price, 1.0)" ) );
+    }
+
+    @Test
+    public void testRejectsMissingMembers()
+        throws Exception
+    {
+        String[] properties = { "nmae", "items[0].prize", "index['cake'].prize", "box.content.prize" };
+        for ( String expression : properties )
+        {
+            try
+            {
+                typeOf( Shop.class, expression );
+                fail( expression );
+            }
+            catch ( NoSuchPropertyException e )
+            {
+                // expected
+            }
+        }
+        try
+        {
+            typeOf( Shop.class, "first.discount(10)" );
+            fail();
+        }
+        catch ( MethodFailedException e )
+        {
+            // expected
+        }
+        try
+        {
+            typeOf( Shop.class, "@java.lang.Math@PIE" );
+            fail();
+        }
+        catch ( NoSuchPropertyException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompilesWithoutRoot()
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        Node expression = Ognl.compileExpressionForType( context, Shop.class, "first.name + ':' + items.{price}" );
+        assertNotNull( expression.getAccessor() );
+        assertTrue( expression.getAccessor() instanceof ReflectiveExpressionCompiler.LinkedAccessor );
+
+        Shop bakery = new Shop().add( new Item( "cake", 2.5 ) );
+        bakery.first = bakery.getItems().get( 0 );
+        Shop grocery = new Shop().add( new Item( "milk", 1.0 ) ).add( new Item( "eggs", 3.0 ) );
+        grocery.first = grocery.getItems().get( 1 );
+
+        assertEquals( "cake:[2.5]", Ognl.getValue( expression, context, bakery ) );
+        assertEquals( "eggs:[1.0, 3.0]", Ognl.getValue( expression, context, grocery ) );
+    }
+
+    @Test
+    public void testCompileRejectsTypos()
+        throws Exception
+    {
+        try
+        {
+            Ognl.compileExpressionForType( (OgnlContext) Ognl.createDefaultContext( null ), Shop.class, "first.nmae" );
+            fail();
+        }
+        catch ( NoSuchPropertyException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "nmae" ) );
+        }
+    }
+}
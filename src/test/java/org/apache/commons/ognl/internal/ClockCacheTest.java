@@ -0,0 +1,138 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.commons.ognl.internal;
+
+import org.apache.commons.ognl.internal.entry.CacheEntryFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ClockCacheTest
+{
+    @Test
+    public void testEvictsUnreferencedEntries( )
+        throws Exception
+    {
+        BoundedCache<String, String> cache = new ClockCache<String, String>( 2 );
+        cache.put( "a", "A" );
+        cache.put( "b", "B" );
+        assertEquals( "A", cache.get( "a" ) );
+
+        cache.put( "c", "C" );
+
+        assertEquals( 2, cache.getSize( ) );
+        assertNull( cache.get( "b" ) );
+        assertEquals( "A", cache.get( "a" ) );
+        assertEquals( 1, cache.getEvictionCount( ) );
+        assertEquals( 2, cache.getHitCount( ) );
+        assertEquals( 1, cache.getMissCount( ) );
+    }
+
+    @Test
+    public void testPutKeepsExistingValue( )
+        throws Exception
+    {
+        BoundedCache<String, String> cache = new ClockCache<String, String>( 10 );
+        String first = new String( "value" );
+        assertSame( first, cache.put( "key", first ) );
+        assertSame( first, cache.put( "key", new String( "value" ) ) );
+        assertEquals( 1, cache.getSize( ) );
+
+        cache.clear( );
+        assertEquals( 0, cache.getSize( ) );
+        assertNull( cache.get( "key" ) );
+    }
+
+    @Test
+    public void testEntryFactory( )
+        throws Exception
+    {
+        BoundedCache<Integer, String> cache =
+            new ClockCache<Integer, String>( 10, new CacheEntryFactory<Integer, String>( )
+            {
+                public String create( Integer key )
+                    throws CacheException
+                {
+                    return "#" + key;
+                }
+            } );
+
+        assertEquals( "#1", cache.get( 1 ) );
+        assertEquals( "#1", cache.get( 1 ) );
+        assertEquals( 1, cache.getMissCount( ) );
+        assertEquals( 1, cache.getHitCount( ) );
+    }
+
+    @Test
+    public void testStaysBoundedUnderConcurrentUse( )
+        throws Exception
+    {
+        final BoundedCache<Integer, Integer> cache = new ClockCache<Integer, Integer>( 64 );
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            List<Future<Void>> done = new ArrayList<Future<Void>>( );
+            for ( int t = 0; t < 8; t++ )
+            {
+                final int offset = t * 1000;
+                done.add( executor.submit( new Callable<Void>( )
+                {
+                    public Void call( )
+                        throws Exception
+                    {
+                        for ( int i = 0; i < 1000; i++ )
+                        {
+                            Integer key = offset + i;
+                            assertEquals( key, cache.put( key, key ) );
+                            cache.get( i % 16 );
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Void> f : done )
+            {
+                f.get( );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow( );
+        }
+
+        // a put may skip the sweep while another thread is sweeping, the next uncontended one catches up
+        cache.put( -1, -1 );
+        assertTrue( cache.toString( ), cache.getSize( ) <= 64 );
+        assertEquals( 8001 - cache.getSize( ), cache.getEvictionCount( ) );
+    }
+}
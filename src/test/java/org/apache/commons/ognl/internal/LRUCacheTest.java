@@ -0,0 +1,110 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.internal;
+
+import org.apache.commons.ognl.Node;
+import org.apache.commons.ognl.Ognl;
+import org.apache.commons.ognl.OgnlRuntime;
+import org.apache.commons.ognl.internal.entry.CacheEntryFactory;
+import org.apache.commons.ognl.test.objects.Root;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LRUCacheTest
+{
+    @Test
+    public void testEvictsLeastRecentlyUsed( )
+        throws Exception
+    {
+        BoundedCache<String, String> cache = new LRUCache<String, String>( 2 );
+        cache.put( "a", "A" );
+        cache.put( "b", "B" );
+        assertEquals( "A", cache.get( "a" ) );
+
+        cache.put( "c", "C" );
+
+        assertEquals( 2, cache.getSize( ) );
+        assertNull( cache.get( "b" ) );
+        assertEquals( "A", cache.get( "a" ) );
+        assertEquals( "C", cache.get( "c" ) );
+        assertEquals( 1, cache.getEvictionCount( ) );
+        assertEquals( 3, cache.getHitCount( ) );
+        assertEquals( 1, cache.getMissCount( ) );
+    }
+
+    @Test
+    public void testPutKeepsExistingValue( )
+        throws Exception
+    {
+        BoundedCache<String, String> cache = new LRUCache<String, String>( 10 );
+        String first = new String( "value" );
+        assertSame( first, cache.put( "key", first ) );
+        assertSame( first, cache.put( "key", new String( "value" ) ) );
+    }
+
+    @Test
+    public void testEntryFactory( )
+        throws Exception
+    {
+        BoundedCache<Integer, String> cache =
+            new LRUCache<Integer, String>( 10, new CacheEntryFactory<Integer, String>( )
+            {
+                public String create( Integer key )
+                    throws CacheException
+                {
+                    return "#" + key;
+                }
+            } );
+
+        assertEquals( "#1", cache.get( 1 ) );
+        assertEquals( "#1", cache.get( 1 ) );
+        assertEquals( 1, cache.getMissCount( ) );
+        assertEquals( 1, cache.getHitCount( ) );
+    }
+
+    @Test
+    public void testParsedExpressionCache( )
+        throws Exception
+    {
+        try
+        {
+            OgnlRuntime.setExpressionCacheSize( 16 );
+            Node first = OgnlRuntime.getParsedExpression( "index + 1" );
+            assertSame( first, OgnlRuntime.getParsedExpression( "index + 1" ) );
+            assertEquals( 1, OgnlRuntime.getExpressionCache( ).getHitCount( ) );
+            assertEquals( Ognl.getValue( "index + 1", new Root( ) ), Ognl.getValue( first, new Root( ) ) );
+
+            OgnlRuntime.setExpressionCacheSize( 0 );
+            assertNull( OgnlRuntime.getExpressionCache( ) );
+            assertNotSame( OgnlRuntime.getParsedExpression( "index + 1" ),
+                           OgnlRuntime.getParsedExpression( "index + 1" ) );
+        }
+        finally
+        {
+            OgnlRuntime.setExpressionCacheSize( OgnlRuntime.DEFAULT_EXPRESSION_CACHE_SIZE );
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.internal;
+
+import org.apache.commons.ognl.ClassCacheInspector;
+import org.apache.commons.ognl.internal.entry.ClassCacheEntryFactory;
+import org.junit.Test;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LockFreeClassCacheTest
+{
+    private static final ClassCacheEntryFactory<String> NAME_FACTORY = new ClassCacheEntryFactory<String>( )
+    {
+        public String create( Class<?> key )
+            throws CacheException
+        {
+            return key.getName( );
+        }
+    };
+
+    @Test
+    public void testPutReplaces( )
+        throws Exception
+    {
+        ClassCache<String> cache = new LockFreeClassCache<String>( );
+        assertNull( cache.get( String.class ) );
+
+        cache.put( String.class, "first" );
+        cache.put( String.class, "second" );
+
+        assertEquals( "second", cache.get( String.class ) );
+        assertEquals( 1, cache.getSize( ) );
+    }
+
+    @Test
+    public void testGrowsPastInitialCapacity( )
+        throws Exception
+    {
+        ClassCache<String> cache = new LockFreeClassCache<String>( );
+        List<Class<?>> classes = createClasses( 1000 );
+
+        for ( Class<?> c : classes )
+        {
+            cache.put( c, c.getName( ) );
+        }
+
+        assertEquals( classes.size( ), cache.getSize( ) );
+        for ( Class<?> c : classes )
+        {
+            assertEquals( c.getName( ), cache.get( c ) );
+        }
+
+        cache.clear( );
+        assertEquals( 0, cache.getSize( ) );
+        assertNull( cache.get( classes.get( 0 ) ) );
+    }
+
+    @Test
+    public void testInspector( )
+        throws Exception
+    {
+        ClassCache<String> cache = new LockFreeClassCache<String>( NAME_FACTORY );
+        cache.setClassInspector( new ClassCacheInspector( )
+        {
+            public boolean shouldCache( Class<?> type )
+            {
+                return type != Integer.class;
+            }
+        } );
+
+        assertEquals( Integer.class.getName( ), cache.get( Integer.class ) );
+        assertEquals( Long.class.getName( ), cache.get( Long.class ) );
+        assertEquals( 1, cache.getSize( ) );
+    }
+
+    @Test
+    public void testConcurrentCreation( )
+        throws Exception
+    {
+        final ClassCache<String> cache = new LockFreeClassCache<String>( NAME_FACTORY );
+        final List<Class<?>> classes = createClasses( 2000 );
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+
+        try
+        {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>( );
+            for ( int t = 0; t < 8; t++ )
+            {
+                results.add( executor.submit( new Callable<List<String>>( )
+                {
+                    public List<String> call( )
+                        throws Exception
+                    {
+                        List<String> values = new ArrayList<String>( );
+                        for ( Class<?> c : classes )
+                        {
+                            values.add( cache.get( c ) );
+                        }
+                        return values;
+                    }
+                } ) );
+            }
+
+            List<String> first = results.get( 0 ).get( );
+            for ( Future<List<String>> result : results )
+            {
+                List<String> values = result.get( );
+                for ( int i = 0; i < values.size( ); i++ )
+                {
+                    assertSame( first.get( i ), values.get( i ) );
+                }
+            }
+            assertEquals( classes.size( ), cache.getSize( ) );
+        }
+        finally
+        {
+            executor.shutdown( );
+        }
+    }
+
+    /**
+     * @return distinct classes, built as array types of growing dimensions
+     */
+    private static List<Class<?>> createClasses( int count )
+    {
+        Class<?>[] components = { Object.class, String.class, Integer.class, Long.class, Double.class, Byte.class,
+            Short.class, Character.class, Boolean.class, Float.class };
+        List<Class<?>> classes = new ArrayList<Class<?>>( );
+
+        for ( int i = 0; classes.size( ) < count; i++ )
+        {
+            Class<?> component = components[i % components.length];
+            int dimensions = 1 + i / components.length;
+            classes.add( Array.newInstance( component, new int[dimensions] ).getClass( ) );
+        }
+        return classes;
+    }
+}
@@ -70,4 +70,14 @@ public class MethodAccessCacheTest
         Assert.assertTrue( methodAccessValue.isAccessible());
     }
 
+    @Test
+    public void testInvokeNonPublicMethodLeavesMethodUntouched( )
+        throws Exception
+    {
+        Method method = Root.class.getDeclaredMethod( "getPrivateAccessorIntValue3" );
+        MethodAccessEntryValue methodAccessValue = cache.get( method );
+        Assert.assertEquals( 67, methodAccessValue.getInvoker( ).invoke( new Root( ), new Object[0] ) );
+        Assert.assertFalse( method.isAccessible( ) );
+    }
+
 }
@@ -0,0 +1,107 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.ognl.internal;
+
+import org.apache.commons.ognl.internal.entry.CacheEntryFactory;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class WeakKeyCacheTest
+{
+    @Test
+    public void testPutKeepsExistingValue( )
+        throws Exception
+    {
+        Cache<String, Object> cache = new WeakKeyCache<String, Object>( );
+        String key = "key";
+        Object first = new Object( );
+
+        assertNull( cache.get( key ) );
+        assertSame( first, cache.put( key, first ) );
+        assertSame( first, cache.put( new String( key ), new Object( ) ) );
+        assertSame( first, cache.get( new String( key ) ) );
+        assertEquals( 1, cache.getSize( ) );
+
+        cache.clear( );
+        assertNull( cache.get( key ) );
+    }
+
+    @Test
+    public void testEntryFactoryAndGrowth( )
+        throws Exception
+    {
+        Cache<Integer, String> cache = new WeakKeyCache<Integer, String>( new CacheEntryFactory<Integer, String>( )
+        {
+            public String create( Integer key )
+                throws CacheException
+            {
+                return "#" + key;
+            }
+        } );
+
+        List<Integer> keys = new ArrayList<Integer>( );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            keys.add( new Integer( i ) );
+            assertEquals( "#" + i, cache.get( keys.get( i ) ) );
+        }
+        assertEquals( 1000, cache.getSize( ) );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            assertEquals( "#" + i, cache.get( i ) );
+        }
+    }
+
+    @Test
+    public void testCollectedKeysArePurged( )
+        throws Exception
+    {
+        Cache<Object, String> cache = new WeakKeyCache<Object, String>( );
+
+        Object key = new Object( );
+        WeakReference<Object> ref = new WeakReference<Object>( key );
+        cache.put( key, "value" );
+        key = null;
+
+        for ( int i = 0; i < 50 && ref.get( ) != null; i++ )
+        {
+            System.gc( );
+            Thread.sleep( 10 );
+        }
+        assertNull( ref.get( ) );
+
+        // stale entries are purged by the next write
+        for ( int i = 0; i < 50 && cache.getSize( ) > 1; i++ )
+        {
+            cache.put( "live", "value" );
+            Thread.sleep( 10 );
+        }
+        assertEquals( 1, cache.getSize( ) );
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.commons.ognl.test.enhance;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+
+import org.apache.commons.ognl.Node;
+import org.apache.commons.ognl.Ognl;
+import org.apache.commons.ognl.OgnlContext;
+import org.apache.commons.ognl.enhance.ExpressionCompiler;
+import org.apache.commons.ognl.test.objects.Bean1;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests compiling expressions from several threads with {@link ExpressionCompiler}.
+ */
+public class ConcurrentCompilationTest
+{
+    /**
+     * Counts the generated classes, slowly enough for concurrent compilations to overlap.
+     */
+    static class CountingCompiler
+        extends ExpressionCompiler
+    {
+        final AtomicInteger _generated = new AtomicInteger();
+
+        protected Class<?> defineAccessorClass( OgnlContext context, ClassPool pool, CtClass accessorClass )
+            throws Exception
+        {
+            _generated.incrementAndGet();
+            Thread.sleep( 50 );
+            return super.defineAccessorClass( context, pool, accessorClass );
+        }
+    }
+
+    @Test
+    public void testSharesAccessorClassesAcrossParsedExpressions()
+        throws Exception
+    {
+        CountingCompiler compiler = new CountingCompiler();
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+
+        Node first = (Node) Ognl.parseExpression( "bean2.bean3.value" );
+        Node second = (Node) Ognl.parseExpression( "bean2.bean3.value" );
+        compiler.compileExpression( context, first, new Bean1() );
+        compiler.compileExpression( context, second, new Bean1() );
+
+        assertEquals( 1, compiler._generated.get() );
+        assertSame( first.getAccessor().getClass(), second.getAccessor().getClass() );
+        assertNotSame( first.getAccessor(), second.getAccessor() );
+        assertEquals( 100, second.getAccessor().get( context, new Bean1() ) );
+
+        compiler.compileExpression( context, (Node) Ognl.parseExpression( "bean2.bean3" ), new Bean1() );
+        assertEquals( 2, compiler._generated.get() );
+    }
+
+    @Test
+    public void testSourcesFromOtherValueClassesNotShared()
+        throws Exception
+    {
+        CountingCompiler compiler = new CountingCompiler();
+        OgnlContext lists = (OgnlContext) Ognl.createDefaultContext( null );
+        lists.put( "x", new ArrayList<String>( Arrays.asList( "a", "b", "c" ) ) );
+        OgnlContext sets = (OgnlContext) Ognl.createDefaultContext( null );
+        sets.put( "x", new HashSet<String>( Arrays.asList( "a", "b" ) ) );
+
+        Node first = (Node) Ognl.parseExpression( "#x.size()" );
+        Node second = (Node) Ognl.parseExpression( "#x.size()" );
+        compiler.compileExpression( lists, first, new Bean1() );
+        compiler.compileExpression( sets, second, new Bean1() );
+
+        assertEquals( 2, compiler._generated.get() );
+        assertNotSame( first.getAccessor().getClass(), second.getAccessor().getClass() );
+        assertEquals( 3, first.getAccessor().get( lists, new Bean1() ) );
+        assertEquals( 2, second.getAccessor().get( sets, new Bean1() ) );
+    }
+
+    @Test
+    public void testBurstOfFirstCompilationsGeneratesOnce()
+        throws Exception
+    {
+        final CountingCompiler compiler = new CountingCompiler();
+        final Node shared = (Node) Ognl.parseExpression( "bean2.bean3.value" );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+
+        try
+        {
+            List<Future<Node>> compiled = new ArrayList<Future<Node>>();
+            for ( int i = 0; i < 16; i++ )
+            {
+                final boolean parse = ( i % 2 ) == 0;
+                compiled.add( executor.submit( new Callable<Node>()
+                {
+                    public Node call()
+                        throws Exception
+                    {
+                        Node expression = parse ? (Node) Ognl.parseExpression( "bean2.bean3.value" ) : shared;
+                        start.await();
+                        compiler.compileExpression( (OgnlContext) Ognl.createDefaultContext( null ), expression,
+                                                    new Bean1() );
+                        return expression;
+                    }
+                } ) );
+            }
+            start.countDown();
+
+            List<Node> expressions = new ArrayList<Node>();
+            for ( Future<Node> f : compiled )
+            {
+                expressions.add( f.get() );
+            }
+            for ( Node expression : expressions )
+            {
+                assertSame( shared.getAccessor().getClass(), expression.getAccessor().getClass() );
+                assertEquals( 100, expression.getAccessor().get( (OgnlContext) Ognl.createDefaultContext( null ),
+                                                                 new Bean1() ) );
+            }
+            assertEquals( 1, compiler._generated.get() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMaxConcurrentCompilations()
+    {
+        ExpressionCompiler compiler = new ExpressionCompiler();
+        assertEquals( ExpressionCompiler.DEFAULT_MAX_CONCURRENT_COMPILATIONS, compiler.getMaxConcurrentCompilations() );
+
+        compiler.setMaxConcurrentCompilations( 4 );
+        assertEquals( 4, compiler.getMaxConcurrentCompilations() );
+
+        try
+        {
+            compiler.setMaxConcurrentCompilations( 0 );
+            fail();
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+}
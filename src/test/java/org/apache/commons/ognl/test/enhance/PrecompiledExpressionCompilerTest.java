@@ -0,0 +1,165 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.commons.ognl.test.enhance;
+
+import org.apache.commons.ognl.Node;
+import org.apache.commons.ognl.Ognl;
+import org.apache.commons.ognl.OgnlContext;
+import org.apache.commons.ognl.OgnlRuntime;
+import org.apache.commons.ognl.ReflectiveExpressionCompiler;
+import org.apache.commons.ognl.enhance.AccessorBundleCompiler;
+import org.apache.commons.ognl.enhance.OgnlExpressionCompiler;
+import org.apache.commons.ognl.enhance.PrecompiledExpressionCompiler;
+import org.apache.commons.ognl.test.objects.Bean1;
+import org.apache.commons.ognl.test.objects.Bean2;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests accessors compiled into a bundle ahead of time and attached to expressions at run time.
+ */
+public class PrecompiledExpressionCompilerTest
+{
+    @Test
+    public void testAttachesBundledAccessors()
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        AccessorBundleCompiler bundle = new AccessorBundleCompiler( "org.apache.commons.ognl.test.precompiled.Accessor" );
+        String value = bundle.compile( context, "bean2.bean3.value", new Bean1() );
+        String id = bundle.compile( context, "id", new Bean2() );
+
+        assertEquals( "org.apache.commons.ognl.test.precompiled.Accessor0", value );
+        assertEquals( value, bundle.compile( context, "bean2.bean3.value", new Bean1() ) );
+        assertEquals( 2, bundle.getAccessorCount() );
+
+        File jar = File.createTempFile( "ognl-accessors", ".jar" );
+        jar.deleteOnExit();
+        bundle.writeJar( new FileOutputStream( jar ) );
+
+        ClassLoader loader = new URLClassLoader( new URL[] { jar.toURI().toURL() }, getClass().getClassLoader() );
+        PrecompiledExpressionCompiler compiler =
+            new PrecompiledExpressionCompiler( loader, new ReflectiveExpressionCompiler() );
+        assertEquals( 2, compiler.getAccessorCount() );
+
+        Node expression = (Node) Ognl.parseExpression( "bean2.bean3.value" );
+        compiler.compileExpression( context, expression, new Bean1() );
+        assertEquals( value, expression.getAccessor().getClass().getName() );
+        assertSame( loader, expression.getAccessor().getClass().getClassLoader() );
+        assertEquals( 100, expression.getAccessor().get( context, new Bean1() ) );
+
+        // matched on the printed expression, not on its spelling
+        expression = (Node) Ognl.parseExpression( "  id  " );
+        assertTrue( compiler.attach( expression, Bean2.class ) );
+        assertEquals( id, expression.getAccessor().getClass().getName() );
+    }
+
+    @Test
+    public void testFallsBackForOtherExpressionsAndRoots()
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        AccessorBundleCompiler bundle = new AccessorBundleCompiler( "org.apache.commons.ognl.test.precompiled.Fallback" );
+        bundle.compile( context, "bean2", new Bean1() );
+
+        File jar = File.createTempFile( "ognl-accessors", ".jar" );
+        jar.deleteOnExit();
+        bundle.writeJar( new FileOutputStream( jar ) );
+
+        ClassLoader loader = new URLClassLoader( new URL[] { jar.toURI().toURL() }, getClass().getClassLoader() );
+        PrecompiledExpressionCompiler compiler =
+            new PrecompiledExpressionCompiler( loader, new ReflectiveExpressionCompiler() );
+
+        Node expression = (Node) Ognl.parseExpression( "bean2" );
+        assertFalse( compiler.attach( expression, Bean2.class ) );
+        compiler.compileExpression( context, expression, new Bean2() );
+        assertTrue( expression.getAccessor().getClass().getName().startsWith(
+            ReflectiveExpressionCompiler.class.getName() ) );
+
+        expression = (Node) Ognl.parseExpression( "bean2.bean3" );
+        compiler.compileExpression( context, expression, new Bean1() );
+        assertTrue( expression.getAccessor().getClass().getName().startsWith(
+            ReflectiveExpressionCompiler.class.getName() ) );
+    }
+
+    @Test
+    public void testAttachesToCachedTreesOfStringEvaluation()
+        throws Exception
+    {
+        OgnlContext context = (OgnlContext) Ognl.createDefaultContext( null );
+        AccessorBundleCompiler bundle = new AccessorBundleCompiler( "org.apache.commons.ognl.test.precompiled.Folded" );
+        bundle.compile( context, "bean2.bean3.value == (50 * 2)", new Bean1() );
+
+        File jar = File.createTempFile( "ognl-accessors", ".jar" );
+        jar.deleteOnExit();
+        bundle.writeJar( new FileOutputStream( jar ) );
+
+        final int[] fallbacks = new int[1];
+        ClassLoader loader = new URLClassLoader( new URL[] { jar.toURI().toURL() }, getClass().getClassLoader() );
+        PrecompiledExpressionCompiler compiler =
+            new PrecompiledExpressionCompiler( loader, new ReflectiveExpressionCompiler()
+            {
+                public void compileExpression( OgnlContext context, Node expression, Object root )
+                    throws Exception
+                {
+                    fallbacks[0]++;
+                    super.compileExpression( context, expression, root );
+                }
+            } );
+
+        OgnlExpressionCompiler previousCompiler = OgnlRuntime.getCompiler();
+        OgnlRuntime.setCompiler( compiler );
+        OgnlRuntime.setCompilationExecutor( new Executor()
+        {
+            public void execute( Runnable command )
+            {
+                command.run();
+            }
+        } );
+        OgnlRuntime.setCompileThreshold( 1 );
+        try
+        {
+            for ( int i = 0; i < 3; i++ )
+            {
+                assertEquals( Boolean.TRUE, Ognl.getValue( "bean2.bean3.value == (50 * 2)", new Bean1() ) );
+            }
+            assertEquals( 0, fallbacks[0] );
+        }
+        finally
+        {
+            OgnlRuntime.setCompileThreshold( 0 );
+            OgnlRuntime.setCompilationExecutor( null );
+            OgnlRuntime.setCompiler( previousCompiler );
+        }
+    }
+}
@@ -25,6 +25,7 @@ package org.apache.commons.ognl.test.enhance;
 import org.apache.commons.ognl.Node;
 import org.apache.commons.ognl.Ognl;
 import org.apache.commons.ognl.OgnlContext;
+import org.apache.commons.ognl.OgnlRuntime;
 import org.apache.commons.ognl.enhance.ExpressionCompiler;
 import org.apache.commons.ognl.enhance.OgnlExpressionCompiler;
 import org.apache.commons.ognl.test.objects.Bean1;
@@ -188,6 +189,35 @@ public class TestExpressionCompiler
         assertTrue( Collection.class.isAssignableFrom( ret.getClass() ) );
     }
 
+    @Test
+    public void test_Null_Root_Uses_Installed_Compiler()
+        throws Throwable
+    {
+        final int[] compilations = { 0 };
+        OgnlExpressionCompiler previous = OgnlRuntime.getCompiler();
+        try
+        {
+            OgnlRuntime.setCompiler( new ExpressionCompiler()
+            {
+                @Override
+                public void compileExpression( OgnlContext context, Node expression, Object root )
+                    throws Exception
+                {
+                    compilations[0]++;
+                    super.compileExpression( context, expression, root );
+                }
+            } );
+            Node expr = Ognl.compileExpression( _context, null, "{}" );
+
+            assertEquals( 1, compilations[0] );
+            assertTrue( Collection.class.isInstance( expr.getAccessor().get( _context, null ) ) );
+        }
+        finally
+        {
+            OgnlRuntime.setCompiler( previous );
+        }
+    }
+
     public String getKey()
     {
         return "key";